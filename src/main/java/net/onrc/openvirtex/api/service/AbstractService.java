@@ -17,14 +17,22 @@ package net.onrc.openvirtex.api.service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.onrc.openvirtex.api.service.handlers.StreamingResult;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
@@ -38,6 +46,10 @@ public abstract class AbstractService {
     private static Logger log = LogManager.getLogger(AbstractService.class
             .getName());
 
+    private static final int BUFFER_SIZE = 8192;
+    // Generators from this factory write maps and lists with an ObjectMapper
+    private static final JsonFactory FACTORY = new MappingJsonFactory();
+
     /**
      * Handles the service request and stores the result in the response.
      *
@@ -59,18 +71,32 @@ public abstract class AbstractService {
      */
     protected JSONRPC2Request parseJSONRequest(final HttpServletRequest request)
             throws IOException, JSONRPC2ParseException {
+        return JSONRPC2Request.parse(this.readJSONRequest(request));
+    }
+
+    /**
+     * Reads the body of the JSON request.
+     *
+     * @param request
+     *            the request
+     * @return the body
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    protected String readJSONRequest(final HttpServletRequest request)
+            throws IOException {
         final BufferedReader reader = request.getReader();
         final StringBuilder sb = new StringBuilder();
-        String line = reader.readLine();
-        while (line != null) {
-            sb.append(line + "\n");
-            line = reader.readLine();
+        final char[] buf = new char[AbstractService.BUFFER_SIZE];
+        int read = reader.read(buf);
+        while (read != -1) {
+            sb.append(buf, 0, read);
+            read = reader.read(buf);
         }
         reader.close();
-        AbstractService.log.debug("---------JSON RPC request: {}",
-                sb.toString());
-        return JSONRPC2Request.parse(sb.toString());
-
+        final String json = sb.toString();
+        AbstractService.log.debug("---------JSON RPC request: {}", json);
+        return json;
     }
 
     /**
@@ -84,14 +110,80 @@ public abstract class AbstractService {
      */
     protected void writeJSONObject(final HttpServletResponse response,
             final JSONRPC2Response jresp) throws IOException {
+        this.writeJSONString(response, jresp.toJSONString());
+    }
+
+    /**
+     * Writes a JSON string, e.g. the responses to a batch request.
+     *
+     * @param response
+     *            the response
+     * @param json the JSON string, or null to send an empty body
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    protected void writeJSONString(final HttpServletResponse response,
+            final String json) throws IOException {
         response.setStatus(HttpServletResponse.SC_OK);
         response.setHeader("Content-Type", "application/json; charset=utf-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setContentType("application/json; charset=utf-8");
-        final String json = jresp.toJSONString();
         AbstractService.log.debug("---------JSON RPC response: {}", json);
+        if (json != null) {
+            response.getWriter().println(json);
+        }
+    }
 
-        response.getWriter().println(json);
+    /**
+     * Writes a JSON response to the output stream, compressed if the client
+     * accepts gzip. A {@link StreamingResult} is written while it is
+     * generated, so the response never exists in memory as a whole.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param jresp the JSON response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    protected void writeJSONStream(final HttpServletRequest request,
+            final HttpServletResponse response, final JSONRPC2Response jresp)
+            throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("Content-Type", "application/json; charset=utf-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json; charset=utf-8");
+        final String encoding = request.getHeader("Accept-Encoding");
+        OutputStream out = response.getOutputStream();
+        if (encoding != null && encoding.toLowerCase().contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out, AbstractService.BUFFER_SIZE);
+        }
+        final JsonGenerator gen = AbstractService.FACTORY.createJsonGenerator(
+                out, JsonEncoding.UTF8);
+        try {
+            if (jresp.indicatesSuccess()
+                    && jresp.getResult() instanceof StreamingResult) {
+                AbstractService.log.debug(
+                        "---------JSON RPC response: streaming result {}",
+                        jresp.getID());
+                gen.writeStartObject();
+                gen.writeStringField("jsonrpc", "2.0");
+                gen.writeFieldName("result");
+                ((StreamingResult) jresp.getResult()).writeTo(gen);
+                gen.writeObjectField("id", jresp.getID());
+                gen.writeEndObject();
+            } else {
+                final String json = jresp.toJSONString();
+                AbstractService.log.debug("---------JSON RPC response: {}",
+                        json);
+                gen.writeRaw(json);
+            }
+            gen.writeRaw('\n');
+        } finally {
+            gen.close();
+        }
     }
 
     /**
@@ -61,7 +61,7 @@ public class MonitoringService extends AbstractService {
                     AbstractService.stack2string(e)), 0);
         }
         try {
-            this.writeJSONObject(response, jsonResp);
+            this.writeJSONStream(request, response, jsonResp);
         } catch (final IOException e) {
             MonitoringService.log.fatal("Unable to send response: {} ",
                     AbstractService.stack2string(e));
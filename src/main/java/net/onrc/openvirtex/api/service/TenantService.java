@@ -16,14 +16,21 @@
 package net.onrc.openvirtex.api.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.db.DBManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
@@ -31,11 +38,19 @@ import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 import com.thetransactioncompany.jsonrpc2.server.Dispatcher;
 
+/**
+ * Handles tenant API requests, one at a time or as a JSON-RPC 2.0 batch.
+ * The calls of a batch are processed in order, and the database updates they
+ * make are written together. Calls are answered once their updates are
+ * persisted, or with an internal error if they could not be.
+ */
 public class TenantService extends AbstractService {
 
     private static Logger log = LogManager.getLogger(TenantService.class
             .getName());
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     Dispatcher dispatcher = new Dispatcher();
 
     public TenantService() {
@@ -45,23 +60,27 @@ public class TenantService extends AbstractService {
     @Override
     public void handle(final HttpServletRequest request,
             final HttpServletResponse response) {
-        JSONRPC2Request json = null;
-        JSONRPC2Response jsonResp = null;
+        String json = null;
         try {
-            json = this.parseJSONRequest(request);
-            jsonResp = this.dispatcher.process(json, null);
-            jsonResp.setID(json.getID());
+            final String body = this.readJSONRequest(request);
+            if (body.trim().startsWith("[")) {
+                json = this.processBatch(body);
+            } else {
+                json = this.persisted(
+                        Collections.singletonList(this.process(JSONRPC2Request
+                                .parse(body)))).get(0).toJSONString();
+            }
         } catch (final IOException e) {
-            jsonResp = new JSONRPC2Response(new JSONRPC2Error(
+            json = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.PARSE_ERROR.getCode(),
-                    AbstractService.stack2string(e)), 0);
+                    AbstractService.stack2string(e)), 0).toJSONString();
         } catch (final JSONRPC2ParseException e) {
-            jsonResp = new JSONRPC2Response(new JSONRPC2Error(
+            json = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.PARSE_ERROR.getCode(),
-                    AbstractService.stack2string(e)), 0);
+                    AbstractService.stack2string(e)), 0).toJSONString();
         }
         try {
-            this.writeJSONObject(response, jsonResp);
+            this.writeJSONString(response, json);
         } catch (final IOException e) {
             TenantService.log.fatal("Unable to send response: {} ",
                     AbstractService.stack2string(e));
@@ -69,4 +88,98 @@ public class TenantService extends AbstractService {
 
     }
 
+    /**
+     * Waits until the tenant configuration changed by the given calls is
+     * persisted, as it must be before we answer. If it could not be, the
+     * successful calls, including those that created a whole topology, are
+     * answered with an internal error instead.
+     *
+     * @param replies the responses to the calls
+     * @return the responses to send
+     */
+    private List<JSONRPC2Response> persisted(
+            final List<JSONRPC2Response> replies) {
+        if (DBManager.getInstance().flush()) {
+            return replies;
+        }
+        final List<JSONRPC2Response> failed = new ArrayList<JSONRPC2Response>(
+                replies.size());
+        for (final JSONRPC2Response reply : replies) {
+            if (reply.indicatesSuccess()) {
+                failed.add(new JSONRPC2Response(new JSONRPC2Error(
+                        JSONRPC2Error.INTERNAL_ERROR.getCode(),
+                        "Unable to persist the virtual network configuration"),
+                        reply.getID()));
+            } else {
+                failed.add(reply);
+            }
+        }
+        return failed;
+    }
+
+    private JSONRPC2Response process(final JSONRPC2Request json) {
+        final JSONRPC2Response jsonResp = this.dispatcher.process(json, null);
+        jsonResp.setID(json.getID());
+        return jsonResp;
+    }
+
+    /**
+     * Processes the calls of a batch request in order. Calls without an ID
+     * are notifications: they are processed, but not answered.
+     *
+     * @param body the batch request
+     * @return the array of responses, or null if there is none
+     * @throws IOException if the batch is not valid JSON
+     */
+    private String processBatch(final String body) throws IOException {
+        final JsonNode batch = MAPPER.readTree(body);
+        if (!batch.isArray() || batch.size() == 0) {
+            return new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_REQUEST.getCode(),
+                    "Empty or invalid batch request"), null).toJSONString();
+        }
+        final List<JSONRPC2Response> replies = new ArrayList<JSONRPC2Response>(
+                batch.size());
+        DBManager.getInstance().hold();
+        try {
+            for (final JsonNode call : batch) {
+                if (!call.isObject()) {
+                    replies.add(new JSONRPC2Response(new JSONRPC2Error(
+                            JSONRPC2Error.INVALID_REQUEST.getCode(),
+                            "Invalid batch member: " + call), null));
+                    continue;
+                }
+                final boolean notification = !call.has("id");
+                if (notification) {
+                    ((ObjectNode) call).put("id", 0);
+                }
+                JSONRPC2Response resp;
+                try {
+                    resp = this.process(JSONRPC2Request.parse(call.toString()));
+                } catch (final JSONRPC2ParseException e) {
+                    resp = new JSONRPC2Response(new JSONRPC2Error(
+                            JSONRPC2Error.INVALID_REQUEST.getCode(),
+                            AbstractService.stack2string(e)), null);
+                }
+                if (!notification) {
+                    replies.add(resp);
+                }
+            }
+        } finally {
+            DBManager.getInstance().release();
+        }
+        final List<JSONRPC2Response> persisted = this.persisted(replies);
+        if (persisted.isEmpty()) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder("[");
+        for (final JSONRPC2Response reply : persisted) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(reply.toJSONString());
+        }
+        return sb.append(']').toString();
+    }
+
 }
@@ -17,7 +17,10 @@ package net.onrc.openvirtex.api.service.handlers;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +33,7 @@ import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.Switch;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
@@ -46,6 +50,7 @@ import net.onrc.openvirtex.exceptions.InvalidPortException;
 import net.onrc.openvirtex.exceptions.InvalidPriorityException;
 import net.onrc.openvirtex.exceptions.InvalidRouteException;
 import net.onrc.openvirtex.exceptions.InvalidTenantIdException;
+import net.onrc.openvirtex.exceptions.InvalidWeightException;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
@@ -383,6 +388,20 @@ public final class HandlerUtils {
         }
     }
 
+    /**
+     * Checks if the scheduling weight specified is positive.
+     *
+     * @param weight the weight value
+     * @throws InvalidWeightException
+     */
+    public static void isValidWeight(final int weight)
+            throws InvalidWeightException {
+        if (weight <= 0) {
+            throw new InvalidWeightException(
+                    "The weight specified is invalid: weights must be positive");
+        }
+    }
+
     /**
      * Checks if the host MAC address is not yet registered in the map.
      *
@@ -549,4 +568,32 @@ public final class HandlerUtils {
         }
         return physicalLinks;
     }
+
+    /**
+     * Gets a page of switches, in the order of their datapath IDs, so that
+     * large results can be fetched a few switches at a time.
+     *
+     * @param switches the switches
+     * @param offset the number of switches to skip
+     * @param limit the maximum number of switches, or a negative number for
+     *            all remaining switches
+     * @return the page of switches
+     */
+    public static <T extends Switch<?>> List<T> getSwitchPage(
+            final Collection<T> switches, final int offset, final int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
+        }
+        final List<T> page = new ArrayList<T>(switches);
+        Collections.sort(page, new Comparator<T>() {
+            @Override
+            public int compare(final T sw1, final T sw2) {
+                return Long.compare(sw1.getSwitchId(), sw2.getSwitchId());
+            }
+        });
+        final int from = Math.min(offset, page.size());
+        final int to = limit < 0 ? page.size() : Math.min(from + limit,
+                page.size());
+        return page.subList(from, to);
+    }
 }
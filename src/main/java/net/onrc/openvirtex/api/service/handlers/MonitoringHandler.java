@@ -17,14 +17,22 @@ package net.onrc.openvirtex.api.service.handlers;
 
 import java.util.HashMap;
 
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetEvents;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetIdUsage;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalFlowtable;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalHosts;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalTopology;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetPortRates;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetRestoreProgress;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetSubnet;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetTeardownProgress;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetTenantLatency;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetTenantRates;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualAddressMapping;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualFlowtable;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualHosts;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualLinkMapping;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualPortRates;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualSwitchMapping;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualTopology;
 import net.onrc.openvirtex.api.service.handlers.monitoring.ListVirtualNetworks;
@@ -59,6 +67,30 @@ public class MonitoringHandler extends AbstractHandler implements
      * Virtual datapath ID.
      */
     public static final String VDPID = "vdpid";
+    /**
+     * Port number.
+     */
+    public static final String PORT = "port";
+    /**
+     * Virtual port number.
+     */
+    public static final String VPORT = "vport";
+    /**
+     * Number of switches to skip in a paged result.
+     */
+    public static final String OFFSET = "offset";
+    /**
+     * Maximum number of switches in a paged result.
+     */
+    public static final String LIMIT = "limit";
+    /**
+     * Sequence number of an event.
+     */
+    public static final String SEQ = "seq";
+    /**
+     * Time to wait in milliseconds.
+     */
+    public static final String TIMEOUT = "timeout";
 
     @SuppressWarnings({ "serial", "rawtypes" })
     private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
@@ -74,6 +106,14 @@ public class MonitoringHandler extends AbstractHandler implements
             this.put("getVirtualFlowtable", new GetVirtualFlowtable());
             this.put("getPhysicalFlowtable", new GetPhysicalFlowtable());
             this.put("getVirtualAddressMapping", new GetVirtualAddressMapping());
+            this.put("getTenantLatency", new GetTenantLatency());
+            this.put("getIdUsage", new GetIdUsage());
+            this.put("getTeardownProgress", new GetTeardownProgress());
+            this.put("getPortRates", new GetPortRates());
+            this.put("getVirtualPortRates", new GetVirtualPortRates());
+            this.put("getTenantRates", new GetTenantRates());
+            this.put("getRestoreProgress", new GetRestoreProgress());
+            this.put("getEvents", new GetEvents());
         }
     };
 
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * A result that is written to the response while it is generated, rather
+ * than built in memory first. A handler returns it as the result of its
+ * response, and the service writes it out with
+ * {@link net.onrc.openvirtex.api.service.AbstractService#writeJSONStream}.
+ */
+public interface StreamingResult {
+
+    /**
+     * Writes the result as a single JSON value.
+     *
+     * @param gen the generator, with an object codec for maps and lists
+     * @throws IOException if the response cannot be written
+     */
+    void writeTo(JsonGenerator gen) throws IOException;
+
+}
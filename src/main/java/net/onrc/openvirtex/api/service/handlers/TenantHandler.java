@@ -21,6 +21,7 @@ import net.onrc.openvirtex.api.service.handlers.tenant.AddController;
 import net.onrc.openvirtex.api.service.handlers.tenant.ConnectHost;
 import net.onrc.openvirtex.api.service.handlers.tenant.ConnectOVXLink;
 import net.onrc.openvirtex.api.service.handlers.tenant.CreateOVXNetwork;
+import net.onrc.openvirtex.api.service.handlers.tenant.CreateOVXNetworkTopology;
 import net.onrc.openvirtex.api.service.handlers.tenant.CreateOVXPort;
 import net.onrc.openvirtex.api.service.handlers.tenant.CreateOVXSwitch;
 import net.onrc.openvirtex.api.service.handlers.tenant.ConnectOVXRoute;
@@ -32,6 +33,7 @@ import net.onrc.openvirtex.api.service.handlers.tenant.RemoveOVXSwitch;
 import net.onrc.openvirtex.api.service.handlers.tenant.DisconnectOVXRoute;
 import net.onrc.openvirtex.api.service.handlers.tenant.SetOVXBigSwitchRouting;
 import net.onrc.openvirtex.api.service.handlers.tenant.SetOVXLinkPath;
+import net.onrc.openvirtex.api.service.handlers.tenant.SetOVXNetworkWeight;
 import net.onrc.openvirtex.api.service.handlers.tenant.StartOVXNetwork;
 import net.onrc.openvirtex.api.service.handlers.tenant.StartOVXPort;
 import net.onrc.openvirtex.api.service.handlers.tenant.StartOVXSwitch;
@@ -144,6 +146,46 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
      * Keyword for the boot state.
      */
     public static final String IS_BOOTED = "isBooted";
+    /**
+     * Keyword for the scheduling weight.
+     */
+    public static final String WEIGHT = "weight";
+    /**
+     * Keyword for the number of bits of link IDs.
+     */
+    public static final String LINK_BITS = "linkBits";
+    /**
+     * Keyword for the number of bits of flow IDs.
+     */
+    public static final String FLOW_BITS = "flowBits";
+    /**
+     * Keyword for the first label of the label block.
+     */
+    public static final String LABEL_BASE = "labelBase";
+    /**
+     * Keyword for the virtual switches of a topology.
+     */
+    public static final String SWITCHES = "switches";
+    /**
+     * Keyword for the virtual ports of a topology.
+     */
+    public static final String PORTS = "ports";
+    /**
+     * Keyword for the big switch routing settings of a topology.
+     */
+    public static final String ROUTING = "routing";
+    /**
+     * Keyword for the virtual links of a topology.
+     */
+    public static final String LINKS = "links";
+    /**
+     * Keyword for the hosts of a topology.
+     */
+    public static final String HOSTS = "hosts";
+    /**
+     * Keyword for the big switch routes of a topology.
+     */
+    public static final String ROUTES = "routes";
 
     @SuppressWarnings({ "serial", "rawtypes" })
     private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
@@ -151,6 +193,7 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
             this.put("addControllers", new AddController());
 
             this.put("createNetwork", new CreateOVXNetwork());
+            this.put("createNetworkTopology", new CreateOVXNetworkTopology());
             this.put("createSwitch", new CreateOVXSwitch());
             this.put("createPort", new CreateOVXPort());
             this.put("setInternalRouting", new SetOVXBigSwitchRouting());
@@ -158,6 +201,7 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
             this.put("connectLink", new ConnectOVXLink());
             this.put("setLinkPath", new SetOVXLinkPath());
             this.put("connectRoute", new ConnectOVXRoute());
+            this.put("setNetworkWeight", new SetOVXNetworkWeight());
 
             this.put("removeNetwork", new RemoveOVXNetwork());
             this.put("removeSwitch", new RemoveOVXSwitch());
@@ -197,16 +241,23 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
                                 + req.getParamsType()), req.getID());
             }
 
+            JSONRPC2Response resp = null;
             switch (m.getType()) {
             case NO_PARAMS:
-                return m.process(null);
+                resp = m.process(null);
+                break;
             case ARRAY:
-                return m.process(req.getPositionalParams());
+                resp = m.process(req.getPositionalParams());
+                break;
             case OBJECT:
-                return m.process(req.getNamedParams());
+                resp = m.process(req.getNamedParams());
+                break;
             default:
                 break;
             }
+            if (resp != null) {
+                return resp;
+            }
         }
 
         return new JSONRPC2Response(JSONRPC2Error.METHOD_NOT_FOUND, req.getID());
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the changes to the physical and virtual networks after a given
+ * sequence number, waiting up to a timeout for the next one (long polling).
+ * Without a sequence number, or when the requested events are gone, the
+ * reply asks the client to resync: to fetch the topologies and flow tables
+ * it follows, and to continue from the sequence number in the reply.
+ */
+public class GetEvents extends ApiHandler<Map<String, Object>> {
+
+    /**
+     * Maximum time to wait for events, below the idle timeout of the API
+     * connections.
+     */
+    public static final int MAX_TIMEOUT = 25000;
+    /**
+     * Default maximum number of events per reply.
+     */
+    public static final int DEFAULT_LIMIT = 1000;
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number seq = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.SEQ, params, false, null);
+            final Number timeout = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TIMEOUT, params, false, 0);
+            final Number limit = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.LIMIT, params, false,
+                    GetEvents.DEFAULT_LIMIT);
+            if (limit.intValue() <= 0) {
+                throw new IllegalArgumentException("Invalid limit " + limit);
+            }
+            final EventLog log = EventLog.getInstance();
+            final Map<String, Object> res = new HashMap<String, Object>();
+            final List<Event> events = seq == null ? null : log.poll(
+                    seq.longValue(), limit.intValue(),
+                    Math.min(Math.max(timeout.longValue(), 0),
+                            GetEvents.MAX_TIMEOUT));
+            final List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+            if (events == null) {
+                res.put(MonitoringHandler.SEQ, log.subscribe());
+                res.put("resync", true);
+            } else {
+                for (Event event : events) {
+                    list.add(event.toMap());
+                }
+                res.put(MonitoringHandler.SEQ, events.isEmpty() ? seq
+                        .longValue() : events.get(events.size() - 1).getSeq());
+                res.put("resync", false);
+            }
+            res.put("events", list);
+            resp = new JSONRPC2Response(res, 0);
+        } catch (ClassCastException | MissingRequiredField
+                | IllegalArgumentException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch events : " + e.getMessage()),
+                    0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INTERNAL_ERROR.getCode(), this.cmdName()
+                            + ": Interrupted while waiting for events"), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.exceptions.InvalidTenantIdException;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the occupancy of the ID spaces of a virtual network, or of the tenant
+ * ID space if no tenant ID is given, so operators can see when a space is
+ * close to full.
+ */
+public class GetIdUsage extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, false, -1);
+            if (tid.intValue() == -1) {
+                final Map<String, Object> res = new HashMap<String, Object>();
+                res.put("tenantId", OpenVirteXController.getTenantCounter()
+                        .getUsage());
+                resp = new JSONRPC2Response(res, 0);
+            } else {
+                HandlerUtils.isValidTenantId(tid.intValue());
+                resp = new JSONRPC2Response(OVXMap.getInstance()
+                        .getVirtualNetwork(tid.intValue()).getIdUsage(), 0);
+            }
+        } catch (ClassCastException | MissingRequiredField e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch ID usage : " + e.getMessage()),
+                    0);
+        } catch (final InvalidTenantIdException | NetworkMappingException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Invalid tenant id : " + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
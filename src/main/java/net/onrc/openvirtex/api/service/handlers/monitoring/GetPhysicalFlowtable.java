@@ -15,65 +15,91 @@
  ******************************************************************************/
 package net.onrc.openvirtex.api.service.handlers.monitoring;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
 import net.onrc.openvirtex.api.service.handlers.ApiHandler;
 import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
 import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
-import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.api.service.handlers.StreamingResult;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.InvalidDPIDException;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 import net.onrc.openvirtex.messages.OVXFlowMod;
-import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.openflow.util.HexString;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
+/**
+ * Handler to get the flow table of a physical switch, or of all physical
+ * switches by name. The tables of all switches can be fetched a page of
+ * switches at a time, and limited to the flows of one virtual network. The
+ * result is streamed, so only one switch's table is copied at a time.
+ */
 public class GetPhysicalFlowtable extends ApiHandler<Map<String, Object>> {
 
-    private JSONRPC2Response resp = null;
-
     @Override
     public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
         try {
             final Number dpid = HandlerUtils.<Number>fetchField(
                     MonitoringHandler.DPID, params, false, -1);
-            final OVXMap map = OVXMap.getInstance();
-            LinkedList<OVXFlowStatisticsReply> flows = new LinkedList<OVXFlowStatisticsReply>();
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, false, null);
+            final Number offset = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.OFFSET, params, false, 0);
+            final Number limit = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.LIMIT, params, false, -1);
+            final Integer tenantId = tid == null ? null : tid.intValue();
 
             if (dpid.longValue() == -1) {
-                HashMap<String, List<Map<String, Object>>> res = new HashMap<String, List<Map<String, Object>>>();
-                for (PhysicalSwitch sw : PhysicalNetwork.getInstance()
-                        .getSwitches()) {
-                    flows = aggregateFlowsBySwitch(sw.getSwitchId(), map);
-                    res.put(sw.getSwitchName(), flowModsToMap(flows));
-                }
-                this.resp = new JSONRPC2Response(res, 0);
+                final List<PhysicalSwitch> switches = HandlerUtils
+                        .getSwitchPage(PhysicalNetwork.getInstance()
+                                .getSwitches(), offset.intValue(), limit
+                                .intValue());
+                resp = new JSONRPC2Response(new StreamingResult() {
+                    @Override
+                    public void writeTo(final JsonGenerator gen)
+                            throws IOException {
+                        gen.writeStartObject();
+                        for (PhysicalSwitch sw : switches) {
+                            gen.writeFieldName(sw.getSwitchName());
+                            writeFlows(gen, getFlows(sw, tenantId));
+                        }
+                        gen.writeEndObject();
+                    }
+                }, 0);
             } else {
-                flows = aggregateFlowsBySwitch(dpid.longValue(), map);
-                this.resp = new JSONRPC2Response(flowModsToMap(flows), 0);
+                final List<OVXFlowMod> flows = getFlows(
+                        getSwitch(dpid.longValue()), tenantId);
+                resp = new JSONRPC2Response(new StreamingResult() {
+                    @Override
+                    public void writeTo(final JsonGenerator gen)
+                            throws IOException {
+                        writeFlows(gen, flows);
+                    }
+                }, 0);
             }
 
         } catch (ClassCastException | MissingRequiredField e) {
-            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+            resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
-                            + ": Unable to fetch virtual topology : "
+                            + ": Unable to fetch physical flow table : "
                             + e.getMessage()), 0);
-        } catch (final InvalidDPIDException e) {
-            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+        } catch (final IllegalArgumentException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
-                            + ": Unable to fetch virtual topology : "
+                            + ": Unable to fetch physical flow table : "
                             + e.getMessage()), 0);
         }
 
-        return this.resp;
+        return resp;
 
     }
 
@@ -82,28 +108,30 @@ public class GetPhysicalFlowtable extends ApiHandler<Map<String, Object>> {
         return JSONRPC2ParamsType.OBJECT;
     }
 
-    private List<Map<String, Object>> flowModsToMap(
-            LinkedList<OVXFlowStatisticsReply> flows) {
-        final List<Map<String, Object>> res = new LinkedList<Map<String, Object>>();
-        for (OVXFlowStatisticsReply frep : flows) {
-            OVXFlowMod fm = new OVXFlowMod();
-            fm.setActions(frep.getActions());
-            fm.setMatch(frep.getMatch());
-            res.add(fm.toMap());
+    private static void writeFlows(final JsonGenerator gen,
+            final List<OVXFlowMod> flows) throws IOException {
+        gen.writeStartArray();
+        for (OVXFlowMod fm : flows) {
+            gen.writeObject(fm.toMap());
+        }
+        gen.writeEndArray();
+    }
+
+    private static List<OVXFlowMod> getFlows(final PhysicalSwitch sw,
+            final Integer tenantId) {
+        if (tenantId == null) {
+            return sw.getFlowTable().getFlowTable();
         }
-        return res;
+        return sw.getFlowTable().getFlowMods(tenantId.intValue());
     }
 
-    private LinkedList<OVXFlowStatisticsReply> aggregateFlowsBySwitch(
-            long dpid, Mappable map) {
-        LinkedList<OVXFlowStatisticsReply> flows = new LinkedList<OVXFlowStatisticsReply>();
+    private static PhysicalSwitch getSwitch(long dpid) {
         final PhysicalSwitch sw = PhysicalNetwork.getInstance().getSwitch(dpid);
-        for (Integer tid : map.listVirtualNetworks().keySet()) {
-            if (sw.getFlowStats(tid) != null) {
-                flows.addAll(sw.getFlowStats(tid));
-            }
+        if (sw == null) {
+            throw new InvalidDPIDException("DPID "
+                    + HexString.toHexString(dpid) + " is unknown ");
         }
-        return flows;
+        return sw;
     }
 
 }
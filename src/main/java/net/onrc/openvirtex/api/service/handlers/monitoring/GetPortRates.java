@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.CounterHistory;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsHistory;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.exceptions.InvalidDPIDException;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+
+import org.openflow.util.HexString;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the byte and packet rates of the ports of a physical switch, or of
+ * one of its ports, over the last hour of statistics polls.
+ */
+public class GetPortRates extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number dpid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.DPID, params, true, null);
+            final Number port = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.PORT, params, false, -1);
+            final PhysicalSwitch sw = PhysicalNetwork.getInstance().getSwitch(
+                    dpid.longValue());
+            if (sw == null) {
+                throw new InvalidDPIDException("DPID "
+                        + HexString.toHexString(dpid.longValue())
+                        + " is unknown ");
+            }
+            final StatisticsHistory history = sw.getStatisticsManager()
+                    .getHistory();
+            if (port.intValue() == -1) {
+                final Map<String, Object> res = new HashMap<String, Object>();
+                for (Short number : history.getPorts()) {
+                    res.put(number.toString(), history.getPort(number)
+                            .toMap(StatisticsHistory.PORT_COUNTERS));
+                }
+                resp = new JSONRPC2Response(res, 0);
+            } else {
+                final CounterHistory ph = history.getPort(port.shortValue());
+                if (ph == null) {
+                    resp = new JSONRPC2Response(new JSONRPC2Error(
+                            JSONRPC2Error.INVALID_PARAMS.getCode(),
+                            this.cmdName() + ": No statistics for port "
+                                    + port), 0);
+                } else {
+                    resp = new JSONRPC2Response(
+                            ph.toMap(StatisticsHistory.PORT_COUNTERS), 0);
+                }
+            }
+        } catch (ClassCastException | MissingRequiredField
+                | InvalidDPIDException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch port rates : "
+                            + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.network.TenantTeardown;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the progress of the removal of a virtual network, while it runs or
+ * after it finished.
+ */
+public class GetTeardownProgress extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, true, null);
+            final TenantTeardown teardown = TenantTeardown.getTeardown(tid
+                    .intValue());
+            if (teardown == null) {
+                resp = new JSONRPC2Response(new JSONRPC2Error(
+                        JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                                + ": Virtual network " + tid
+                                + " was not removed"), 0);
+            } else {
+                resp = new JSONRPC2Response(teardown.getProgress(), 0);
+            }
+        } catch (ClassCastException | MissingRequiredField e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch teardown progress : "
+                            + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.core.io.TenantScheduler;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the message dispatch latency percentiles and scheduling weight of a
+ * virtual network, or of all virtual networks if no tenant ID is given.
+ * Tenant ID 0 reports the messages that could not be attributed to a tenant.
+ */
+public class GetTenantLatency extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, false, -1);
+            final TenantScheduler scheduler = TenantScheduler.getInstance();
+
+            if (tid.intValue() == -1) {
+                final Map<String, Object> res = new HashMap<String, Object>();
+                for (Integer id : scheduler.getTenantIds()) {
+                    final Map<String, Object> stats = scheduler
+                            .getStatistics(id);
+                    if (stats != null) {
+                        res.put(id.toString(), stats);
+                    }
+                }
+                resp = new JSONRPC2Response(res, 0);
+            } else {
+                final Map<String, Object> stats = scheduler.getStatistics(tid
+                        .intValue());
+                if (stats == null) {
+                    resp = new JSONRPC2Response(new JSONRPC2Error(
+                            JSONRPC2Error.INVALID_PARAMS.getCode(),
+                            this.cmdName() + ": Invalid tenantId : " + tid), 0);
+                } else {
+                    resp = new JSONRPC2Response(stats, 0);
+                }
+            }
+        } catch (ClassCastException | MissingRequiredField e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch tenant latency : "
+                            + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.CounterHistory;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsHistory;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the byte and packet rates matched by the flows of a virtual network
+ * over the last hour of statistics polls, per physical switch, along with
+ * the latest rates summed over all switches.
+ */
+public class GetTenantRates extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, true, null);
+            OVXMap.getInstance().getVirtualNetwork(tid.intValue());
+            final Map<String, Object> switches = new HashMap<String, Object>();
+            double bytes = 0;
+            double packets = 0;
+            for (PhysicalSwitch sw : PhysicalNetwork.getInstance()
+                    .getSwitches()) {
+                final CounterHistory history = sw.getStatisticsManager()
+                        .getHistory().getTenant(tid.intValue());
+                if (history != null) {
+                    switches.put(sw.getSwitchName(),
+                            history.toMap(StatisticsHistory.FLOW_COUNTERS));
+                    bytes += history.getRate(StatisticsHistory.BYTES);
+                    packets += history.getRate(StatisticsHistory.PACKETS);
+                }
+            }
+            final Map<String, Object> res = new HashMap<String, Object>();
+            res.put("switches", switches);
+            res.put("bytes", bytes);
+            res.put("packets", packets);
+            resp = new JSONRPC2Response(res, 0);
+        } catch (ClassCastException | MissingRequiredField
+                | NetworkMappingException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch tenant rates : "
+                            + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
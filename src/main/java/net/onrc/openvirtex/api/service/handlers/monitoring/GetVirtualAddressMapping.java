@@ -23,7 +23,7 @@ import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
 import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.exceptions.AddressMappingException;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
@@ -42,25 +42,15 @@ public class GetVirtualAddressMapping extends ApiHandler<Map<String, Object>> {
                     MonitoringHandler.TENANT, params, true, null);
             OVXMap map = OVXMap.getInstance();
 
-            /*
-             * for (Host host :
-             * map.getVirtualNetwork(tid.intValue()).getHosts()) {
-             * map.getPhysicalIP(ip, tenantId) list = new LinkedList<Integer>();
-             * for (PhysicalLink link : map.getPhysicalLinks(vlink))
-             * list.add(link.getLinkId()); res.put(vlink.getLinkId(), list); }
-             */
-            for (CharSequence vip : map.getAllKeys()) {
-                String ip = vip.toString().replace("OVXIPAddress[", "")
-                        .replace("]", "");
-                res.put(ip,
-                        map.getPhysicalIP(new OVXIPAddress(ip, tid.intValue()),
-                                tid.intValue()).toSimpleString());
+            for (Map.Entry<OVXIPAddress, PhysicalIPAddress> ip : map
+                    .getVirtualIPs(tid.intValue()).entrySet()) {
+                res.put(ip.getKey().toSimpleString(), ip.getValue()
+                        .toSimpleString());
             }
 
             resp = new JSONRPC2Response(res, 0);
 
-        } catch (ClassCastException | MissingRequiredField
-                | AddressMappingException e) {
+        } catch (ClassCastException | MissingRequiredField e) {
             resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
                             + ": Unable to fetch virtual topology : "
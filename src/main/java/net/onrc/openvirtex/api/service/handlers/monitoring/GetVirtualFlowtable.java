@@ -15,84 +15,101 @@
  ******************************************************************************/
 package net.onrc.openvirtex.api.service.handlers.monitoring;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import net.onrc.openvirtex.api.service.handlers.ApiHandler;
 import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
 import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.api.service.handlers.StreamingResult;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.exceptions.InvalidDPIDException;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 
+import org.codehaus.jackson.JsonGenerator;
+
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
+/**
+ * Handler to get the flow table of a virtual switch, or of all switches of a
+ * virtual network by name. The tables of all switches can be fetched a page
+ * of switches at a time. The result is streamed, so only one switch's table
+ * is copied at a time.
+ */
 public class GetVirtualFlowtable extends ApiHandler<Map<String, Object>> {
 
-    JSONRPC2Response resp = null;
-
     @Override
     public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
         try {
 
             final Number tid = HandlerUtils.<Number>fetchField(
                     MonitoringHandler.TENANT, params, true, null);
             final Number dpid = HandlerUtils.<Number>fetchField(
                     MonitoringHandler.VDPID, params, false, -1);
-            final OVXMap map = OVXMap.getInstance();
-            final LinkedList<Map<String, Object>> flows = new LinkedList<Map<String, Object>>();
+            final Number offset = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.OFFSET, params, false, 0);
+            final Number limit = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.LIMIT, params, false, -1);
+            final OVXNetwork vnet = OVXMap.getInstance().getVirtualNetwork(
+                    tid.intValue());
             if (dpid.longValue() == -1) {
-                HashMap<String, Object> res = new HashMap<String, Object>();
-                for (OVXSwitch vsw : map.getVirtualNetwork(tid.intValue())
-                        .getSwitches()) {
-                    flows.clear();
-                    final Collection<OVXFlowMod> fms = vsw.getFlowTable()
-                            .getFlowTable();
-                    for (final OVXFlowMod flow : fms) {
-                        final Map<String, Object> entry = flow.toMap();
-                        flows.add(entry);
+                final List<OVXSwitch> switches = HandlerUtils.getSwitchPage(
+                        vnet.getSwitches(), offset.intValue(),
+                        limit.intValue());
+                resp = new JSONRPC2Response(new StreamingResult() {
+                    @Override
+                    public void writeTo(final JsonGenerator gen)
+                            throws IOException {
+                        gen.writeStartObject();
+                        for (OVXSwitch vsw : switches) {
+                            gen.writeFieldName(vsw.getSwitchName());
+                            writeFlows(gen, vsw);
+                        }
+                        gen.writeEndObject();
                     }
-                    res.put(vsw.getSwitchName(), flows.clone());
-                }
-                this.resp = new JSONRPC2Response(res, 0);
+                }, 0);
             } else {
-
-                final OVXSwitch vsw = map.getVirtualNetwork(tid.intValue())
-                        .getSwitch(dpid.longValue());
-                final Collection<OVXFlowMod> fms = vsw.getFlowTable()
-                        .getFlowTable();
-                for (final OVXFlowMod flow : fms) {
-                    final Map<String, Object> entry = flow.toMap();
-                    flows.add(entry);
+                final OVXSwitch vsw = vnet.getSwitch(dpid.longValue());
+                if (vsw == null) {
+                    throw new InvalidDPIDException("Virtual switch "
+                            + dpid.longValue() + " is unknown");
                 }
-                this.resp = new JSONRPC2Response(flows, 0);
+                resp = new JSONRPC2Response(new StreamingResult() {
+                    @Override
+                    public void writeTo(final JsonGenerator gen)
+                            throws IOException {
+                        writeFlows(gen, vsw);
+                    }
+                }, 0);
             }
 
         } catch (ClassCastException | MissingRequiredField e) {
-            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+            resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
-                            + ": Unable to fetch virtual topology : "
+                            + ": Unable to fetch virtual flow table : "
                             + e.getMessage()), 0);
-        } catch (final InvalidDPIDException e) {
-            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+        } catch (final IllegalArgumentException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
-                            + ": Unable to fetch virtual topology : "
+                            + ": Unable to fetch virtual flow table : "
                             + e.getMessage()), 0);
         } catch (NetworkMappingException e) {
-            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+            resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
-                            + ": Unable to fetch virtual topology : "
+                            + ": Unable to fetch virtual flow table : "
                             + e.getMessage()), 0);
         }
 
-        return this.resp;
+        return resp;
 
     }
 
@@ -101,4 +118,16 @@ public class GetVirtualFlowtable extends ApiHandler<Map<String, Object>> {
         return JSONRPC2ParamsType.OBJECT;
     }
 
+    private static void writeFlows(final JsonGenerator gen,
+            final OVXSwitch vsw) throws IOException {
+        // The table changes while it is written, write a copy of it
+        final List<OVXFlowMod> flows = new ArrayList<OVXFlowMod>(vsw
+                .getFlowTable().getFlowTable());
+        gen.writeStartArray();
+        for (final OVXFlowMod flow : flows) {
+            gen.writeObject(flow.toMap());
+        }
+        gen.writeEndArray();
+    }
+
 }
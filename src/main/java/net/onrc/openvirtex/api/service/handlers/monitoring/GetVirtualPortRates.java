@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.CounterHistory;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsHistory;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.exceptions.InvalidDPIDException;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the byte and packet rates of the ports of a virtual switch, or of
+ * one of its ports, over the last hour of statistics polls. The rates are
+ * those of the physical ports the virtual ports map to.
+ */
+public class GetVirtualPortRates extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, true, null);
+            final Number vdpid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.VDPID, params, true, null);
+            final Number vport = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.VPORT, params, false, -1);
+            final OVXSwitch vsw = OVXMap.getInstance()
+                    .getVirtualNetwork(tid.intValue())
+                    .getSwitch(vdpid.longValue());
+            final Map<String, Object> res = new HashMap<String, Object>();
+            for (OVXPort port : vsw.getPorts().values()) {
+                if (vport.intValue() != -1
+                        && port.getPortNumber() != vport.shortValue()) {
+                    continue;
+                }
+                final PhysicalPort phyPort = port.getPhysicalPort();
+                final CounterHistory history = phyPort.getParentSwitch()
+                        .getStatisticsManager().getHistory()
+                        .getPort(phyPort.getPortNumber());
+                if (history != null) {
+                    res.put(Short.toString(port.getPortNumber()),
+                            history.toMap(StatisticsHistory.PORT_COUNTERS));
+                }
+            }
+            if (vport.intValue() == -1) {
+                resp = new JSONRPC2Response(res, 0);
+            } else if (res.isEmpty()) {
+                resp = new JSONRPC2Response(new JSONRPC2Error(
+                        JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                                + ": No statistics for virtual port " + vport),
+                        0);
+            } else {
+                resp = new JSONRPC2Response(res.values().iterator().next(), 0);
+            }
+        } catch (ClassCastException | MissingRequiredField
+                | InvalidDPIDException | NetworkMappingException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to fetch virtual port rates : "
+                            + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
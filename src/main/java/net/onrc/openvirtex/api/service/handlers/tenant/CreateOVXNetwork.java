@@ -22,8 +22,10 @@ import java.util.Map;
 import net.onrc.openvirtex.api.service.handlers.ApiHandler;
 import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.address.IPAddress;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.exceptions.ControllerUnavailableException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
@@ -53,6 +55,12 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
                     TenantHandler.NETADD, params, true, null);
             final Number netMask = HandlerUtils.<Number>fetchField(
                     TenantHandler.NETMASK, params, true, null);
+            final Number linkBits = HandlerUtils.<Number>fetchField(
+                    TenantHandler.LINK_BITS, params, false,
+                    OVXLinkBudget.getDefaultLinkBits());
+            final Number flowBits = HandlerUtils.<Number>fetchField(
+                    TenantHandler.FLOW_BITS, params, false,
+                    OVXLinkBudget.getDefaultFlowBits());
 
             for (String ctrl : ctrlUrls) {
                 String[] ctrlParts = ctrl.split(":");
@@ -61,8 +69,17 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
                         Integer.parseInt(ctrlParts[2]), -1);
             }
             final IPAddress addr = new OVXIPAddress(netAddress, -1);
-            final OVXNetwork virtualNetwork = new OVXNetwork(ctrlUrls, addr,
-                    netMask.shortValue());
+            final int tenantId = OpenVirteXController.getTenantCounter()
+                    .getNewIndex();
+            final OVXNetwork virtualNetwork;
+            try {
+                virtualNetwork = new OVXNetwork(tenantId, ctrlUrls, addr,
+                        netMask.shortValue(), linkBits.intValue(),
+                        flowBits.intValue(), null);
+            } catch (final IndexOutOfBoundException e) {
+                OpenVirteXController.getTenantCounter().releaseIndex(tenantId);
+                throw e;
+            }
             virtualNetwork.register();
             this.log.info("Created virtual network {}",
                     virtualNetwork.getTenantId());
@@ -86,7 +103,7 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
                     new JSONRPC2Error(
                             JSONRPC2Error.INVALID_PARAMS.getCode(),
                             this.cmdName()
-                                    + ": Impossible to create the virtual network, too many networks : "
+                                    + ": Impossible to create the virtual network, too many networks or no label space left : "
                                     + e.getMessage()), 0);
         }
         return resp;
@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.api.service.handlers.tenant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.db.DBManager;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.DPIDandPort;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.host.Host;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.exceptions.InvalidDPIDException;
+import net.onrc.openvirtex.exceptions.InvalidPortException;
+import net.onrc.openvirtex.exceptions.InvalidTenantIdException;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.exceptions.PortMappingException;
+import net.onrc.openvirtex.exceptions.RoutingAlgorithmException;
+import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.exceptions.VirtualLinkException;
+import net.onrc.openvirtex.routing.RoutingAlgorithms;
+import net.onrc.openvirtex.routing.SwitchRoute;
+import net.onrc.openvirtex.util.MACAddress;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Handler to create the topology of a virtual network from a single
+ * document: virtual switches, ports, big switch routing, links, hosts and
+ * big switch routes. The document is validated as a whole before anything
+ * is created, so elements may refer to the switches and ports it declares.
+ * If creating an element fails, the elements created so far are removed
+ * again, and the database updates are written together. If they cannot be
+ * persisted, {@link net.onrc.openvirtex.api.service.TenantService} answers
+ * with an internal error instead of the created elements.
+ */
+public class CreateOVXNetworkTopology extends ApiHandler<Map<String, Object>> {
+
+    private Logger log = LogManager.getLogger(CreateOVXNetworkTopology.class
+            .getName());
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        JSONRPC2Response resp = null;
+
+        try {
+            final Number tenantId = HandlerUtils.<Number>fetchField(
+                    TenantHandler.TENANT, params, true, null);
+
+            HandlerUtils.isValidTenantId(tenantId.intValue());
+
+            final OVXNetwork virtualNetwork = OVXMap.getInstance()
+                    .getVirtualNetwork(tenantId.intValue());
+            final Topology topology = new Topology(virtualNetwork);
+            topology.validate(params);
+
+            final Map<String, Object> reply;
+            DBManager.getInstance().hold();
+            try {
+                synchronized (virtualNetwork) {
+                    reply = topology.apply();
+                }
+            } finally {
+                DBManager.getInstance().release();
+            }
+            this.log.info(
+                    "Created topology with {} switches, {} ports, {} links, {} hosts and {} routes in virtual network {}",
+                    topology.switches.size(), topology.ports.size(),
+                    topology.links.size(), topology.hosts.size(),
+                    topology.routes.size(), virtualNetwork.getTenantId());
+            reply.put(TenantHandler.TENANT, virtualNetwork.getTenantId());
+            resp = new JSONRPC2Response(reply, 0);
+
+        } catch (final MissingRequiredField e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Unable to create virtual network topology : "
+                            + e.getMessage()), 0);
+        } catch (final InvalidTenantIdException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Invalid tenant id : " + e.getMessage()), 0);
+        } catch (final NetworkMappingException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": " + e.getMessage()), 0);
+        } catch (final RoutingAlgorithmException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Invalid routing algorithm : "
+                            + e.getMessage()), 0);
+        } catch (final IllegalArgumentException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Invalid virtual network topology : "
+                            + e.getMessage()), 0);
+        } catch (final IndexOutOfBoundException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                            + ": Impossible to create the virtual network topology, "
+                            + "too many elements in this virtual network : "
+                            + e.getMessage()), 0);
+        } catch (final PortMappingException e) {
+            resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INTERNAL_ERROR.getCode(), this.cmdName()
+                            + ": " + e.getMessage()), 0);
+        }
+        return resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+    /**
+     * A validated topology document, and the elements created from it.
+     */
+    private static final class Topology {
+
+        private final OVXNetwork net;
+        // Physical DPIDs of the virtual switches to create
+        private final Map<Long, List<Long>> switches = new LinkedHashMap<Long, List<Long>>();
+        // Virtual switch of the physical switches of the document
+        private final Map<Long, Long> virtualDpids = new HashMap<Long, Long>();
+        // Physical ports of the virtual ports to create, 0 for any number
+        private final Map<DPIDandPort, PhysicalPort> ports = new LinkedHashMap<DPIDandPort, PhysicalPort>();
+        // Physical ports of the virtual ports declared with a number
+        private final Map<DPIDandPort, PhysicalPort> named = new HashMap<DPIDandPort, PhysicalPort>();
+        private final Map<Long, RoutingAlgorithms> routing = new LinkedHashMap<Long, RoutingAlgorithms>();
+        private final List<Map<String, Object>> links = new ArrayList<Map<String, Object>>();
+        private final List<Map<String, Object>> hosts = new ArrayList<Map<String, Object>>();
+        private final List<Map<String, Object>> routes = new ArrayList<Map<String, Object>>();
+        // Virtual ports linked or connected to a host by the document
+        private final Set<DPIDandPort> used = new HashSet<DPIDandPort>();
+
+        /* elements created so far, removed again if the topology fails */
+        private final List<Long> createdSwitches = new ArrayList<Long>();
+        private final List<OVXPort> createdPorts = new ArrayList<OVXPort>();
+        private final Map<Long, RoutingAlgorithms> replacedRouting = new HashMap<Long, RoutingAlgorithms>();
+        private final List<Integer> createdLinks = new ArrayList<Integer>();
+        private final List<Integer> createdHosts = new ArrayList<Integer>();
+        private final List<SwitchRoute> createdRoutes = new ArrayList<SwitchRoute>();
+
+        Topology(final OVXNetwork net) {
+            this.net = net;
+        }
+
+        /**
+         * Checks the whole document against the virtual network and the
+         * elements the document itself declares.
+         */
+        void validate(final Map<String, Object> params)
+                throws MissingRequiredField, RoutingAlgorithmException {
+            final int tenantId = this.net.getTenantId();
+            for (Map<String, Object> sw : this.<Map<String, Object>>list(
+                    TenantHandler.SWITCHES, params)) {
+                final List<Long> dpids = new ArrayList<Long>();
+                for (final Number dpid : HandlerUtils.<List<Number>>fetchField(
+                        TenantHandler.DPIDS, sw, true, null)) {
+                    dpids.add(dpid.longValue());
+                }
+                final long vdpid = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VDPID, sw, true, null).longValue();
+                HandlerUtils.isValidDPID(tenantId, dpids);
+                if (this.net.getSwitch(vdpid) != null
+                        || this.switches.containsKey(vdpid)) {
+                    throw new InvalidDPIDException(
+                            "Virtual switch id is used twice: " + vdpid);
+                }
+                for (final long dpid : dpids) {
+                    if (this.virtualDpids.put(dpid, vdpid) != null) {
+                        throw new InvalidDPIDException(
+                                "Physical dpid is part of two virtual switches: "
+                                        + dpid);
+                    }
+                }
+                this.switches.put(vdpid, dpids);
+            }
+
+            for (Map<String, Object> port : this.<Map<String, Object>>list(
+                    TenantHandler.PORTS, params)) {
+                final long dpid = HandlerUtils.<Number>fetchField(
+                        TenantHandler.DPID, port, true, null).longValue();
+                final short number = HandlerUtils.<Number>fetchField(
+                        TenantHandler.PORT, port, true, null).shortValue();
+                final short vport = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VPORT, port, false, 0).shortValue();
+                final PhysicalSwitch psw = PhysicalNetwork.getInstance()
+                        .getSwitch(dpid);
+                if (psw == null || psw.getPort(number) == null) {
+                    throw new InvalidPortException("Invalid physical port: "
+                            + dpid + "/" + number);
+                }
+                final long vdpid = this.getVirtualDpid(psw);
+                final DPIDandPort key = new DPIDandPort(vdpid, vport);
+                if (vport != 0) {
+                    if (this.hasPort(vdpid, vport)) {
+                        throw new InvalidPortException(
+                                "Virtual port is used twice: " + vdpid + "/"
+                                        + vport);
+                    }
+                    this.named.put(key, psw.getPort(number));
+                }
+                this.ports.put(vport == 0 ? new DPIDandPort(dpid, number)
+                        : key, psw.getPort(number));
+            }
+
+            for (Map<String, Object> rt : this.<Map<String, Object>>list(
+                    TenantHandler.ROUTING, params)) {
+                final long vdpid = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VDPID, rt, true, null).longValue();
+                final String alg = HandlerUtils.<String>fetchField(
+                        TenantHandler.ALGORITHM, rt, true, null);
+                final Number backups = HandlerUtils.<Number>fetchField(
+                        TenantHandler.BACKUPS, rt, true, null);
+                this.checkBigSwitch(vdpid);
+                this.routing.put(vdpid,
+                        new RoutingAlgorithms(alg, backups.byteValue()));
+            }
+
+            for (Map<String, Object> link : this.<Map<String, Object>>list(
+                    TenantHandler.LINKS, params)) {
+                final long src = HandlerUtils.<Number>fetchField(
+                        TenantHandler.SRC_DPID, link, true, null).longValue();
+                final short srcPort = HandlerUtils.<Number>fetchField(
+                        TenantHandler.SRC_PORT, link, true, null).shortValue();
+                final long dst = HandlerUtils.<Number>fetchField(
+                        TenantHandler.DST_DPID, link, true, null).longValue();
+                final short dstPort = HandlerUtils.<Number>fetchField(
+                        TenantHandler.DST_PORT, link, true, null).shortValue();
+                HandlerUtils.<String>fetchField(TenantHandler.ALGORITHM, link,
+                        true, null);
+                HandlerUtils.<Number>fetchField(TenantHandler.BACKUPS, link,
+                        true, null);
+                this.use(src, srcPort);
+                this.use(dst, dstPort);
+                final String path = HandlerUtils.<String>fetchField(
+                        TenantHandler.PATH, link, false, null);
+                if (path != null) {
+                    final List<PhysicalLink> physicalLinks = HandlerUtils
+                            .getPhysicalPath(path);
+                    HandlerUtils.isValidVirtualLink(physicalLinks);
+                    HandlerUtils.isValidPriority(HandlerUtils.<Number>fetchField(
+                            TenantHandler.PRIORITY, link, true, null)
+                            .intValue());
+                    if (!this.getPhysicalPort(src, srcPort).equals(
+                            physicalLinks.get(0).getSrcPort())
+                            || !this.getPhysicalPort(dst, dstPort).equals(
+                                    physicalLinks.get(physicalLinks.size() - 1)
+                                            .getDstPort())) {
+                        throw new VirtualLinkException(
+                                "The physical path does not join the ports of virtual link "
+                                        + src + "/" + srcPort + " - " + dst
+                                        + "/" + dstPort);
+                    }
+                }
+                this.links.add(link);
+            }
+
+            final Set<MACAddress> macs = new HashSet<MACAddress>();
+            for (Map<String, Object> host : this.<Map<String, Object>>list(
+                    TenantHandler.HOSTS, params)) {
+                final long vdpid = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VDPID, host, true, null).longValue();
+                final short vport = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VPORT, host, true, null).shortValue();
+                final MACAddress mac = MACAddress.valueOf(HandlerUtils
+                        .<String>fetchField(TenantHandler.MAC, host, true,
+                                null));
+                this.use(vdpid, vport);
+                HandlerUtils.isUniqueHostMAC(mac);
+                if (!macs.add(mac)) {
+                    throw new IllegalArgumentException(
+                            "Host MAC address is used twice: " + mac);
+                }
+                this.hosts.add(host);
+            }
+
+            for (Map<String, Object> route : this.<Map<String, Object>>list(
+                    TenantHandler.ROUTES, params)) {
+                final long vdpid = HandlerUtils.<Number>fetchField(
+                        TenantHandler.VDPID, route, true, null).longValue();
+                final short srcPort = HandlerUtils.<Number>fetchField(
+                        TenantHandler.SRC_PORT, route, true, null).shortValue();
+                final short dstPort = HandlerUtils.<Number>fetchField(
+                        TenantHandler.DST_PORT, route, true, null).shortValue();
+                final List<PhysicalLink> physicalLinks = HandlerUtils
+                        .getPhysicalPath(HandlerUtils.<String>fetchField(
+                                TenantHandler.PATH, route, true, null));
+                HandlerUtils.isValidVirtualLink(physicalLinks);
+                HandlerUtils.isValidPriority(HandlerUtils.<Number>fetchField(
+                        TenantHandler.PRIORITY, route, true, null).intValue());
+                this.checkBigSwitch(vdpid);
+                this.getPhysicalPort(vdpid, srcPort);
+                this.getPhysicalPort(vdpid, dstPort);
+                this.routes.add(route);
+            }
+        }
+
+        /**
+         * Creates the elements of the topology, in the order they depend on
+         * each other. If any of them fails, those created so far are removed.
+         *
+         * @return the created elements
+         */
+        Map<String, Object> apply() throws IndexOutOfBoundException,
+                PortMappingException, RoutingAlgorithmException {
+            final Map<String, Object> reply = new HashMap<String, Object>();
+            final List<Map<String, Object>> switchReply = new ArrayList<Map<String, Object>>();
+            final List<Map<String, Object>> portReply = new ArrayList<Map<String, Object>>();
+            final List<Map<String, Object>> linkReply = new ArrayList<Map<String, Object>>();
+            final List<Map<String, Object>> hostReply = new ArrayList<Map<String, Object>>();
+            final List<Map<String, Object>> routeReply = new ArrayList<Map<String, Object>>();
+            try {
+                this.net.reserveIds(this.switches.keySet(),
+                        Collections.<Integer>emptyList(),
+                        Collections.<Integer>emptyList());
+                for (Map.Entry<Long, List<Long>> sw : this.switches.entrySet()) {
+                    final OVXSwitch vsw = this.net.createSwitch(sw.getValue(),
+                            sw.getKey());
+                    this.createdSwitches.add(vsw.getSwitchId());
+                    switchReply.add(vsw.getDBObject());
+                }
+                for (Map.Entry<DPIDandPort, PhysicalPort> port : this.ports
+                        .entrySet()) {
+                    final PhysicalPort physicalPort = port.getValue();
+                    final OVXPort vport;
+                    if (this.named.containsKey(port.getKey())) {
+                        vport = this.net.createPort(physicalPort
+                                .getParentSwitch().getSwitchId(), physicalPort
+                                .getPortNumber(), port.getKey().getPort());
+                    } else {
+                        vport = this.net.createPort(physicalPort
+                                .getParentSwitch().getSwitchId(), physicalPort
+                                .getPortNumber());
+                    }
+                    this.createdPorts.add(vport);
+                    final Map<String, Object> entry = new HashMap<String, Object>(
+                            vport.getDBObject());
+                    entry.put(TenantHandler.VDPID, vport.getParentSwitch()
+                            .getSwitchId());
+                    portReply.add(entry);
+                }
+                for (Map.Entry<Long, RoutingAlgorithms> rt : this.routing
+                        .entrySet()) {
+                    final OVXBigSwitch sw = (OVXBigSwitch) this.net
+                            .getSwitch(rt.getKey());
+                    if (!this.createdSwitches.contains(rt.getKey())) {
+                        this.replacedRouting.put(rt.getKey(), sw.getAlg());
+                    }
+                    sw.setAlg(rt.getValue());
+                }
+                for (Map<String, Object> params : this.links) {
+                    final OVXLink link = this.connectLink(params);
+                    linkReply.add(link.getDBObject());
+                }
+                for (Map<String, Object> params : this.hosts) {
+                    final Host host = this.net.connectHost(
+                            ((Number) params.get(TenantHandler.VDPID))
+                                    .longValue(),
+                            ((Number) params.get(TenantHandler.VPORT))
+                                    .shortValue(), MACAddress
+                                    .valueOf((String) params
+                                            .get(TenantHandler.MAC)));
+                    this.createdHosts.add(host.getHostId());
+                    hostReply.add(host.getDBObject());
+                }
+                for (Map<String, Object> params : this.routes) {
+                    final SwitchRoute route = this.net.connectRoute(
+                            ((Number) params.get(TenantHandler.VDPID))
+                                    .longValue(),
+                            ((Number) params.get(TenantHandler.SRC_PORT))
+                                    .shortValue(),
+                            ((Number) params.get(TenantHandler.DST_PORT))
+                                    .shortValue(), HandlerUtils
+                                    .getPhysicalPath((String) params
+                                            .get(TenantHandler.PATH)),
+                            ((Number) params.get(TenantHandler.PRIORITY))
+                                    .byteValue());
+                    this.createdRoutes.add(route);
+                    routeReply.add(route.getDBObject());
+                }
+            } catch (IndexOutOfBoundException | PortMappingException
+                    | RuntimeException e) {
+                this.rollback();
+                throw e;
+            }
+            reply.put(TenantHandler.SWITCHES, switchReply);
+            reply.put(TenantHandler.PORTS, portReply);
+            reply.put(TenantHandler.LINKS, linkReply);
+            reply.put(TenantHandler.HOSTS, hostReply);
+            reply.put(TenantHandler.ROUTES, routeReply);
+            return reply;
+        }
+
+        private OVXLink connectLink(final Map<String, Object> params)
+                throws IndexOutOfBoundException, PortMappingException {
+            final OVXLink link = this.net.connectLink(
+                    ((Number) params.get(TenantHandler.SRC_DPID)).longValue(),
+                    ((Number) params.get(TenantHandler.SRC_PORT)).shortValue(),
+                    ((Number) params.get(TenantHandler.DST_DPID)).longValue(),
+                    ((Number) params.get(TenantHandler.DST_PORT)).shortValue(),
+                    (String) params.get(TenantHandler.ALGORITHM),
+                    ((Number) params.get(TenantHandler.BACKUPS)).byteValue());
+            if (link == null) {
+                throw new VirtualLinkException("Could not connect link "
+                        + params);
+            }
+            this.createdLinks.add(link.getLinkId());
+            final String path = (String) params.get(TenantHandler.PATH);
+            if (path == null) {
+                return link;
+            }
+            return this.net.setLinkPath(link.getLinkId(),
+                    HandlerUtils.getPhysicalPath(path),
+                    ((Number) params.get(TenantHandler.PRIORITY)).byteValue());
+        }
+
+        /* removes the created elements in the reverse order */
+        private void rollback() {
+            final long tenantId = this.net.getTenantId();
+            try {
+                for (int i = this.createdRoutes.size() - 1; i >= 0; i--) {
+                    final SwitchRoute route = this.createdRoutes.get(i);
+                    this.net.disconnectRoute(route.getSrcPort()
+                            .getParentSwitch().getSwitchId(), route
+                            .getRouteId());
+                }
+                for (int i = this.createdHosts.size() - 1; i >= 0; i--) {
+                    this.net.disconnectHost(this.createdHosts.get(i));
+                }
+                for (int i = this.createdLinks.size() - 1; i >= 0; i--) {
+                    this.net.disconnectLink(this.createdLinks.get(i));
+                }
+                for (Map.Entry<Long, RoutingAlgorithms> rt : this.replacedRouting
+                        .entrySet()) {
+                    ((OVXBigSwitch) this.net.getSwitch(rt.getKey())).setAlg(rt
+                            .getValue());
+                }
+                for (int i = this.createdPorts.size() - 1; i >= 0; i--) {
+                    final OVXPort port = this.createdPorts.get(i);
+                    this.net.removePort(port.getParentSwitch().getSwitchId(),
+                            port.getPortNumber());
+                }
+                for (int i = this.createdSwitches.size() - 1; i >= 0; i--) {
+                    this.net.removeSwitch(this.createdSwitches.get(i));
+                }
+            } catch (RuntimeException e) {
+                LogManager.getLogger(CreateOVXNetworkTopology.class.getName())
+                        .error("Failed to roll back topology of virtual network {}: {}",
+                                tenantId, e.getMessage());
+            }
+        }
+
+        private <T> List<T> list(final String key,
+                final Map<String, Object> params) throws MissingRequiredField {
+            final List<T> list = HandlerUtils.<List<T>>fetchField(key, params,
+                    false, null);
+            return list == null ? Collections.<T>emptyList() : list;
+        }
+
+        /* the virtual switch a physical switch is, or will be, part of */
+        private long getVirtualDpid(final PhysicalSwitch psw) {
+            final Long vdpid = this.virtualDpids.get(psw.getSwitchId());
+            if (vdpid != null) {
+                return vdpid;
+            }
+            try {
+                return OVXMap.getInstance()
+                        .getVirtualSwitch(psw, this.net.getTenantId())
+                        .getSwitchId();
+            } catch (SwitchMappingException e) {
+                throw new InvalidDPIDException(
+                        "The physical dpid has first to be associated to a virtual switch: "
+                                + psw.getSwitchId());
+            }
+        }
+
+        private boolean hasPort(final long vdpid, final short vport) {
+            final OVXSwitch sw = this.net.getSwitch(vdpid);
+            return this.named.containsKey(new DPIDandPort(vdpid, vport))
+                    || (sw != null && sw.getPort(vport) != null);
+        }
+
+        /* the physical port of a virtual port that exists, or is declared */
+        private PhysicalPort getPhysicalPort(final long vdpid, final short vport) {
+            final PhysicalPort port = this.named.get(new DPIDandPort(vdpid,
+                    vport));
+            if (port != null) {
+                return port;
+            }
+            final OVXSwitch sw = this.net.getSwitch(vdpid);
+            if (sw == null || sw.getPort(vport) == null) {
+                throw new InvalidPortException("Invalid virtual port: "
+                        + vdpid + "/" + vport);
+            }
+            return sw.getPort(vport).getPhysicalPort();
+        }
+
+        private void use(final long vdpid, final short vport) {
+            this.getPhysicalPort(vdpid, vport);
+            if (!this.used.add(new DPIDandPort(vdpid, vport))) {
+                throw new InvalidPortException(
+                        "Virtual port is connected twice: " + vdpid + "/"
+                                + vport);
+            }
+        }
+
+        private void checkBigSwitch(final long vdpid) {
+            final List<Long> dpids = this.switches.get(vdpid);
+            if (dpids != null ? dpids.size() < 2 : !(this.net
+                    .getSwitch(vdpid) instanceof OVXBigSwitch)) {
+                throw new InvalidDPIDException("Not a virtual big switch: "
+                        + vdpid);
+            }
+        }
+    }
+
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package net.onrc.openvirtex.core;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.Set;
 import java.util.concurrent.Executors;
@@ -25,8 +26,11 @@ import net.onrc.openvirtex.api.server.JettyServer;
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.core.io.ClientChannelPipeline;
 import net.onrc.openvirtex.core.io.SwitchChannelPipeline;
+import net.onrc.openvirtex.core.io.TenantScheduler;
 import net.onrc.openvirtex.db.DBManager;
+import net.onrc.openvirtex.db.JournalConnection;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
@@ -62,6 +66,7 @@ public class OpenVirteXController implements Runnable {
     private Integer ofPort = null;
     private String dbHost = null;
     private Integer dbPort = null;
+    private String dbJournal = null;
     private Boolean dbClear = null;
     Thread server;
 
@@ -86,21 +91,34 @@ public class OpenVirteXController implements Runnable {
 
     private Integer nServerThreads;
 
+    private Integer nSchedulerThreads;
+
     private final Boolean useBDDP;
+    private final Boolean aggregateLinks;
+    private final Boolean flowAudit;
+    private final Integer flowReconcile;
+    private final Integer flapDampening;
 
     public OpenVirteXController(CmdLineSettings settings) {
         this.ofHost = settings.getOFHost();
         this.ofPort = settings.getOFPort();
         this.dbHost = settings.getDBHost();
         this.dbPort = settings.getDBPort();
+        this.dbJournal = settings.getDBJournal();
         this.dbClear = settings.getDBClear();
         this.maxVirtual = settings.getNumberOfVirtualNets();
         this.statsRefresh = settings.getStatsRefresh();
         this.nClientThreads = settings.getClientThreads();
         this.nServerThreads = settings.getServerThreads();
+        this.nSchedulerThreads = settings.getSchedulerThreads();
         this.useBDDP = settings.getUseBDDP();
-        // by default, use Mac addresses to store vLinks informations
-        this.ovxLinkField = OVXLinkField.MAC_ADDRESS;
+        this.aggregateLinks = settings.getAggregateLinks();
+        this.ovxLinkField = settings.getLinkField();
+        this.flowAudit = settings.getFlowAudit();
+        this.flowReconcile = settings.getFlowReconcile();
+        this.flapDampening = settings.getFlapDampening();
+        OVXLinkCodec.configure(this.maxVirtual, this.ovxLinkField,
+                this.aggregateLinks);
         this.clientThreads = new OrderedMemoryAwareThreadPoolExecutor(
                 nClientThreads, 1048576, 1048576, 5, TimeUnit.SECONDS);
         this.serverThreads = new OrderedMemoryAwareThreadPoolExecutor(
@@ -115,6 +133,7 @@ public class OpenVirteXController implements Runnable {
     public void run() {
         Runtime.getRuntime().addShutdownHook(new OpenVirtexShutdownHook(this));
         initVendorMessages();
+        TenantScheduler.getInstance().start(this.nSchedulerThreads);
         PhysicalNetwork.getInstance().boot();
 
         this.startDatabase();
@@ -219,7 +238,12 @@ public class OpenVirteXController implements Runnable {
 
     private void startDatabase() {
         DBManager dbManager = DBManager.getInstance();
-        dbManager.init(this.dbHost, this.dbPort, this.dbClear);
+        if (this.dbJournal != null) {
+            dbManager.init(new JournalConnection(new File(this.dbJournal)),
+                    this.dbHost, this.dbPort, this.dbClear);
+        } else {
+            dbManager.init(this.dbHost, this.dbPort, this.dbClear);
+        }
     }
 
     private void startServer() {
@@ -248,6 +272,8 @@ public class OpenVirteXController implements Runnable {
             this.cfact.releaseExternalResources();
         }
 
+        TenantScheduler.getInstance().stop();
+
         this.log.info("Shutting down database connection");
         DBManager.getInstance().close();
     }
@@ -294,4 +320,20 @@ public class OpenVirteXController implements Runnable {
         return this.useBDDP;
     }
 
+    public Boolean getAggregateLinks() {
+        return this.aggregateLinks;
+    }
+
+    public Boolean getFlowAudit() {
+        return this.flowAudit;
+    }
+
+    public Integer getFlowReconcile() {
+        return this.flowReconcile;
+    }
+
+    public Integer getFlapDampening() {
+        return this.flapDampening;
+    }
+
 }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package net.onrc.openvirtex.core.cmd;
 
+import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.util.OVXUtil;
 
 import org.kohsuke.args4j.Option;
@@ -62,10 +63,36 @@ public class CmdLineSettings {
      * Default number of threads to handle controller connection events.
      */
     public static final Integer DEFAULT_CLIENT_THREADS = 32;
+    /**
+     * Default number of threads to dispatch tenant messages.
+     */
+    public static final Integer DEFAULT_SCHEDULER_THREADS = 16;
     /**
      * Default value if BDDP is used for discovery.
      */
     public static final Boolean DEFAULT_USE_BDDP = false;
+    /**
+     * Default value if virtual link and route labels are aggregated.
+     */
+    public static final Boolean DEFAULT_AGGREGATE_LINKS = false;
+    /**
+     * Default packet field encoding virtual links.
+     */
+    public static final OVXLinkField DEFAULT_LINK_FIELD = OVXLinkField.MAC_ADDRESS;
+    /**
+     * Default value if flow cleanups are audited against the flow statistics.
+     */
+    public static final Boolean DEFAULT_FLOW_AUDIT = false;
+    /**
+     * Default grace period in seconds for the flows found on a connecting
+     * switch, 0 to wipe the switch instead.
+     */
+    public static final Integer DEFAULT_FLOW_RECONCILE = 0;
+    /**
+     * Default time in seconds a disconnected switch is kept for, 0 to remove
+     * it right away.
+     */
+    public static final Integer DEFAULT_FLAP_DAMPENING = 0;
 
     @Option(name = "-p", aliases = "--of-port", metaVar = "INT", usage = "OpenVirteX OpenFlow listen port")
     private Integer ofPort = CmdLineSettings.DEFAULT_OF_PORT;
@@ -82,6 +109,9 @@ public class CmdLineSettings {
     @Option(name = "-dp", aliases = "--db-port", metaVar = "INT", usage = "Database port")
     private Integer dbPort = CmdLineSettings.DEFAULT_DB_PORT;
 
+    @Option(name = "-dj", aliases = "--db-journal", metaVar = "String", usage = "Directory of a local database journal to use instead of MongoDB")
+    private String dbJournal = null;
+
     @Option(name = "--db-clear", usage = "Clear database")
     private Boolean dbClear = CmdLineSettings.DEFAULT_DB_CLEAR;
 
@@ -94,9 +124,27 @@ public class CmdLineSettings {
     @Option(name = "--st", aliases = "--server-threads", metaVar = "INT", usage = "Number of threads handles switch connections")
     private Integer serverThreads = CmdLineSettings.DEFAULT_CLIENT_THREADS;
 
+    @Option(name = "--sct", aliases = "--scheduler-threads", metaVar = "INT", usage = "Number of threads dispatching tenant messages; 0 dispatches them on the connection threads")
+    private Integer schedulerThreads = CmdLineSettings.DEFAULT_SCHEDULER_THREADS;
+
     @Option(name = "--ub", aliases = "--use-bddp", usage = "Use BDDP for network discovery; only use if you know what you are doing.")
     private Boolean useBDDP = CmdLineSettings.DEFAULT_USE_BDDP;
 
+    @Option(name = "--al", aliases = "--aggregate-links", usage = "Label transit traffic with tenant and link or route only; host addresses are restored at the egress edge")
+    private Boolean aggregateLinks = CmdLineSettings.DEFAULT_AGGREGATE_LINKS;
+
+    @Option(name = "--lf", aliases = "--link-field", metaVar = "MAC_ADDRESS|VLAN", usage = "Packet field encoding virtual links; VLAN leaves the host addresses untouched")
+    private OVXLinkField linkField = CmdLineSettings.DEFAULT_LINK_FIELD;
+
+    @Option(name = "--fa", aliases = "--flow-audit", usage = "After cleaning up flows, poll the flow statistics and delete leftover flows the shadow flow tables missed")
+    private Boolean flowAudit = CmdLineSettings.DEFAULT_FLOW_AUDIT;
+
+    @Option(name = "--fr", aliases = "--flow-reconcile", metaVar = "INT", usage = "Keep the flows found on a connecting switch for INT seconds for their tenants to reclaim, instead of wiping the switch (0 wipes)")
+    private Integer flowReconcile = CmdLineSettings.DEFAULT_FLOW_RECONCILE;
+
+    @Option(name = "--fd", aliases = "--flap-dampening", metaVar = "INT", usage = "Keep a disconnected switch and its virtual elements for INT seconds, for it to reconnect (0 removes it right away)")
+    private Integer flapDampening = CmdLineSettings.DEFAULT_FLAP_DAMPENING;
+
     /**
      * Gets the host OVX is running on.
      *
@@ -144,6 +192,15 @@ public class CmdLineSettings {
         return this.dbPort;
     }
 
+    /**
+     * Gets the directory of the local database journal.
+     *
+     * @return the journal directory, or null if MongoDB is used
+     */
+    public String getDBJournal() {
+        return this.dbJournal;
+    }
+
     /**
      * Checks if the database should be cleared on start.
      *
@@ -180,6 +237,15 @@ public class CmdLineSettings {
         return this.serverThreads;
     }
 
+    /**
+     * Gets the number of threads used to dispatch tenant messages.
+     *
+     * @return the number of scheduler threads used
+     */
+    public Integer getSchedulerThreads() {
+        return this.schedulerThreads;
+    }
+
     /**
      * Checks if BDDP is enabled.
      *
@@ -189,4 +255,51 @@ public class CmdLineSettings {
         return this.useBDDP;
     }
 
+    /**
+     * Checks if virtual link and route labels are aggregated, i.e. transit
+     * entries match on the tenant and link or route only.
+     *
+     * @return true if labels are aggregated, false otherwise
+     */
+    public Boolean getAggregateLinks() {
+        return this.aggregateLinks;
+    }
+
+    /**
+     * Gets the packet field encoding virtual links.
+     *
+     * @return the link field
+     */
+    public OVXLinkField getLinkField() {
+        return this.linkField;
+    }
+
+    /**
+     * Checks if flow cleanups are audited against the flow statistics of the
+     * switches.
+     *
+     * @return true if flow cleanups are audited, false otherwise
+     */
+    public Boolean getFlowAudit() {
+        return this.flowAudit;
+    }
+
+    /**
+     * Gets the grace period for the flows found on a connecting switch.
+     *
+     * @return the grace period in seconds, 0 if switches are wiped
+     */
+    public Integer getFlowReconcile() {
+        return this.flowReconcile;
+    }
+
+    /**
+     * Gets the time a disconnected switch is kept for.
+     *
+     * @return the time in seconds, 0 if switches are removed right away
+     */
+    public Integer getFlapDampening() {
+        return this.flapDampening;
+    }
+
 }
@@ -212,10 +212,27 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 final OFStatistics f = m.getFirstStatistics();
                 f.writeTo(data);
                 description.readFrom(data);
-                OFFlowMod fm = new OFFlowMod();
-                fm.setCommand(OFFlowMod.OFPFC_DELETE);
-                fm.setMatch(new OFMatch());
-                h.channel.write(Collections.singletonList(fm));
+                /* a switch that flapped is re-attached as it was */
+                final PhysicalSwitch suspended = PhysicalNetwork.getInstance()
+                        .getSwitch(h.featuresReply.getDatapathId());
+                if (suspended != null
+                        && suspended.resume(h.channel, h.featuresReply,
+                                description)) {
+                    h.sw = suspended;
+                    for (final OFPortStatus ps : h.pendingPortStatusMsg) {
+                        this.handlePortStatusMessage(h, ps);
+                    }
+                    h.pendingPortStatusMsg.clear();
+                    h.setState(ACTIVE);
+                    return;
+                }
+                /* flows are either wiped, or reconciled once booted */
+                if (OpenVirteXController.getInstance().getFlowReconcile() <= 0) {
+                    OFFlowMod fm = new OFFlowMod();
+                    fm.setCommand(OFFlowMod.OFPFC_DELETE);
+                    fm.setMatch(new OFMatch());
+                    h.channel.write(Collections.singletonList(fm));
+                }
                 h.sw = new PhysicalSwitch(h.featuresReply.getDatapathId());
                 // set switch information
                 // set features reply and channel first so we have a DPID and
@@ -727,7 +744,13 @@ public class SwitchChannelHandler extends OFChannelHandler {
 
         if (this.sw != null) {
             this.sw.setConnected(false);
-            this.sw.unregister();
+            final int dampening = OpenVirteXController.getInstance()
+                    .getFlapDampening();
+            if (dampening > 0) {
+                ((PhysicalSwitch) this.sw).suspend(dampening);
+            } else {
+                this.sw.unregister();
+            }
         }
 
     }
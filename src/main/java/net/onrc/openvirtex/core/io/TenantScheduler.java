@@ -0,0 +1,650 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Schedules the virtualization and devirtualization of OpenFlow messages
+ * across tenants using start-time fair queuing (SFQ). Every tenant gets a
+ * share of the dispatch threads proportional to its weight, so a tenant
+ * issuing a burst of messages cannot delay the messages of other tenants.
+ * <p>
+ * Within a tenant, messages are further split by an ordering key (typically
+ * the datapath ID of the switch they belong to). Messages with the same
+ * tenant and ordering key are dispatched one at a time in arrival order,
+ * which preserves the OpenFlow message ordering per switch. Physical work,
+ * e.g., port status messages, is also ordered against the work of all
+ * tenants with the same key: it runs once the work submitted before it has
+ * completed, and the work submitted after it waits until it has. Work of
+ * different tenants in between may run concurrently, as it concerns
+ * different virtual networks.
+ * <p>
+ * A tenant filling one of its queues does not block the I/O thread that
+ * submits its messages, as that thread serves the channels of other tenants
+ * too. Instead, reads from the submitting channel are suspended until the
+ * queue has drained to half its capacity.
+ * <p>
+ * Until the scheduler is started, messages are dispatched inline on the
+ * calling thread.
+ */
+public final class TenantScheduler {
+
+    private static Logger log = LogManager.getLogger(TenantScheduler.class
+            .getName());
+
+    /**
+     * Scheduling class of messages that cannot be attributed to a tenant,
+     * e.g., packet-ins before they are virtualized.
+     */
+    public static final int PHYSICAL = 0;
+    /**
+     * Weight of a tenant unless configured otherwise.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+    /**
+     * Number of pending messages per tenant and ordering key after which
+     * reads from the submitting channel are suspended.
+     */
+    static final int QUEUE_CAPACITY = 10000;
+    /**
+     * Number of latency samples kept per tenant.
+     */
+    static final int LATENCY_SAMPLES = 1024;
+
+    private static TenantScheduler instance = null;
+
+    // All scheduling state is guarded by this monitor
+    private final Object lock = new Object();
+    private final Map<Integer, TenantFlow> flows;
+    // Queues whose head task may run
+    private final PriorityQueue<SubQueue> ready;
+    // Ordering of physical and tenant work per ordering key
+    private final Map<Long, Sequence> sequences;
+    private double virtualTime;
+    private Worker[] workers;
+    private volatile boolean running;
+
+    /**
+     * Creates a stopped scheduler.
+     */
+    TenantScheduler() {
+        this.flows = new HashMap<Integer, TenantFlow>();
+        this.ready = new PriorityQueue<SubQueue>(64,
+                new Comparator<SubQueue>() {
+                    @Override
+                    public int compare(final SubQueue q1, final SubQueue q2) {
+                        return Double.compare(q1.head().finish,
+                                q2.head().finish);
+                    }
+                });
+        this.sequences = new HashMap<Long, Sequence>();
+        this.virtualTime = 0;
+        this.running = false;
+    }
+
+    /**
+     * Gets the scheduler instance.
+     *
+     * @return the scheduler instance
+     */
+    public static synchronized TenantScheduler getInstance() {
+        if (TenantScheduler.instance == null) {
+            TenantScheduler.instance = new TenantScheduler();
+        }
+        return TenantScheduler.instance;
+    }
+
+    /**
+     * Starts the given number of dispatch threads. If the number of threads
+     * is not positive, messages keep being dispatched inline.
+     *
+     * @param nThreads the number of dispatch threads
+     */
+    public void start(final int nThreads) {
+        synchronized (this.lock) {
+            if (this.running || nThreads <= 0) {
+                return;
+            }
+            this.running = true;
+            this.workers = new Worker[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                this.workers[i] = new Worker(i);
+                this.workers[i].start();
+            }
+        }
+        TenantScheduler.log.info("Started tenant scheduler with {} threads",
+                nThreads);
+    }
+
+    /**
+     * Stops the dispatch threads. Pending messages are dispatched inline by
+     * the calling thread.
+     */
+    public void stop() {
+        synchronized (this.lock) {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        for (final Worker w : this.workers) {
+            try {
+                w.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Task task = this.next();
+        while (task != null) {
+            this.execute(task);
+            task = this.next();
+        }
+    }
+
+    /**
+     * Checks if the dispatch threads are running.
+     *
+     * @return true if messages are dispatched asynchronously
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Dispatches a unit of work on behalf of a tenant. The work is queued
+     * behind earlier work with the same tenant ID and ordering key, and is
+     * run once the tenant's fair share allows it.
+     *
+     * @param tenantId the tenant ID, or {@link #PHYSICAL}
+     * @param orderKey work with the same key is run in submission order
+     * @param cost the cost of the work, e.g., the message length
+     * @param work the work
+     */
+    public void dispatch(final int tenantId, final long orderKey,
+            final int cost, final Runnable work) {
+        this.dispatch(tenantId, orderKey, cost, work, null);
+    }
+
+    /**
+     * Dispatches a unit of work read from a channel on behalf of a tenant.
+     * Reads from the channel are suspended while the queue of the work is
+     * full, and resumed once it has drained to half its capacity.
+     *
+     * @param tenantId the tenant ID, or {@link #PHYSICAL}
+     * @param orderKey work with the same key is run in submission order
+     * @param cost the cost of the work, e.g., the message length
+     * @param work the work
+     * @param channel the channel the work was read from, or null
+     */
+    public void dispatch(final int tenantId, final long orderKey,
+            final int cost, final Runnable work, final Channel channel) {
+        final long now = System.nanoTime();
+        if (this.running && !(Thread.currentThread() instanceof Worker)) {
+            synchronized (this.lock) {
+                if (this.running) {
+                    final TenantFlow flow = this.getOrCreateFlow(tenantId);
+                    SubQueue queue = flow.queues.get(orderKey);
+                    if (queue == null) {
+                        queue = new SubQueue(flow, orderKey);
+                        flow.queues.put(orderKey, queue);
+                    }
+                    this.enqueue(flow, queue, work, now, cost);
+                    // Suspending under the lock orders it before the resume
+                    if (channel != null && queue.tasks.size()
+                            >= TenantScheduler.QUEUE_CAPACITY
+                            && queue.suspended.add(channel)) {
+                        TenantScheduler.log.debug(
+                                "Suspending reads from {}: queue of tenant {} is full",
+                                channel, tenantId);
+                        channel.setReadable(false);
+                    }
+                    return;
+                }
+            }
+        }
+        // Stopped, or dispatched by a worker thread: run inline
+        this.execute(new Task(this.flow(tenantId), null, work, now, 0, 0));
+    }
+
+    /**
+     * Computes the SFQ tags of the work and appends it to the queue. Must be
+     * called with the lock held.
+     *
+     * @param flow the tenant state
+     * @param queue the queue of the ordering key
+     * @param work the work
+     * @param submitted the submission time in nanoseconds
+     * @param cost the cost of the work
+     */
+    private void enqueue(final TenantFlow flow, final SubQueue queue,
+            final Runnable work, final long submitted, final int cost) {
+        final double start = Math.max(this.virtualTime, flow.lastFinish);
+        final double finish = start + (double) Math.max(cost, 1) / flow.weight;
+        flow.lastFinish = finish;
+        Sequence seq = this.sequences.get(queue.orderKey);
+        if (seq == null) {
+            seq = new Sequence();
+            this.sequences.put(queue.orderKey, seq);
+        }
+        final Task task = new Task(flow, queue, work, submitted, start, finish);
+        if (flow.tenantId == TenantScheduler.PHYSICAL) {
+            task.epoch = ++seq.epoch;
+        } else {
+            task.epoch = seq.epoch;
+            final Integer pending = seq.pending.get(task.epoch);
+            seq.pending.put(task.epoch, pending == null ? 1 : pending + 1);
+        }
+        final boolean idle = queue.tasks.isEmpty() && !queue.busy;
+        queue.tasks.add(task);
+        if (idle) {
+            this.schedule(queue, seq);
+        }
+    }
+
+    /**
+     * Makes the head task of a queue eligible if the work it is ordered
+     * after has completed, or else parks the queue until it has. Must be
+     * called with the lock held.
+     *
+     * @param queue the queue
+     * @param seq the ordering of the queue's key
+     */
+    private void schedule(final SubQueue queue, final Sequence seq) {
+        final Task head = queue.head();
+        final boolean eligible;
+        if (queue.flow.tenantId == TenantScheduler.PHYSICAL) {
+            // Earlier physical work is done, as it is in the same queue
+            eligible = !seq.pending.containsKey(head.epoch - 1);
+        } else {
+            eligible = seq.done >= head.epoch;
+        }
+        if (eligible) {
+            this.ready.add(queue);
+            this.lock.notify();
+        } else {
+            seq.blocked.add(queue);
+        }
+    }
+
+    /**
+     * Sets the weight of a tenant. Only work dispatched after this call is
+     * affected.
+     *
+     * @param tenantId the tenant ID
+     * @param weight the weight, must be positive
+     */
+    public void setWeight(final int tenantId, final int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive: "
+                    + weight);
+        }
+        synchronized (this.lock) {
+            final TenantFlow flow = this.getOrCreateFlow(tenantId);
+            flow.weight = weight;
+            flow.removed = false;
+        }
+    }
+
+    /**
+     * Gets the weight of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the weight
+     */
+    public int getWeight(final int tenantId) {
+        synchronized (this.lock) {
+            final TenantFlow flow = this.flows.get(tenantId);
+            return flow == null ? TenantScheduler.DEFAULT_WEIGHT : flow.weight;
+        }
+    }
+
+    /**
+     * Removes the weight and statistics of a tenant. Work that is already
+     * queued is still dispatched, and the tenant is removed once its queues
+     * have drained.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void removeTenant(final int tenantId) {
+        synchronized (this.lock) {
+            final TenantFlow flow = this.flows.get(tenantId);
+            if (flow == null) {
+                return;
+            }
+            if (flow.queues.isEmpty()) {
+                this.flows.remove(tenantId);
+            } else {
+                flow.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Gets the dispatch statistics of a tenant: its weight, the number of
+     * queued messages, the number of dispatched messages, and the 50th, 90th
+     * and 99th percentile and maximum latency in microseconds of the most
+     * recently dispatched messages. Latency is measured from submission to
+     * completion of the work.
+     *
+     * @param tenantId the tenant ID
+     * @return the statistics, or null if the tenant is unknown
+     */
+    public Map<String, Object> getStatistics(final int tenantId) {
+        final TenantFlow flow;
+        int queued = 0;
+        synchronized (this.lock) {
+            flow = this.flows.get(tenantId);
+            if (flow == null) {
+                return null;
+            }
+            for (final SubQueue queue : flow.queues.values()) {
+                queued += queue.tasks.size();
+            }
+        }
+        final Map<String, Object> stats = flow.latency.toMap();
+        stats.put("weight", flow.weight);
+        stats.put("queued", queued);
+        return stats;
+    }
+
+    /**
+     * Gets the IDs of all tenants known to the scheduler.
+     *
+     * @return the tenant IDs
+     */
+    public Integer[] getTenantIds() {
+        synchronized (this.lock) {
+            return this.flows.keySet().toArray(new Integer[this.flows.size()]);
+        }
+    }
+
+    private TenantFlow flow(final int tenantId) {
+        synchronized (this.lock) {
+            return this.getOrCreateFlow(tenantId);
+        }
+    }
+
+    private TenantFlow getOrCreateFlow(final int tenantId) {
+        TenantFlow flow = this.flows.get(tenantId);
+        if (flow == null) {
+            flow = new TenantFlow(tenantId);
+            this.flows.put(tenantId, flow);
+        }
+        return flow;
+    }
+
+    /**
+     * Takes the eligible task with the smallest finish tag, and marks its
+     * queue busy.
+     *
+     * @return the task, or null if there is no eligible task
+     */
+    private Task next() {
+        synchronized (this.lock) {
+            final SubQueue queue = this.ready.poll();
+            if (queue == null) {
+                return null;
+            }
+            final Task task = queue.tasks.poll();
+            queue.busy = true;
+            this.virtualTime = task.start;
+            return task;
+        }
+    }
+
+    /**
+     * Runs the task, records its latency, and makes the next task of the
+     * same queue eligible.
+     *
+     * @param task the task
+     */
+    private void execute(final Task task) {
+        try {
+            task.work.run();
+        } catch (final RuntimeException e) {
+            TenantScheduler.log.error(
+                    "Error dispatching message for tenant {}: {}",
+                    task.flow.tenantId, e);
+        }
+        task.flow.latency.add((System.nanoTime() - task.submitted) / 1000);
+        if (task.queue == null) {
+            return;
+        }
+        synchronized (this.lock) {
+            final SubQueue queue = task.queue;
+            queue.busy = false;
+            final Sequence seq = this.sequences.get(queue.orderKey);
+            if (task.flow.tenantId == TenantScheduler.PHYSICAL) {
+                seq.done = task.epoch;
+            } else {
+                final int pending = seq.pending.get(task.epoch) - 1;
+                if (pending == 0) {
+                    seq.pending.remove(task.epoch);
+                } else {
+                    seq.pending.put(task.epoch, pending);
+                }
+            }
+            if (!seq.blocked.isEmpty()) {
+                final List<SubQueue> blocked = new ArrayList<SubQueue>(
+                        seq.blocked);
+                seq.blocked.clear();
+                for (final SubQueue q : blocked) {
+                    this.schedule(q, seq);
+                }
+            }
+            if (seq.done == seq.epoch && seq.pending.isEmpty()) {
+                this.sequences.remove(queue.orderKey);
+            }
+            if (!queue.tasks.isEmpty()) {
+                this.schedule(queue, seq);
+            } else {
+                final TenantFlow flow = queue.flow;
+                flow.queues.remove(queue.orderKey);
+                if (flow.removed && flow.queues.isEmpty()
+                        && this.flows.get(flow.tenantId) == flow) {
+                    this.flows.remove(flow.tenantId);
+                }
+            }
+            if (!queue.suspended.isEmpty() && queue.tasks.size()
+                    <= TenantScheduler.QUEUE_CAPACITY / 2) {
+                for (final Channel channel : queue.suspended) {
+                    channel.setReadable(true);
+                }
+                queue.suspended.clear();
+            }
+        }
+    }
+
+    /**
+     * Dispatch thread.
+     */
+    private final class Worker extends Thread {
+
+        Worker(final int id) {
+            super("ovx-tenant-scheduler-" + id);
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                synchronized (TenantScheduler.this.lock) {
+                    while (TenantScheduler.this.running
+                            && TenantScheduler.this.ready.isEmpty()) {
+                        try {
+                            TenantScheduler.this.lock.wait();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!TenantScheduler.this.running) {
+                        return;
+                    }
+                    task = TenantScheduler.this.next();
+                }
+                TenantScheduler.this.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Scheduling state of a tenant.
+     */
+    private static final class TenantFlow {
+        private final int tenantId;
+        private int weight;
+        private double lastFinish;
+        // Removed once all its queues have drained
+        private boolean removed;
+        private final Map<Long, SubQueue> queues;
+        private final LatencyRecorder latency;
+
+        TenantFlow(final int tenantId) {
+            this.tenantId = tenantId;
+            this.weight = TenantScheduler.DEFAULT_WEIGHT;
+            this.lastFinish = 0;
+            this.queues = new HashMap<Long, SubQueue>();
+            this.latency = new LatencyRecorder(TenantScheduler.LATENCY_SAMPLES);
+        }
+    }
+
+    /**
+     * FIFO of pending work for a tenant and ordering key.
+     */
+    private static final class SubQueue {
+        private final TenantFlow flow;
+        private final long orderKey;
+        private final ArrayDeque<Task> tasks;
+        private boolean busy;
+        // Channels whose reads are suspended until the queue drains
+        private final Set<Channel> suspended;
+
+        SubQueue(final TenantFlow flow, final long orderKey) {
+            this.flow = flow;
+            this.orderKey = orderKey;
+            this.tasks = new ArrayDeque<Task>();
+            this.busy = false;
+            this.suspended = new HashSet<Channel>();
+        }
+
+        Task head() {
+            return this.tasks.peek();
+        }
+    }
+
+    /**
+     * Ordering of the physical work and the tenant work with the same key.
+     * Physical work is numbered in submission order, and tenant work gets
+     * the number of the physical work submitted last before it.
+     */
+    private static final class Sequence {
+        // Number of the physical work submitted last
+        private long epoch;
+        // Number of the physical work completed last
+        private long done;
+        // Number of queued or running tenant tasks per epoch
+        private final Map<Long, Integer> pending;
+        // Queues whose head task waits for other work of this key
+        private final List<SubQueue> blocked;
+
+        Sequence() {
+            this.pending = new HashMap<Long, Integer>();
+            this.blocked = new ArrayList<SubQueue>();
+        }
+    }
+
+    /**
+     * A unit of work and its SFQ tags.
+     */
+    private static final class Task {
+        private final TenantFlow flow;
+        private final SubQueue queue;
+        private final Runnable work;
+        private final long submitted;
+        private final double start;
+        private final double finish;
+        // Position in the ordering of its key, see Sequence
+        private long epoch;
+
+        Task(final TenantFlow flow, final SubQueue queue, final Runnable work,
+                final long submitted, final double start, final double finish) {
+            this.flow = flow;
+            this.queue = queue;
+            this.work = work;
+            this.submitted = submitted;
+            this.start = start;
+            this.finish = finish;
+        }
+    }
+
+    /**
+     * Keeps the most recent latency samples of a tenant in a ring buffer.
+     */
+    static final class LatencyRecorder {
+        private final long[] samples;
+        private long count;
+        private long max;
+
+        LatencyRecorder(final int size) {
+            this.samples = new long[size];
+            this.count = 0;
+            this.max = 0;
+        }
+
+        synchronized void add(final long micros) {
+            this.samples[(int) (this.count % this.samples.length)] = micros;
+            this.count++;
+            this.max = Math.max(this.max, micros);
+        }
+
+        synchronized long percentile(final double p) {
+            final int n = (int) Math.min(this.count, this.samples.length);
+            if (n == 0) {
+                return 0;
+            }
+            final long[] sorted = Arrays.copyOf(this.samples, n);
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(p / 100 * n) - 1;
+            return sorted[Math.max(0, Math.min(rank, n - 1))];
+        }
+
+        synchronized Map<String, Object> toMap() {
+            final Map<String, Object> map = new HashMap<String, Object>();
+            map.put("count", this.count);
+            map.put("p50", this.percentile(50));
+            map.put("p90", this.percentile(90));
+            map.put("p99", this.percentile(99));
+            map.put("max", this.max);
+            return map;
+        }
+    }
+}
@@ -15,8 +15,49 @@
  ******************************************************************************/
 package net.onrc.openvirtex.db;
 
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage backend of the database manager. Documents are maps of field
+ * names to values, grouped in named collections.
+ */
 public interface DBConnection {
     public void connect(String host, Integer port);
 
     public void disconnect();
+
+    /**
+     * Makes a top-level field unique across the documents of a collection.
+     *
+     * @param collection the collection name
+     * @param key the field name
+     */
+    public void setIndex(String collection, String key);
+
+    /**
+     * Removes all documents of a collection.
+     *
+     * @param collection the collection name
+     */
+    public void clear(String collection);
+
+    /**
+     * Reads all documents of a collection.
+     *
+     * @param collection the collection name
+     * @return the documents
+     */
+    public List<Map<String, Object>> find(String collection);
+
+    /**
+     * Applies a batch of writes, in order. Failures of single writes are
+     * logged and do not prevent the rest of the batch from being applied,
+     * but are reported to the caller. Inserts skipped because the document
+     * is already stored do not count as failures.
+     *
+     * @param batch the writes
+     * @return the number of writes that could not be applied
+     */
+    public int write(List<DBWriteQueue.Write> batch);
 }
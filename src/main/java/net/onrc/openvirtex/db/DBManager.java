@@ -15,8 +15,8 @@
  ******************************************************************************/
 package net.onrc.openvirtex.db;
 
-import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,11 +25,8 @@ import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.datapath.DPIDandPort;
 import net.onrc.openvirtex.elements.datapath.DPIDandPortPair;
-import net.onrc.openvirtex.elements.datapath.Switch;
-import net.onrc.openvirtex.elements.link.Link;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
-import net.onrc.openvirtex.elements.port.Port;
 import net.onrc.openvirtex.exceptions.DuplicateIndexException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.routing.SwitchRoute;
@@ -37,13 +34,6 @@ import net.onrc.openvirtex.routing.SwitchRoute;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.MongoException;
-
-
 /**
  * The singleton class database manager is responsible
  * for all read/write operations to persistent storage.
@@ -51,6 +41,9 @@ import com.mongodb.MongoException;
  * and spawn virtual network managers for each that will
  * wait until all their elements are available and then boot
  * the virtual network.
+ * Updates are queued and written behind the caller's back
+ * by a {@link DBWriteQueue}; callers that need their changes
+ * persisted before proceeding use {@link #flush()}.
  */
 public final class DBManager {
     /**
@@ -65,11 +58,18 @@ public final class DBManager {
      * Database collection name for virtual networks.
      */
     public static final String DB_VNET = "VNET";
+    /**
+     * Maximum time in milliseconds to wait for queued updates to be written.
+     */
+    public static final long FLUSH_TIMEOUT = 5000;
 
     private static DBManager instance;
     private DBConnection dbConnection;
-    private Map<String, DBCollection> collections;
+    // Write-behind queue, started once the collections are available
+    private final DBWriteQueue writeQueue;
     private boolean clear;
+    // Managers of the virtual networks loaded at startup, by tenant ID
+    private Map<Integer, OVXNetworkManager> managers;
     // Mapping between physical dpids and a list of vnet managers
     private Map<Long, List<OVXNetworkManager>> dpidToMngr;
     // Mapping between physical links and a list of vnet managers
@@ -79,16 +79,21 @@ public final class DBManager {
 
     private static Logger log = LogManager.getLogger(DBManager.class.getName());
 
-    /** Creates the database manager instance. Connects
-     * to the database backend, and creates mappings between
-     * network elements and virtual network managers.
+    /** Creates the database manager instance, and creates
+     * mappings between network elements and virtual network
+     * managers.
      */
     private DBManager() {
-        this.dbConnection = new MongoConnection();
-        this.collections = new HashMap<String, DBCollection>();
+        this.managers = new HashMap<Integer, OVXNetworkManager>();
         this.dpidToMngr = new HashMap<Long, List<OVXNetworkManager>>();
         this.linkToMngr = new HashMap<DPIDandPortPair, List<OVXNetworkManager>>();
         this.portToMngr = new HashMap<DPIDandPort, List<OVXNetworkManager>>();
+        this.writeQueue = new DBWriteQueue() {
+            @Override
+            protected boolean write(List<DBWriteQueue.Write> batch) {
+                return DBManager.this.dbConnection.write(batch) == 0;
+            }
+        };
     }
 
     /**
@@ -105,107 +110,94 @@ public final class DBManager {
     }
 
     /**
-     * Initializes database backend by creating
-     * config, user and vnet collections.
+     * Initializes the MongoDB database backend.
      *
      * @param host the database host
      * @param port the database port
      * @param clear flag to clear the database
      */
     public void init(String host, Integer port, boolean clear) {
+        this.init(new MongoConnection(), host, port, clear);
+    }
+
+    /**
+     * Initializes the given database backend, and reads the
+     * persisted virtual networks unless the database is cleared.
+     *
+     * @param connection the database backend
+     * @param host the database host
+     * @param port the database port
+     * @param clear flag to clear the database
+     */
+    public void init(DBConnection connection, String host, Integer port,
+            boolean clear) {
+        this.dbConnection = connection;
         this.dbConnection.connect(host, port);
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
         try {
-            // Retrieve (create if non-existing) collections from db
-            // and store their handlers
-            DB db = ((MongoConnection) this.dbConnection).getDB();
-
-            DBCollection cfg = db.getCollection(DBManager.DB_CONFIG);
-            this.collections.put(DBManager.DB_CONFIG, cfg);
-            DBCollection user = db.getCollection(DBManager.DB_USER);
-            this.collections.put(DBManager.DB_USER, user);
-            DBCollection vnet = db.getCollection(DBManager.DB_VNET);
-            this.collections.put(DBManager.DB_VNET, vnet);
-
-            this.setIndex(DBManager.DB_VNET);
+            this.dbConnection.setIndex(DBManager.DB_VNET, TenantHandler.TENANT);
 
             this.clear = clear;
             if (this.clear) {
-                this.clear(DBManager.DB_VNET);
+                this.dbConnection.clear(DBManager.DB_VNET);
+                this.dbConnection.setIndex(DBManager.DB_VNET,
+                        TenantHandler.TENANT);
             } else {
                 this.readOVXNetworks();
             }
 
         } catch (Exception e) {
             log.error("Failed to initialize database: {}", e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
         }
+        this.writeQueue.start();
     }
 
     /**
-     * Sets the index of the given collection.
-     *
-     * @param coll the collection
+     * Writes out queued updates and closes connection to database backend.
      */
-    private void setIndex(String coll) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
+    public void close() {
+        if (!this.writeQueue.stop(DBManager.FLUSH_TIMEOUT)) {
+            log.warn("Timed out writing queued updates to database");
+        }
+        if (this.dbConnection == null) {
+            return;
+        }
         try {
-            BasicDBObject options = new BasicDBObject("unique", true);
-            BasicDBObject index = new BasicDBObject(TenantHandler.TENANT, 1);
-            this.collections.get(coll).ensureIndex(index, options);
+            this.dbConnection.disconnect();
         } catch (Exception e) {
-            log.error("Failed to set database index: {}", e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
+            log.error("Failed to close database connection: {}", e.getMessage());
         }
     }
 
     /**
-     * Clears the given collection in the database.
+     * Waits until every update queued so far has been written to the
+     * database, for API calls that must not return before their changes
+     * are persisted. Gives up after {@link #FLUSH_TIMEOUT} milliseconds.
      *
-     * @param coll the collection
+     * @return true if all queued updates were written
      */
-    private void clear(String coll) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            this.collections.get(coll).drop();
-            this.setIndex(DBManager.DB_VNET);
-        } catch (Exception e) {
-            log.error("Failed to clear database: {}", e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
+    public boolean flush() {
+        if (this.writeQueue.flush(DBManager.FLUSH_TIMEOUT)) {
+            return true;
         }
+        log.warn("Queued database updates were not all written, {} still queued",
+                this.writeQueue.size());
+        return false;
     }
 
     /**
-     * Closes connection to database backend.
+     * Holds back the updates queued from now on, so that those of a group
+     * of API calls are written together. Every call must be matched by a
+     * call to {@link #release()}.
      */
-    public void close() {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            this.dbConnection.disconnect();
-        } catch (Exception e) {
-            log.error("Failed to close database connection: {}", e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
-        }
+    public void hold() {
+        this.writeQueue.hold();
+    }
+
+    /**
+     * Releases a hold on the queued updates, see {@link #hold()}.
+     */
+    public void release() {
+        this.writeQueue.release();
     }
 
     /**
@@ -214,26 +206,8 @@ public final class DBManager {
      * @param obj the object to create
      */
     public void createDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.insert(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            // Do not log when duplicate key
-            // Virtual network was already stored and we're trying to create it
-            // again on startup
-            if (e instanceof MongoException.DuplicateKey) {
-                log.warn("Skipped saving of virtual network with duplicate tenant id");
-            } else {
-                log.error("Failed to insert document into database: {}", e.getMessage());
-            }
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
-        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.insert(obj.getDBName(),
+                obj.getDBObject()));
     }
 
     /**
@@ -242,20 +216,27 @@ public final class DBManager {
      * @param obj the object to remove
      */
     public void removeDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.remove(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            log.error("Failed to remove document from database: {}",
-                    e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
+        this.writeQueue.enqueue(DBWriteQueue.Write.remove(obj.getDBName(),
+                obj.getDBObject()));
+    }
+
+    /**
+     * Removes everything stored for a virtual network with a single delete,
+     * instead of pulling its elements one by one.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void removeTenant(int tenantId) {
+        OVXNetworkManager mngr;
+        synchronized (this.managers) {
+            mngr = this.managers.remove(tenantId);
         }
+        if (mngr != null) {
+            mngr.cancel();
+            this.restored(mngr);
+        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.remove(DB_VNET,
+                DBManager.field(TenantHandler.TENANT, tenantId)));
     }
 
     /**
@@ -264,20 +245,20 @@ public final class DBManager {
      * @param obj the object to persist
      */
     public void save(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$addToSet",
-                new BasicDBObject(obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update, true, false);
-        } catch (Exception e) {
-            log.error("Failed to update database: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.add(obj.getDBName(),
+                obj.getDBIndex(), obj.getDBKey(), obj.getDBObject()));
+    }
+
+    /**
+     * Sets fields of the document of persistable object obj, e.g., attributes
+     * of a virtual network that change after it was created.
+     *
+     * @param obj the persisted object
+     * @param fields the fields and their values
+     */
+    public void update(Persistable obj, Map<String, Object> fields) {
+        this.writeQueue.enqueue(DBWriteQueue.Write.set(obj.getDBName(),
+                obj.getDBIndex(), fields));
     }
 
     /**
@@ -286,20 +267,8 @@ public final class DBManager {
      * @param obj the object to remove
      */
     public void remove(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$pull", new BasicDBObject(
-                obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.pull(obj.getDBName(),
+                obj.getDBIndex(), obj.getDBKey(), obj.getDBObject()));
     }
 
     /**
@@ -309,21 +278,9 @@ public final class DBManager {
      * @param switchId the dpid
      */
     public void removeSwitchPath(int tenantId, long switchId) {
-        BasicDBObject query = new BasicDBObject();
-        query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                SwitchRoute.DB_KEY, new BasicDBObject(TenantHandler.DPID,
-                        switchId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.pull(DB_VNET,
+                DBManager.field(TenantHandler.TENANT, tenantId),
+                SwitchRoute.DB_KEY, DBManager.field(TenantHandler.DPID, switchId)));
     }
 
     /**
@@ -333,244 +290,118 @@ public final class DBManager {
      * @param linkId the link ID
      */
     public void removeLinkPath(int tenantId, int linkId) {
-        BasicDBObject query = new BasicDBObject();
-        query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                OVXLink.DB_KEY, new BasicDBObject(TenantHandler.LINK, linkId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
-        }
+        this.writeQueue.enqueue(DBWriteQueue.Write.pull(DB_VNET,
+                DBManager.field(TenantHandler.TENANT, tenantId),
+                OVXLink.DB_KEY, DBManager.field(TenantHandler.LINK, linkId)));
+    }
+
+    /**
+     * Creates a document with a single field, used as query or condition.
+     *
+     * @param key the field name
+     * @param value the field value
+     * @return the document
+     */
+    private static Map<String, Object> field(String key, Object value) {
+        Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put(key, value);
+        return doc;
     }
 
     /**
      * Reads all virtual networks from database and spawn an OVXNetworkManager
-     * for each.
+     * for each. The managers restore their networks in parallel.
      */
-    @SuppressWarnings("unchecked")
     private void readOVXNetworks() {
-        PrintStream ps = System.err;
-        System.setErr(null);
+        List<OVXNetworkManager> mngrs = new ArrayList<OVXNetworkManager>();
         try {
-            // Get a cursor over all virtual networks
-            DBCollection coll = this.collections.get(DBManager.DB_VNET);
-            DBCursor cursor = coll.find();
-            log.info("Loading {} virtual networks from database", cursor.size());
-            while (cursor.hasNext()) {
-                OVXNetworkManager mngr = null;
-                Map<String, Object> vnet = cursor.next().toMap();
+            List<Map<String, Object>> vnets = this.dbConnection
+                    .find(DBManager.DB_VNET);
+            log.info("Loading {} virtual networks from database", vnets.size());
+            for (Map<String, Object> vnet : vnets) {
                 try {
                     // Create vnet manager for each virtual network
-                    mngr = new OVXNetworkManager(vnet);
+                    OVXNetworkManager mngr = new OVXNetworkManager(vnet);
                     OVXNetwork.reserveTenantId(mngr.getTenantId());
-                    // Accessing DB_KEY field through a class derived from the
-                    // abstract OVXSwitch
-                    List<Map<String, Object>> switches = (List<Map<String, Object>>) vnet
-                            .get(Switch.DB_KEY);
-                    List<Map<String, Object>> links = (List<Map<String, Object>>) vnet
-                            .get(Link.DB_KEY);
-                    List<Map<String, Object>> ports = (List<Map<String, Object>>) vnet
-                            .get(Port.DB_KEY);
-                    List<Map<String, Object>> routes = (List<Map<String, Object>>) vnet
-                            .get(SwitchRoute.DB_KEY);
-                    this.readOVXSwitches(switches, mngr);
-                    this.readOVXLinks(links, mngr);
-                    this.readOVXPorts(ports, mngr);
-                    this.readOVXRoutes(routes, mngr);
+                    this.register(mngr);
+                    mngrs.add(mngr);
                     DBManager.log
                             .info("Virtual network {} waiting for {} switches, {} links and {} ports",
                                     mngr.getTenantId(), mngr.getSwitchCount(),
                                     mngr.getLinkCount(), mngr.getPortCount());
-                } catch (IndexOutOfBoundException | DuplicateIndexException e) {
+                } catch (IndexOutOfBoundException | DuplicateIndexException
+                        | ClassCastException | NullPointerException e) {
                     DBManager.log.error(
                             "Failed to load virtual network {}: {}",
-                            mngr.getTenantId(), e.getMessage());
+                            vnet.get(TenantHandler.TENANT), e.getMessage());
                 }
             }
         } catch (Exception e) {
             log.error("Failed to load virtual networks from db: {}",
                     e.getMessage());
-        } finally {
-            System.setErr(ps);
+        }
+        for (OVXNetworkManager mngr : mngrs) {
+            mngr.start();
         }
     }
 
     /**
-     * Reads OVX switches from a list of maps in db format and registers them in
-     * their manager.
+     * Registers a virtual network manager for the physical switches, links
+     * and ports it waits for.
      *
-     * @param switches the list of switches
      * @param mngr the virtual network manager
      */
-    @SuppressWarnings("unchecked")
-    private void readOVXSwitches(List<Map<String, Object>> switches,
-            OVXNetworkManager mngr) {
-        if (switches == null) {
-            return;
+    private void register(OVXNetworkManager mngr) {
+        synchronized (this.managers) {
+            this.managers.put(mngr.getTenantId(), mngr);
         }
-        // Read explicit switch mappings (virtual to physical)
-        for (Map<String, Object> sw : switches) {
-            List<Long> physwitches = (List<Long>) sw.get(TenantHandler.DPIDS);
-            for (Long physwitch : physwitches) {
-                mngr.registerSwitch(physwitch);
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(physwitch);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(physwitch,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(physwitch).add(mngr);
+        synchronized (this.dpidToMngr) {
+            for (Long dpid : mngr.getDependencies(Long.class)) {
+                DBManager.add(this.dpidToMngr, dpid, mngr);
             }
         }
-    }
-
-    /**
-     * Reads OVX links from a list of maps in db format and registers them in
-     * their manager. Also reads switches that form a virtual link and registers
-     * them.
-     *
-     * @param links the list of links
-     * @param mngr the virtual network manager
-     */
-    @SuppressWarnings("unchecked")
-    private void readOVXLinks(List<Map<String, Object>> links,
-            OVXNetworkManager mngr) {
-        if (links == null) {
-            return;
+        synchronized (this.linkToMngr) {
+            for (DPIDandPortPair dpp : mngr
+                    .getDependencies(DPIDandPortPair.class)) {
+                DBManager.add(this.linkToMngr, dpp, mngr);
+            }
         }
-        // Register links in the appropriate manager
-        for (Map<String, Object> link : links) {
-            List<Map<String, Object>> path = (List<Map<String, Object>>) link
-                    .get(TenantHandler.PATH);
-            for (Map<String, Object> hop : path) {
-                // Fetch link
-                Long srcDpid = (Long) hop.get(TenantHandler.SRC_DPID);
-                Short srcPort = ((Integer) hop.get(TenantHandler.SRC_PORT))
-                        .shortValue();
-                Long dstDpid = (Long) hop.get(TenantHandler.DST_DPID);
-                Short dstPort = ((Integer) hop.get(TenantHandler.DST_PORT))
-                        .shortValue();
-                DPIDandPortPair dpp = new DPIDandPortPair(new DPIDandPort(
-                        srcDpid, srcPort), new DPIDandPort(dstDpid, dstPort));
-                // Register link in current manager
-                mngr.registerLink(dpp);
-                // Update list of managers that wait for this link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs == null) {
-                    this.linkToMngr
-                            .put(dpp, new ArrayList<OVXNetworkManager>());
-                }
-                this.linkToMngr.get(dpp).add(mngr);
-
-                // Register src/dst switches of this link
-                mngr.registerSwitch(srcDpid);
-                mngr.registerSwitch(dstDpid);
-                // Update list of managers that wait for these switches
-                mngrs = this.dpidToMngr.get(srcDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(srcDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(srcDpid).add(mngr);
-                mngrs = this.dpidToMngr.get(dstDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(dstDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(dstDpid).add(mngr);
+        synchronized (this.portToMngr) {
+            for (DPIDandPort port : mngr.getDependencies(DPIDandPort.class)) {
+                DBManager.add(this.portToMngr, port, mngr);
             }
         }
     }
 
-    /**
-     * Reads OVX links from a list of maps in db format and registers them in
-     * their manager. Also reads switches that form a virtual link and register
-     * them.
-     *
-     * @param ports the list of ports
-     * @param mngr the virtual network manager
-     */
-    private void readOVXPorts(List<Map<String, Object>> ports,
+    private static <K> void add(Map<K, List<OVXNetworkManager>> map, K key,
             OVXNetworkManager mngr) {
-        if (ports == null) {
-            return;
-        }
-        for (Map<String, Object> port : ports) {
-            // Read dpid and port number
-            Long dpid = (Long) port.get(TenantHandler.DPID);
-            Short portNumber = ((Integer) port.get(TenantHandler.PORT))
-                    .shortValue();
-            DPIDandPort p = new DPIDandPort(dpid, portNumber);
-            // Register port in current manager
-            mngr.registerPort(p);
-            // Update list of managers that wait for this port
-            List<OVXNetworkManager> mngrs = this.portToMngr.get(p);
-            if (mngrs == null) {
-                this.portToMngr.put(p, new ArrayList<OVXNetworkManager>());
-            }
-            this.portToMngr.get(p).add(mngr);
+        List<OVXNetworkManager> mngrs = map.get(key);
+        if (mngrs == null) {
+            mngrs = new ArrayList<OVXNetworkManager>();
+            map.put(key, mngrs);
         }
+        mngrs.add(mngr);
     }
 
     /**
-     * Reads OVX routes from a list of maps in db format and registers the
-     * switches and links in their manager.
+     * Gets the managers waiting for a physical element. Copies the list so
+     * that the managers are called without holding the lock of the map.
      *
-     * @param routes the list of routes
-     * @param mngr the virtual network manager
+     * @param map the map of elements to managers
+     * @param key the element
+     * @return the managers
      */
-    @SuppressWarnings({ "unchecked" })
-    private void readOVXRoutes(List<Map<String, Object>> routes,
-            OVXNetworkManager mngr) {
-        if (routes == null) {
-            return;
-        }
-        for (Map<String, Object> route : routes) {
-            List<Map<String, Object>> path = (List<Map<String, Object>>) route
-                    .get(TenantHandler.PATH);
-            for (Map<String, Object> hop : path) {
-                Long srcDpid = (Long) hop.get(TenantHandler.SRC_DPID);
-                Short srcPort = ((Integer) hop.get(TenantHandler.SRC_PORT))
-                        .shortValue();
-                Long dstDpid = (Long) hop.get(TenantHandler.DST_DPID);
-                Short dstPort = ((Integer) hop.get(TenantHandler.DST_PORT))
-                        .shortValue();
-                DPIDandPortPair dpp = new DPIDandPortPair(new DPIDandPort(
-                        srcDpid, srcPort), new DPIDandPort(dstDpid, dstPort));
-                // Register links in the appropriate manager
-                mngr.registerLink(dpp);
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs == null) {
-                    this.linkToMngr.put(dpp, new ArrayList<OVXNetworkManager>());
-                }
-                this.linkToMngr.get(dpp).add(mngr);
-
-                // Register switches
-                mngr.registerSwitch(srcDpid);
-                mngr.registerSwitch(dstDpid);
-                mngrs = this.dpidToMngr.get(srcDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(srcDpid, new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(srcDpid).add(mngr);
-                mngrs = this.dpidToMngr.get(dstDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(dstDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(dstDpid).add(mngr);
-            }
+    private static <K> List<OVXNetworkManager> get(
+            Map<K, List<OVXNetworkManager>> map, K key) {
+        synchronized (map) {
+            List<OVXNetworkManager> mngrs = map.get(key);
+            return mngrs == null ? Collections.<OVXNetworkManager>emptyList()
+                    : new ArrayList<OVXNetworkManager>(mngrs);
         }
     }
 
     /**
      * Adds physical switch to the OVXNetworkManagers that are waiting for this
-     * switch. Removes OVXNetworkManagers that were booted after adding this
      * switch. This method is called by the PhysicalSwitch.boot() method.
      *
      * @param dpid the swith dpid
@@ -578,20 +409,10 @@ public final class DBManager {
     public void addSwitch(final Long dpid) {
         // Disregard physical switch creation if OVX was started with --dbClear
         if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical switch
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(dpid);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setSwitch(dpid);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
+            // Lookup virtual networks that use this physical switch
+            for (OVXNetworkManager mngr : DBManager.get(this.dpidToMngr, dpid)) {
+                mngr.setSwitch(dpid);
             }
-            this.removeOVXNetworkManagers(completedMngrs);
         }
     }
 
@@ -605,41 +426,24 @@ public final class DBManager {
     public void delSwitch(final Long dpid) {
         // Disregard physical switch deletion if OVX was started with --dbClear
         if (!this.clear) {
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical switch
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(dpid);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetSwitch(dpid);
-                    }
-                }
+            for (OVXNetworkManager mngr : DBManager.get(this.dpidToMngr, dpid)) {
+                mngr.unsetSwitch(dpid);
             }
         }
     }
 
     /**
      * Adds physical link to the OVXNetworkManagers that are waiting for this
-     * link. Removes OVXNetworkManagers that were booted after adding this link.
+     * link.
      *
      * @param dpp physical link given as a dpid and port pair
      */
     public void addLink(final DPIDandPortPair dpp) {
         // Disregard physical link creation if OVX was started with --dbClear
         if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.linkToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setLink(dpp);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
+            for (OVXNetworkManager mngr : DBManager.get(this.linkToMngr, dpp)) {
+                mngr.setLink(dpp);
             }
-            this.removeOVXNetworkManagers(completedMngrs);
         }
     }
 
@@ -652,41 +456,24 @@ public final class DBManager {
     public void delLink(final DPIDandPortPair dpp) {
         // Disregard physical link deletion if OVX was started with --dbClear
         if (!this.clear) {
-            synchronized (this.linkToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetLink(dpp);
-                    }
-                }
+            for (OVXNetworkManager mngr : DBManager.get(this.linkToMngr, dpp)) {
+                mngr.unsetLink(dpp);
             }
         }
     }
 
     /**
      * Adds physical port to the OVXNetworkManagers that are waiting for this
-     * port. Remove OVXNetworkManagers that were booted after adding this port.
+     * port.
      *
      * @param port the port given as a dpid and port pair
      */
     public void addPort(final DPIDandPort port) {
         // Disregard physical port creation if OVX was started with --dbClear
         if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.portToMngr) {
-                // Lookup virtual networks that use this physical port
-                List<OVXNetworkManager> mngrs = this.portToMngr.get(port);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setPort(port);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
+            for (OVXNetworkManager mngr : DBManager.get(this.portToMngr, port)) {
+                mngr.setPort(port);
             }
-            this.removeOVXNetworkManagers(completedMngrs);
         }
     }
 
@@ -699,40 +486,75 @@ public final class DBManager {
     public void delPort(final DPIDandPort port) {
         // Disregard physical link deletion if OVX was started with --dbClear
         if (!this.clear) {
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.portToMngr.get(port);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetPort(port);
-                    }
-                }
+            for (OVXNetworkManager mngr : DBManager.get(this.portToMngr, port)) {
+                mngr.unsetPort(port);
             }
         }
     }
 
     /**
-     * Removes network managers that were waiting for switches, links or ports.
+     * Removes a network manager that has booted its virtual network from
+     * the managers waiting for switches, links or ports. Its restore
+     * progress stays available.
      *
-     * @param mngrs list of virtual network managers
+     * @param mngr the virtual network manager
      */
-    private void removeOVXNetworkManagers(List<OVXNetworkManager> mngrs) {
-        for (OVXNetworkManager mngr : mngrs) {
-            synchronized (this.dpidToMngr) {
-                for (Long dpid : this.dpidToMngr.keySet()) {
-                    this.dpidToMngr.get(dpid).remove(mngr);
-                }
+    void restored(OVXNetworkManager mngr) {
+        synchronized (this.dpidToMngr) {
+            for (List<OVXNetworkManager> mngrs : this.dpidToMngr.values()) {
+                mngrs.remove(mngr);
             }
-            synchronized (this.linkToMngr) {
-                for (DPIDandPortPair dpp : this.linkToMngr.keySet()) {
-                    this.linkToMngr.get(dpp).remove(mngr);
-                }
+        }
+        synchronized (this.linkToMngr) {
+            for (List<OVXNetworkManager> mngrs : this.linkToMngr.values()) {
+                mngrs.remove(mngr);
             }
-            synchronized (this.portToMngr) {
-                for (DPIDandPort dp : this.portToMngr.keySet()) {
-                    this.portToMngr.get(dp).remove(mngr);
-                }
+        }
+        synchronized (this.portToMngr) {
+            for (List<OVXNetworkManager> mngrs : this.portToMngr.values()) {
+                mngrs.remove(mngr);
+            }
+        }
+    }
+
+    /**
+     * Gets the restore progress of a virtual network loaded from the
+     * database at startup.
+     *
+     * @param tenantId the tenant ID
+     * @return the progress, or null if the network was not restored
+     */
+    public Map<String, Object> getRestoreProgress(int tenantId) {
+        OVXNetworkManager mngr;
+        synchronized (this.managers) {
+            mngr = this.managers.get(tenantId);
+        }
+        return mngr == null ? null : mngr.getProgress();
+    }
+
+    /**
+     * Gets the restore progress of all virtual networks loaded from the
+     * database at startup, and how many of them are booted.
+     *
+     * @return the progress
+     */
+    public Map<String, Object> getRestoreProgress() {
+        List<OVXNetworkManager> mngrs;
+        synchronized (this.managers) {
+            mngrs = new ArrayList<OVXNetworkManager>(this.managers.values());
+        }
+        List<Map<String, Object>> networks = new ArrayList<Map<String, Object>>();
+        int booted = 0;
+        for (OVXNetworkManager mngr : mngrs) {
+            if (mngr.getStatus()) {
+                booted++;
             }
+            networks.add(mngr.getProgress());
         }
+        Map<String, Object> progress = new HashMap<String, Object>();
+        progress.put("networksTotal", mngrs.size());
+        progress.put("networksBooted", booted);
+        progress.put("networks", networks);
+        return progress;
     }
 }
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Write-behind queue between the database manager and the database backend.
+ * Callers enqueue writes and return immediately; a single flusher thread
+ * drains the queue in batches and hands them to {@link #write(List)}.
+ * <p>
+ * Writes are keyed by the document element they touch. A write to a key
+ * that is still queued replaces the queued write and moves to the tail, so
+ * only the last intent for every element reaches the database while the
+ * relative order of the surviving writes is preserved. When the database
+ * falls behind and the queue is full, callers block until the flusher has
+ * made room.
+ * <p>
+ * The queue can be held while a group of related writes is enqueued, so
+ * that the group reaches the backend in as few batches as possible.
+ */
+public abstract class DBWriteQueue implements Runnable {
+
+    /**
+     * Default maximum number of queued writes before callers block.
+     */
+    public static final int CAPACITY = 4096;
+    /**
+     * Default maximum number of writes handed to the backend at once.
+     */
+    public static final int BATCH_SIZE = 256;
+
+    private static Logger log = LogManager.getLogger(DBWriteQueue.class
+            .getName());
+
+    private final int capacity;
+    private final int batchSize;
+    // Queued writes in the order they must be applied
+    private final LinkedHashMap<Object, Write> pending;
+    // Sequence number of the last enqueued write
+    private long enqueued;
+    // All writes up to and including this sequence number were handed to
+    // the backend
+    private long written;
+    // Sequence number of the last write of the last batch that failed
+    private long failed;
+    private boolean running;
+    private Thread flusher;
+    // Number of callers holding the queue
+    private int holds;
+    // True if the next batch takes every queued write
+    private boolean drain;
+
+    /**
+     * Creates a write queue with default capacity and batch size.
+     */
+    public DBWriteQueue() {
+        this(DBWriteQueue.CAPACITY, DBWriteQueue.BATCH_SIZE);
+    }
+
+    /**
+     * Creates a write queue.
+     *
+     * @param capacity maximum number of queued writes
+     * @param batchSize maximum number of writes per batch
+     */
+    public DBWriteQueue(int capacity, int batchSize) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.pending = new LinkedHashMap<Object, Write>();
+    }
+
+    /**
+     * Starts the flusher thread.
+     */
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.flusher = new Thread(this, "DBWriteQueue");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Stops accepting writes, and waits for at most timeout milliseconds
+     * for the queued writes to be applied.
+     *
+     * @param timeout time to wait in milliseconds
+     * @return true if all queued writes were applied
+     */
+    public boolean stop(long timeout) {
+        Thread thread;
+        synchronized (this) {
+            if (!this.running) {
+                return this.pending.isEmpty();
+            }
+            this.running = false;
+            this.notifyAll();
+            thread = this.flusher;
+        }
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!this.pending.isEmpty()) {
+                log.warn("Dropped {} database writes on shutdown",
+                        this.pending.size());
+            }
+            return !thread.isAlive();
+        }
+    }
+
+    /**
+     * Queues a write, replacing any queued write to the same key. Blocks
+     * while the queue is full. Writes are dropped once the queue is stopped.
+     *
+     * @param write the write
+     */
+    public synchronized void enqueue(Write write) {
+        boolean interrupted = false;
+        while (this.running && this.pending.size() >= this.capacity
+                && !this.pending.containsKey(write.key)) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                // Never lose a write; restore the flag once queued
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!this.running) {
+            log.debug("Dropped database write after shutdown: {}", write);
+            return;
+        }
+        write.seq = ++this.enqueued;
+        this.pending.remove(write.key);
+        this.pending.put(write.key, write);
+        this.notifyAll();
+    }
+
+    /**
+     * Waits for at most timeout milliseconds until every write queued before
+     * this call has been handed to the backend.
+     *
+     * @param timeout time to wait in milliseconds
+     * @return true if the writes were applied in time, false if they were
+     *         not or if the backend failed to apply some of them
+     */
+    public synchronized boolean flush(long timeout) {
+        final long start = this.written;
+        final long target = this.enqueued;
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (this.written < target) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0 || (!this.running && this.flusher == null)) {
+                return false;
+            }
+            try {
+                this.wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return this.failed <= start;
+    }
+
+    /**
+     * Holds back the queued writes until {@link #release()} is called as many
+     * times as this method, unless the queue fills up meanwhile.
+     */
+    public synchronized void hold() {
+        this.holds++;
+    }
+
+    /**
+     * Releases a hold on the queue. Once all holds are released, the writes
+     * queued meanwhile are handed to the backend in a single batch.
+     */
+    public synchronized void release() {
+        if (this.holds > 0 && --this.holds == 0) {
+            this.drain = true;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Gets the number of queued writes.
+     *
+     * @return number of queued writes
+     */
+    public synchronized int size() {
+        return this.pending.size();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<Write> batch = new ArrayList<Write>();
+            synchronized (this) {
+                while (this.running
+                        && (this.pending.isEmpty() || (this.holds > 0 && this.pending
+                                .size() < this.capacity))) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.pending.isEmpty()) {
+                    this.flusher = null;
+                    this.notifyAll();
+                    return;
+                }
+                Iterator<Write> it = this.pending.values().iterator();
+                while (it.hasNext()
+                        && (this.drain || batch.size() < this.batchSize)) {
+                    batch.add(it.next());
+                    it.remove();
+                }
+                this.drain = false;
+                // Make room for blocked callers
+                this.notifyAll();
+            }
+            boolean ok = false;
+            try {
+                ok = this.write(batch);
+            } catch (RuntimeException e) {
+                log.error("Failed to write {} updates to database: {}",
+                        batch.size(), e.getMessage());
+            }
+            synchronized (this) {
+                if (!ok) {
+                    this.failed = batch.get(batch.size() - 1).seq;
+                }
+                if (this.pending.isEmpty()) {
+                    this.written = this.enqueued;
+                } else {
+                    this.written = this.pending.values().iterator().next().seq - 1;
+                }
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of writes to the backend, in order. Called from the
+     * flusher thread only.
+     *
+     * @param batch the writes
+     * @return true if all writes were applied
+     */
+    protected abstract boolean write(List<Write> batch);
+
+    /**
+     * The kinds of writes the database manager issues.
+     */
+    public enum Kind {
+        /** Inserts a document. */
+        INSERT,
+        /** Removes all documents matching a query. */
+        REMOVE,
+        /** Adds an element to an array of a document, creating it if needed. */
+        ADD,
+        /** Pulls matching elements from an array of a document. */
+        PULL,
+        /** Sets fields of a document. */
+        SET
+    }
+
+    /**
+     * A single queued write.
+     */
+    public static final class Write {
+        private final Kind kind;
+        private final String collection;
+        private final Map<String, Object> query;
+        private final String field;
+        private final Map<String, Object> element;
+        private final Object key;
+        private long seq;
+
+        private Write(Kind kind, String collection, Map<String, Object> query,
+                String field, Map<String, Object> element, Object key) {
+            this.kind = kind;
+            this.collection = collection;
+            this.query = query;
+            this.field = field;
+            this.element = element;
+            this.key = key;
+        }
+
+        /**
+         * Creates a write that inserts a document.
+         *
+         * @param collection the collection name
+         * @param doc the document
+         * @return the write
+         */
+        public static Write insert(String collection, Map<String, Object> doc) {
+            return new Write(Kind.INSERT, collection, doc, null, null,
+                    Arrays.asList(collection, Kind.INSERT, doc));
+        }
+
+        /**
+         * Creates a write that removes the documents matching a query.
+         *
+         * @param collection the collection name
+         * @param query the query
+         * @return the write
+         */
+        public static Write remove(String collection, Map<String, Object> query) {
+            return new Write(Kind.REMOVE, collection, query, null, null,
+                    Arrays.asList(collection, Kind.REMOVE, query));
+        }
+
+        /**
+         * Creates a write that adds an element to an array field of the
+         * document matching a query. Shares its key with the matching pull,
+         * so that only the last of the two is applied.
+         *
+         * @param collection the collection name
+         * @param query the document query
+         * @param field the array field
+         * @param element the element
+         * @return the write
+         */
+        public static Write add(String collection, Map<String, Object> query,
+                String field, Map<String, Object> element) {
+            return new Write(Kind.ADD, collection, query, field, element,
+                    Arrays.asList(collection, query, field, element));
+        }
+
+        /**
+         * Creates a write that pulls the elements matching a condition from
+         * an array field of the document matching a query.
+         *
+         * @param collection the collection name
+         * @param query the document query
+         * @param field the array field
+         * @param element the element, or a condition on the elements
+         * @return the write
+         */
+        public static Write pull(String collection, Map<String, Object> query,
+                String field, Map<String, Object> element) {
+            return new Write(Kind.PULL, collection, query, field, element,
+                    Arrays.asList(collection, query, field, element));
+        }
+
+        /**
+         * Creates a write that sets fields of the document matching a query.
+         * Replaces any queued write setting the same fields.
+         *
+         * @param collection the collection name
+         * @param query the document query
+         * @param fields the fields and their values
+         * @return the write
+         */
+        public static Write set(String collection, Map<String, Object> query,
+                Map<String, Object> fields) {
+            return new Write(Kind.SET, collection, query, null, fields,
+                    Arrays.asList(collection, Kind.SET, query,
+                            new HashSet<String>(fields.keySet())));
+        }
+
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        public String getCollection() {
+            return this.collection;
+        }
+
+        /**
+         * Gets the document query, or the document itself for inserts.
+         *
+         * @return the query
+         */
+        public Map<String, Object> getQuery() {
+            return this.query;
+        }
+
+        public String getField() {
+            return this.field;
+        }
+
+        public Map<String, Object> getElement() {
+            return this.element;
+        }
+
+        @Override
+        public String toString() {
+            return this.kind + " " + this.collection + " " + this.query
+                    + (this.field == null ? "" : " " + this.field + " "
+                            + this.element);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of documents for the local journal. Values are
+ * normalized the way MongoDB stores them, so documents read back from the
+ * journal have the same types as documents read from MongoDB: short and
+ * byte values become integers and floats become doubles.
+ */
+final class DocumentCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+
+    /**
+     * Overrides default constructor to no-op private constructor.
+     * Required by checkstyle.
+     */
+    private DocumentCodec() {
+    }
+
+    /**
+     * Encodes a value into a byte array.
+     *
+     * @param value the value
+     * @return the encoded value
+     * @throws IllegalArgumentException if the value has an unsupported type
+     */
+    static byte[] encode(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DocumentCodec.write(new DataOutputStream(bytes), value);
+        } catch (IOException e) {
+            // Cannot happen on a byte array
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a value from a byte array.
+     *
+     * @param bytes the encoded value
+     * @return the value
+     * @throws IOException if the bytes are not a valid encoding
+     */
+    static Object decode(byte[] bytes) throws IOException {
+        return DocumentCodec.read(new DataInputStream(new ByteArrayInputStream(
+                bytes)));
+    }
+
+    /**
+     * Makes a normalized deep copy of a value.
+     *
+     * @param value the value
+     * @return the copy
+     */
+    static Object copy(Object value) {
+        try {
+            return DocumentCodec.decode(DocumentCodec.encode(value));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            byte[] chars = ((String) value).getBytes(UTF8);
+            out.writeByte(STRING);
+            out.writeInt(chars.length);
+            out.write(chars);
+        } else if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object item : list) {
+                DocumentCodec.write(out, item);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                DocumentCodec.write(out, entry.getKey().toString());
+                DocumentCodec.write(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot store value of type "
+                    + value.getClass().getName());
+        }
+    }
+
+    static Object read(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case BOOLEAN:
+            return in.readBoolean();
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case STRING:
+            byte[] chars = new byte[DocumentCodec.readLength(in)];
+            in.readFully(chars);
+            return new String(chars, UTF8);
+        case LIST:
+            int size = DocumentCodec.readLength(in);
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(DocumentCodec.read(in));
+            }
+            return list;
+        case MAP:
+            int fields = DocumentCodec.readLength(in);
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < fields; i++) {
+                Object key = DocumentCodec.read(in);
+                if (!(key instanceof String)) {
+                    throw new IOException("Invalid field name");
+                }
+                map.put((String) key, DocumentCodec.read(in));
+            }
+            return map;
+        default:
+            throw new IOException("Invalid value tag " + tag);
+        }
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+}
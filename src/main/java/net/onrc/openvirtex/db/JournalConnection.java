@@ -0,0 +1,626 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Database backend that keeps all documents in memory and makes them
+ * durable in a local directory, without an external database server.
+ * <p>
+ * Every applied write is appended to a memory-mapped journal segment, and
+ * each batch is forced to disk once. When a segment is full, the in-memory
+ * state is written to a compacted snapshot and the journal restarts in a
+ * new segment. Recovery loads the latest snapshot and replays the segments
+ * written after it, up to the first torn or corrupt record.
+ * <p>
+ * A journal record is a length, a CRC32 of the payload and the payload:
+ * the operation, the collection and the document fields of the write,
+ * encoded by {@link DocumentCodec}. A zero length marks the end of a
+ * segment.
+ */
+public class JournalConnection implements DBConnection {
+
+    /**
+     * Default size in bytes of a journal segment.
+     */
+    public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final Pattern FILE_NAME = Pattern
+            .compile("(journal|snapshot)-(\\d+)\\.db");
+    // Operation codes of a journaled clear, after the original write kinds,
+    // and of a journaled set, which came later
+    private static final int CLEAR = 4;
+    private static final int SET = 5;
+    private static final int HEADER = 8;
+
+    private static Logger log = LogManager.getLogger(JournalConnection.class
+            .getName());
+
+    private final File dir;
+    private final int segmentSize;
+    // Collection name to documents
+    private final Map<String, List<Map<String, Object>>> collections;
+    // Collection name to unique field
+    private final Map<String, String> indexes;
+    // Number of the segment being appended to
+    private long segment;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+
+    /**
+     * Creates a journal backend in the given directory.
+     *
+     * @param dir the directory
+     */
+    public JournalConnection(File dir) {
+        this(dir, JournalConnection.SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a journal backend in the given directory.
+     *
+     * @param dir the directory
+     * @param segmentSize the size of journal segments in bytes
+     */
+    public JournalConnection(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.collections = new HashMap<String, List<Map<String, Object>>>();
+        this.indexes = new HashMap<String, String>();
+    }
+
+    /**
+     * Recovers the stored documents and opens a new journal segment. Host
+     * and port are ignored.
+     *
+     * @param host unused
+     * @param port unused
+     */
+    @Override
+    public synchronized void connect(String host, Integer port) {
+        log.info("Opening database journal in {}", this.dir);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            log.error("Cannot create database directory {}", this.dir);
+            return;
+        }
+        try {
+            this.recover();
+        } catch (IOException e) {
+            log.error("Failed to open database journal: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.journal.force();
+            this.channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close database journal: {}", e.getMessage());
+        }
+        this.channel = null;
+        this.journal = null;
+    }
+
+    @Override
+    public synchronized void setIndex(String collection, String key) {
+        this.indexes.put(collection, key);
+    }
+
+    @Override
+    public synchronized void clear(String collection) {
+        if (this.channel == null) {
+            log.error("Failed to clear database: journal is closed");
+            return;
+        }
+        try {
+            this.append(new Record(CLEAR, collection, null, null, null).encode());
+            this.journal.force();
+        } catch (IOException e) {
+            log.error("Failed to clear database: {}", e.getMessage());
+            return;
+        }
+        this.collections.remove(collection);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized List<Map<String, Object>> find(String collection) {
+        List<Map<String, Object>> docs = this.collections.get(collection);
+        if (docs == null) {
+            return new ArrayList<Map<String, Object>>();
+        }
+        return (List<Map<String, Object>>) DocumentCodec.copy(docs);
+    }
+
+    @Override
+    public synchronized int write(List<DBWriteQueue.Write> batch) {
+        if (this.channel == null) {
+            log.error("Failed to write {} updates to database: journal is closed",
+                    batch.size());
+            return batch.size();
+        }
+        int failed = 0;
+        for (DBWriteQueue.Write write : batch) {
+            try {
+                Record record = new Record(JournalConnection.op(write.getKind()),
+                        write.getCollection(), write.getQuery(),
+                        write.getField(), write.getElement());
+                // Apply what replay will see, so memory and disk agree
+                byte[] payload = record.encode();
+                record = Record.decode(payload);
+                if (this.isDuplicate(record)) {
+                    // Virtual network was already stored and we're trying
+                    // to create it again on startup
+                    log.warn("Skipped saving of virtual network with duplicate tenant id");
+                    continue;
+                }
+                this.append(payload);
+                this.apply(record);
+            } catch (IOException | IllegalArgumentException e) {
+                log.error("Failed to write {} to database: {}", write,
+                        e.getMessage());
+                failed++;
+            }
+        }
+        this.journal.force();
+        return failed;
+    }
+
+    /**
+     * Applies a record to the in-memory documents.
+     *
+     * @param record the record
+     */
+    private void apply(Record record) {
+        if (record.op == CLEAR) {
+            this.collections.remove(record.collection);
+            return;
+        }
+        List<Map<String, Object>> docs = this.collections
+                .get(record.collection);
+        if (docs == null) {
+            docs = new ArrayList<Map<String, Object>>();
+            this.collections.put(record.collection, docs);
+        }
+        switch (JournalConnection.kind(record.op)) {
+        case INSERT:
+            docs.add(record.query);
+            break;
+        case REMOVE:
+            Iterator<Map<String, Object>> it = docs.iterator();
+            while (it.hasNext()) {
+                if (JournalConnection.matches(it.next(), record.query)) {
+                    it.remove();
+                }
+            }
+            break;
+        case ADD:
+            Map<String, Object> target = JournalConnection.first(docs,
+                    record.query);
+            if (target == null) {
+                // Upsert
+                target = new LinkedHashMap<String, Object>(record.query);
+                docs.add(target);
+            }
+            List<Object> list = JournalConnection.array(target, record.field);
+            if (!list.contains(record.element)) {
+                list.add(record.element);
+            }
+            break;
+        case PULL:
+            target = JournalConnection.first(docs, record.query);
+            if (target != null) {
+                Iterator<Object> elements = JournalConnection.array(target,
+                        record.field).iterator();
+                while (elements.hasNext()) {
+                    Object element = elements.next();
+                    if (element instanceof Map
+                            && JournalConnection.matches(
+                                    (Map<?, ?>) element, record.element)) {
+                        elements.remove();
+                    }
+                }
+            }
+            break;
+        case SET:
+            target = JournalConnection.first(docs, record.query);
+            if (target != null) {
+                target.putAll(record.element);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Gets the operation code of a write kind.
+     */
+    private static int op(DBWriteQueue.Kind kind) {
+        return kind == DBWriteQueue.Kind.SET ? SET : kind.ordinal();
+    }
+
+    /**
+     * Gets the write kind of an operation code other than {@link #CLEAR}.
+     */
+    private static DBWriteQueue.Kind kind(int op) {
+        return op == SET ? DBWriteQueue.Kind.SET
+                : DBWriteQueue.Kind.values()[op];
+    }
+
+    /**
+     * Checks if a record inserts a document whose unique field is taken.
+     * Only checked before journaling, so that replay does not depend on
+     * the indexes being set.
+     *
+     * @param record the record
+     * @return true if the insert violates a unique index
+     */
+    private boolean isDuplicate(Record record) {
+        String key = this.indexes.get(record.collection);
+        List<Map<String, Object>> docs = this.collections
+                .get(record.collection);
+        if (record.op != DBWriteQueue.Kind.INSERT.ordinal() || key == null
+                || docs == null) {
+            return false;
+        }
+        for (Map<String, Object> doc : docs) {
+            if (JournalConnection.equal(doc.get(key), record.query.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a document has all fields of a query with equal values.
+     */
+    private static boolean matches(Map<?, ?> doc, Map<String, Object> query) {
+        for (Map.Entry<String, Object> field : query.entrySet()) {
+            if (!doc.containsKey(field.getKey())
+                    || !JournalConnection.equal(doc.get(field.getKey()),
+                            field.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Map<String, Object> first(List<Map<String, Object>> docs,
+            Map<String, Object> query) {
+        for (Map<String, Object> doc : docs) {
+            if (JournalConnection.matches(doc, query)) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Map<String, Object> doc, String field) {
+        Object value = doc.get(field);
+        if (!(value instanceof List)) {
+            value = new ArrayList<Object>();
+            doc.put(field, value);
+        }
+        return (List<Object>) value;
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal segments after it,
+     * then compacts the result into a new snapshot and starts a new segment.
+     *
+     * @throws IOException if the directory cannot be read or written
+     */
+    private void recover() throws IOException {
+        TreeMap<Long, File> snapshots = new TreeMap<Long, File>();
+        TreeMap<Long, File> segments = new TreeMap<Long, File>();
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + this.dir);
+        }
+        for (File file : files) {
+            Matcher m = FILE_NAME.matcher(file.getName());
+            if (m.matches()) {
+                (m.group(1).equals("journal") ? segments : snapshots).put(
+                        Long.parseLong(m.group(2)), file);
+            }
+        }
+
+        long start = 0;
+        if (!snapshots.isEmpty()) {
+            start = snapshots.lastKey();
+            this.loadSnapshot(snapshots.lastEntry().getValue());
+        }
+        int replayed = 0;
+        for (Map.Entry<Long, File> entry : segments.tailMap(start).entrySet()) {
+            replayed += this.replay(entry.getValue());
+        }
+        long last = Math.max(start, segments.isEmpty() ? 0 : segments.lastKey());
+        log.info("Recovered {} database collections, replayed {} journal records",
+                this.collections.size(), replayed);
+
+        // Compact everything recovered so far and start afresh
+        this.segment = last + 1;
+        this.saveSnapshot(this.segment);
+        this.openSegment(this.segment);
+        this.deleteBefore(this.segment);
+    }
+
+    /**
+     * Replays the records of a journal segment, up to the first zero length
+     * or invalid record.
+     *
+     * @param file the segment
+     * @return the number of replayed records
+     * @throws IOException if the segment cannot be read
+     */
+    private int replay(File file) throws IOException {
+        ByteBuffer buf = JournalConnection.readFile(file);
+        int count = 0;
+        while (true) {
+            byte[] payload = JournalConnection.readRecord(buf);
+            if (payload == null) {
+                break;
+            }
+            try {
+                this.apply(Record.decode(payload));
+                count++;
+            } catch (IOException e) {
+                log.warn("Stopped replaying {} at invalid record: {}",
+                        file.getName(), e.getMessage());
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the next record of a buffer.
+     *
+     * @param buf the buffer
+     * @return the record payload, or null at the end of the records
+     */
+    private static byte[] readRecord(ByteBuffer buf) {
+        if (buf.remaining() < HEADER) {
+            return null;
+        }
+        int length = buf.getInt();
+        int crc = buf.getInt();
+        if (length <= 0 || length > buf.remaining()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buf.get(payload);
+        CRC32 check = new CRC32();
+        check.update(payload);
+        if ((int) check.getValue() != crc) {
+            log.warn("Ignoring torn database journal record");
+            return null;
+        }
+        return payload;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadSnapshot(File file) throws IOException {
+        byte[] payload = JournalConnection.readRecord(JournalConnection
+                .readFile(file));
+        if (payload == null) {
+            throw new IOException("Corrupt snapshot " + file.getName());
+        }
+        Map<String, Object> snapshot = (Map<String, Object>) DocumentCodec
+                .decode(payload);
+        this.collections.clear();
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            this.collections.put(entry.getKey(),
+                    (List<Map<String, Object>>) entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the whole state to a snapshot that covers all segments before
+     * the given one. The snapshot is written to a temporary file first and
+     * renamed once it is on disk.
+     *
+     * @param number the number of the first segment not covered
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void saveSnapshot(long number) throws IOException {
+        byte[] payload = DocumentCodec.encode(this.collections);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        File tmp = new File(this.dir, SNAPSHOT_PREFIX + "tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(payload.length);
+            data.writeInt((int) crc.getValue());
+            data.write(payload);
+            data.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        File file = this.file(SNAPSHOT_PREFIX, number);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename snapshot to " + file.getName());
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(this.file(SEGMENT_PREFIX,
+                number), "rw");
+        this.channel = raf.getChannel();
+        this.journal = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                this.segmentSize);
+    }
+
+    /**
+     * Deletes segments and snapshots that are covered by the snapshot of
+     * the given segment number.
+     *
+     * @param number the segment number
+     */
+    private void deleteBefore(long number) {
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Matcher m = FILE_NAME.matcher(file.getName());
+            if (m.matches() && Long.parseLong(m.group(2)) < number
+                    && !file.delete()) {
+                log.warn("Cannot delete {}", file);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the journal, rolling over to a new segment first
+     * if it does not fit.
+     *
+     * @param payload the encoded record
+     * @throws IOException if a new segment cannot be started
+     */
+    private void append(byte[] payload) throws IOException {
+        if (payload.length + 2 * HEADER > this.segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length
+                    + " bytes exceeds the journal segment size");
+        }
+        if (this.journal.remaining() < payload.length + HEADER) {
+            this.roll();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        this.journal.putInt(payload.length);
+        this.journal.putInt((int) crc.getValue());
+        this.journal.put(payload);
+    }
+
+    /**
+     * Compacts the state into a snapshot and continues in a new segment.
+     */
+    private void roll() throws IOException {
+        this.journal.force();
+        long next = this.segment + 1;
+        this.saveSnapshot(next);
+        this.openSegment(next);
+        this.segment = next;
+        this.deleteBefore(next);
+        log.debug("Compacted database journal into snapshot {}", next);
+    }
+
+    private File file(String prefix, long number) {
+        return new File(this.dir, String.format("%s%08d.db", prefix, number));
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A journaled write: a write kind or {@link #CLEAR}, and its fields.
+     */
+    private static final class Record {
+        private final int op;
+        private final String collection;
+        private final Map<String, Object> query;
+        private final String field;
+        private final Map<String, Object> element;
+
+        private Record(int op, String collection, Map<String, Object> query,
+                String field, Map<String, Object> element) {
+            this.op = op;
+            this.collection = collection;
+            this.query = query;
+            this.field = field;
+            this.element = element;
+        }
+
+        private byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(this.op);
+            DocumentCodec.write(out, this.collection);
+            DocumentCodec.write(out, this.query);
+            DocumentCodec.write(out, this.field);
+            DocumentCodec.write(out, this.element);
+            return bytes.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Record decode(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    payload));
+            int op = in.readByte();
+            if (op < 0 || op > SET) {
+                throw new IOException("Invalid operation " + op);
+            }
+            try {
+                return new Record(op, (String) DocumentCodec.read(in),
+                        (Map<String, Object>) DocumentCodec.read(in),
+                        (String) DocumentCodec.read(in),
+                        (Map<String, Object>) DocumentCodec.read(in));
+            } catch (ClassCastException e) {
+                throw new IOException("Invalid record", e);
+            }
+        }
+    }
+}
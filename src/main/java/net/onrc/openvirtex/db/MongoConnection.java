@@ -16,12 +16,21 @@
 package net.onrc.openvirtex.db;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 
 public class MongoConnection implements DBConnection {
     private static final String DB_NAME = "OVX";
@@ -29,10 +38,16 @@ public class MongoConnection implements DBConnection {
 
     private static Logger log = LogManager.getLogger(MongoConnection.class
             .getName());
+    // The driver reports connection failures of its background threads
+    // through java.util.logging on the error stream, where they cannot be
+    // caught. Keep a reference so the level set below is not collected.
+    private static final java.util.logging.Logger DRIVER_LOG = java.util.logging.Logger
+            .getLogger("com.mongodb");
 
     @Override
     public void connect(String host, Integer port) {
         MongoConnection.log.info("Connecting to MongoDB at {}:{}", host, port);
+        MongoConnection.DRIVER_LOG.setLevel(Level.OFF);
         try {
             this.mongo = new MongoClient(host, port);
             this.mongo.getConnector().getDBPortPool(mongo.getAddress()).get()
@@ -53,4 +68,150 @@ public class MongoConnection implements DBConnection {
         return mongo.getDB(MongoConnection.DB_NAME);
     }
 
+    @Override
+    public void setIndex(String collection, String key) {
+        try {
+            BasicDBObject options = new BasicDBObject("unique", true);
+            BasicDBObject index = new BasicDBObject(key, 1);
+            this.getDB().getCollection(collection).ensureIndex(index, options);
+        } catch (Exception e) {
+            log.error("Failed to set database index: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void clear(String collection) {
+        try {
+            this.getDB().getCollection(collection).drop();
+        } catch (Exception e) {
+            log.error("Failed to clear database: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> find(String collection) {
+        List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+        DBCursor cursor = this.getDB().getCollection(collection).find();
+        while (cursor.hasNext()) {
+            docs.add(cursor.next().toMap());
+        }
+        return docs;
+    }
+
+    /**
+     * Applies a batch of queued writes on a single connection. Consecutive
+     * additions to the same document are folded into one update.
+     *
+     * @param batch the writes
+     * @return the number of writes that could not be applied
+     */
+    @Override
+    public int write(List<DBWriteQueue.Write> batch) {
+        if (this.mongo == null) {
+            log.error("Failed to write {} updates to database: not connected",
+                    batch.size());
+            return batch.size();
+        }
+        int failed = 0;
+        DB db = this.getDB();
+        db.requestStart();
+        try {
+            int i = 0;
+            while (i < batch.size()) {
+                DBWriteQueue.Write write = batch.get(i);
+                if (write.getKind() != DBWriteQueue.Kind.ADD) {
+                    if (!this.write(db, write)) {
+                        failed++;
+                    }
+                    i++;
+                    continue;
+                }
+                Map<String, List<Object>> elements = new LinkedHashMap<String, List<Object>>();
+                int j = i;
+                for (; j < batch.size(); j++) {
+                    DBWriteQueue.Write next = batch.get(j);
+                    if (next.getKind() != DBWriteQueue.Kind.ADD
+                            || !next.getCollection().equals(write.getCollection())
+                            || !next.getQuery().equals(write.getQuery())) {
+                        break;
+                    }
+                    List<Object> list = elements.get(next.getField());
+                    if (list == null) {
+                        list = new ArrayList<Object>();
+                        elements.put(next.getField(), list);
+                    }
+                    list.add(new BasicDBObject(next.getElement()));
+                }
+                BasicDBObject fields = new BasicDBObject();
+                for (Map.Entry<String, List<Object>> entry : elements.entrySet()) {
+                    fields.put(entry.getKey(),
+                            new BasicDBObject("$each", entry.getValue()));
+                }
+                try {
+                    db.getCollection(write.getCollection()).update(
+                            new BasicDBObject(write.getQuery()),
+                            new BasicDBObject("$addToSet", fields), true, false);
+                } catch (Exception e) {
+                    log.error("Failed to update database: {}", e.getMessage());
+                    failed += j - i;
+                }
+                i = j;
+            }
+        } finally {
+            db.requestDone();
+        }
+        return failed;
+    }
+
+    /**
+     * Applies a single queued write.
+     *
+     * @param db the database
+     * @param write the write
+     * @return true if the write was applied, or skipped as a duplicate
+     */
+    private boolean write(DB db, DBWriteQueue.Write write) {
+        DBCollection collection = db.getCollection(write.getCollection());
+        BasicDBObject query = new BasicDBObject(write.getQuery());
+        try {
+            switch (write.getKind()) {
+            case INSERT:
+                collection.insert(query);
+                break;
+            case REMOVE:
+                collection.remove(query);
+                break;
+            case ADD:
+                collection.update(query, new BasicDBObject("$addToSet",
+                        new BasicDBObject(write.getField(), new BasicDBObject(
+                                write.getElement()))), true, false);
+                break;
+            case PULL:
+                collection.update(query, new BasicDBObject("$pull",
+                        new BasicDBObject(write.getField(), new BasicDBObject(
+                                write.getElement()))));
+                break;
+            case SET:
+                collection.update(query, new BasicDBObject("$set",
+                        new BasicDBObject(write.getElement())));
+                break;
+            default:
+                break;
+            }
+            return true;
+        } catch (Exception e) {
+            // Do not log when duplicate key
+            // Virtual network was already stored and we're trying to create it
+            // again on startup
+            if (e instanceof MongoException.DuplicateKey) {
+                log.warn("Skipped saving of virtual network with duplicate tenant id");
+                return true;
+            }
+            log.error("Failed to write {} to database: {}", write,
+                    e.getMessage());
+            return false;
+        }
+    }
+
 }
@@ -16,6 +16,8 @@
 package net.onrc.openvirtex.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +25,7 @@ import java.util.Map;
 import java.util.Set;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.core.io.TenantScheduler;
 import net.onrc.openvirtex.elements.address.IPAddress;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.datapath.DPIDandPort;
@@ -31,6 +34,7 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.Switch;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.Link;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
@@ -47,24 +51,54 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Component that creates a previously stored virtual network when all required
- * switches, links and ports are online.
+ * Component that recreates a previously stored virtual network as the
+ * physical switches, links and ports it needs come online.
+ * <p>
+ * The stored network is split into restore steps: the network itself,
+ * every virtual switch, port, big switch routing mode, switch route, link
+ * and host, and finally the boot of the network. A step runs as soon as the
+ * physical elements it uses are online and the steps it builds upon are
+ * done, so most of a network is in place by the time its last physical
+ * element shows up. Steps are dispatched on the tenant's lane of the
+ * {@link TenantScheduler}, which runs them in order per tenant and in
+ * parallel across tenants, off the threads that report the physical
+ * elements.
  */
-
 public class OVXNetworkManager {
 
+    /**
+     * Ordering key of restore steps on the tenant scheduler.
+     */
+    static final long ORDER_KEY = -1;
+
+    /**
+     * Restore states of a virtual network.
+     */
+    public enum State {
+        /** Waiting for physical elements. */
+        WAITING,
+        /** All elements restored, network booted. */
+        BOOTED,
+        /** Network could not be restored, or was removed meanwhile. */
+        FAILED
+    }
+
     private Map<String, Object> vnet;
     private Integer tenantId;
-    // Set of offline and online physical switches
-    private Set<Long> offlineSwitches;
-    private Set<Long> onlineSwitches;
-    // Set of offline and online physical links identified as (dpid, port number)-pair
-    private Set<DPIDandPortPair> offlineLinks;
-    private Set<DPIDandPortPair> onlineLinks;
-    // Set of offline and online physical ports
-    private Set<DPIDandPort> offlinePorts;
-    private Set<DPIDandPort> onlinePorts;
-    private boolean bootState;
+    private OVXNetwork virtualNetwork;
+    // The step that creates the network, all others need it done
+    private Step networkStep;
+    // Physical switches (Long), links (DPIDandPortPair) and ports
+    // (DPIDandPort) to the steps that wait for them
+    private final Map<Object, List<Step>> waiting;
+    // Serializes steps that are run inline on different threads
+    private final Object restoreLock = new Object();
+    private final Set<Object> online;
+    private final List<Step> steps;
+    private int stepsDone;
+    private volatile State state;
+    private final long created;
+    private long booted;
 
     private static Logger log = LogManager.getLogger(OVXNetworkManager.class
             .getName());
@@ -73,13 +107,12 @@ public class OVXNetworkManager {
             throws IndexOutOfBoundException, DuplicateIndexException {
         this.vnet = vnet;
         this.tenantId = (Integer) vnet.get(TenantHandler.TENANT);
-        this.offlineSwitches = new HashSet<Long>();
-        this.onlineSwitches = new HashSet<Long>();
-        this.offlineLinks = new HashSet<DPIDandPortPair>();
-        this.onlineLinks = new HashSet<DPIDandPortPair>();
-        this.offlinePorts = new HashSet<DPIDandPort>();
-        this.onlinePorts = new HashSet<DPIDandPort>();
-        this.bootState = false;
+        this.waiting = new HashMap<Object, List<Step>>();
+        this.online = new HashSet<Object>();
+        this.steps = new ArrayList<Step>();
+        this.state = State.WAITING;
+        this.created = System.currentTimeMillis();
+        this.plan();
     }
 
     public Integer getTenantId() {
@@ -87,64 +120,75 @@ public class OVXNetworkManager {
     }
 
     public Integer getSwitchCount() {
-        return this.offlineSwitches.size() + this.onlineSwitches.size();
+        return this.getDependencies(Long.class).size();
     }
 
     public Integer getLinkCount() {
-        return this.offlineLinks.size() + this.onlineLinks.size();
+        return this.getDependencies(DPIDandPortPair.class).size();
     }
 
     public Integer getPortCount() {
-        return this.offlinePorts.size() + this.onlinePorts.size();
+        return this.getDependencies(DPIDandPort.class).size();
     }
 
     public boolean getStatus() {
-        return this.bootState;
+        return this.state == State.BOOTED;
     }
 
     /**
-     * Registers switch identified by the given DPID, ensuring
-     * the virtual network is spawned only after the switch is online.
+     * Gets the physical elements of the given type this virtual network
+     * waits for: physical switch DPIDs (Long), links (DPIDandPortPair) or
+     * ports (DPIDandPort).
      *
-     * @param dpid the switch DPID
+     * @param type the element type
+     * @return the elements
      */
-    public void registerSwitch(final Long dpid) {
-        this.offlineSwitches.add(dpid);
+    public synchronized <T> Set<T> getDependencies(Class<T> type) {
+        Set<T> deps = new HashSet<T>();
+        for (Object dep : this.waiting.keySet()) {
+            if (type.isInstance(dep)) {
+                deps.add(type.cast(dep));
+            }
+        }
+        return deps;
     }
 
     /**
-     * Registers the given link, ensuring the virtual network is spawned
-     * only after the link is online.
-     *
-     * @param dpp the link as a pair of DPID and port number
+     * Starts restoring the network: runs all steps that do not wait for
+     * physical elements.
      */
-    public void registerLink(final DPIDandPortPair dpp) {
-        this.offlineLinks.add(dpp);
+    public void start() {
+        List<Step> ready = new ArrayList<Step>();
+        synchronized (this) {
+            for (Step step : this.steps) {
+                if (step.isReady()) {
+                    step.dispatched = true;
+                    ready.add(step);
+                }
+            }
+        }
+        this.dispatch(ready);
     }
 
     /**
-     * Registers the given port, ensuring the virtual network is spawned
-     * only after the port is online.
-     *
-     * @param port the port given as DPID and port number
+     * Stops restoring the network, e.g., because it was removed.
      */
-    public void registerPort(final DPIDandPort port) {
-        this.offlinePorts.add(port);
+    public void cancel() {
+        synchronized (this) {
+            if (this.state == State.WAITING) {
+                this.state = State.FAILED;
+            }
+        }
     }
 
     /**
-     * Changes switch from offline to online state. Creates and starts virtual
-     * network if all links and switches are online.
+     * Changes switch from offline to online state, and runs the steps that
+     * became ready.
      *
      * @param dpid the switch DPID.
      */
-    public synchronized void setSwitch(final Long dpid) {
-        this.offlineSwitches.remove(dpid);
-        this.onlineSwitches.add(dpid);
-        if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                && this.offlinePorts.isEmpty()) {
-            this.createNetwork();
-        }
+    public void setSwitch(final Long dpid) {
+        this.setOnline(dpid);
     }
 
     /**
@@ -152,29 +196,18 @@ public class OVXNetworkManager {
      *
      * @param dpid unique datapath id
      */
-    public synchronized void unsetSwitch(final Long dpid) {
-        this.offlineSwitches.add(dpid);
-        this.onlineSwitches.remove(dpid);
+    public void unsetSwitch(final Long dpid) {
+        this.setOffline(dpid);
     }
 
     /**
-     * Change link from offline to single direction state, or from single
-     * direction to online. Create and start virtual network if all links and
-     * switches are online.
+     * Changes link from offline to online state, and runs the steps that
+     * became ready.
      *
      * @param dpp physical link given as pair of DPID and port
      */
-    public synchronized void setLink(final DPIDandPortPair dpp) {
-        // Link might have been set already, so check first if it's still
-        // offline
-        if (this.offlineLinks.contains(dpp)) {
-            this.offlineLinks.remove(dpp);
-            this.onlineLinks.add(dpp);
-            if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                    && this.offlinePorts.isEmpty()) {
-                this.createNetwork();
-            }
-        }
+    public void setLink(final DPIDandPortPair dpp) {
+        this.setOnline(dpp);
     }
 
     /**
@@ -182,44 +215,419 @@ public class OVXNetworkManager {
      *
      * @param dpp physical link given as pair of DPID and port
      */
-    public synchronized void unsetLink(final DPIDandPortPair dpp) {
-        if (this.onlineLinks.contains(dpp)) {
-            this.onlineLinks.remove(dpp);
-            this.offlineLinks.add(dpp);
+    public void unsetLink(final DPIDandPortPair dpp) {
+        this.setOffline(dpp);
+    }
+
+    /**
+     * Changes port from offline to online state, and runs the steps that
+     * became ready.
+     *
+     * @param port the port given as DPID and port number
+     */
+    public void setPort(final DPIDandPort port) {
+        this.setOnline(port);
+    }
+
+    /**
+     * Changes port from online to offline state.
+     *
+     * @param port the port given as DPID and port number
+     */
+    public void unsetPort(final DPIDandPort port) {
+        this.setOffline(port);
+    }
+
+    /**
+     * Gets the restore progress of the network.
+     *
+     * @return the progress
+     */
+    public synchronized Map<String, Object> getProgress() {
+        final Map<String, Object> progress = new HashMap<String, Object>();
+        int switches = 0;
+        int links = 0;
+        int ports = 0;
+        for (Object dep : this.waiting.keySet()) {
+            if (this.online.contains(dep)) {
+                continue;
+            } else if (dep instanceof Long) {
+                switches++;
+            } else if (dep instanceof DPIDandPortPair) {
+                links++;
+            } else {
+                ports++;
+            }
+        }
+        progress.put("tenantId", this.tenantId);
+        progress.put("state", this.state.name());
+        progress.put("stepsDone", this.stepsDone);
+        progress.put("stepsTotal", this.steps.size());
+        progress.put("offlineSwitches", switches);
+        progress.put("offlineLinks", links);
+        progress.put("offlinePorts", ports);
+        final long end = this.booted == 0 ? System.currentTimeMillis()
+                : this.booted;
+        progress.put("elapsed", end - this.created);
+        return progress;
+    }
+
+    private void setOnline(final Object dep) {
+        List<Step> ready = new ArrayList<Step>();
+        synchronized (this) {
+            if (!this.online.add(dep) || !this.waiting.containsKey(dep)) {
+                return;
+            }
+            for (Step step : this.waiting.get(dep)) {
+                if (!step.dispatched) {
+                    step.offline--;
+                    if (step.isReady()) {
+                        step.dispatched = true;
+                        ready.add(step);
+                    }
+                }
+            }
+        }
+        this.dispatch(ready);
+    }
+
+    private synchronized void setOffline(final Object dep) {
+        if (!this.online.remove(dep) || !this.waiting.containsKey(dep)) {
+            return;
+        }
+        // Steps that already ran keep their elements
+        for (Step step : this.waiting.get(dep)) {
+            if (!step.dispatched) {
+                step.offline++;
+            }
+        }
+    }
+
+    /**
+     * Runs steps on the tenant's lane of the scheduler.
+     *
+     * @param ready the steps
+     */
+    private void dispatch(final List<Step> ready) {
+        for (final Step step : ready) {
+            TenantScheduler.getInstance().dispatch(this.tenantId,
+                    OVXNetworkManager.ORDER_KEY, 1, step);
         }
     }
 
     /**
-     * Changes link from offline to single direction state, or from single
-     * direction to online. Create and start virtual network if all links and
-     * switches are online.
+     * Marks a step done, and runs the steps that became ready.
      *
-     * @param key
-     *            Unique link
+     * @param done the step
      */
-    public synchronized void setPort(final DPIDandPort port) {
-        // Port might have been set already, so check first if it's still
-        // offline
-        if (this.offlinePorts.contains(port)) {
-            this.offlinePorts.remove(port);
-            this.onlinePorts.add(port);
-            if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                    && this.offlinePorts.isEmpty()) {
-                this.createNetwork();
+    private void finished(final Step done) {
+        List<Step> ready = new ArrayList<Step>();
+        synchronized (this) {
+            this.stepsDone++;
+            for (Step step : done.children) {
+                step.parents--;
+                if (step.isReady()) {
+                    step.dispatched = true;
+                    ready.add(step);
+                }
             }
         }
+        this.dispatch(ready);
     }
 
     /**
-     * Changes link from online to offline state.
+     * A unit of the restore that depends on physical elements and on other
+     * steps.
+     */
+    private abstract class Step implements Runnable {
+        private final String name;
+        // Number of physical elements that are not online
+        private int offline;
+        // Number of steps that are not done
+        private int parents;
+        private final List<Step> children = new ArrayList<Step>();
+        private boolean dispatched;
+
+        Step(final String name, final Step... parents) {
+            this.name = name;
+            for (Step parent : parents) {
+                this.after(parent);
+            }
+            OVXNetworkManager.this.steps.add(this);
+        }
+
+        /**
+         * Makes this step wait for another step.
+         *
+         * @param parent the other step, ignored if null
+         * @return this step
+         */
+        Step after(final Step parent) {
+            if (parent != null) {
+                parent.children.add(this);
+                this.parents++;
+            }
+            return this;
+        }
+
+        /**
+         * Makes this step wait for a physical element.
+         *
+         * @param dep the physical element
+         * @return this step
+         */
+        Step waitFor(final Object dep) {
+            List<Step> list = OVXNetworkManager.this.waiting.get(dep);
+            if (list == null) {
+                list = new ArrayList<Step>();
+                OVXNetworkManager.this.waiting.put(dep, list);
+            }
+            if (!list.contains(this)) {
+                list.add(this);
+                this.offline++;
+            }
+            return this;
+        }
+
+        boolean isReady() {
+            return !this.dispatched && this.offline == 0 && this.parents == 0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (OVXNetworkManager.this.state == State.WAITING
+                        && (OVXNetworkManager.this.virtualNetwork != null
+                        || this == OVXNetworkManager.this.networkStep)) {
+                    synchronized (OVXNetworkManager.this.restoreLock) {
+                        this.restore();
+                    }
+                }
+            } catch (RuntimeException e) {
+                OVXNetworkManager.log.error(
+                        "Error restoring {} of virtual network {}: {}",
+                        this.name, OVXNetworkManager.this.tenantId, e);
+            }
+            OVXNetworkManager.this.finished(this);
+        }
+
+        abstract void restore();
+    }
+
+    /**
+     * Splits the stored network into restore steps.
+     */
+    @SuppressWarnings("unchecked")
+    private void plan() {
+        final Step network = new Step("network") {
+            @Override
+            void restore() {
+                OVXNetworkManager.this.createNetwork();
+            }
+        };
+        this.networkStep = network;
+
+        // Virtual switches, and the switch each physical switch belongs to
+        final Map<Long, Step> switchSteps = new HashMap<Long, Step>();
+        final Map<Long, Long> physicalToVirtual = new HashMap<Long, Long>();
+        final Map<Long, Step> routingSteps = new HashMap<Long, Step>();
+        final List<Map<String, Object>> switches = (List<Map<String, Object>>) this.vnet
+                .get(Switch.DB_KEY);
+        if (switches != null) {
+            for (final Map<String, Object> sw : switches) {
+                final List<Long> dpids = (List<Long>) sw
+                        .get(TenantHandler.DPIDS);
+                final long switchId = (Long) sw.get(TenantHandler.VDPID);
+                final Step step = new Step("switch " + switchId, network) {
+                    @Override
+                    void restore() {
+                        OVXNetworkManager.this.createSwitch(dpids, switchId);
+                    }
+                };
+                for (Long dpid : dpids) {
+                    step.waitFor(dpid);
+                    physicalToVirtual.put(dpid, switchId);
+                }
+                switchSteps.put(switchId, step);
+
+                final String alg = (String) sw.get(TenantHandler.ALGORITHM);
+                final Integer backups = (Integer) sw.get(TenantHandler.BACKUPS);
+                // Only big switches have a routing mode
+                if (alg != null && backups != null) {
+                    final Step routing = new Step("routing of switch "
+                            + switchId, step) {
+                        @Override
+                        void restore() {
+                            OVXNetworkManager.this.setRouting(switchId, alg,
+                                    backups.byteValue());
+                        }
+                    };
+                    // Stored routes are dropped unless routing is manual
+                    if (RoutingType.NONE.getValue().equals(alg)) {
+                        routingSteps.put(switchId, routing);
+                    }
+                }
+            }
+        }
+
+        // Virtual ports, keyed by virtual DPID and port number
+        final Map<DPIDandPort, Step> portSteps = new HashMap<DPIDandPort, Step>();
+        final List<Map<String, Object>> ports = (List<Map<String, Object>>) this.vnet
+                .get(Port.DB_KEY);
+        if (ports != null) {
+            for (final Map<String, Object> port : ports) {
+                final long physicalDpid = (Long) port.get(TenantHandler.DPID);
+                final short portNumber = ((Integer) port
+                        .get(TenantHandler.PORT)).shortValue();
+                final short vportNumber = ((Integer) port
+                        .get(TenantHandler.VPORT)).shortValue();
+                final Long switchId = physicalToVirtual.get(physicalDpid);
+                final Step step = new Step("port " + vportNumber, network) {
+                    @Override
+                    void restore() {
+                        OVXNetworkManager.this.createPort(physicalDpid,
+                                portNumber, vportNumber);
+                    }
+                }.after(switchSteps.get(switchId))
+                        .waitFor(new DPIDandPort(physicalDpid, portNumber));
+                if (switchId != null) {
+                    portSteps.put(new DPIDandPort(switchId, vportNumber), step);
+                }
+            }
+        }
+
+        // Switch routes of big switches with manual routing
+        final List<Map<String, Object>> routes = (List<Map<String, Object>>) this.vnet
+                .get(SwitchRoute.DB_KEY);
+        final Set<List<Object>> routeIds = new HashSet<List<Object>>();
+        if (routes != null) {
+            for (final Map<String, Object> route : routes) {
+                final long switchId = (Long) route.get(TenantHandler.VDPID);
+                final short srcPort = ((Integer) route
+                        .get(TenantHandler.SRC_PORT)).shortValue();
+                final short dstPort = ((Integer) route
+                        .get(TenantHandler.DST_PORT)).shortValue();
+                final byte priority = ((Integer) route
+                        .get(TenantHandler.PRIORITY)).byteValue();
+                final int routeId = (Integer) route.get(TenantHandler.ROUTE);
+                final List<Map<String, Object>> path = (List<Map<String, Object>>) route
+                        .get(TenantHandler.PATH);
+                final Step routing = routingSteps.get(switchId);
+                // Skip routes of other switches and the reverse of routes
+                // we already have
+                if (routing == null
+                        || !routeIds.add(Arrays.<Object>asList(switchId,
+                                routeId))) {
+                    continue;
+                }
+                final Step step = new Step("route " + routeId, routing) {
+                    @Override
+                    void restore() {
+                        OVXNetworkManager.this.connectRoute(switchId, srcPort,
+                                dstPort, path, priority, routeId);
+                    }
+                };
+                step.after(portSteps.get(new DPIDandPort(switchId, srcPort)));
+                step.after(portSteps.get(new DPIDandPort(switchId, dstPort)));
+                this.waitForPath(step, path);
+            }
+        }
+
+        // Virtual links
+        final List<Map<String, Object>> links = (List<Map<String, Object>>) this.vnet
+                .get(Link.DB_KEY);
+        final Set<Integer> linkIds = new HashSet<Integer>();
+        if (links != null) {
+            for (final Map<String, Object> link : links) {
+                final Integer linkId = (Integer) link.get(TenantHandler.LINK);
+                // Skip link if we already handled the reverse
+                if (!linkIds.add(linkId)) {
+                    continue;
+                }
+                final Long srcDpid = (Long) link.get(TenantHandler.SRC_DPID);
+                final Short srcPort = ((Integer) link
+                        .get(TenantHandler.SRC_PORT)).shortValue();
+                final Long dstDpid = (Long) link.get(TenantHandler.DST_DPID);
+                final Short dstPort = ((Integer) link
+                        .get(TenantHandler.DST_PORT)).shortValue();
+                final Byte priority = ((Integer) link
+                        .get(TenantHandler.PRIORITY)).byteValue();
+                final String alg = (String) link.get(TenantHandler.ALGORITHM);
+                final byte backups = ((Integer) link
+                        .get(TenantHandler.BACKUPS)).byteValue();
+                final List<Map<String, Object>> path = (List<Map<String, Object>>) link
+                        .get(TenantHandler.PATH);
+                final Step step = new Step("link " + linkId, network) {
+                    @Override
+                    void restore() {
+                        OVXNetworkManager.this.connectLink(linkId, srcDpid,
+                                srcPort, dstDpid, dstPort, alg, backups, path,
+                                priority);
+                    }
+                };
+                step.after(portSteps.get(new DPIDandPort(srcDpid, srcPort)));
+                step.after(portSteps.get(new DPIDandPort(dstDpid, dstPort)));
+                this.waitForPath(step, path);
+            }
+        }
+
+        // Hosts
+        final List<Map<String, Object>> hosts = (List<Map<String, Object>>) this.vnet
+                .get(Host.DB_KEY);
+        if (hosts != null) {
+            for (final Map<String, Object> host : hosts) {
+                final long dpid = (Long) host.get(TenantHandler.VDPID);
+                final short port = ((Integer) host.get(TenantHandler.VPORT))
+                        .shortValue();
+                final MACAddress macAddr = MACAddress.valueOf((Long) host
+                        .get(TenantHandler.MAC));
+                final int hostId = (Integer) host.get(TenantHandler.HOST);
+                new Step("host " + hostId, network) {
+                    @Override
+                    void restore() {
+                        OVXNetworkManager.this.connectHost(dpid, port,
+                                macAddr, hostId);
+                    }
+                }.after(portSteps.get(new DPIDandPort(dpid, port)));
+            }
+        }
+
+        // Boot once everything else is in place
+        final Step boot = new Step("boot") {
+            @Override
+            void restore() {
+                OVXNetworkManager.this.boot();
+            }
+        };
+        for (Step step : new ArrayList<Step>(this.steps)) {
+            if (step != boot) {
+                boot.after(step);
+            }
+        }
+    }
+
+    /**
+     * Makes a step wait for the physical links and switches of a path.
      *
-     * @param key
-     *            Unique link
+     * @param step the step
+     * @param path the path in database map format
      */
-    public synchronized void unsetPort(final DPIDandPort port) {
-        if (this.onlinePorts.contains(port)) {
-            this.onlinePorts.remove(port);
-            this.offlinePorts.add(port);
+    private void waitForPath(final Step step,
+            final Collection<Map<String, Object>> path) {
+        if (path == null) {
+            return;
+        }
+        for (Map<String, Object> hop : path) {
+            final Long srcDpid = (Long) hop.get(TenantHandler.SRC_DPID);
+            final Short srcPort = ((Integer) hop.get(TenantHandler.SRC_PORT))
+                    .shortValue();
+            final Long dstDpid = (Long) hop.get(TenantHandler.DST_DPID);
+            final Short dstPort = ((Integer) hop.get(TenantHandler.DST_PORT))
+                    .shortValue();
+            step.waitFor(srcDpid);
+            step.waitFor(dstDpid);
+            step.waitFor(new DPIDandPortPair(new DPIDandPort(srcDpid, srcPort),
+                    new DPIDandPort(dstDpid, dstPort)));
         }
     }
 
@@ -229,9 +637,8 @@ public class OVXNetworkManager {
      * @param path the path in database map format
      * @return
      */
-
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<PhysicalLink> pathToPhyLinkList(List<Map> path) {
+    private List<PhysicalLink> pathToPhyLinkList(
+            final List<Map<String, Object>> path) {
         // Build list of physical links
         final List<PhysicalLink> result = new ArrayList<PhysicalLink>();
         for (Map<String, Object> hop : path) {
@@ -260,17 +667,51 @@ public class OVXNetworkManager {
     }
 
     /**
-     * Creates OVX network and elements based on persistent storage, boots
-     * network afterwards.
-     * TODO: proper error handling (roll-back?).
+     * Reserves the IDs of the stored switches, links and hosts at once, so
+     * the restored elements keep them and new elements don't get them.
+     *
+     * @param switches the stored switches
      */
+    @SuppressWarnings("unchecked")
+    private void reserveIds(final List<Map<String, Object>> switches) {
+        final List<Long> switchIds = new ArrayList<Long>();
+        final Set<Integer> linkIds = new HashSet<Integer>();
+        final List<Integer> hostIds = new ArrayList<Integer>();
+        if (switches != null) {
+            for (Map<String, Object> sw : switches) {
+                switchIds.add((Long) sw.get(TenantHandler.VDPID));
+            }
+        }
+        final List<Map<String, Object>> links = (List<Map<String, Object>>) this.vnet
+                .get(Link.DB_KEY);
+        if (links != null) {
+            // both directions of a link share the ID
+            for (Map<String, Object> link : links) {
+                linkIds.add((Integer) link.get(TenantHandler.LINK));
+            }
+        }
+        final List<Map<String, Object>> hosts = (List<Map<String, Object>>) this.vnet
+                .get(Host.DB_KEY);
+        if (hosts != null) {
+            for (Map<String, Object> host : hosts) {
+                hostIds.add((Integer) host.get(TenantHandler.HOST));
+            }
+        }
+        try {
+            this.virtualNetwork.reserveIds(switchIds, linkIds, hostIds);
+        } catch (IndexOutOfBoundException e) {
+            OVXNetworkManager.log.error(
+                    "Stored IDs of virtual network {} are out of range: {}",
+                    this.tenantId, e.getMessage());
+        }
+    }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
+    /**
+     * Creates the OVX network from persistent storage, and reserves the IDs
+     * of its elements.
+     */
+    @SuppressWarnings("unchecked")
     private void createNetwork() {
-
-        OVXNetworkManager.log.info("Virtual network {} ready for boot",
-                this.tenantId);
-
         // Create OVX network
         final ArrayList<String> ctrlUrls = (ArrayList<String>) this.vnet
                 .get(TenantHandler.CTRLURLS);
@@ -278,209 +719,135 @@ public class OVXNetworkManager {
         final IPAddress addr = new OVXIPAddress(network, -1);
         final Short netMask = ((Integer) this.vnet.get(TenantHandler.NETMASK))
                 .shortValue();
+        // Networks stored before label budgets keep the labels they used
+        // with the fixed-width layout, which are installed in the network
+        Number linkBits = (Number) this.vnet.get(TenantHandler.LINK_BITS);
+        Number flowBits = (Number) this.vnet.get(TenantHandler.FLOW_BITS);
+        Number labelBase = (Number) this.vnet.get(TenantHandler.LABEL_BASE);
+        if (linkBits == null || flowBits == null || labelBase == null) {
+            linkBits = OVXLinkBudget.getDefaultLinkBits();
+            flowBits = OVXLinkBudget.getDefaultFlowBits();
+            labelBase = OVXLinkBudget.getLegacyStart(this.tenantId);
+        }
         OVXNetwork virtualNetwork;
         try {
             virtualNetwork = new OVXNetwork(this.tenantId, ctrlUrls, addr,
-                    netMask);
+                    netMask, linkBits.intValue(), flowBits.intValue(),
+                    labelBase.longValue());
         } catch (IndexOutOfBoundException e) {
             OVXNetworkManager.log.error(
                     "Error recreating virtual network {} from database",
                     this.tenantId);
+            this.state = State.FAILED;
             return;
         }
+        final Number weight = (Number) this.vnet.get(TenantHandler.WEIGHT);
+        if (weight != null) {
+            TenantScheduler.getInstance().setWeight(this.tenantId,
+                    weight.intValue());
+        }
         virtualNetwork.register();
+        this.virtualNetwork = virtualNetwork;
+        this.reserveIds((List<Map<String, Object>>) this.vnet
+                .get(Switch.DB_KEY));
+    }
 
-        // Create OVX switches
-        final List<Map<String, Object>> switches = (List<Map<String, Object>>) this.vnet
-                .get(Switch.DB_KEY);
-        if (switches != null) {
-            for (Map<String, Object> sw : switches) {
-                List<Long> dpids = (List<Long>) sw.get(TenantHandler.DPIDS);
-                long switchId = (long) sw.get(TenantHandler.VDPID);
-                try {
-                    virtualNetwork.createSwitch(dpids, switchId);
-                } catch (IndexOutOfBoundException e) {
-                    OVXNetworkManager.log.error(
-                            "Error recreating virtual switch {} from database",
-                            switchId);
-                    continue;
-                }
-            }
+    private void createSwitch(final List<Long> dpids, final long switchId) {
+        try {
+            this.virtualNetwork.createSwitch(dpids, switchId);
+        } catch (IndexOutOfBoundException e) {
+            OVXNetworkManager.log.error(
+                    "Error recreating virtual switch {} from database",
+                    switchId);
         }
+    }
 
-        // Create OVX ports
-        final List<Map<String, Object>> ports = (List<Map<String, Object>>) this.vnet
-                .get(Port.DB_KEY);
-        if (ports != null) {
-            for (Map<String, Object> port : ports) {
-                long physicalDpid = (Long) port.get(TenantHandler.DPID);
-                short portNumber = ((Integer) port.get(TenantHandler.PORT))
-                        .shortValue();
-                short vportNumber = ((Integer) port.get(TenantHandler.VPORT))
-                        .shortValue();
-                try {
-                    virtualNetwork.createPort(physicalDpid, portNumber,
-                            vportNumber);
-                } catch (IndexOutOfBoundException e) {
-                    OVXNetworkManager.log.error(
-                            "Error recreating virtual port {} from database",
-                            vportNumber);
-                    continue;
-                }
-            }
+    private void createPort(final long physicalDpid, final short portNumber,
+            final short vportNumber) {
+        try {
+            this.virtualNetwork.createPort(physicalDpid, portNumber,
+                    vportNumber);
+        } catch (IndexOutOfBoundException e) {
+            OVXNetworkManager.log.error(
+                    "Error recreating virtual port {} from database",
+                    vportNumber);
         }
+    }
 
-        // Create OVX big switch routes if manual
-        if (switches != null) {
-            for (Map<String, Object> sw : switches) {
-                long switchId = (long) sw.get(TenantHandler.VDPID);
-                String alg = (String) sw.get(TenantHandler.ALGORITHM);
-                Integer backups = (Integer) sw.get(TenantHandler.BACKUPS);
-                // Don't bother with switch routes if not a bigswitch
-                if ((alg == null) || (backups == null)) {
-                    continue;
-                }
-                try {
-                    virtualNetwork.setOVXBigSwitchRouting(switchId, alg,
-                            backups.byteValue());
-                } catch (RoutingAlgorithmException e) {
-                    OVXNetworkManager.log.error(
-                            "Error setting routing mode for switch {} from database", switchId);
-                    continue;
-                }
+    /**
+     * Restores the routing mode of a big switch. Stored routes are only kept
+     * if routing is manual.
+     */
+    private void setRouting(final long switchId, final String alg,
+            final byte backups) {
+        try {
+            this.virtualNetwork.setOVXBigSwitchRouting(switchId, alg, backups);
+        } catch (RoutingAlgorithmException e) {
+            OVXNetworkManager.log.error(
+                    "Error setting routing mode for switch {} from database",
+                    switchId);
+        }
+        if (!RoutingType.NONE.getValue().equals(alg)) {
+            DBManager.getInstance().removeSwitchPath(this.tenantId, switchId);
+        }
+    }
 
-                // Only restore routes if manual routing
-                // Remove all stored routes otherwise
-                if (alg == RoutingType.NONE.name()) {
-                    final List<Map<String, Object>> routes = (List<Map<String, Object>>) this.vnet
-                            .get(SwitchRoute.DB_KEY);
-                    // List of created routeId's per switch
-                    final Map<Long, List<Integer>> routeIds = new HashMap<Long, List<Integer>>();
-                    if (routes != null) {
-                        for (Map<String, Object> route : routes) {
-                            long dpid = (Long) route.get(TenantHandler.VDPID);
-                            short srcPort = ((Integer) route
-                                    .get(TenantHandler.SRC_PORT)).shortValue();
-                            short dstPort = ((Integer) route
-                                    .get(TenantHandler.DST_PORT)).shortValue();
-                            byte priority = ((Integer) route
-                                    .get(TenantHandler.PRIORITY)).byteValue();
-                            int routeId = (Integer) route
-                                    .get(TenantHandler.ROUTE);
-                            // Maintain id's of routes per switch so we don't
-                            // create reverse
-                            List<Integer> visited = routeIds.get(dpid);
-                            if (visited == null) {
-                                visited = new ArrayList<Integer>();
-                                routeIds.put(dpid, visited);
-                            }
-                            if (visited.contains(routeId)) {
-                                continue;
-                            } else {
-                                visited.add(routeId);
-                            }
-
-                            List<Map> path = (List<Map>) route
-                                    .get(TenantHandler.PATH);
-                            List<PhysicalLink> physicalLinks = this
-                                    .pathToPhyLinkList(path);
-
-                            try {
-                                virtualNetwork.connectRoute(dpid, srcPort,
-                                        dstPort, physicalLinks, priority,
-                                        routeId);
-                            } catch (IndexOutOfBoundException e) {
-                                OVXNetworkManager.log
-                                        .error("Error recreating virtual switch route {} from database",
-                                                routeId);
-                                continue;
-                            }
-                        }
-                    }
-                } else {
-                    DBManager.getInstance()
-                            .removeSwitchPath(tenantId, switchId);
-                }
-            }
+    private void connectRoute(final long switchId, final short srcPort,
+            final short dstPort, final List<Map<String, Object>> path,
+            final byte priority, final int routeId) {
+        try {
+            this.virtualNetwork.connectRoute(switchId, srcPort, dstPort,
+                    this.pathToPhyLinkList(path), priority, routeId);
+        } catch (IndexOutOfBoundException e) {
+            OVXNetworkManager.log.error(
+                    "Error recreating virtual switch route {} from database",
+                    routeId);
         }
+    }
 
-        // Create OVX links
-        final List<Map<String, Object>> links = (List<Map<String, Object>>) this.vnet
-                .get(Link.DB_KEY);
-        // Maintain link id's of virtual links we have created - ensure reverse
-        // link is not created again
-        final List<Integer> linkIds = new ArrayList<Integer>();
-        if (links != null) {
-            for (Map<String, Object> link : links) {
-                // Skip link if we already handled the reverse
-                Integer linkId = (Integer) link.get(TenantHandler.LINK);
-                if (linkIds.contains(linkId)) {
-                    continue;
-                } else {
-                    linkIds.add(linkId);
-                }
-                // Obtain virtual src and dst dpid/port, priority
-                Long srcDpid = (Long) link.get(TenantHandler.SRC_DPID);
-                Short srcPort = ((Integer) link.get(TenantHandler.SRC_PORT))
-                        .shortValue();
-                Long dstDpid = (Long) link.get(TenantHandler.DST_DPID);
-                Short dstPort = ((Integer) link.get(TenantHandler.DST_PORT))
-                        .shortValue();
-                Byte priority = ((Integer) link.get(TenantHandler.PRIORITY))
-                        .byteValue();
-                String alg = (String) link.get(TenantHandler.ALGORITHM);
-                byte backups = ((Integer) link.get(TenantHandler.BACKUPS))
-                        .byteValue();
-
-                // Build list of physical links
-                List<Map> path = (List<Map>) link.get(TenantHandler.PATH);
-                List<PhysicalLink> physicalLinks = this.pathToPhyLinkList(path);
-
-                // Create virtual link
-                try {
-                    DBManager.getInstance().removeLinkPath(tenantId, linkId);
-
-                    virtualNetwork.connectLink(srcDpid, srcPort, dstDpid,
-                            dstPort, alg, backups, linkId);
-
-                    // Only configure path if manual routing mode
-                    if (alg == RoutingType.NONE.getValue()) {
-                        virtualNetwork.setLinkPath(linkId, physicalLinks,
-                                priority);
-                    }
+    private void connectLink(final int linkId, final long srcDpid,
+            final short srcPort, final long dstDpid, final short dstPort,
+            final String alg, final byte backups,
+            final List<Map<String, Object>> path, final byte priority) {
+        try {
+            DBManager.getInstance().removeLinkPath(this.tenantId, linkId);
 
-                } catch (IndexOutOfBoundException | PortMappingException e) {
-                    OVXNetworkManager.log.error(
-                            "Error recreating virtual link {} from database",
-                            linkId);
-                    continue;
-                }
+            this.virtualNetwork.connectLink(srcDpid, srcPort, dstDpid,
+                    dstPort, alg, backups, linkId);
+
+            // Only configure path if manual routing mode
+            if (RoutingType.NONE.getValue().equals(alg)) {
+                this.virtualNetwork.setLinkPath(linkId,
+                        this.pathToPhyLinkList(path), priority);
             }
+        } catch (IndexOutOfBoundException | PortMappingException e) {
+            OVXNetworkManager.log.error(
+                    "Error recreating virtual link {} from database", linkId);
         }
+    }
 
-        // Connect hosts
-        final List<Map<String, Object>> hosts = (List<Map<String, Object>>) this.vnet
-                .get(Host.DB_KEY);
-        if (hosts != null) {
-            for (Map<String, Object> host : hosts) {
-                final long dpid = (Long) host.get(TenantHandler.VDPID);
-                final short port = ((Integer) host.get(TenantHandler.VPORT))
-                        .shortValue();
-                final MACAddress macAddr = MACAddress.valueOf((Long) host
-                        .get(TenantHandler.MAC));
-                final int hostId = (Integer) host.get(TenantHandler.HOST);
-                try {
-                    virtualNetwork.connectHost(dpid, port, macAddr, hostId);
-                } catch (IndexOutOfBoundException e) {
-                    OVXNetworkManager.log.error("Failed to create host {}",
-                            hostId);
-                    continue;
-                }
-            }
+    private void connectHost(final long dpid, final short port,
+            final MACAddress macAddr, final int hostId) {
+        try {
+            this.virtualNetwork.connectHost(dpid, port, macAddr, hostId);
+        } catch (IndexOutOfBoundException e) {
+            OVXNetworkManager.log.error("Failed to create host {}", hostId);
         }
+    }
 
-        // Start network
-        virtualNetwork.boot();
-        this.bootState = true;
+    /**
+     * Boots the network once all its elements are restored.
+     */
+    private void boot() {
+        this.virtualNetwork.boot();
+        synchronized (this) {
+            this.booted = System.currentTimeMillis();
+            this.state = State.BOOTED;
+            // Done with the stored copy
+            this.vnet = null;
+        }
+        OVXNetworkManager.log.info("Restored virtual network {} in {} ms",
+                this.tenantId, this.booted - this.created);
+        DBManager.getInstance().restored(this);
     }
 }
@@ -15,12 +15,7 @@
  ******************************************************************************/
 package net.onrc.openvirtex.elements;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,49 +39,56 @@ import net.onrc.openvirtex.util.MACAddress;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.RadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
-
 /**
  * This singleton class maintains all the virtual-to-physical and reverse mappings.
  * These encompass switch mappings, link mappings, switch route mappings,
  * the IP address mappings, the tenant ID to virtual network mapping, and the
  * list of MAC addresses.
+ * <p>
+ * The mappings are partitioned per tenant (see {@link OVXMapPartition}), so
+ * that creating, tearing down and querying a virtual network only touches
+ * its own partition. The map additionally keeps the few indexes that are
+ * not scoped to a tenant: which tenants use a physical switch or link, and
+ * which virtual address a physical IP or MAC address belongs to.
  */
 public final class OVXMap implements Mappable {
 
     private static Logger log = LogManager.getLogger(OVXMap.class.getName());
     private static AtomicReference<OVXMap> mapInstance = new AtomicReference<>();
 
-    private ConcurrentHashMap<OVXSwitch, ArrayList<PhysicalSwitch>> virtualSwitchMap;
-    private ConcurrentHashMap<PhysicalSwitch, ConcurrentHashMap<Integer, OVXSwitch>> physicalSwitchMap;
-    private ConcurrentHashMap<OVXLink, ArrayList<PhysicalLink>> virtualLinkMap;
-    private ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, List<OVXLink>>> physicalLinkMap;
-    private ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>> routetoPhyLinkMap;
-    private ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>> phyLinktoRouteMap;
+    private ConcurrentHashMap<Integer, OVXMapPartition> partitions;
     private ConcurrentHashMap<Integer, OVXNetwork> networkMap;
-    private RadixTree<OVXIPAddress> physicalIPMap;
-    private RadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>> virtualIPMap;
-    private RadixTree<Integer> macMap;
+    private ConcurrentHashMap<PhysicalSwitch, Users<PhysicalSwitch>> switchUsers;
+    private ConcurrentHashMap<PhysicalLink, Users<PhysicalLink>> linkUsers;
+    private ConcurrentHashMap<PhysicalIPAddress, OVXIPAddress> physicalIPMap;
+    private ConcurrentHashMap<MACAddress, Integer> macMap;
+
+    /**
+     * The tenants that map a physical element. The set may still hold
+     * tenants that stopped using the element; those are pruned when the
+     * tenant or the element goes away.
+     */
+    private static final class Users<T> {
+        private final T element;
+        private final Set<Integer> tenants;
+
+        private Users(final T element) {
+            this.element = element;
+            this.tenants = Collections
+                    .newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        }
+    }
 
     /**
      * Creates a new map instance, by initializing all mapping data structures.
      */
     private OVXMap() {
-        this.virtualSwitchMap = new ConcurrentHashMap<OVXSwitch, ArrayList<PhysicalSwitch>>();
-        this.physicalSwitchMap = new ConcurrentHashMap<PhysicalSwitch, ConcurrentHashMap<Integer, OVXSwitch>>();
-        this.virtualLinkMap = new ConcurrentHashMap<OVXLink, ArrayList<PhysicalLink>>();
-        this.physicalLinkMap = new ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, List<OVXLink>>>();
-        this.routetoPhyLinkMap = new ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>>();
-        this.phyLinktoRouteMap = new ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>>();
+        this.partitions = new ConcurrentHashMap<Integer, OVXMapPartition>();
         this.networkMap = new ConcurrentHashMap<Integer, OVXNetwork>();
-        this.physicalIPMap = new ConcurrentRadixTree<OVXIPAddress>(
-                new DefaultCharArrayNodeFactory());
-        this.virtualIPMap = new ConcurrentRadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>>(
-                new DefaultCharArrayNodeFactory());
-        this.macMap = new ConcurrentRadixTree<Integer>(
-                new DefaultCharArrayNodeFactory());
+        this.switchUsers = new ConcurrentHashMap<PhysicalSwitch, Users<PhysicalSwitch>>();
+        this.linkUsers = new ConcurrentHashMap<PhysicalLink, Users<PhysicalLink>>();
+        this.physicalIPMap = new ConcurrentHashMap<PhysicalIPAddress, OVXIPAddress>();
+        this.macMap = new ConcurrentHashMap<MACAddress, Integer>();
     }
 
     /**
@@ -109,6 +111,50 @@ public final class OVXMap implements Mappable {
         OVXMap.mapInstance.set(null);
     }
 
+    /**
+     * Gets the partition of the given tenant, creating it if needed.
+     *
+     * @param tenantId the tenant ID
+     * @return the partition
+     */
+    private OVXMapPartition partition(final int tenantId) {
+        OVXMapPartition partition = this.partitions.get(tenantId);
+        if (partition == null) {
+            final OVXMapPartition created = new OVXMapPartition(tenantId);
+            partition = this.partitions.putIfAbsent(tenantId, created);
+            if (partition == null) {
+                partition = created;
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * Records that the tenant maps the given physical element.
+     */
+    private static <T> void addUser(
+            final ConcurrentHashMap<T, Users<T>> users, final T element,
+            final int tenantId) {
+        Users<T> u = users.get(element);
+        if (u == null) {
+            final Users<T> created = new Users<T>(element);
+            u = users.putIfAbsent(element, created);
+            if (u == null) {
+                u = created;
+            }
+        }
+        u.tenants.add(tenantId);
+    }
+
+    /**
+     * Gets the tenants that map the given physical element.
+     */
+    private static <T> Set<Integer> getUsers(
+            final ConcurrentHashMap<T, Users<T>> users, final T element) {
+        final Users<T> u = users.get(element);
+        return u == null ? Collections.<Integer>emptySet() : u.tenants;
+    }
+
     // ADD objects to dictionary
 
     /**
@@ -122,27 +168,15 @@ public final class OVXMap implements Mappable {
     @Override
     public void addSwitches(final List<PhysicalSwitch> physicalSwitches,
             final OVXSwitch virtualSwitch) {
+        final OVXMapPartition partition = this.partition(virtualSwitch
+                .getTenantId());
         for (final PhysicalSwitch physicalSwitch : physicalSwitches) {
-            this.addSwitch(physicalSwitch, virtualSwitch);
+            OVXMap.addUser(this.switchUsers, physicalSwitch,
+                    partition.getTenantId());
+            partition.addSwitch(physicalSwitch, virtualSwitch);
         }
     }
 
-    /**
-     * Creates the mapping between OVX switch to physical switch and from
-     * physical switch to virtual switch.
-     *
-     * @param physicalSwitch
-     *            Refers to the PhysicalSwitch from the PhysicalNetwork
-     * @param virtualSwitch
-     *            Has type OVXSwitch and this switch is specific to a tenantId
-     *
-     */
-    private void addSwitch(final PhysicalSwitch physicalSwitch,
-            final OVXSwitch virtualSwitch) {
-        this.addPhysicalSwitch(physicalSwitch, virtualSwitch);
-        this.addVirtualSwitch(virtualSwitch, physicalSwitch);
-    }
-
     /**
      * Creates the mapping between PhysicalLinks and a VirtualLink. This function
      * takes in a list of physicalLinks rather than an individual physicalLink
@@ -154,32 +188,15 @@ public final class OVXMap implements Mappable {
     @Override
     public void addLinks(final List<PhysicalLink> physicalLinks,
             final OVXLink virtualLink) {
+        final OVXMapPartition partition = this.partition(virtualLink
+                .getTenantId());
         for (final PhysicalLink physicalLink : physicalLinks) {
-            this.addLink(physicalLink, virtualLink);
+            OVXMap.addUser(this.linkUsers, physicalLink,
+                    partition.getTenantId());
+            partition.addLink(physicalLink, virtualLink);
         }
     }
 
-    /**
-     * Creates the mapping between the virtual link to physical link and physical
-     * link to virtual link.
-     *
-     * @param physicalLink
-     *            Refers to the PhysicalLink in the PhysicalNetwork
-     * @param virtualLink
-     *            Refers to the OVXLink which consists of many PhysicalLinks and
-     *            specific to a tenantId
-     *
-     */
-    private void addLink(final PhysicalLink physicalLink,
-            final OVXLink virtualLink) {
-        this.addPhysicalLink(physicalLink, virtualLink);
-        this.addVirtualLink(virtualLink, physicalLink);
-    }
-
-    public Iterable<CharSequence> getAllKeys() {
-        return this.virtualIPMap.getClosestKeys("");
-    }
-
     /**
      * This is the generic function which takes as arguments the
      * PhysicalIPAddress and the OVXIPAddress. This will add the value into both
@@ -194,132 +211,8 @@ public final class OVXMap implements Mappable {
     @Override
     public void addIP(final PhysicalIPAddress physicalIP,
             final OVXIPAddress virtualIP) {
-        this.addPhysicalIP(physicalIP, virtualIP);
-        this.addVirtualIP(virtualIP, physicalIP);
-    }
-
-    /**
-     * This function will create a map indexed on the key PhysicalIPAddress with
-     * value OVXIPAddress.
-     *
-     * @param physicalIP
-     *            refers to the PhysicalIPAddress which is created using the
-     *            tenant id and virtualIP
-     * @param virtualIP
-     *            the IP address used within the VirtualNetwork
-     */
-    private void addPhysicalIP(final PhysicalIPAddress physicalIP,
-            final OVXIPAddress virtualIP) {
-        this.physicalIPMap.put(physicalIP.toString(), virtualIP);
-    }
-
-    /**
-     * Creates a map indexed on the key OVXIPAddress with
-     * value a ConcurrentHashMap mapping the tenant id to the PhysicalIPAddress.
-     *
-     * @param virtualIP
-     *            the IP address used within the VirtualNetwork
-     * @param physicalIP
-     *            refers to the PhysicalIPAddress which is created using the
-     *            tenant id and virtualIP
-     */
-    private void addVirtualIP(final OVXIPAddress virtualIP,
-            final PhysicalIPAddress physicalIP) {
-        ConcurrentHashMap<Integer, PhysicalIPAddress> ipMap = this.virtualIPMap
-                .getValueForExactKey(virtualIP.toString());
-        if (ipMap == null) {
-            ipMap = new ConcurrentHashMap<Integer, PhysicalIPAddress>();
-            this.virtualIPMap.put(virtualIP.toString(), ipMap);
-        }
-        ipMap.put(virtualIP.getTenantId(), physicalIP);
-    }
-
-    /**
-     * Sets up the mapping from the physicalSwitch to the tenant
-     * ID and virtualSwitch which has been specified.
-     *
-     * @param physicalSwitch
-     *            A PhysicalSwitch object which is found in the PhysicalNetwork
-     * @param virtualSwitch
-     *            An OVXSwitch object which is found in the OVXNetwork
-     *
-     */
-    private void addPhysicalSwitch(final PhysicalSwitch physicalSwitch,
-            final OVXSwitch virtualSwitch) {
-        ConcurrentHashMap<Integer, OVXSwitch> switchMap = this.physicalSwitchMap
-                .get(physicalSwitch);
-        if (switchMap == null) {
-            switchMap = new ConcurrentHashMap<Integer, OVXSwitch>();
-            this.physicalSwitchMap.put(physicalSwitch, switchMap);
-        }
-        switchMap.put(virtualSwitch.getTenantId(), virtualSwitch);
-    }
-
-    /**
-     * Sets up the mapping from the physical link to the OVXLinks which contain
-     * the given physical link.
-     *
-     * @param virtualLink
-     *            OVXLink contains the OVXPort and OVXSwitch for source and
-     *            destination in the OVXNetwork
-     */
-    private void addPhysicalLink(final PhysicalLink physicalLink,
-            final OVXLink virtualLink) {
-        ConcurrentHashMap<Integer, List<OVXLink>> linkMap = this.physicalLinkMap
-                .get(physicalLink);
-        if (linkMap == null) {
-            linkMap = new ConcurrentHashMap<Integer, List<OVXLink>>();
-            this.physicalLinkMap.put(physicalLink, linkMap);
-        }
-        List<OVXLink> linkList = linkMap.get(virtualLink.getTenantId());
-        if (linkList == null) {
-            linkList = new ArrayList<OVXLink>();
-            linkMap.put(virtualLink.getTenantId(), linkList);
-        }
-        linkList.add(virtualLink);
-    }
-
-    /**
-     * Sets up the mapping from the OVXSwitch to the physicalSwitch which has
-     * been specified.
-     *
-     * @param virtualSwitch
-     *            A OVXSwitch object which represents a single switch in the
-     *            OVXNetwork
-     * @param physicalSwitch
-     *            A PhysicalSwitch object is a single switch in the
-     *            PhysicalNetwork
-     *
-     */
-    private void addVirtualSwitch(final OVXSwitch virtualSwitch,
-            final PhysicalSwitch physicalSwitch) {
-        ArrayList<PhysicalSwitch> switchList = this.virtualSwitchMap
-                .get(virtualSwitch);
-        if (switchList == null) {
-            switchList = new ArrayList<PhysicalSwitch>();
-            this.virtualSwitchMap.put(virtualSwitch, switchList);
-        }
-        switchList.add(physicalSwitch);
-    }
-
-    /**
-     * Maps the virtual link to the physical links that it contains.
-     *
-     * @param virtualLink
-     *            A OVXLink object which represents a single link in the
-     *            OVXNetwork
-     * @param physicalLink
-     *            A PhysicalLink object which represent a single source and
-     *            destination PhysicalPort and PhysicalSwitch
-     */
-    private void addVirtualLink(final OVXLink virtualLink,
-            final PhysicalLink physicalLink) {
-        ArrayList<PhysicalLink> linkList = this.virtualLinkMap.get(virtualLink);
-        if (linkList == null) {
-            linkList = new ArrayList<PhysicalLink>();
-            this.virtualLinkMap.put(virtualLink, linkList);
-        }
-        linkList.add(physicalLink);
+        this.physicalIPMap.put(physicalIP, virtualIP);
+        this.partition(virtualIP.getTenantId()).addIP(physicalIP, virtualIP);
     }
 
     /**
@@ -333,12 +226,17 @@ public final class OVXMap implements Mappable {
      */
     @Override
     public void addNetwork(final OVXNetwork virtualNetwork) {
+        this.partition(virtualNetwork.getTenantId());
         this.networkMap.put(virtualNetwork.getTenantId(), virtualNetwork);
     }
 
     @Override
     public void addMAC(final MACAddress mac, final Integer tenantId) {
-        this.macMap.put(mac.toStringNoColon(), tenantId);
+        final Integer previous = this.macMap.put(mac, tenantId);
+        if (previous != null && !previous.equals(tenantId)) {
+            this.partition(previous).removeMAC(mac);
+        }
+        this.partition(tenantId).addMAC(mac);
     }
 
     @Override
@@ -347,48 +245,11 @@ public final class OVXMap implements Mappable {
         route.setPathSrcPort(physicalLinks.get(0).getSrcPort());
         route.setPathDstPort(physicalLinks.get(physicalLinks.size() - 1)
                 .getDstPort());
-        this.addRoutetoLink(route, physicalLinks);
-        for (PhysicalLink l : physicalLinks) {
-            this.addLinktoRoute(l, route);
+        final OVXMapPartition partition = this.partition(route.getTenantId());
+        for (final PhysicalLink l : physicalLinks) {
+            OVXMap.addUser(this.linkUsers, l, partition.getTenantId());
         }
-    }
-
-    /**
-     * Adds given route to list of physical links.
-     *
-     * @param route the route
-     * @param links list of physical links
-     */
-    private void addRoutetoLink(SwitchRoute route, List<PhysicalLink> links) {
-        ArrayList<PhysicalLink> path = this.routetoPhyLinkMap.get(route);
-        if (path == null) {
-            path = new ArrayList<PhysicalLink>();
-            this.routetoPhyLinkMap.put(route, path);
-        }
-        for (PhysicalLink l : links) {
-            path.add(l);
-        }
-    }
-
-    /**
-     * Adds given physical link to the route.
-     *
-     * @param link the physical link
-     * @param route the route
-     */
-    private void addLinktoRoute(PhysicalLink link, SwitchRoute route) {
-        ConcurrentHashMap<Integer, Set<SwitchRoute>> rmap = this.phyLinktoRouteMap
-                .get(link);
-        if (rmap == null) {
-            rmap = new ConcurrentHashMap<Integer, Set<SwitchRoute>>();
-            this.phyLinktoRouteMap.put(link, rmap);
-        }
-        Set<SwitchRoute> rlist = rmap.get(route.getTenantId());
-        if (rlist == null) {
-            rlist = new HashSet<SwitchRoute>();
-            rmap.put(route.getTenantId(), rlist);
-        }
-        rlist.add(route);
+        partition.addRoute(route, physicalLinks);
     }
 
     // Access objects from dictionary given the key
@@ -396,12 +257,9 @@ public final class OVXMap implements Mappable {
     @Override
     public PhysicalIPAddress getPhysicalIP(final OVXIPAddress ip,
             final Integer tenantId) throws AddressMappingException {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(ip.toString());
-        if (ips == null) {
-            throw new AddressMappingException(ip, PhysicalIPAddress.class);
-        }
-        PhysicalIPAddress pip = ips.get(tenantId);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        final PhysicalIPAddress pip = partition == null ? null : partition
+                .getPhysicalIP(ip);
         if (pip == null) {
             throw new AddressMappingException(tenantId, PhysicalIPAddress.class);
         }
@@ -411,14 +269,29 @@ public final class OVXMap implements Mappable {
     @Override
     public OVXIPAddress getVirtualIP(final PhysicalIPAddress ip)
             throws AddressMappingException {
-        OVXIPAddress vip = this.physicalIPMap
-                .getValueForExactKey(ip.toString());
+        OVXIPAddress vip = this.physicalIPMap.get(ip);
         if (vip == null) {
             throw new AddressMappingException(ip, OVXIPAddress.class);
         }
         return vip;
     }
 
+    /**
+     * Gets the IP address mappings of the virtual network identified by the
+     * tenant ID.
+     *
+     * @param tenantId the tenant ID
+     * @return unmodifiable map of virtual to physical IP addresses
+     */
+    public Map<OVXIPAddress, PhysicalIPAddress> getVirtualIPs(
+            final int tenantId) {
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        if (partition == null) {
+            return Collections.emptyMap();
+        }
+        return partition.getIPs();
+    }
+
     /**
      * Gets the OVXSwitch which has been specified by the physicalSwitch and
      * tenantId.
@@ -433,13 +306,14 @@ public final class OVXMap implements Mappable {
     @Override
     public OVXSwitch getVirtualSwitch(final PhysicalSwitch physicalSwitch,
             final Integer tenantId) throws SwitchMappingException {
-        final ConcurrentHashMap<Integer, OVXSwitch> sws = this.physicalSwitchMap
-                .get(physicalSwitch);
-        if (sws == null) {
-            throw new SwitchMappingException(physicalSwitch, OVXSwitch.class);
-        }
-        OVXSwitch vsw = sws.get(tenantId);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        final OVXSwitch vsw = partition == null ? null : partition
+                .getVirtualSwitch(physicalSwitch);
         if (vsw == null) {
+            if (!this.switchUsers.containsKey(physicalSwitch)) {
+                throw new SwitchMappingException(physicalSwitch,
+                        OVXSwitch.class);
+            }
             throw new SwitchMappingException(tenantId, OVXSwitch.class);
         }
         return vsw;
@@ -460,13 +334,13 @@ public final class OVXMap implements Mappable {
     @Override
     public List<OVXLink> getVirtualLinks(final PhysicalLink physicalLink,
             final Integer tenantId) throws LinkMappingException {
-        final ConcurrentHashMap<Integer, List<OVXLink>> linkMap = this.physicalLinkMap
-                .get(physicalLink);
-        if (linkMap == null) {
-            throw new LinkMappingException(physicalLink, OVXLink.class);
-        }
-        final List<OVXLink> linkList = linkMap.get(tenantId);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        final List<OVXLink> linkList = partition == null ? null : partition
+                .getVirtualLinks(physicalLink);
         if (linkList == null) {
+            if (!this.linkUsers.containsKey(physicalLink)) {
+                throw new LinkMappingException(physicalLink, OVXLink.class);
+            }
             throw new LinkMappingException(tenantId, OVXLink.class);
         }
         return linkList;
@@ -486,7 +360,10 @@ public final class OVXMap implements Mappable {
     @Override
     public List<PhysicalLink> getPhysicalLinks(final OVXLink virtualLink)
             throws LinkMappingException {
-        List<PhysicalLink> linkList = this.virtualLinkMap.get(virtualLink);
+        final OVXMapPartition partition = this.partitions.get(virtualLink
+                .getTenantId());
+        final List<PhysicalLink> linkList = partition == null ? null
+                : partition.getPhysicalLinks(virtualLink);
         if (linkList == null) {
             throw new LinkMappingException(virtualLink, PhysicalLink.class);
         }
@@ -507,12 +384,15 @@ public final class OVXMap implements Mappable {
     @Override
     public List<PhysicalSwitch> getPhysicalSwitches(
             final OVXSwitch virtualSwitch) throws SwitchMappingException {
-        List<PhysicalSwitch> pswList = this.virtualSwitchMap.get(virtualSwitch);
+        final OVXMapPartition partition = this.partitions.get(virtualSwitch
+                .getTenantId());
+        final List<PhysicalSwitch> pswList = partition == null ? null
+                : partition.getPhysicalSwitches(virtualSwitch);
         if (pswList == null) {
             throw new SwitchMappingException(virtualSwitch,
                     PhysicalSwitch.class);
         }
-        return this.virtualSwitchMap.get(virtualSwitch);
+        return pswList;
     }
 
     /**
@@ -537,7 +417,7 @@ public final class OVXMap implements Mappable {
 
     @Override
     public Integer getMAC(final MACAddress mac) throws AddressMappingException {
-        Integer macint = this.macMap.getValueForExactKey(mac.toStringNoColon());
+        Integer macint = this.macMap.get(mac);
         if (macint == null) {
             throw new AddressMappingException("Given Key " + mac
                     + " not mapped to any values");
@@ -553,14 +433,29 @@ public final class OVXMap implements Mappable {
     // Remove objects from dictionary
 
     /**
-     * Removes the virtual network from the map.
+     * Removes the virtual network from the map, together with all the
+     * mappings left in its partition.
      *
      * @param network the virtual network instance
      */
     public void removeNetwork(OVXNetwork network) {
         int tenantId = network.getTenantId();
-        if (this.networkMap.get(tenantId) != null) {
-            this.networkMap.remove(tenantId);
+        this.networkMap.remove(tenantId);
+        final OVXMapPartition partition = this.partitions.remove(tenantId);
+        if (partition == null) {
+            return;
+        }
+        for (final PhysicalSwitch psw : partition.getMappedSwitches()) {
+            OVXMap.getUsers(this.switchUsers, psw).remove(tenantId);
+        }
+        for (final PhysicalLink link : partition.getMappedLinks()) {
+            OVXMap.getUsers(this.linkUsers, link).remove(tenantId);
+        }
+        for (final MACAddress mac : partition.getMACs()) {
+            this.macMap.remove(mac, tenantId);
+        }
+        for (final PhysicalIPAddress ip : partition.removeIPs()) {
+            this.physicalIPMap.remove(ip);
         }
     }
 
@@ -570,84 +465,44 @@ public final class OVXMap implements Mappable {
      * @param virtualLink the virtual link
      */
     public void removeVirtualLink(OVXLink virtualLink) {
-        if (this.virtualLinkMap.containsKey(virtualLink)) {
-            List<PhysicalLink> physicalLinks = Collections
-                    .unmodifiableList(this.virtualLinkMap.get(virtualLink));
-            for (PhysicalLink physicalLink : physicalLinks) {
-                if (this.physicalLinkMap.get(physicalLink).containsKey(
-                        virtualLink.getTenantId())) {
-                    this.physicalLinkMap.get(physicalLink).remove(
-                            virtualLink.getTenantId());
-                }
-            }
-            this.virtualLinkMap.remove(virtualLink);
+        final OVXMapPartition partition = this.partitions.get(virtualLink
+                .getTenantId());
+        if (partition != null) {
+            partition.removeVirtualLink(virtualLink);
         }
     }
 
     @Override
     public void removePhysicalLink(PhysicalLink physicalLink) {
-        Map<Integer, List<OVXLink>> lmap = this.physicalLinkMap
-                .get(physicalLink);
-        Map<Integer, Set<SwitchRoute>> rmap = this.phyLinktoRouteMap
-                .get(physicalLink);
-        this.removePhysicalLink(lmap, this.virtualLinkMap, physicalLink);
-        this.removePhysicalLink(rmap, this.routetoPhyLinkMap, physicalLink);
-        this.physicalLinkMap.remove(physicalLink);
-        this.phyLinktoRouteMap.remove(physicalLink);
-    }
-
-    /**
-     * Helper function for removing PhysicalLinks from mappings.
-     *
-     * @param submap
-     *            Map containing a Collection of Links mapped to PhysicalLink
-     *            phylink
-     * @param map Mapping to remove phylink from
-     * @param phylink the PhysicalLink to remove
-     */
-    private <T> void removePhysicalLink(
-            Map<Integer, ? extends Collection<T>> submap,
-            ConcurrentHashMap<T, ? extends Collection<PhysicalLink>> map,
-            PhysicalLink phylink) {
-        if (submap == null) {
+        final Users<PhysicalLink> users = this.linkUsers.remove(physicalLink);
+        if (users == null) {
             return;
         }
-        for (Map.Entry<Integer, ? extends Collection<T>> el : submap.entrySet()) {
-            for (T link : el.getValue()) {
-                map.get(link).remove(phylink);
+        for (final Integer tenantId : users.tenants) {
+            final OVXMapPartition partition = this.partitions.get(tenantId);
+            if (partition != null) {
+                partition.removePhysicalLink(physicalLink);
             }
         }
     }
 
     @Override
     public void removeVirtualSwitch(OVXSwitch virtualSwitch) {
-        if (this.virtualSwitchMap.containsKey(virtualSwitch)) {
-            ArrayList<PhysicalSwitch> physicalSwitches = this.virtualSwitchMap
-                    .get(virtualSwitch);
-            for (PhysicalSwitch physicalSwitch : physicalSwitches) {
-                if (this.physicalSwitchMap.get(physicalSwitch).containsKey(
-                        virtualSwitch.getTenantId())) {
-                    this.physicalSwitchMap.get(physicalSwitch).remove(
-                            virtualSwitch.getTenantId());
-                }
-            }
-            this.virtualSwitchMap.remove(virtualSwitch);
+        final OVXMapPartition partition = this.partitions.get(virtualSwitch
+                .getTenantId());
+        if (partition != null) {
+            partition.removeVirtualSwitch(virtualSwitch);
         }
     }
 
     @Override
     public void removeVirtualIPs(int tenantId) {
-        ArrayList<String> physicalIPs = new ArrayList<String>();
-        for (ConcurrentHashMap<Integer, PhysicalIPAddress> map : virtualIPMap
-                .getValuesForKeysStartingWith("")) {
-            if (map.containsKey(tenantId)) {
-                physicalIPs.add(map.get(tenantId).toString());
-                map.remove(tenantId);
-            }
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        if (partition == null) {
+            return;
         }
-
-        for (String physicalIP : physicalIPs) {
-            physicalIPMap.remove(physicalIP);
+        for (final PhysicalIPAddress physicalIP : partition.removeIPs()) {
+            this.physicalIPMap.remove(physicalIP);
         }
     }
 
@@ -657,13 +512,23 @@ public final class OVXMap implements Mappable {
      * @param mac the MAC address
      */
     public void removeMAC(final MACAddress mac) {
-        this.macMap.remove(mac.toStringNoColon());
+        final Integer tenantId = this.macMap.remove(mac);
+        if (tenantId == null) {
+            return;
+        }
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        if (partition != null) {
+            partition.removeMAC(mac);
+        }
     }
 
     @Override
     public List<PhysicalLink> getRoute(SwitchRoute route)
             throws LinkMappingException {
-        List<PhysicalLink> plList = this.routetoPhyLinkMap.get(route);
+        final OVXMapPartition partition = this.partitions.get(route
+                .getTenantId());
+        final List<PhysicalLink> plList = partition == null ? null : partition
+                .getRoute(route);
         if (plList == null) {
             throw new LinkMappingException(route, PhysicalLink.class);
         }
@@ -673,13 +538,13 @@ public final class OVXMap implements Mappable {
     @Override
     public Set<SwitchRoute> getSwitchRoutes(PhysicalLink physicalLink,
             Integer tenantId) throws LinkMappingException {
-        Map<Integer, Set<SwitchRoute>> pair = this.phyLinktoRouteMap
-                .get(physicalLink);
-        if (pair == null) {
-            throw new LinkMappingException(physicalLink, SwitchRoute.class);
-        }
-        Set<SwitchRoute> rList = pair.get(tenantId);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        final Set<SwitchRoute> rList = partition == null ? null : partition
+                .getSwitchRoutes(physicalLink);
         if (rList == null) {
+            if (!this.linkUsers.containsKey(physicalLink)) {
+                throw new LinkMappingException(physicalLink, SwitchRoute.class);
+            }
             throw new LinkMappingException(tenantId, SwitchRoute.class);
         }
         return rList;
@@ -687,67 +552,26 @@ public final class OVXMap implements Mappable {
 
     @Override
     public void removeRoute(SwitchRoute route) {
-        List<PhysicalLink> plist = this.routetoPhyLinkMap.get(route);
-        if (plist == null) {
-            return;
-        }
-        int tid = route.getTenantId();
-        for (PhysicalLink l : plist) {
-            removeRoute(l, tid, route);
-        }
-        this.routetoPhyLinkMap.remove(route);
-    }
-
-    /**
-     * Removes the given route that use the given physical link from the map.
-     *
-     * @param link the physical link
-     * @param tid the tenant ID
-     * @param route the switch route
-     */
-    private void removeRoute(PhysicalLink link, int tid, SwitchRoute route) {
-        Map<Integer, Set<SwitchRoute>> rmap = this.phyLinktoRouteMap.get(link);
-        if (rmap == null) {
-            return;
-        }
-        Set<SwitchRoute> routes = rmap.get(tid);
-        if (routes != null) {
-            routes.remove(route);
-            /* clean up any empty maps */
-            if (routes.isEmpty()) {
-                rmap.remove(tid);
-            }
-            if (rmap.isEmpty()) {
-                this.phyLinktoRouteMap.remove(link);
-            }
+        final OVXMapPartition partition = this.partitions.get(route
+                .getTenantId());
+        if (partition != null) {
+            partition.removeRoute(route);
         }
     }
 
     @Override
     public void removePhysicalSwitch(PhysicalSwitch physicalSwitch) {
-        Map<Integer, OVXSwitch> switches = this.physicalSwitchMap
-                .get(physicalSwitch);
-        if (switches == null) {
+        final Users<PhysicalSwitch> users = this.switchUsers
+                .remove(physicalSwitch);
+        if (users == null) {
             return;
         }
-        List<PhysicalSwitch> psw;
-        Iterator<Map.Entry<Integer, OVXSwitch>> iter = switches.entrySet()
-                .iterator();
-        while (iter.hasNext()) {
-            psw = this.virtualSwitchMap.get(iter.next().getValue());
-            if (psw == null) {
-                continue;
-            }
-            psw.remove(physicalSwitch);
-            if (psw.isEmpty()) {
-                /*
-                 * no physicalSwitches under vswitch - signal to it eventually
-                 * for now remove the vswitch
-                 */
-                iter.remove();
+        for (final Integer tenantId : users.tenants) {
+            final OVXMapPartition partition = this.partitions.get(tenantId);
+            if (partition != null) {
+                partition.removePhysicalSwitch(physicalSwitch);
             }
         }
-        this.physicalSwitchMap.remove(physicalSwitch);
     }
 
     // Below: helper functions needed to avoid using error exception for flow control
@@ -761,14 +585,13 @@ public final class OVXMap implements Mappable {
      * @return true if the mapping exists, false otherwise
      */
     public boolean hasPhysicalIP(OVXIPAddress vip, Integer tenantId) {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(vip.toString());
-        return (ips != null) && (ips.get(tenantId) != null);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        return (partition != null) && (partition.getPhysicalIP(vip) != null);
     }
 
     @Override
     public boolean hasVirtualIP(PhysicalIPAddress ip) {
-        return this.physicalIPMap.getValueForExactKey(ip.toString()) != null;
+        return this.physicalIPMap.containsKey(ip);
     }
 
     /**
@@ -778,7 +601,7 @@ public final class OVXMap implements Mappable {
      * @return true if the MAC is registered, false otherwise
      */
     public boolean hasMAC(MACAddress mac) {
-        return this.macMap.getValueForExactKey(mac.toStringNoColon()) != null;
+        return this.macMap.containsKey(mac);
     }
 
     /**
@@ -792,9 +615,9 @@ public final class OVXMap implements Mappable {
      */
     public boolean hasSwitchRoutes(final PhysicalLink physicalLink,
             final Integer tenantId) {
-        Map<Integer, Set<SwitchRoute>> pair = this.phyLinktoRouteMap
-                .get(physicalLink);
-        return (pair != null) && (pair.get(tenantId) != null);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        return (partition != null)
+                && (partition.getSwitchRoutes(physicalLink) != null);
     }
 
     /**
@@ -807,27 +630,23 @@ public final class OVXMap implements Mappable {
      */
     public boolean hasOVXLinks(final PhysicalLink physicalLink,
             final Integer tenantId) {
-        final Map<Integer, List<OVXLink>> pair = this.physicalLinkMap
-                .get(physicalLink);
-        return (pair != null) && (pair.get(tenantId) != null);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        return (partition != null)
+                && (partition.getVirtualLinks(physicalLink) != null);
     }
 
     @Override
     public boolean hasVirtualSwitch(PhysicalSwitch physicalSwitch, int tenantId) {
-        final ConcurrentHashMap<Integer, OVXSwitch> sws = this.physicalSwitchMap
-                .get(physicalSwitch);
-        return (sws != null) && (sws.get(tenantId) != null);
+        final OVXMapPartition partition = this.partitions.get(tenantId);
+        return (partition != null)
+                && (partition.getVirtualSwitch(physicalSwitch) != null);
     }
 
     @Override
     public void knownLink(PhysicalLink that) {
-        Enumeration<PhysicalLink> links = physicalLinkMap.keys();
-        while (links.hasMoreElements()) {
-            PhysicalLink link = links.nextElement();
-            if (link.equals(that)) {
-                that.setLinkId(link.getLinkId());
-                return;
-            }
+        final Users<PhysicalLink> users = this.linkUsers.get(that);
+        if (users != null) {
+            that.setLinkId(users.element.getLinkId());
         }
     }
 
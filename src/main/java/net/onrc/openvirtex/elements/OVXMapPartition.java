@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.routing.SwitchRoute;
+import net.onrc.openvirtex.util.MACAddress;
+
+/**
+ * The forward and reverse mappings of a single virtual network, i.e. the
+ * part of the {@link OVXMap} that belongs to one tenant.
+ * <p>
+ * Lookups do not lock. Updates synchronize on the partition, so tenants are
+ * updated independently of each other. The lists and sets held as values are
+ * copy-on-write, which lets lookups hand them out as is.
+ */
+final class OVXMapPartition {
+
+    private final int tenantId;
+    private final ConcurrentHashMap<OVXSwitch, List<PhysicalSwitch>> virtualSwitchMap;
+    private final ConcurrentHashMap<PhysicalSwitch, OVXSwitch> physicalSwitchMap;
+    private final ConcurrentHashMap<OVXLink, List<PhysicalLink>> virtualLinkMap;
+    private final ConcurrentHashMap<PhysicalLink, List<OVXLink>> physicalLinkMap;
+    private final ConcurrentHashMap<SwitchRoute, List<PhysicalLink>> routetoPhyLinkMap;
+    private final ConcurrentHashMap<PhysicalLink, Set<SwitchRoute>> phyLinktoRouteMap;
+    private final ConcurrentHashMap<OVXIPAddress, PhysicalIPAddress> virtualIPMap;
+    private final Set<MACAddress> macs;
+
+    OVXMapPartition(final int tenantId) {
+        this.tenantId = tenantId;
+        this.virtualSwitchMap = new ConcurrentHashMap<OVXSwitch, List<PhysicalSwitch>>();
+        this.physicalSwitchMap = new ConcurrentHashMap<PhysicalSwitch, OVXSwitch>();
+        this.virtualLinkMap = new ConcurrentHashMap<OVXLink, List<PhysicalLink>>();
+        this.physicalLinkMap = new ConcurrentHashMap<PhysicalLink, List<OVXLink>>();
+        this.routetoPhyLinkMap = new ConcurrentHashMap<SwitchRoute, List<PhysicalLink>>();
+        this.phyLinktoRouteMap = new ConcurrentHashMap<PhysicalLink, Set<SwitchRoute>>();
+        this.virtualIPMap = new ConcurrentHashMap<OVXIPAddress, PhysicalIPAddress>();
+        this.macs = Collections
+                .newSetFromMap(new ConcurrentHashMap<MACAddress, Boolean>());
+    }
+
+    int getTenantId() {
+        return this.tenantId;
+    }
+
+    // ADD
+
+    synchronized void addSwitch(final PhysicalSwitch physicalSwitch,
+            final OVXSwitch virtualSwitch) {
+        this.physicalSwitchMap.put(physicalSwitch, virtualSwitch);
+        List<PhysicalSwitch> switchList = this.virtualSwitchMap
+                .get(virtualSwitch);
+        if (switchList == null) {
+            switchList = new CopyOnWriteArrayList<PhysicalSwitch>();
+            this.virtualSwitchMap.put(virtualSwitch, switchList);
+        }
+        switchList.add(physicalSwitch);
+    }
+
+    synchronized void addLink(final PhysicalLink physicalLink,
+            final OVXLink virtualLink) {
+        List<OVXLink> vlinks = this.physicalLinkMap.get(physicalLink);
+        if (vlinks == null) {
+            vlinks = new CopyOnWriteArrayList<OVXLink>();
+            this.physicalLinkMap.put(physicalLink, vlinks);
+        }
+        vlinks.add(virtualLink);
+        List<PhysicalLink> plinks = this.virtualLinkMap.get(virtualLink);
+        if (plinks == null) {
+            plinks = new CopyOnWriteArrayList<PhysicalLink>();
+            this.virtualLinkMap.put(virtualLink, plinks);
+        }
+        plinks.add(physicalLink);
+    }
+
+    synchronized void addRoute(final SwitchRoute route,
+            final List<PhysicalLink> physicalLinks) {
+        List<PhysicalLink> path = this.routetoPhyLinkMap.get(route);
+        if (path == null) {
+            path = new CopyOnWriteArrayList<PhysicalLink>();
+            this.routetoPhyLinkMap.put(route, path);
+        }
+        path.addAll(physicalLinks);
+        for (final PhysicalLink link : physicalLinks) {
+            Set<SwitchRoute> routes = this.phyLinktoRouteMap.get(link);
+            if (routes == null) {
+                routes = new CopyOnWriteArraySet<SwitchRoute>();
+                this.phyLinktoRouteMap.put(link, routes);
+            }
+            routes.add(route);
+        }
+    }
+
+    void addIP(final PhysicalIPAddress physicalIP, final OVXIPAddress virtualIP) {
+        this.virtualIPMap.put(virtualIP, physicalIP);
+    }
+
+    void addMAC(final MACAddress mac) {
+        this.macs.add(mac);
+    }
+
+    // GET, null if not mapped
+
+    OVXSwitch getVirtualSwitch(final PhysicalSwitch physicalSwitch) {
+        return this.physicalSwitchMap.get(physicalSwitch);
+    }
+
+    List<PhysicalSwitch> getPhysicalSwitches(final OVXSwitch virtualSwitch) {
+        return this.virtualSwitchMap.get(virtualSwitch);
+    }
+
+    List<OVXLink> getVirtualLinks(final PhysicalLink physicalLink) {
+        return this.physicalLinkMap.get(physicalLink);
+    }
+
+    List<PhysicalLink> getPhysicalLinks(final OVXLink virtualLink) {
+        return this.virtualLinkMap.get(virtualLink);
+    }
+
+    List<PhysicalLink> getRoute(final SwitchRoute route) {
+        return this.routetoPhyLinkMap.get(route);
+    }
+
+    Set<SwitchRoute> getSwitchRoutes(final PhysicalLink physicalLink) {
+        return this.phyLinktoRouteMap.get(physicalLink);
+    }
+
+    PhysicalIPAddress getPhysicalIP(final OVXIPAddress virtualIP) {
+        return this.virtualIPMap.get(virtualIP);
+    }
+
+    Map<OVXIPAddress, PhysicalIPAddress> getIPs() {
+        return Collections.unmodifiableMap(this.virtualIPMap);
+    }
+
+    /**
+     * Gets the physical switches this tenant maps virtual switches to.
+     *
+     * @return the physical switches
+     */
+    Set<PhysicalSwitch> getMappedSwitches() {
+        return Collections.unmodifiableSet(this.physicalSwitchMap.keySet());
+    }
+
+    /**
+     * Gets the physical links used by the virtual links and switch routes of
+     * this tenant.
+     *
+     * @return the physical links
+     */
+    Set<PhysicalLink> getMappedLinks() {
+        final Set<PhysicalLink> links = new HashSet<PhysicalLink>(
+                this.physicalLinkMap.keySet());
+        links.addAll(this.phyLinktoRouteMap.keySet());
+        return links;
+    }
+
+    Set<MACAddress> getMACs() {
+        return Collections.unmodifiableSet(this.macs);
+    }
+
+    // REMOVE
+
+    synchronized void removeVirtualSwitch(final OVXSwitch virtualSwitch) {
+        final List<PhysicalSwitch> physicalSwitches = this.virtualSwitchMap
+                .remove(virtualSwitch);
+        if (physicalSwitches == null) {
+            return;
+        }
+        for (final PhysicalSwitch physicalSwitch : physicalSwitches) {
+            this.physicalSwitchMap.remove(physicalSwitch, virtualSwitch);
+        }
+    }
+
+    synchronized void removeVirtualLink(final OVXLink virtualLink) {
+        final List<PhysicalLink> physicalLinks = this.virtualLinkMap
+                .remove(virtualLink);
+        if (physicalLinks == null) {
+            return;
+        }
+        for (final PhysicalLink physicalLink : physicalLinks) {
+            this.removeFrom(this.physicalLinkMap, physicalLink, virtualLink);
+        }
+    }
+
+    synchronized void removeRoute(final SwitchRoute route) {
+        final List<PhysicalLink> path = this.routetoPhyLinkMap.remove(route);
+        if (path == null) {
+            return;
+        }
+        for (final PhysicalLink link : path) {
+            this.removeFrom(this.phyLinktoRouteMap, link, route);
+        }
+    }
+
+    /**
+     * Removes the physical switch from the virtual switch it belongs to. The
+     * virtual switch itself stays mapped, even if this leaves it empty.
+     *
+     * @param physicalSwitch the physical switch
+     */
+    synchronized void removePhysicalSwitch(final PhysicalSwitch physicalSwitch) {
+        final OVXSwitch virtualSwitch = this.physicalSwitchMap
+                .remove(physicalSwitch);
+        if (virtualSwitch == null) {
+            return;
+        }
+        final List<PhysicalSwitch> switchList = this.virtualSwitchMap
+                .get(virtualSwitch);
+        if (switchList != null) {
+            switchList.remove(physicalSwitch);
+        }
+    }
+
+    /**
+     * Removes the physical link from the virtual links and switch routes it
+     * belongs to, which stay mapped to their remaining physical links.
+     *
+     * @param physicalLink the physical link
+     */
+    synchronized void removePhysicalLink(final PhysicalLink physicalLink) {
+        final List<OVXLink> vlinks = this.physicalLinkMap.remove(physicalLink);
+        if (vlinks != null) {
+            for (final OVXLink vlink : vlinks) {
+                final List<PhysicalLink> plinks = this.virtualLinkMap
+                        .get(vlink);
+                if (plinks != null) {
+                    plinks.remove(physicalLink);
+                }
+            }
+        }
+        final Set<SwitchRoute> routes = this.phyLinktoRouteMap
+                .remove(physicalLink);
+        if (routes != null) {
+            for (final SwitchRoute route : routes) {
+                final List<PhysicalLink> path = this.routetoPhyLinkMap
+                        .get(route);
+                if (path != null) {
+                    path.remove(physicalLink);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all IP address mappings of this tenant.
+     *
+     * @return the physical IP addresses that were mapped
+     */
+    synchronized Collection<PhysicalIPAddress> removeIPs() {
+        final Collection<PhysicalIPAddress> ips = new HashSet<PhysicalIPAddress>(
+                this.virtualIPMap.values());
+        this.virtualIPMap.clear();
+        return ips;
+    }
+
+    void removeMAC(final MACAddress mac) {
+        this.macs.remove(mac);
+    }
+
+    /**
+     * Removes the value from the collection the key maps to, and the key
+     * itself once its collection is empty.
+     */
+    private <K, V> void removeFrom(
+            final ConcurrentHashMap<K, ? extends Collection<V>> map,
+            final K key, final V value) {
+        final Collection<V> values = map.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
 package net.onrc.openvirtex.elements.datapath;
 
 import java.util.Collection;
+import java.util.Set;
 
 import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
@@ -77,4 +78,9 @@ public interface FlowTable {
      */
     public abstract Collection<OVXFlowMod> getFlowTable();
 
+    /**
+     * @return The physical cookies of the entries in this flow table.
+     */
+    public Set<Long> getCookies();
+
 }
@@ -256,6 +256,12 @@ public class OVXBigSwitch extends OVXSwitch {
         super.unregister();
     }
 
+    @Override
+    public void discard() {
+        this.routeMap.clear();
+        super.discard();
+    }
+
     /**
      * Tries to gracefully disable the parts of this big switch that map to the
      * specified physical switch. This method returns True if the shutdown of
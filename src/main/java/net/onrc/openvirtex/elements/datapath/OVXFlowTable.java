@@ -17,11 +17,13 @@ package net.onrc.openvirtex.elements.datapath;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,10 +31,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
-import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFError.OFFlowModFailedCode;
 
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
@@ -54,7 +58,7 @@ public class OVXFlowTable implements FlowTable {
 
     /**
      * Temporary solution that should be replaced by something that doesn't
-     * fragment.
+     * fragment. Only used while the switch is not part of a virtual network.
      */
     private AtomicInteger cookieCounter;
 
@@ -146,11 +150,16 @@ public class OVXFlowTable implements FlowTable {
             if (fm.getMatch().getWildcards() == OFMatch.OFPFW_ALL) {
                 List<PhysicalSwitch> pList = this.vswitch.getMap()
                         .getPhysicalSwitches(this.vswitch);
+                /* delete the entries of this table only, by cookie */
+                final Set<Long> cookies = this.getCookies();
+                for (Long cookie : cookies) {
+                    this.releaseHopRules(cookie);
+                }
                 for (PhysicalSwitch psw : pList) {
-                    /* do FlowMod cleanup like when port dies. */
-                    psw.cleanUpTenant(this.vswitch.getTenantId(),
-                            OFPort.OFPP_NONE.getValue());
+                    psw.cleanUpFlows(this.vswitch.getTenantId(), cookies);
                 }
+                /* shared hop entries still in use went with the cookies */
+                this.reinstallHopRules(cookies);
                 this.flowmodMap.clear();
                 this.cookieMap.clear();
                 return false;
@@ -166,6 +175,7 @@ public class OVXFlowTable implements FlowTable {
                     if (overlap == OVXFlowEntry.EQUAL) {
                         this.cookieMap.remove(entry.getValue().hashCode());
                         itr.remove();
+                        this.releaseHopRules(entry.getKey());
                     }
                 }
                 return true;
@@ -223,6 +233,10 @@ public class OVXFlowTable implements FlowTable {
                 log.info("replacing equivalent FlowEntry [cookie={}]", c);
                 OVXFlowMod old = this.flowmodMap.get(c);
                 this.cookieMap.remove(old.hashCode());
+                /* the new actions may take the flow down another path */
+                if (!old.getActions().equals(fm.getActions())) {
+                    this.releaseHopRules(c);
+                }
                 this.addFlowMod(fm, c);
                 /* return cookie to pool and use the previous cookie */
                 return true;
@@ -316,6 +330,8 @@ public class OVXFlowTable implements FlowTable {
     public long addFlowMod(final OVXFlowMod flowmod, long cookie) {
         this.flowmodMap.put(cookie, flowmod);
         this.cookieMap.put(flowmod.hashCode(), cookie);
+        EventLog.getInstance().publish(Event.Type.ADDED, this.vswitch, cookie,
+                flowmod);
         return cookie;
     }
 
@@ -338,15 +354,48 @@ public class OVXFlowTable implements FlowTable {
             OVXFlowMod ret = this.flowmodMap.remove(cookie);
             if (ret != null) {
                 this.cookieMap.remove(ret.hashCode());
+                this.releaseHopRules(cookie);
+                EventLog.getInstance().publish(Event.Type.REMOVED,
+                        this.vswitch, cookie, null);
             }
             return ret;
         }
     }
 
+    /**
+     * Releases the intermediate hop entries installed for the FlowMod with
+     * the given cookie.
+     *
+     * @param cookie the cookie
+     */
+    private void releaseHopRules(final long cookie) {
+        try {
+            this.vswitch.getMap().getVirtualNetwork(this.vswitch.getTenantId())
+                    .getHopRuleManager().release(cookie);
+        } catch (NetworkMappingException e) {
+            log.debug("No virtual network to release hop entries from: {}", e);
+        }
+    }
+
+    /**
+     * Reinstalls the intermediate hop entries still in use that were deleted
+     * together with the FlowMods with the given cookies.
+     *
+     * @param cookies the cookies
+     */
+    private void reinstallHopRules(final Set<Long> cookies) {
+        try {
+            this.vswitch.getMap().getVirtualNetwork(this.vswitch.getTenantId())
+                    .getHopRuleManager().reinstall(cookies);
+        } catch (NetworkMappingException e) {
+            log.debug("No virtual network to reinstall hop entries in: {}", e);
+        }
+    }
+
     /**
      * Fetches a usable cookie for FlowMod storage. If no cookies are available,
-     * generate a new physical cookie from the OVXSwitch tenant ID and
-     * OVXSwitch-unique cookie counter.
+     * generate a new physical cookie from the cookie counter of the virtual
+     * network, so that cookies are unique across its switches.
      *
      * @return a physical cookie
      */
@@ -355,9 +404,14 @@ public class OVXFlowTable implements FlowTable {
             return this.freeList.remove();
         } catch (final NoSuchElementException e) {
             // none in queue - generate new cookie
-            // TODO double-check that there's no duplicate in flowmod map.
-            final int cookie = this.cookieCounter.getAndIncrement();
-            return (long) this.vswitch.getTenantId() << 32 | cookie;
+            try {
+                return this.vswitch.getMap()
+                        .getVirtualNetwork(this.vswitch.getTenantId())
+                        .generateCookie();
+            } catch (NetworkMappingException nme) {
+                final int cookie = this.cookieCounter.getAndIncrement();
+                return (long) this.vswitch.getTenantId() << 32 | cookie;
+            }
         }
     }
 
@@ -383,4 +437,10 @@ public class OVXFlowTable implements FlowTable {
         return Collections.unmodifiableCollection(this.flowmodMap.values());
     }
 
+    @Override
+    public Set<Long> getCookies() {
+        return Collections.unmodifiableSet(new HashSet<Long>(this.flowmodMap
+                .keySet()));
+    }
+
 }
@@ -26,6 +26,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.core.io.TenantScheduler;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.Persistable;
 
@@ -37,6 +38,8 @@ import net.onrc.openvirtex.elements.datapath.role.RoleManager.Role;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.ControllerStateException;
 import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
@@ -49,6 +52,7 @@ import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.messages.OVXPacketIn;
 import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+import net.onrc.openvirtex.util.OVXHopRuleManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -246,6 +250,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
     public void register(final List<PhysicalSwitch> physicalSwitches) {
         this.map.addSwitches(physicalSwitches, this);
         DBManager.getInstance().save(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, Switch.DB_KEY, this);
     }
 
     /**
@@ -254,6 +259,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      */
     public void unregister() {
         DBManager.getInstance().remove(this);
+        EventLog.getInstance().publish(Event.Type.REMOVED, Switch.DB_KEY, this);
         this.isActive = false;
         if (this.getPorts() != null) {
             OVXNetwork net;
@@ -295,8 +301,35 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         this.tearDown();
     }
 
+    /**
+     * Stops this switch and detaches its ports from the physical ports, as
+     * part of the removal of its whole virtual network. Unlike
+     * {@link #unregister()}, this leaves the map, the storage and the
+     * physical flow tables alone; the network teardown cleans those up for
+     * all switches at once.
+     */
+    public void discard() {
+        this.isActive = false;
+        this.roleMan.shutDown();
+        for (final OVXPort port : this.getPorts().values()) {
+            port.discard();
+        }
+    }
+
     private void cleanUpFlowMods(boolean isOk) {
         log.info("Cleaning up flowmods");
+        final Set<Long> cookies = this.flowTable.getCookies();
+        /* the hop entries of the edge flows are not needed anymore */
+        OVXHopRuleManager hopRules = null;
+        try {
+            hopRules = this.map.getVirtualNetwork(this.tenantId)
+                    .getHopRuleManager();
+            for (Long cookie : cookies) {
+                hopRules.release(cookie);
+            }
+        } catch (NetworkMappingException e) {
+            log.debug("No virtual network to release hop entries from: {}", e);
+        }
         List<PhysicalSwitch> physicalSwitches;
         try {
             physicalSwitches = this.map.getPhysicalSwitches(this);
@@ -309,7 +342,11 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
             return;
         }
         for (PhysicalSwitch sw : physicalSwitches) {
-            sw.cleanUpTenant(this.tenantId, (short) 0);
+            sw.cleanUpFlows(this.tenantId, cookies);
+        }
+        /* shared hop entries still in use went with the cookies */
+        if (hopRules != null) {
+            hopRules.reinstall(cookies);
         }
     }
 
@@ -546,7 +583,14 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
              */
 
             if (this.roleMan.canSend(channel, msg)) {
-                ((Devirtualizable) msg).devirtualize(this);
+                final Devirtualizable dmsg = (Devirtualizable) msg;
+                TenantScheduler.getInstance().dispatch(this.tenantId,
+                        this.switchId, msg.getLengthU(), new Runnable() {
+                            @Override
+                            public void run() {
+                                dmsg.devirtualize(OVXSwitch.this);
+                            }
+                        }, channel);
             } else {
                 denyAccess(channel, msg, this.roleMan.getRole(channel));
             }
@@ -0,0 +1,790 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+
+/**
+ * Shadow of the flow table of a physical switch. Tracks every FlowMod OVX
+ * writes to the switch, indexed by match and priority, by cookie, by tenant
+ * (taken from the cookie) and by port, so that the flows of a tenant or a
+ * port can be found without polling the switch for its flow statistics, and
+ * an entry can be found without scanning the table.
+ * <p>
+ * The table follows the FlowMods sent to the switch and the FlowRemoved
+ * messages received from it, and is reconciled against the periodic flow
+ * statistics to catch entries that expired silently or were installed by
+ * someone else. Cleanups can also be audited against the flow statistics,
+ * to catch the flows of a cleanup the table did not know about.
+ * <p>
+ * Instead of being wiped, a (re)connecting switch can be reconciled: the
+ * flows it reports are adopted, and a FlowMod that would install an adopted
+ * flow again only claims it. Adopted flows that are not claimed are stale,
+ * see {@link #dropAdopted(Set)}. Entries the switch lost, e.g. while it was
+ * disconnected, are handed back to be installed again, see
+ * {@link #takeLost()}.
+ */
+public class PhysicalFlowTable {
+
+    private static Logger log = LogManager.getLogger(PhysicalFlowTable.class
+            .getName());
+
+    // Flow entries of the switch, per tenant
+    private final Map<Integer, Set<ShadowEntry>> flows;
+    // Flow entries by match and priority
+    private final Map<FlowKey, List<ShadowEntry>> byKey;
+    // Flow entries by physical cookie
+    private final Map<Long, Set<ShadowEntry>> byCookie;
+    // Flow entries by the input port they match and the ports they output to
+    private final Map<Short, Set<ShadowEntry>> byPort;
+    // Number of entries in the table
+    private int size;
+    // Sync generation entries are stamped with when they are installed
+    private long generation;
+    // Generation of the last flow statistics request sent to the switch
+    private long syncMark;
+    // Entries reported so far by the parts of a flow statistics reply
+    private Set<ShadowEntry> seen;
+    // Cleanups to check against the flow statistics
+    private final List<Audit> audits;
+    // True if the entries of the next flow statistics reply are adopted
+    private boolean reconciling;
+    // Entries the reply completing the last reconciliation did not report
+    private List<OVXFlowMod> lost;
+
+    /**
+     * A flow entry on the physical switch, stamped with the sync generation
+     * in which it was installed. Adopted entries were found on the switch by
+     * a reconciliation, and not claimed by a FlowMod since.
+     */
+    private static final class ShadowEntry extends OVXFlowEntry {
+
+        private long installed;
+        private boolean adopted;
+
+        ShadowEntry(final OVXFlowMod fm, final long generation) {
+            this.flowmod = fm;
+            this.newcookie = fm.getCookie();
+            this.installed = generation;
+        }
+
+        /* entries are compared by identity, their FlowMods are mutable */
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return this == obj;
+        }
+    }
+
+    /**
+     * Identifies the entries an OpenFlow 1.0 strict match can hit, by priority
+     * and match. The match is compared on its string form, which ignores
+     * wildcarded fields; entries sharing a key are still compared field by
+     * field.
+     */
+    private static final class FlowKey {
+
+        private final short priority;
+        private final String match;
+
+        FlowKey(final OFMatch match, final short priority) {
+            this.priority = priority;
+            this.match = match.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.priority + this.match.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FlowKey)) {
+                return false;
+            }
+            final FlowKey other = (FlowKey) obj;
+            return this.priority == other.priority
+                    && this.match.equals(other.match);
+        }
+    }
+
+    /**
+     * A cleanup whose flows should be gone from the switch: the flows of a
+     * tenant, or only those with the given cookies. The audit is armed by
+     * the next flow statistics poll, and settled by the reply to it.
+     */
+    private static final class Audit {
+
+        private final int tenantId;
+        private final Set<Long> cookies;
+        private boolean armed;
+
+        Audit(final int tenantId, final Set<Long> cookies) {
+            this.tenantId = tenantId;
+            this.cookies = cookies;
+            this.armed = false;
+        }
+
+        boolean covers(final long cookie) {
+            return (int) (cookie >> 32) == this.tenantId
+                    && (this.cookies == null || this.cookies.contains(cookie));
+        }
+    }
+
+    /**
+     * Instantiates an empty shadow flow table.
+     */
+    public PhysicalFlowTable() {
+        this.flows = new LinkedHashMap<Integer, Set<ShadowEntry>>();
+        this.byKey = new HashMap<FlowKey, List<ShadowEntry>>();
+        this.byCookie = new HashMap<Long, Set<ShadowEntry>>();
+        this.byPort = new HashMap<Short, Set<ShadowEntry>>();
+        this.size = 0;
+        this.generation = 0;
+        this.syncMark = 0;
+        this.seen = null;
+        this.audits = new LinkedList<Audit>();
+        this.reconciling = false;
+        this.lost = new LinkedList<OVXFlowMod>();
+    }
+
+    /**
+     * Applies a FlowMod to be written to the switch to the shadow table,
+     * following the OpenFlow 1.0 semantics of its command. An add that would
+     * install an adopted entry again only claims the entry.
+     *
+     * @param fm the FlowMod to send to the switch
+     * @return true if the FlowMod must be sent, false if it claimed an
+     *         adopted entry
+     */
+    public synchronized boolean handleFlowMod(final OFFlowMod fm) {
+        switch (fm.getCommand()) {
+        case OFFlowMod.OFPFC_ADD:
+            if (this.claim(fm)) {
+                return false;
+            }
+            this.remove(fm.getMatch(), fm.getPriority(), true,
+                    OFPort.OFPP_NONE.getValue());
+            this.add(fm);
+            break;
+        case OFFlowMod.OFPFC_MODIFY:
+            if (!this.modify(fm, false)) {
+                this.add(fm);
+            }
+            break;
+        case OFFlowMod.OFPFC_MODIFY_STRICT:
+            if (!this.modify(fm, true)) {
+                this.add(fm);
+            }
+            break;
+        case OFFlowMod.OFPFC_DELETE:
+            this.remove(fm.getMatch(), fm.getPriority(), false,
+                    fm.getOutPort());
+            break;
+        case OFFlowMod.OFPFC_DELETE_STRICT:
+            this.remove(fm.getMatch(), fm.getPriority(), true,
+                    fm.getOutPort());
+            break;
+        default:
+            break;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry a FlowRemoved message was sent for.
+     *
+     * @param fr the FlowRemoved message received from the switch
+     */
+    public synchronized void handleFlowRemoved(final OFFlowRemoved fr) {
+        final int tid = this.getTidFromCookie(fr.getCookie());
+        for (ShadowEntry entry : this.candidates(fr.getMatch(),
+                fr.getPriority())) {
+            if (this.getTidFromCookie(entry.getFlowMod().getCookie()) == tid
+                    && this.matches(entry, fr.getMatch(), fr.getPriority(),
+                            true)) {
+                this.unindex(entry);
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a flow statistics poll. Entries installed from now
+     * on are not expected to show up in the reply to the poll.
+     */
+    public synchronized void markSync() {
+        this.syncMark = ++this.generation;
+        for (Audit audit : this.audits) {
+            audit.armed = true;
+        }
+    }
+
+    /**
+     * Has the entries reported by the next flow statistics reply adopted,
+     * when a switch connects with flows already installed.
+     */
+    public synchronized void reconcile() {
+        this.reconciling = true;
+    }
+
+    /**
+     * Reconciles the table with (a part of) a flow statistics reply to the
+     * last poll. Entries the switch reports that are unknown here are added
+     * right away, adopted if a reconciliation is pending, and once the last
+     * part is in, entries installed before the poll that the switch did not
+     * report are dropped. Those a reconciliation drops are kept aside as
+     * lost.
+     *
+     * @param stats the flow statistics reported by the switch
+     * @param more true if more parts of the reply follow
+     * @return true if the reply completed a pending reconciliation
+     */
+    public synchronized boolean sync(
+            final Collection<? extends OFFlowStatisticsReply> stats,
+            final boolean more) {
+        if (this.seen == null) {
+            this.seen = new HashSet<ShadowEntry>();
+        }
+        for (OFFlowStatisticsReply stat : stats) {
+            final ShadowEntry entry = this.find(stat.getMatch(),
+                    stat.getPriority(), this.getTidFromCookie(stat.getCookie()));
+            if (entry != null) {
+                this.seen.add(entry);
+                continue;
+            }
+            final OVXFlowMod fm = new OVXFlowMod();
+            fm.setCookie(stat.getCookie());
+            fm.setMatch(stat.getMatch());
+            fm.setPriority(stat.getPriority());
+            fm.setIdleTimeout(stat.getIdleTimeout());
+            fm.setHardTimeout(stat.getHardTimeout());
+            fm.setActions(stat.getActions());
+            final ShadowEntry added = this.add(fm);
+            added.adopted = this.reconciling;
+            this.seen.add(added);
+        }
+        if (more) {
+            return false;
+        }
+        for (ShadowEntry entry : this.entries()) {
+            if (entry.installed < this.syncMark && !this.seen.contains(entry)) {
+                log.debug("Dropping stale entry {}", entry);
+                if (this.reconciling) {
+                    this.lost.add(entry.getFlowMod());
+                }
+                this.unindex(entry);
+            }
+        }
+        this.seen = null;
+        final boolean reconciled = this.reconciling;
+        this.reconciling = false;
+        return reconciled;
+    }
+
+    /**
+     * Forgets the parts of a flow statistics reply received so far, e.g.
+     * when the rest of the reply was lost. Nothing is dropped.
+     */
+    public synchronized void abortSync() {
+        this.seen = null;
+    }
+
+    /**
+     * Removes the entries of a tenant from the table. If a port is given,
+     * only the entries that match on it as input port or output to it are
+     * removed.
+     *
+     * @param tenantId the tenant ID
+     * @param port the physical port number, or 0 or OFPP_NONE for all ports
+     * @return the FlowMods of the removed entries
+     */
+    public synchronized List<OVXFlowMod> removeTenant(final int tenantId,
+            final short port) {
+        final List<OVXFlowMod> removed = new LinkedList<OVXFlowMod>();
+        final boolean all = port == 0 || port == OFPort.OFPP_NONE.getValue();
+        final Set<ShadowEntry> entries = all ? this.flows.get(tenantId)
+                : this.byPort.get(port);
+        if (entries == null) {
+            return removed;
+        }
+        for (ShadowEntry entry : new ArrayList<ShadowEntry>(entries)) {
+            if (this.getTidFromCookie(entry.getFlowMod().getCookie()) == tenantId) {
+                removed.add(entry.getFlowMod());
+                this.unindex(entry);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the entries of a tenant with the given cookies from the table.
+     *
+     * @param tenantId the tenant ID
+     * @param cookies the physical cookies
+     * @return the FlowMods of the removed entries
+     */
+    public synchronized List<OVXFlowMod> removeCookies(final int tenantId,
+            final Set<Long> cookies) {
+        final List<OVXFlowMod> removed = new LinkedList<OVXFlowMod>();
+        for (Long cookie : cookies) {
+            final Set<ShadowEntry> entries = this.byCookie.get(cookie);
+            if (entries == null || this.getTidFromCookie(cookie) != tenantId) {
+                continue;
+            }
+            for (ShadowEntry entry : new ArrayList<ShadowEntry>(entries)) {
+                removed.add(entry.getFlowMod());
+                this.unindex(entry);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Records a cleanup to be checked against the reply to the next flow
+     * statistics poll, see {@link #checkAudits(Collection, boolean)}.
+     *
+     * @param tenantId the tenant ID
+     * @param cookies the physical cookies cleaned up, or null for all flows
+     *            of the tenant
+     */
+    public synchronized void audit(final int tenantId, final Set<Long> cookies) {
+        this.audits.add(new Audit(tenantId, cookies == null ? null
+                : new HashSet<Long>(cookies)));
+    }
+
+    /**
+     * Checks (a part of) a flow statistics reply against the armed audits.
+     * The audits are settled by the last part of the reply.
+     *
+     * @param stats the flow statistics reported by the switch
+     * @param more true if more parts of the reply follow
+     * @return the reported flows that should have been cleaned up
+     */
+    public synchronized <T extends OFFlowStatisticsReply> List<T> checkAudits(
+            final Collection<T> stats, final boolean more) {
+        final List<T> leftovers = new LinkedList<T>();
+        if (this.audits.isEmpty()) {
+            return leftovers;
+        }
+        for (T stat : stats) {
+            for (Audit audit : this.audits) {
+                if (audit.armed && audit.covers(stat.getCookie())) {
+                    leftovers.add(stat);
+                    break;
+                }
+            }
+        }
+        if (!more) {
+            final Iterator<Audit> itr = this.audits.iterator();
+            while (itr.hasNext()) {
+                if (itr.next().armed) {
+                    itr.remove();
+                }
+            }
+        }
+        return leftovers;
+    }
+
+    /**
+     * Removes the adopted entries that were not claimed, of the tenants
+     * given or of all tenants.
+     *
+     * @param tenants the tenant IDs, or null for all tenants
+     * @return the FlowMods of the removed entries, to delete from the switch
+     */
+    public synchronized List<OVXFlowMod> dropAdopted(final Set<Integer> tenants) {
+        final List<OVXFlowMod> removed = new LinkedList<OVXFlowMod>();
+        for (ShadowEntry entry : this.entries()) {
+            if (entry.adopted
+                    && (tenants == null || tenants.contains(this
+                            .getTidFromCookie(entry.getFlowMod().getCookie())))) {
+                removed.add(entry.getFlowMod());
+                this.unindex(entry);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Gets and forgets the FlowMods of the entries the switch did not report
+     * when it was last reconciled.
+     *
+     * @return the FlowMods, possibly empty
+     */
+    public synchronized List<OVXFlowMod> takeLost() {
+        final List<OVXFlowMod> res = this.lost;
+        this.lost = new LinkedList<OVXFlowMod>();
+        return res;
+    }
+
+    /**
+     * Gets the number of adopted entries that were not claimed yet.
+     *
+     * @return the number of entries
+     */
+    public synchronized int getAdopted() {
+        int adopted = 0;
+        for (Set<ShadowEntry> entries : this.flows.values()) {
+            for (ShadowEntry entry : entries) {
+                if (entry.adopted) {
+                    adopted++;
+                }
+            }
+        }
+        return adopted;
+    }
+
+    /**
+     * Gets the FlowMods of the entries with the given cookie.
+     *
+     * @param cookie the physical cookie
+     * @return the FlowMods, possibly empty
+     */
+    public synchronized List<OVXFlowMod> getFlowMods(final long cookie) {
+        final List<OVXFlowMod> res = new LinkedList<OVXFlowMod>();
+        final Set<ShadowEntry> entries = this.byCookie.get(cookie);
+        if (entries != null) {
+            for (ShadowEntry entry : entries) {
+                res.add(entry.getFlowMod().clone());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Gets a copy of the FlowMods of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the FlowMods, possibly empty
+     */
+    public synchronized List<OVXFlowMod> getFlowMods(final int tenantId) {
+        final List<OVXFlowMod> res = new LinkedList<OVXFlowMod>();
+        final Set<ShadowEntry> entries = this.flows.get(tenantId);
+        if (entries != null) {
+            for (ShadowEntry entry : entries) {
+                res.add(entry.getFlowMod().clone());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Gets a copy of all the FlowMods in the table.
+     *
+     * @return the FlowMods, possibly empty
+     */
+    public synchronized List<OVXFlowMod> getFlowTable() {
+        final List<OVXFlowMod> res = new LinkedList<OVXFlowMod>();
+        for (Set<ShadowEntry> entries : this.flows.values()) {
+            for (ShadowEntry entry : entries) {
+                res.add(entry.getFlowMod().clone());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Gets the tenants that have entries in the table.
+     *
+     * @return the tenant IDs
+     */
+    public synchronized Set<Integer> getTenants() {
+        return Collections.unmodifiableSet(new HashSet<Integer>(this.flows
+                .keySet()));
+    }
+
+    /**
+     * Gets the number of entries in the table.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes all entries from the table.
+     */
+    public synchronized void clear() {
+        this.flows.clear();
+        this.byKey.clear();
+        this.byCookie.clear();
+        this.byPort.clear();
+        this.size = 0;
+        this.audits.clear();
+        this.seen = null;
+        this.reconciling = false;
+        this.lost.clear();
+    }
+
+    private ShadowEntry add(final OFFlowMod fm) {
+        final OVXFlowMod copy = new OVXFlowMod();
+        copy.setCookie(fm.getCookie());
+        copy.setMatch(fm.getMatch().clone());
+        copy.setPriority(fm.getPriority());
+        copy.setIdleTimeout(fm.getIdleTimeout());
+        copy.setHardTimeout(fm.getHardTimeout());
+        copy.setFlags(fm.getFlags());
+        copy.setActions(this.copyActions(fm.getActions()));
+        final ShadowEntry entry = new ShadowEntry(copy, this.generation);
+        this.index(entry);
+        return entry;
+    }
+
+    /*
+     * An adopted entry is claimed by an add that is identical to it, down to
+     * the cookie the switch reports the flow under. Entries with a hard
+     * timeout are installed again, the timeout would not restart otherwise.
+     */
+    private boolean claim(final OFFlowMod fm) {
+        final ShadowEntry entry = this.find(fm.getMatch(), fm.getPriority(),
+                this.getTidFromCookie(fm.getCookie()));
+        if (entry == null || !entry.adopted) {
+            return false;
+        }
+        final OVXFlowMod adopted = entry.getFlowMod();
+        if (adopted.getCookie() != fm.getCookie()
+                || adopted.getIdleTimeout() != fm.getIdleTimeout()
+                || fm.getHardTimeout() != 0 || adopted.getHardTimeout() != 0
+                || !this.copyActions(fm.getActions()).equals(
+                        adopted.getActions())) {
+            return false;
+        }
+        entry.adopted = false;
+        return true;
+    }
+
+    private boolean modify(final OFFlowMod fm, final boolean strict) {
+        boolean found = false;
+        final Collection<ShadowEntry> entries = strict ? this.candidates(
+                fm.getMatch(), fm.getPriority()) : this.entries();
+        for (ShadowEntry entry : entries) {
+            if (this.matches(entry, fm.getMatch(), fm.getPriority(), strict)) {
+                /* the ports the entry outputs to may change */
+                this.unindexPorts(entry);
+                entry.getFlowMod().setActions(
+                        this.copyActions(fm.getActions()));
+                this.indexPorts(entry);
+                entry.adopted = false;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private void remove(final OFMatch match, final short priority,
+            final boolean strict, final short outPort) {
+        final boolean anyPort = outPort == OFPort.OFPP_NONE.getValue();
+        final Collection<ShadowEntry> entries;
+        if (strict) {
+            entries = this.candidates(match, priority);
+        } else if (!anyPort) {
+            entries = this.byPort.containsKey(outPort) ? new ArrayList<ShadowEntry>(
+                    this.byPort.get(outPort)) : Collections
+                    .<ShadowEntry>emptyList();
+        } else {
+            entries = this.entries();
+        }
+        for (ShadowEntry entry : entries) {
+            if (this.matches(entry, match, priority, strict)
+                    && (anyPort || this.outputsTo(entry.getFlowMod(), outPort))) {
+                this.unindex(entry);
+            }
+        }
+    }
+
+    private ShadowEntry find(final OFMatch match, final short priority,
+            final int tenantId) {
+        final List<ShadowEntry> entries = this.byKey.get(new FlowKey(match,
+                priority));
+        if (entries != null) {
+            for (ShadowEntry entry : entries) {
+                if (this.getTidFromCookie(entry.getFlowMod().getCookie()) == tenantId
+                        && this.matches(entry, match, priority, true)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * A copy of the entries that may strictly match the given match and
+     * priority.
+     */
+    private List<ShadowEntry> candidates(final OFMatch match,
+            final short priority) {
+        final List<ShadowEntry> entries = this.byKey.get(new FlowKey(match,
+                priority));
+        return entries == null ? Collections.<ShadowEntry>emptyList()
+                : new ArrayList<ShadowEntry>(entries);
+    }
+
+    /*
+     * A copy of all the entries in the table.
+     */
+    private List<ShadowEntry> entries() {
+        final List<ShadowEntry> res = new ArrayList<ShadowEntry>(this.size);
+        for (Set<ShadowEntry> entries : this.flows.values()) {
+            res.addAll(entries);
+        }
+        return res;
+    }
+
+    private void index(final ShadowEntry entry) {
+        final OVXFlowMod fm = entry.getFlowMod();
+        final FlowKey key = new FlowKey(fm.getMatch(), fm.getPriority());
+        List<ShadowEntry> sameKey = this.byKey.get(key);
+        if (sameKey == null) {
+            sameKey = new LinkedList<ShadowEntry>();
+            this.byKey.put(key, sameKey);
+        }
+        sameKey.add(entry);
+        PhysicalFlowTable.addTo(this.flows,
+                this.getTidFromCookie(fm.getCookie()), entry);
+        PhysicalFlowTable.addTo(this.byCookie, fm.getCookie(), entry);
+        this.indexPorts(entry);
+        this.size++;
+    }
+
+    private void unindex(final ShadowEntry entry) {
+        final OVXFlowMod fm = entry.getFlowMod();
+        final FlowKey key = new FlowKey(fm.getMatch(), fm.getPriority());
+        final List<ShadowEntry> sameKey = this.byKey.get(key);
+        if (sameKey == null || !sameKey.remove(entry)) {
+            return;
+        }
+        if (sameKey.isEmpty()) {
+            this.byKey.remove(key);
+        }
+        PhysicalFlowTable.removeFrom(this.flows,
+                this.getTidFromCookie(fm.getCookie()), entry);
+        PhysicalFlowTable.removeFrom(this.byCookie, fm.getCookie(), entry);
+        this.unindexPorts(entry);
+        this.size--;
+    }
+
+    private void indexPorts(final ShadowEntry entry) {
+        for (Short port : this.getPorts(entry.getFlowMod())) {
+            PhysicalFlowTable.addTo(this.byPort, port, entry);
+        }
+    }
+
+    private void unindexPorts(final ShadowEntry entry) {
+        for (Short port : this.getPorts(entry.getFlowMod())) {
+            PhysicalFlowTable.removeFrom(this.byPort, port, entry);
+        }
+    }
+
+    /*
+     * The input port an entry matches, and the ports it outputs to.
+     */
+    private Set<Short> getPorts(final OFFlowMod fm) {
+        final Set<Short> ports = new HashSet<Short>();
+        ports.add(fm.getMatch().getInputPort());
+        for (OFAction act : fm.getActions()) {
+            if (act instanceof OFActionOutput) {
+                ports.add(((OFActionOutput) act).getPort());
+            }
+        }
+        return ports;
+    }
+
+    private static <K> void addTo(final Map<K, Set<ShadowEntry>> index,
+            final K key, final ShadowEntry entry) {
+        Set<ShadowEntry> entries = index.get(key);
+        if (entries == null) {
+            entries = new LinkedHashSet<ShadowEntry>();
+            index.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static <K> void removeFrom(final Map<K, Set<ShadowEntry>> index,
+            final K key, final ShadowEntry entry) {
+        final Set<ShadowEntry> entries = index.get(key);
+        if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private boolean matches(final ShadowEntry entry, final OFMatch match,
+            final short priority, final boolean strict) {
+        if (strict && entry.getPriority() != priority) {
+            return false;
+        }
+        return entry.compare(match, strict) == OVXFlowEntry.EQUAL;
+    }
+
+    private boolean outputsTo(final OFFlowMod fm, final short port) {
+        for (OFAction act : fm.getActions()) {
+            if (act instanceof OFActionOutput
+                    && ((OFActionOutput) act).getPort() == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<OFAction> copyActions(final List<OFAction> actions) {
+        final List<OFAction> copy = new LinkedList<OFAction>();
+        if (actions != null) {
+            for (OFAction act : actions) {
+                try {
+                    copy.add(act.clone());
+                } catch (CloneNotSupportedException e) {
+                    copy.add(act);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private int getTidFromCookie(final long cookie) {
+        return (int) (cookie >> 32);
+    }
+
+}
@@ -15,30 +15,58 @@
  ******************************************************************************/
 package net.onrc.openvirtex.elements.datapath;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.core.io.TenantScheduler;
+import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
+import net.onrc.openvirtex.elements.link.OVXLinkField;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.exceptions.AddressMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
-import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.Virtualizable;
+import net.onrc.openvirtex.messages.statistics.OVXDescriptionStatistics;
 import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
 import net.onrc.openvirtex.messages.statistics.OVXPortStatisticsReply;
+import net.onrc.openvirtex.messages.statistics.OVXQueueStatisticsReply;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.util.MACAddress;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFeaturesReply;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPhysicalPort;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFVendor;
-import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatisticsType;
 
 /**
  * The Class PhysicalSwitch.
@@ -48,9 +76,22 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     private static Logger log = LogManager.getLogger(PhysicalSwitch.class.getName());
     // The Xid mapper
     private final XidTranslator<OVXSwitch> translator;
-    private StatisticsManager statsMan = null;
+    private final StatisticsManager statsMan;
     private AtomicReference<Map<Short, OVXPortStatisticsReply>> portStats;
     private AtomicReference<Map<Integer, List<OVXFlowStatisticsReply>>> flowStats;
+    private AtomicReference<Map<Short, List<OVXQueueStatisticsReply>>> queueStats;
+    /* statistics of polls that are still being answered */
+    private Map<Integer, List<OVXFlowStatisticsReply>> partialFlowStats;
+    private Map<Short, OVXPortStatisticsReply> partialPortStats;
+    private Map<Short, List<OVXQueueStatisticsReply>> partialQueueStats;
+    // Shadow of the flows OVX has written to this switch
+    private final PhysicalFlowTable flowTable;
+    // True while the switch is disconnected, but kept for it to reconnect
+    private volatile boolean suspended = false;
+    // Removal of the switch if it does not reconnect in time
+    private Timeout expiry = null;
+    // True if the pending reconciliation is that of a reconnected switch
+    private boolean resumed = false;
 
     /**
      * Unregisters OVXSwitches and associated virtual elements mapped to this
@@ -99,6 +140,8 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         this.translator = new XidTranslator<OVXSwitch>();
         this.portStats = new AtomicReference<Map<Short, OVXPortStatisticsReply>>();
         this.flowStats = new AtomicReference<Map<Integer, List<OVXFlowStatisticsReply>>>();
+        this.queueStats = new AtomicReference<Map<Short, List<OVXQueueStatisticsReply>>>();
+        this.flowTable = new PhysicalFlowTable();
         this.statsMan = new StatisticsManager(this);
     }
 
@@ -126,12 +169,109 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     @Override
     public void handleIO(final OFMessage msg, Channel channel) {
         try {
-            ((Virtualizable) msg).virtualize(this);
+            final Virtualizable vmsg = (Virtualizable) msg;
+            TenantScheduler.getInstance().dispatch(this.getTenantId(msg),
+                    this.switchId, msg.getLengthU(), new Runnable() {
+                        @Override
+                        public void run() {
+                            vmsg.virtualize(PhysicalSwitch.this);
+                        }
+                    }, channel);
         } catch (final ClassCastException e) {
             PhysicalSwitch.log.error("Received illegal message : " + msg);
         }
     }
 
+    /**
+     * Gets the tenant a message from this switch belongs to, for the purpose
+     * of scheduling its virtualization. Replies are attributed to the tenant
+     * that sent the request, flow removed messages to the tenant encoded in
+     * the cookie, and packet-ins as classified by
+     * {@link #getTenantId(OFPacketIn)}. Everything else is physical.
+     *
+     * @param msg the message
+     * @return the tenant ID, or TenantScheduler.PHYSICAL
+     */
+    private int getTenantId(final OFMessage msg) {
+        switch (msg.getType()) {
+        case FLOW_REMOVED:
+            return this.getTidFromCookie(((OFFlowRemoved) msg).getCookie());
+        case PACKET_IN:
+            return this.getTenantId((OFPacketIn) msg);
+        case STATS_REPLY:
+        case BARRIER_REPLY:
+        case GET_CONFIG_REPLY:
+        case QUEUE_GET_CONFIG_REPLY:
+        case ERROR:
+            final XidPair<OVXSwitch> pair = this.translator.untranslate(msg
+                    .getXid());
+            if (pair != null) {
+                return pair.getSwitch().getTenantId();
+            }
+            return TenantScheduler.PHYSICAL;
+        default:
+            return TenantScheduler.PHYSICAL;
+        }
+    }
+
+    /**
+     * Gets the tenant a packet-in most likely belongs to, without
+     * virtualizing it: the tenant encoded in the label of the virtual link
+     * the packet crossed, else the tenant of the host that sent it, else
+     * the only tenant using the port it arrived on. This only decides in
+     * whose share the packet-in is scheduled; it is virtualized the same way
+     * regardless.
+     *
+     * @param pi the packet-in
+     * @return the tenant ID, or TenantScheduler.PHYSICAL
+     */
+    private int getTenantId(final OFPacketIn pi) {
+        final byte[] data = pi.getPacketData();
+        final PhysicalPort port = this.getPort(pi.getInPort());
+        if (port == null || data == null || data.length < 14) {
+            return TenantScheduler.PHYSICAL;
+        }
+        try {
+            if (!port.isEdge()) {
+                final OVXLinkUtils lUtils;
+                if (OpenVirteXController.getInstance().getOvxLinkField()
+                        == OVXLinkField.VLAN) {
+                    lUtils = new OVXLinkUtils(PhysicalSwitch.getVlan(data));
+                } else {
+                    lUtils = new OVXLinkUtils(OVXLinkCodec.toLong(Arrays
+                            .copyOfRange(data, 6, 12)),
+                            OVXLinkCodec.toLong(Arrays.copyOfRange(data, 0, 6)));
+                }
+                if (lUtils.isValid()) {
+                    return lUtils.getTenantId();
+                }
+            }
+            final MACAddress mac = MACAddress.valueOf(Arrays.copyOfRange(
+                    data, 6, 12));
+            if (this.map.hasMAC(mac)) {
+                return this.map.getMAC(mac);
+            }
+            final Integer tenantId = port.getTenantId();
+            return tenantId == null ? TenantScheduler.PHYSICAL : tenantId;
+        } catch (final AddressMappingException | RuntimeException e) {
+            // The mappings changed under our feet, the packet-in will tell
+            return TenantScheduler.PHYSICAL;
+        }
+    }
+
+    /**
+     * Gets the VLAN ID of an Ethernet frame.
+     *
+     * @param data the frame
+     * @return the VLAN ID, or Ethernet.VLAN_UNTAGGED
+     */
+    private static short getVlan(final byte[] data) {
+        if (data.length < 16 || data[12] != (byte) 0x81 || data[13] != 0) {
+            return Ethernet.VLAN_UNTAGGED;
+        }
+        return (short) ((data[14] & 0x0f) << 8 | data[15] & 0xff);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -142,6 +282,11 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         PhysicalSwitch.log.info("Switch disconnected {} ",
                 this.featuresReply.getDatapathId());
         this.statsMan.stop();
+        this.flowTable.clear();
+        /* the hop entries on this switch are gone with its flows */
+        for (OVXNetwork vnet : this.map.listVirtualNetworks().values()) {
+            vnet.getHopRuleManager().invalidate(this.getSwitchId());
+        }
         this.channel.disconnect();
         this.map.removePhysicalSwitch(this);
     }
@@ -195,6 +340,11 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         PhysicalNetwork.getInstance().addSwitch(this);
         this.fillPortMap();
         this.statsMan.start();
+        if (OpenVirteXController.getInstance().getFlowReconcile() > 0) {
+            /* the switch was not wiped, adopt the flows it reports */
+            this.flowTable.reconcile();
+            this.statsMan.requestFlowStatistics();
+        }
         return true;
     }
 
@@ -215,10 +365,100 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         this.tearDown();
     }
 
+    /**
+     * Keeps this switch, its ports and the virtual elements mapped to it
+     * after it disconnected, for the given time. If it does not reconnect by
+     * then, it is unregistered. Meanwhile, FlowMods sent to the switch are
+     * kept in its shadow flow table.
+     *
+     * @param seconds the time to keep the switch for
+     */
+    public synchronized void suspend(final int seconds) {
+        log.info("Switch {} disconnected, keeping it for {} seconds",
+                this.getSwitchName(), seconds);
+        this.suspended = true;
+        this.statsMan.stop();
+        this.abortFlowStatistics();
+        this.expiry = PhysicalNetwork.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(final Timeout timeout) {
+                synchronized (PhysicalSwitch.this) {
+                    if (timeout.isCancelled() || !PhysicalSwitch.this.suspended) {
+                        return;
+                    }
+                    PhysicalSwitch.this.suspended = false;
+                }
+                log.info("Switch {} did not reconnect in time",
+                        PhysicalSwitch.this.getSwitchName());
+                PhysicalSwitch.this.unregister();
+            }
+        }, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Re-attaches a suspended switch that reconnected. Ports that came or
+     * went are added or removed, and the flows of the switch are reconciled
+     * with its shadow flow table: flows the switch lost are installed again,
+     * and flows it has that are unknown are deleted.
+     *
+     * @param channel the new channel of the switch
+     * @param features the features reply received on the channel
+     * @param description the description received on the channel
+     * @return true if the switch was re-attached, false if it is gone
+     */
+    public synchronized boolean resume(final Channel channel,
+            final OFFeaturesReply features,
+            final OVXDescriptionStatistics description) {
+        if (!this.suspended) {
+            return false;
+        }
+        this.suspended = false;
+        this.expiry.cancel();
+        log.info("Switch {} reconnected, re-attaching it", this.getSwitchName());
+        this.setFeaturesReply(features);
+        this.setDescriptionStats(description);
+        this.setChannel(channel);
+        this.setConnected(true);
+
+        final Set<Short> gone = new HashSet<Short>(this.portMap.keySet());
+        for (final OFPhysicalPort port : features.getPorts()) {
+            if (!gone.remove(port.getPortNumber())) {
+                this.addPort(new PhysicalPort(port, this, true));
+            }
+        }
+        for (Short number : gone) {
+            this.removePort(this.portMap.get(number));
+        }
+
+        /* keep the statistics history and tenant counters of the switch */
+        this.statsMan.restart();
+        this.resumed = true;
+        this.flowTable.reconcile();
+        this.statsMan.requestFlowStatistics();
+        return true;
+    }
+
+    /**
+     * Checks if this switch is disconnected, but kept for it to reconnect.
+     *
+     * @return true if the switch is suspended, false otherwise
+     */
+    public boolean isSuspended() {
+        return this.suspended;
+    }
+
     @Override
     public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
         if ((this.channel.isOpen()) && (this.isConnected)) {
+            if (msg.getType() == OFType.FLOW_MOD
+                    && !this.flowTable.handleFlowMod((OFFlowMod) msg)) {
+                /* the flow is already installed, it was only claimed */
+                return;
+            }
             this.channel.write(Collections.singletonList(msg));
+        } else if (this.suspended && msg.getType() == OFType.FLOW_MOD) {
+            /* installed (or deleted) when the switch is reconciled */
+            this.flowTable.handleFlowMod((OFFlowMod) msg);
         }
     }
 
@@ -270,17 +510,140 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return pair;
     }
 
+    public StatisticsManager getStatisticsManager() {
+        return this.statsMan;
+    }
+
     public void setPortStatistics(Map<Short, OVXPortStatisticsReply> stats) {
         this.portStats.set(stats);
+        this.statsMan.getHistory().recordPorts(stats,
+                System.currentTimeMillis());
+        this.statsMan.statisticsReceived(OFStatisticsType.PORT);
     }
 
     public void setFlowStatistics(
             Map<Integer, List<OVXFlowStatisticsReply>> stats) {
         this.flowStats.set(stats);
+        this.statsMan.getHistory().recordFlows(stats,
+                System.currentTimeMillis());
+        this.statsMan.getTenantPortCounters().record(stats);
+        this.statsMan.statisticsReceived(OFStatisticsType.FLOW);
+    }
+
+    public void setQueueStatistics(
+            Map<Short, List<OVXQueueStatisticsReply>> stats) {
+        this.queueStats.set(stats);
+        this.statsMan.statisticsReceived(OFStatisticsType.QUEUE);
+    }
+
+    /**
+     * Adds (a part of) a reply to the flow statistics poll. The entries are
+     * sorted into per-tenant buckets as they come in, and the statistics are
+     * published at once when the poll is fully answered.
+     *
+     * @param stats the flow statistics of this part
+     * @param more true if the switch sends more parts of this reply
+     * @return true if more parts of the poll are to be expected
+     */
+    public boolean addFlowStatistics(
+            final Collection<OVXFlowStatisticsReply> stats, final boolean more) {
+        final boolean pending = this.statsMan.flowReplyReceived(more);
+        final Map<Integer, List<OVXFlowStatisticsReply>> snapshot;
+        synchronized (this.flowStats) {
+            if (this.partialFlowStats == null) {
+                this.partialFlowStats = new HashMap<Integer, List<OVXFlowStatisticsReply>>();
+            }
+            for (OVXFlowStatisticsReply stat : stats) {
+                final int tid = (int) (stat.getCookie() >> 32);
+                List<OVXFlowStatisticsReply> bucket = this.partialFlowStats
+                        .get(tid);
+                if (bucket == null) {
+                    bucket = new ArrayList<OVXFlowStatisticsReply>();
+                    this.partialFlowStats.put(tid, bucket);
+                }
+                bucket.add(stat);
+            }
+            if (pending) {
+                return true;
+            }
+            snapshot = this.partialFlowStats;
+            this.partialFlowStats = null;
+        }
+        this.setFlowStatistics(snapshot);
+        return false;
+    }
+
+    /**
+     * Adds (a part of) a port statistics reply. The statistics are published
+     * at once with the last part.
+     *
+     * @param stats the port statistics of this part
+     * @param more true if the switch sends more parts of this reply
+     */
+    public void addPortStatistics(
+            final Collection<OVXPortStatisticsReply> stats, final boolean more) {
+        final Map<Short, OVXPortStatisticsReply> snapshot;
+        synchronized (this.portStats) {
+            if (this.partialPortStats == null) {
+                this.partialPortStats = new HashMap<Short, OVXPortStatisticsReply>();
+            }
+            for (OVXPortStatisticsReply stat : stats) {
+                this.partialPortStats.put(stat.getPortNumber(), stat);
+            }
+            if (more) {
+                return;
+            }
+            snapshot = this.partialPortStats;
+            this.partialPortStats = null;
+        }
+        this.setPortStatistics(snapshot);
+    }
+
+    /**
+     * Adds (a part of) a queue statistics reply. The statistics are published
+     * at once with the last part.
+     *
+     * @param stats the queue statistics of this part
+     * @param more true if the switch sends more parts of this reply
+     */
+    public void addQueueStatistics(
+            final Collection<OVXQueueStatisticsReply> stats, final boolean more) {
+        final Map<Short, List<OVXQueueStatisticsReply>> snapshot;
+        synchronized (this.queueStats) {
+            if (this.partialQueueStats == null) {
+                this.partialQueueStats = new HashMap<Short, List<OVXQueueStatisticsReply>>();
+            }
+            for (OVXQueueStatisticsReply stat : stats) {
+                List<OVXQueueStatisticsReply> bucket = this.partialQueueStats
+                        .get(stat.getPortNumber());
+                if (bucket == null) {
+                    bucket = new ArrayList<OVXQueueStatisticsReply>();
+                    this.partialQueueStats.put(stat.getPortNumber(), bucket);
+                }
+                bucket.add(stat);
+            }
+            if (more) {
+                return;
+            }
+            snapshot = this.partialQueueStats;
+            this.partialQueueStats = null;
+        }
+        this.setQueueStatistics(snapshot);
+    }
 
+    /**
+     * Drops the parts of the flow statistics poll received so far, when the
+     * rest of it will not come.
+     */
+    public void abortFlowStatistics() {
+        synchronized (this.flowStats) {
+            this.partialFlowStats = null;
+        }
+        this.flowTable.abortSync();
     }
 
     public List<OVXFlowStatisticsReply> getFlowStats(int tid) {
+        this.statsMan.noteDemand();
         Map<Integer, List<OVXFlowStatisticsReply>> stats = this.flowStats.get();
         if (stats != null && stats.containsKey(tid)) {
             return Collections.unmodifiableList(stats.get(tid));
@@ -289,6 +652,7 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     }
 
     public OVXPortStatisticsReply getPortStat(short portNumber) {
+        this.statsMan.noteDemand();
         Map<Short, OVXPortStatisticsReply> stats = this.portStats.get();
         if (stats != null) {
             return stats.get(portNumber);
@@ -296,36 +660,209 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return null;
     }
 
-    public void cleanUpTenant(Integer tenantId, Short port) {
-        this.statsMan.cleanUpTenant(tenantId, port);
+    public List<OVXQueueStatisticsReply> getQueueStats(short portNumber) {
+        Map<Short, List<OVXQueueStatisticsReply>> stats = this.queueStats
+                .get();
+        if (stats != null && stats.containsKey(portNumber)) {
+            return Collections.unmodifiableList(stats.get(portNumber));
+        }
+        return null;
+    }
+
+    /**
+     * Gets the shadow of the flow table of this switch.
+     *
+     * @return the shadow flow table
+     */
+    public PhysicalFlowTable getFlowTable() {
+        return this.flowTable;
+    }
+
+    /**
+     * Removes the flows of a tenant from this switch. The flows are looked up
+     * in the shadow flow table, and deleted right away.
+     *
+     * @param tenantId the tenant ID
+     * @param port the physical port whose flows to remove, or 0 or OFPP_NONE
+     *            for all flows of the tenant
+     * @return the number of flows deleted
+     */
+    public int cleanUpTenant(Integer tenantId, Short port) {
+        final List<OVXFlowMod> removed = this.flowTable.removeTenant(tenantId,
+                port);
+        this.sendDeleteFlowMods(removed);
+        if (port == 0 || port == OFPort.OFPP_NONE.getValue()) {
+            this.requestAudit(tenantId, null);
+        }
+        return removed.size();
+    }
+
+    /**
+     * Removes the flows of a tenant with the given cookies from this switch,
+     * e.g. the flows of one virtual switch. The flows are looked up in the
+     * shadow flow table, and deleted right away.
+     *
+     * @param tenantId the tenant ID
+     * @param cookies the physical cookies
+     * @return the number of flows deleted
+     */
+    public int cleanUpFlows(int tenantId, Set<Long> cookies) {
+        final List<OVXFlowMod> removed = this.flowTable.removeCookies(
+                tenantId, cookies);
+        this.sendDeleteFlowMods(removed);
+        if (!cookies.isEmpty()) {
+            this.requestAudit(tenantId, cookies);
+        }
+        return removed.size();
+    }
+
+    /**
+     * Deletes the reported flows that a cleanup should have removed, if
+     * cleanups are audited.
+     *
+     * @param stats (a part of) the flow statistics reply of this switch
+     * @param more true if more parts of the reply follow
+     * @return the flows deleted
+     */
+    public <T extends OFFlowStatisticsReply> List<T> auditFlows(
+            final Collection<T> stats, final boolean more) {
+        final List<T> leftovers = this.flowTable.checkAudits(stats, more);
+        if (!leftovers.isEmpty()) {
+            log.warn("Deleting {} flows left over by cleanups on switch {}",
+                    leftovers.size(), this.getSwitchName());
+            final List<OFFlowMod> fms = new ArrayList<OFFlowMod>(
+                    leftovers.size());
+            for (T stat : leftovers) {
+                final OVXFlowMod fm = new OVXFlowMod();
+                fm.setMatch(stat.getMatch());
+                fm.setPriority(stat.getPriority());
+                fm.setCookie(stat.getCookie());
+                fms.add(fm);
+            }
+            this.sendDeleteFlowMods(fms);
+        }
+        return leftovers;
     }
 
-    public void removeFlowMods(OVXStatisticsReply msg) {
-        int tid = msg.getXid() >> 16;
-        short port = (short) (msg.getXid() & 0xFFFF);
-        for (OFStatistics stat : msg.getStatistics()) {
-            OVXFlowStatisticsReply reply = (OVXFlowStatisticsReply) stat;
-            if (tid != this.getTidFromCookie(reply.getCookie())) {
-                continue;
+    /**
+     * Reconciles the shadow flow table with (a part of) the flow statistics
+     * reply of this switch. The reply that completes a reconciliation has the
+     * adopted flows of tenants that are gone deleted right away, and those of
+     * the other tenants once they had the grace period to claim them. If the
+     * switch was re-attached, the shadow flow table is complete: unknown
+     * flows are deleted right away, and lost ones are installed again.
+     *
+     * @param stats (a part of) the flow statistics reply of this switch
+     * @param more true if more parts of the reply follow
+     */
+    public void syncFlows(final Collection<? extends OFFlowStatisticsReply> stats,
+            final boolean more) {
+        if (!this.flowTable.sync(stats, more)) {
+            return;
+        }
+        final List<OVXFlowMod> lost = this.flowTable.takeLost();
+        if (this.resumed) {
+            this.resumed = false;
+            final List<OVXFlowMod> unknown = this.flowTable.dropAdopted(null);
+            log.info("Reconciled switch {}, deleting {} and reinstalling {} flows",
+                    this.getSwitchName(), unknown.size(), lost.size());
+            this.sendDeleteFlowMods(unknown);
+            for (OVXFlowMod fm : lost) {
+                int length = OVXFlowMod.MINIMUM_LENGTH;
+                for (OFAction act : fm.getActions()) {
+                    length += act.getLengthU();
+                }
+                fm.setCommand(OVXFlowMod.OFPFC_ADD);
+                fm.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+                fm.setLengthU(length);
+                this.sendMsg(fm, this);
             }
-            if (port != 0) {
-                sendDeleteFlowMod(reply, port);
-                if (reply.getMatch().getInputPort() == port) {
-                    sendDeleteFlowMod(reply, OFPort.OFPP_NONE.getValue());
+            return;
+        }
+        final Set<Integer> gone = new HashSet<Integer>(
+                this.flowTable.getTenants());
+        gone.removeAll(this.getLiveTenants());
+        final List<OVXFlowMod> stale = this.flowTable.dropAdopted(gone);
+        log.info("Adopted {} flows on switch {}, deleting {} of removed tenants",
+                this.flowTable.getAdopted(), this.getSwitchName(), stale.size());
+        this.sendDeleteFlowMods(stale);
+        final int grace = OpenVirteXController.getInstance().getFlowReconcile();
+        PhysicalNetwork.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(final Timeout timeout) {
+                final List<OVXFlowMod> unclaimed = PhysicalSwitch.this.flowTable
+                        .dropAdopted(null);
+                if (!unclaimed.isEmpty()) {
+                    log.info("Deleting {} unclaimed flows on switch {}",
+                            unclaimed.size(), PhysicalSwitch.this.getSwitchName());
+                    PhysicalSwitch.this.sendDeleteFlowMods(unclaimed);
                 }
-            } else {
-                sendDeleteFlowMod(reply, OFPort.OFPP_NONE.getValue());
             }
+        }, grace, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the tenants whose flows may still be claimed: those with a virtual
+     * network, or whose virtual network is stored to be restored.
+     */
+    private Set<Integer> getLiveTenants() {
+        final Set<Integer> live = new HashSet<Integer>(this.map
+                .listVirtualNetworks().keySet());
+        for (Integer tid : this.flowTable.getTenants()) {
+            if (DBManager.getInstance().getRestoreProgress(tid) != null) {
+                live.add(tid);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Has the switch report its flows, to check the given cleanup against.
+     */
+    private void requestAudit(final int tenantId, final Set<Long> cookies) {
+        if (!OpenVirteXController.getInstance().getFlowAudit()) {
+            return;
+        }
+        this.flowTable.audit(tenantId, cookies);
+        this.statsMan.requestFlowStatistics();
+    }
+
+    /**
+     * Deletes the given flows from the switch with a single write. The flows
+     * must already be removed from the shadow flow table.
+     *
+     * @param fms the flows
+     */
+    private void sendDeleteFlowMods(final List<? extends OFFlowMod> fms) {
+        if (fms.isEmpty()) {
+            return;
+        }
+        final List<OFMessage> msgs = new ArrayList<OFMessage>(fms.size());
+        for (OFFlowMod fm : fms) {
+            OVXFlowMod dFm = new OVXFlowMod();
+            dFm.setCommand(OVXFlowMod.OFPFC_DELETE_STRICT);
+            dFm.setMatch(fm.getMatch());
+            dFm.setPriority(fm.getPriority());
+            dFm.setCookie(fm.getCookie());
+            dFm.setOutPort(OFPort.OFPP_NONE.getValue());
+            dFm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
+            msgs.add(dFm);
         }
+        this.sendMsgs(msgs);
     }
 
-    private void sendDeleteFlowMod(OVXFlowStatisticsReply reply, short port) {
-        OVXFlowMod dFm = new OVXFlowMod();
-        dFm.setCommand(OVXFlowMod.OFPFC_DELETE_STRICT);
-        dFm.setMatch(reply.getMatch());
-        dFm.setOutPort(port);
-        dFm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
-        this.sendMsg(dFm, this);
+    /**
+     * Writes the given messages to the switch at once. Unlike
+     * {@link #sendMsg(OFMessage, OVXSendMsg)}, this does not update the
+     * shadow flow table.
+     *
+     * @param msgs the messages
+     */
+    protected void sendMsgs(final List<OFMessage> msgs) {
+        if ((this.channel != null) && (this.channel.isOpen())
+                && (this.isConnected)) {
+            this.channel.write(msgs);
+        }
     }
 
     private int getTidFromCookie(long cookie) {
@@ -42,14 +42,14 @@ public class XidTranslator<T> {
      * @param xid
      * @return
      */
-    public XidPair<T> untranslate(final int xid) {
+    public synchronized XidPair<T> untranslate(final int xid) {
         return this.xidMap.get(Integer.valueOf(xid));
     }
 
     /**
      * @return the new Xid for the message.
      */
-    public int translate(final int xid, final T sw) {
+    public synchronized int translate(final int xid, final T sw) {
         final int ret = this.nextID++;
         if (this.nextID < XidTranslator.MIN_XID) {
             this.nextID = XidTranslator.MIN_XID;
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recent samples of a set of counters in a ring buffer. Each
+ * sample holds the time it was taken at and the value of every counter, and
+ * rates are computed between consecutive samples. Counters that go
+ * backwards, e.g. after a switch restart, are considered reset and the
+ * interval is skipped.
+ * <p>
+ * The buffer grows as samples come in, up to its capacity, so short-lived
+ * counters stay small. A history can span a fixed time instead of a fixed
+ * number of samples: samples closer to the previous one than the minimum
+ * spacing replace it, and samples older than the span are ignored.
+ */
+public final class CounterHistory {
+
+    /* samples a new history has room for */
+    private static final int INITIAL_SLOTS = 4;
+
+    private final int capacity;
+    private final int width;
+    private final long span;
+    private final long spacing;
+    /* per sample: time in milliseconds, then the counters */
+    private long[] samples;
+    private int slots;
+    private long count;
+
+    /**
+     * Instantiates an empty history of a fixed number of samples.
+     *
+     * @param capacity the number of samples kept
+     * @param counters the number of counters per sample
+     */
+    public CounterHistory(final int capacity, final int counters) {
+        this(capacity, counters, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Instantiates an empty history spanning the given time.
+     *
+     * @param counters the number of counters per sample
+     * @param span the time the history spans, in milliseconds
+     * @param spacing the minimum time between samples, in milliseconds
+     */
+    public CounterHistory(final int counters, final long span,
+            final long spacing) {
+        this((int) Math.max(2, span / Math.max(spacing, 1) + 1), counters,
+                span, spacing);
+    }
+
+    private CounterHistory(final int capacity, final int counters,
+            final long span, final long spacing) {
+        this.capacity = capacity;
+        this.width = counters + 1;
+        this.span = span;
+        this.spacing = spacing;
+        this.slots = Math.min(capacity, INITIAL_SLOTS);
+        this.samples = new long[this.slots * this.width];
+        this.count = 0;
+    }
+
+    /**
+     * Adds a sample, replacing the oldest one if the history is full, or the
+     * latest one if it was taken less than the minimum spacing before.
+     *
+     * @param time the time the sample was taken, in milliseconds
+     * @param values the value of each counter
+     */
+    public synchronized void record(final long time, final long... values) {
+        if (this.count > 0 && time - this.get(this.stored() - 1, 0) < this.spacing) {
+            this.count--;
+        } else if (this.count == this.slots && this.slots < this.capacity) {
+            /* not wrapped around yet, the samples are in order */
+            this.slots = Math.min(this.capacity, this.slots * 2);
+            this.samples = Arrays.copyOf(this.samples, this.slots * this.width);
+        }
+        final int base = (int) (this.count % this.slots) * this.width;
+        this.samples[base] = time;
+        for (int i = 1; i < this.width; i++) {
+            this.samples[base + i] = i - 1 < values.length ? values[i - 1] : 0;
+        }
+        this.count++;
+    }
+
+    /**
+     * Gets the number of samples kept.
+     *
+     * @return the number of samples
+     */
+    public synchronized int size() {
+        return this.stored() - this.expired();
+    }
+
+    /**
+     * Gets the latest value of a counter.
+     *
+     * @param counter the counter index
+     * @return the value, or 0 if there are no samples
+     */
+    public synchronized long getLatest(final int counter) {
+        if (this.count == 0) {
+            return 0;
+        }
+        return this.get(this.stored() - 1, counter + 1);
+    }
+
+    /**
+     * Gets the rate of a counter between each pair of consecutive samples,
+     * oldest first.
+     *
+     * @param counter the counter index
+     * @return the rates per second
+     */
+    public synchronized double[] getRates(final int counter) {
+        final int n = this.stored();
+        final int first = this.expired();
+        final double[] rates = new double[Math.max(n - first - 1, 0)];
+        int k = 0;
+        for (int i = first + 1; i < n; i++) {
+            final long dt = this.get(i, 0) - this.get(i - 1, 0);
+            final long dv = this.get(i, counter + 1)
+                    - this.get(i - 1, counter + 1);
+            if (dt > 0 && dv >= 0) {
+                rates[k++] = dv * 1000.0 / dt;
+            }
+        }
+        return Arrays.copyOf(rates, k);
+    }
+
+    /**
+     * Gets the rate of a counter between the two latest samples.
+     *
+     * @param counter the counter index
+     * @return the rate per second, or 0 if unknown
+     */
+    public double getRate(final int counter) {
+        final double[] rates = this.getRates(counter);
+        return rates.length == 0 ? 0 : rates[rates.length - 1];
+    }
+
+    /**
+     * Summarizes the rates of the given counters: the latest and mean rate,
+     * the 50th, 90th and 99th percentile and the maximum, per second.
+     *
+     * @param names the name to report each counter under, in index order
+     * @return the summary
+     */
+    public Map<String, Object> toMap(final String... names) {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("samples", this.size());
+        for (int i = 0; i < names.length; i++) {
+            final double[] rates = this.getRates(i);
+            final Map<String, Object> summary = new HashMap<String, Object>();
+            summary.put("last", rates.length == 0 ? 0.0
+                    : rates[rates.length - 1]);
+            double sum = 0;
+            for (double rate : rates) {
+                sum += rate;
+            }
+            summary.put("mean", rates.length == 0 ? 0.0 : sum / rates.length);
+            Arrays.sort(rates);
+            summary.put("p50", percentile(rates, 50));
+            summary.put("p90", percentile(rates, 90));
+            summary.put("p99", percentile(rates, 99));
+            summary.put("max", rates.length == 0 ? 0.0
+                    : rates[rates.length - 1]);
+            map.put(names[i], summary);
+        }
+        return map;
+    }
+
+    /**
+     * Gets a percentile of sorted values, by the nearest rank.
+     *
+     * @param sorted the values in ascending order
+     * @param p the percentile
+     * @return the value, or 0 if there are none
+     */
+    static double percentile(final double[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    /* the number of samples stored, including expired ones */
+    private int stored() {
+        return (int) Math.min(this.count, this.slots);
+    }
+
+    /* the number of stored samples older than the span */
+    private int expired() {
+        final int n = this.stored();
+        if (n == 0 || this.span == Long.MAX_VALUE) {
+            return 0;
+        }
+        final long oldest = this.get(n - 1, 0) - this.span;
+        int i = 0;
+        while (i < n - 1 && this.get(i, 0) < oldest) {
+            i++;
+        }
+        return i;
+    }
+
+    /* the field of the i-th oldest stored sample */
+    private long get(final int i, final int field) {
+        final long first = this.count - this.stored();
+        final int base = (int) ((first + i) % this.slots) * this.width;
+        return this.samples[base + field];
+    }
+
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+
+/**
+ * Keeps the history of the port and flow counters of a physical switch, as
+ * polled by its {@link StatisticsManager}: per port, per flow cookie and per
+ * tenant. Histories of flows and tenants that are no longer reported are
+ * dropped.
+ */
+public class StatisticsHistory {
+
+    /** Port counter: bytes received. */
+    public static final int PORT_RX_BYTES = 0;
+    /** Port counter: bytes transmitted. */
+    public static final int PORT_TX_BYTES = 1;
+    /** Port counter: packets received. */
+    public static final int PORT_RX_PACKETS = 2;
+    /** Port counter: packets transmitted. */
+    public static final int PORT_TX_PACKETS = 3;
+    /** Names of the port counters, for reporting. */
+    public static final String[] PORT_COUNTERS = {"rxBytes", "txBytes",
+            "rxPackets", "txPackets"};
+
+    /** Flow and tenant counter: bytes matched. */
+    public static final int BYTES = 0;
+    /** Flow and tenant counter: packets matched. */
+    public static final int PACKETS = 1;
+    /** Flow counter: seconds the flow has been installed. */
+    public static final int DURATION = 2;
+    /** Names of the flow and tenant counters, for reporting. */
+    public static final String[] FLOW_COUNTERS = {"bytes", "packets"};
+
+    /** Time in seconds the histories span. */
+    static final int HISTORY_SECONDS = 3600;
+
+    /* minimum time between the samples of a history, in milliseconds */
+    private final long spacing;
+    private final Map<Short, CounterHistory> ports;
+    private final Map<Long, CounterHistory> flows;
+    private final Map<Integer, CounterHistory> tenants;
+
+    /**
+     * Instantiates empty histories. Polls closer together than the base
+     * polling interval, less its jitter, are kept as one sample, so the
+     * histories span {@link #HISTORY_SECONDS} however often the switch is
+     * polled.
+     *
+     * @param refreshInterval the base polling interval in seconds
+     */
+    public StatisticsHistory(final int refreshInterval) {
+        this.spacing = (long) (Math.max(refreshInterval, 1) * 1000L
+                * (1 - StatisticsManager.JITTER));
+        this.ports = new ConcurrentHashMap<Short, CounterHistory>();
+        this.flows = new ConcurrentHashMap<Long, CounterHistory>();
+        this.tenants = new ConcurrentHashMap<Integer, CounterHistory>();
+    }
+
+    /**
+     * Records the port statistics of a poll.
+     *
+     * @param stats the statistics by physical port number
+     * @param time the time of the poll in milliseconds
+     */
+    public void recordPorts(
+            final Map<Short, ? extends OFPortStatisticsReply> stats,
+            final long time) {
+        for (OFPortStatisticsReply stat : stats.values()) {
+            this.get(this.ports, stat.getPortNumber(), 4).record(time,
+                    stat.getReceiveBytes(), stat.getTransmitBytes(),
+                    stat.getreceivePackets(), stat.getTransmitPackets());
+        }
+    }
+
+    /**
+     * Records the flow statistics of a poll. Entries with the same cookie
+     * are added up.
+     *
+     * @param stats the statistics by tenant ID
+     * @param time the time of the poll in milliseconds
+     */
+    public void recordFlows(
+            final Map<Integer, List<OVXFlowStatisticsReply>> stats,
+            final long time) {
+        final Map<Long, long[]> byCookie = new HashMap<Long, long[]>();
+        for (Map.Entry<Integer, List<OVXFlowStatisticsReply>> entry : stats
+                .entrySet()) {
+            long bytes = 0;
+            long packets = 0;
+            for (OVXFlowStatisticsReply stat : entry.getValue()) {
+                long[] values = byCookie.get(stat.getCookie());
+                if (values == null) {
+                    values = new long[3];
+                    byCookie.put(stat.getCookie(), values);
+                }
+                values[BYTES] += stat.getByteCount();
+                values[PACKETS] += stat.getPacketCount();
+                values[DURATION] = Math.max(values[DURATION],
+                        stat.getDurationSeconds());
+                bytes += stat.getByteCount();
+                packets += stat.getPacketCount();
+            }
+            this.get(this.tenants, entry.getKey(), 2).record(time, bytes,
+                    packets);
+        }
+        for (Map.Entry<Long, long[]> entry : byCookie.entrySet()) {
+            this.get(this.flows, entry.getKey(), 3).record(time,
+                    entry.getValue());
+        }
+        this.flows.keySet().retainAll(byCookie.keySet());
+        this.tenants.keySet().retainAll(stats.keySet());
+    }
+
+    /**
+     * Gets the history of a port.
+     *
+     * @param portNumber the physical port number
+     * @return the history, or null if the port was not polled
+     */
+    public CounterHistory getPort(final short portNumber) {
+        return this.ports.get(portNumber);
+    }
+
+    /**
+     * Gets the numbers of the ports with a history.
+     *
+     * @return the physical port numbers
+     */
+    public Set<Short> getPorts() {
+        return this.ports.keySet();
+    }
+
+    /**
+     * Gets the history of the flows with a cookie.
+     *
+     * @param cookie the physical cookie
+     * @return the history, or null if no such flow was reported
+     */
+    public CounterHistory getFlow(final long cookie) {
+        return this.flows.get(cookie);
+    }
+
+    /**
+     * Gets the history of the added up flows of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the history, or null if the tenant has no flows reported
+     */
+    public CounterHistory getTenant(final int tenantId) {
+        return this.tenants.get(tenantId);
+    }
+
+    /**
+     * Forgets the history of a port, e.g. when it is removed.
+     *
+     * @param portNumber the physical port number
+     */
+    public void removePort(final short portNumber) {
+        this.ports.remove(portNumber);
+    }
+
+    private <K> CounterHistory get(final Map<K, CounterHistory> map,
+            final K key, final int counters) {
+        CounterHistory history = map.get(key);
+        if (history == null) {
+            history = new CounterHistory(counters, HISTORY_SECONDS * 1000L,
+                    this.spacing);
+            map.put(key, history);
+        }
+        return history;
+    }
+
+}
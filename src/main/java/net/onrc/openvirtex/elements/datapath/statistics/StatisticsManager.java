@@ -15,8 +15,16 @@
  ******************************************************************************/
 package net.onrc.openvirtex.elements.datapath.statistics;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
@@ -25,6 +33,7 @@ import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsRequest;
 import net.onrc.openvirtex.messages.statistics.OVXPortStatisticsRequest;
+import net.onrc.openvirtex.messages.statistics.OVXQueueStatisticsRequest;
 import net.onrc.openvirtex.protocol.OVXMatch;
 
 import org.apache.logging.log4j.LogManager;
@@ -37,15 +46,62 @@ import org.openflow.protocol.OFPort;
 import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.statistics.OFStatisticsType;
 
+/**
+ * Periodically polls the flow and port statistics of a physical switch.
+ * <p>
+ * The first poll of each switch is placed at a random point of the refresh
+ * interval, and every later one is jittered, so switches connecting at
+ * once don't keep polling in lockstep. The interval of a switch grows with
+ * the size of its flow table, and backs off while no tenant asks for its
+ * statistics. The flows of a large table are polled one table at a time.
+ * <p>
+ * The statistics received are cached by the switch, and tenant statistics
+ * requests are answered from the cache. If the cache is older than the
+ * current polling interval, the statistics are requested from the switch
+ * once, no matter how many tenants are waiting for them, and not at all if a
+ * flow statistics poll is already in flight, see
+ * {@link #whenFresh(OFStatisticsType, Runnable)}.
+ */
 public class StatisticsManager implements TimerTask, OVXSendMsg {
 
+    /** Fraction of the interval the polls are randomly moved by. */
+    static final double JITTER = 0.1;
+    /** Number of flows that double the interval. */
+    static final int FLOWS_PER_INTERVAL = 10000;
+    /** Upper bound on the interval, as a multiple of the refresh interval. */
+    static final int MAX_SCALE = 4;
+    /** Number of flows from which the flow table is polled in chunks. */
+    static final int CHUNK_THRESHOLD = 5000;
+    /** Number of tables up to which a large flow table is chunked. */
+    static final int MAX_CHUNKS = 16;
+    /** Time in milliseconds tenants wait for statistics missing the cache. */
+    static final long REQUEST_TIMEOUT = 2000;
+
+    private static final Random RANDOM = new Random();
+
     private HashedWheelTimer timer = null;
     private PhysicalSwitch sw;
 
     Logger log = LogManager.getLogger(StatisticsManager.class.getName());
 
+    /* the next poll, or null if not started */
+    private Timeout timeout = null;
     private Integer refreshInterval = 30;
+    /* polling interval currently in effect, in milliseconds */
+    private volatile long interval;
     private boolean stopTimer = false;
+    /* time tenants last asked for the statistics of the switch */
+    private volatile long lastDemand;
+    /* parts of the flow statistics poll still to be answered */
+    private final AtomicInteger pendingChunks = new AtomicInteger();
+    /* time the flow statistics poll in flight was sent */
+    private volatile long flowPollTime;
+    /* time the statistics of each type were last received */
+    private final Map<OFStatisticsType, Long> received = new ConcurrentHashMap<OFStatisticsType, Long>();
+    /* tasks waiting for the statistics of each type in flight */
+    private final Map<OFStatisticsType, List<Runnable>> waiting = new HashMap<OFStatisticsType, List<Runnable>>();
+    private final StatisticsHistory history;
+    private final TenantPortCounters portCounters;
 
     public StatisticsManager(PhysicalSwitch sw) {
         /*
@@ -55,37 +111,303 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         this.sw = sw;
         this.refreshInterval = OpenVirteXController.getInstance()
                 .getStatsRefresh();
+        this.interval = this.refreshInterval * 1000L;
+        this.lastDemand = System.currentTimeMillis();
+        this.history = new StatisticsHistory(this.refreshInterval);
+        this.portCounters = new TenantPortCounters();
+    }
+
+    /**
+     * Gets the history of the counters polled from the switch.
+     *
+     * @return the history
+     */
+    public StatisticsHistory getHistory() {
+        return this.history;
+    }
+
+    /**
+     * Gets the traffic of the ports of the switch attributed to tenants.
+     *
+     * @return the per-tenant port counters
+     */
+    public TenantPortCounters getTenantPortCounters() {
+        return this.portCounters;
     }
 
     @Override
     public void run(Timeout timeout) throws Exception {
+        if (timeout.isCancelled()) {
+            return;
+        }
         log.debug("Collecting stats for {}", this.sw.getSwitchName());
         sendPortStatistics();
-        sendFlowStatistics(0, (short) 0);
+        if (this.pendingChunks.get() != 0
+                && System.currentTimeMillis() - this.flowPollTime < this.interval / 2) {
+            /* a tenant asked for the flows just now, the reply is on its way */
+            log.debug("Flow stats poll of {} in flight, skipping this one",
+                    this.sw.getSwitchName());
+        } else {
+            if (this.pendingChunks.getAndSet(0) != 0) {
+                log.debug("Last flow stats poll of {} was not fully answered",
+                        this.sw.getSwitchName());
+                this.sw.abortFlowStatistics();
+            }
+            sendFlowStatistics(false);
+        }
+
+        this.interval = getInterval(this.refreshInterval * 1000L, this.sw
+                .getFlowTable().size(), System.currentTimeMillis()
+                - this.lastDemand);
+        synchronized (this) {
+            /* stopped, or restarted with a poll of its own */
+            if (this.stopTimer || this.timeout != timeout) {
+                return;
+            }
+            final long interval = jitter(this.interval);
+            log.debug("Scheduling stats collection in {} ms for {}",
+                    interval, this.sw.getSwitchName());
+            this.timeout = timeout.getTimer().newTimeout(this, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Computes the polling interval of a switch. The interval grows by the
+     * base interval for every {@link #FLOWS_PER_INTERVAL} flows, and doubles
+     * for every base interval no tenant asked for statistics, up to
+     * {@link #MAX_SCALE} times the base interval.
+     *
+     * @param base the configured interval in milliseconds
+     * @param flows the size of the flow table
+     * @param idle the time since tenants last asked for statistics, in
+     *            milliseconds
+     * @return the interval in milliseconds
+     */
+    static long getInterval(final long base, final int flows, final long idle) {
+        double scale = 1 + (double) flows / FLOWS_PER_INTERVAL;
+        final long idlePolls = idle / Math.max(base, 1);
+        if (idlePolls > 0) {
+            scale *= 1L << Math.min(idlePolls, MAX_SCALE);
+        }
+        return (long) (base * Math.min(scale, MAX_SCALE));
+    }
+
+    /**
+     * Moves an interval randomly by up to {@link #JITTER} of its length.
+     *
+     * @param interval the interval in milliseconds
+     * @return the jittered interval, at least one millisecond
+     */
+    static long jitter(final long interval) {
+        final double offset = (RANDOM.nextDouble() * 2 - 1) * JITTER;
+        return Math.max(1, (long) (interval * (1 + offset)));
+    }
+
+    /**
+     * Records that a tenant asked for the statistics of the switch, which
+     * keeps the switch at its base polling interval.
+     */
+    public void noteDemand() {
+        this.lastDemand = System.currentTimeMillis();
+    }
+
+    /**
+     * Runs a task once the cached statistics of the given type are fresh.
+     * If they are, the task is run right away. Otherwise the statistics are
+     * requested from the switch, unless a request or a periodic flow poll is
+     * already in flight, and
+     * the task is run when they are received, or after
+     * {@link #REQUEST_TIMEOUT} with whatever statistics are cached.
+     *
+     * @param type the statistics type, one of FLOW, PORT and QUEUE
+     * @param task the task
+     */
+    public void whenFresh(final OFStatisticsType type, final Runnable task) {
+        final Long time = this.received.get(type);
+        if (time != null
+                && System.currentTimeMillis() - time <= this.getMaxAge()) {
+            task.run();
+            return;
+        }
+        final List<Runnable> tasks;
+        synchronized (this.waiting) {
+            if (this.waiting.containsKey(type)) {
+                this.waiting.get(type).add(task);
+                return;
+            }
+            tasks = new LinkedList<Runnable>();
+            tasks.add(task);
+            this.waiting.put(type, tasks);
+        }
+        log.debug("Requesting {} stats of {} for tenants", type,
+                this.sw.getSwitchName());
+        switch (type) {
+        case FLOW:
+            /* overlapping polls would be merged into one reply */
+            if (!sendFlowStatistics(true)) {
+                log.debug("Flow stats poll of {} in flight, waiting for it",
+                        this.sw.getSwitchName());
+            }
+            break;
+        case PORT:
+            sendPortStatistics();
+            break;
+        case QUEUE:
+            sendQueueStatistics();
+            break;
+        default:
+            break;
+        }
+        this.timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                release(type, tasks);
+            }
+        }, REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task once the cached statistics of the given type are fresh on
+     * all the given switches.
+     *
+     * @param switches the physical switches
+     * @param type the statistics type, one of FLOW, PORT and QUEUE
+     * @param task the task
+     */
+    public static void whenAllFresh(final Collection<PhysicalSwitch> switches,
+            final OFStatisticsType type, final Runnable task) {
+        if (switches.isEmpty()) {
+            task.run();
+            return;
+        }
+        final AtomicInteger pending = new AtomicInteger(switches.size());
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                if (pending.decrementAndGet() == 0) {
+                    task.run();
+                }
+            }
+        };
+        for (PhysicalSwitch psw : switches) {
+            psw.getStatisticsManager().whenFresh(type, countDown);
+        }
+    }
+
+    /**
+     * Records that the switch answered a statistics request, and runs the
+     * tasks waiting for the statistics.
+     *
+     * @param type the statistics type
+     */
+    public void statisticsReceived(final OFStatisticsType type) {
+        this.received.put(type, System.currentTimeMillis());
+        this.release(type, null);
+    }
+
+    /*
+     * Runs the given tasks, or any tasks if null, waiting for statistics of
+     * the given type, unless they have been run already.
+     */
+    private void release(final OFStatisticsType type, final List<Runnable> tasks) {
+        final List<Runnable> released;
+        synchronized (this.waiting) {
+            if (tasks != null && this.waiting.get(type) != tasks) {
+                return;
+            }
+            released = this.waiting.remove(type);
+        }
+        if (released != null) {
+            for (Runnable task : released) {
+                task.run();
+            }
+        }
+    }
 
-        if (!this.stopTimer) {
-            log.debug("Scheduling stats collection in {} seconds for {}",
-                    this.refreshInterval, this.sw.getSwitchName());
-            timeout.getTimer().newTimeout(this, refreshInterval,
-                    TimeUnit.SECONDS);
+    /*
+     * The age up to which cached statistics are fresh: the polling interval
+     * in effect, as polls are jittered and their replies take some time.
+     */
+    long getMaxAge() {
+        return (long) (this.interval * (1 + 2 * JITTER));
+    }
+
+    /**
+     * Accounts for (a part of) a reply to the flow statistics poll. Replies
+     * to a chunked poll are reported as one multipart reply.
+     *
+     * @param more true if the switch sends more parts of this reply
+     * @return true if more parts of the poll are to be expected
+     */
+    public boolean flowReplyReceived(final boolean more) {
+        if (more) {
+            return true;
+        }
+        while (true) {
+            final int pending = this.pendingChunks.get();
+            if (pending == 0) {
+                return false;
+            }
+            if (this.pendingChunks.compareAndSet(pending, pending - 1)) {
+                return pending > 1;
+            }
         }
     }
 
-    private void sendFlowStatistics(int tid, short port) {
+    /**
+     * Polls the flow statistics of the switch right away, outside the
+     * periodic schedule, unless a poll is already in flight.
+     */
+    public void requestFlowStatistics() {
+        sendFlowStatistics(true);
+    }
+
+    /*
+     * Sends a flow statistics poll, in chunks for large tables. If ifIdle is
+     * set, nothing is sent while an earlier poll is in flight, as the replies
+     * of both would be merged. Returns true if the poll was sent.
+     */
+    private boolean sendFlowStatistics(final boolean ifIdle) {
+        final int tables = this.sw.getFeaturesReply() == null ? 0 : this.sw
+                .getFeaturesReply().getTables() & 0xff;
+        final boolean chunked = this.sw.getFlowTable().size() >= CHUNK_THRESHOLD
+                && tables > 1 && tables <= MAX_CHUNKS;
+        final int chunks = chunked ? tables : 1;
+        if (ifIdle) {
+            if (!this.pendingChunks.compareAndSet(0, chunks)) {
+                return false;
+            }
+        } else {
+            this.pendingChunks.addAndGet(chunks);
+        }
+        this.flowPollTime = System.currentTimeMillis();
+        /* the reply is used to reconcile the shadow flow table */
+        this.sw.getFlowTable().markSync();
+        if (!chunked) {
+            sendMsg(getFlowStatisticsRequest((byte) 0xFF), this);
+            return true;
+        }
+        log.debug("Polling flow stats of {} in {} chunks",
+                this.sw.getSwitchName(), tables);
+        for (int table = 0; table < tables; table++) {
+            sendMsg(getFlowStatisticsRequest((byte) table), this);
+        }
+        return true;
+    }
+
+    private OVXStatisticsRequest getFlowStatisticsRequest(final byte tableId) {
         OVXStatisticsRequest req = new OVXStatisticsRequest();
-        // TODO: stuff like below should be wrapped into an XIDUtil class
-        int xid = (tid << 16) | port;
-        req.setXid(xid);
         req.setStatisticType(OFStatisticsType.FLOW);
         OVXFlowStatisticsRequest freq = new OVXFlowStatisticsRequest();
         OVXMatch match = new OVXMatch();
         match.setWildcards(Wildcards.FULL);
         freq.setMatch(match);
         freq.setOutPort(OFPort.OFPP_NONE.getValue());
-        freq.setTableId((byte) 0xFF);
+        freq.setTableId(tableId);
         req.setStatistics(Collections.singletonList(freq));
         req.setLengthU(req.getLengthU() + freq.getLength());
-        sendMsg(req, this);
+        return req;
     }
 
     private void sendPortStatistics() {
@@ -98,20 +420,53 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         sendMsg(req, this);
     }
 
-    public void start() {
+    private void sendQueueStatistics() {
+        OVXStatisticsRequest req = new OVXStatisticsRequest();
+        req.setStatisticType(OFStatisticsType.QUEUE);
+        OVXQueueStatisticsRequest qreq = new OVXQueueStatisticsRequest();
+        qreq.setPortNumber(OFPort.OFPP_ALL.getValue());
+        qreq.setQueueId(OVXQueueStatisticsRequest.OFPQ_ALL);
+        req.setStatistics(Collections.singletonList(qreq));
+        req.setLengthU(req.getLengthU() + qreq.getLength());
+        sendMsg(req, this);
+    }
+
+    public synchronized void start() {
 
         /*
-         * Initially start polling quickly. Then drop down to configured value
+         * Start polling at a random point of the first interval, so that
+         * switches connecting together are spread over it.
          */
         log.info("Starting Stats collection thread for {}",
                 this.sw.getSwitchName());
-        timer.newTimeout(this, 1, TimeUnit.SECONDS);
+        this.stopTimer = false;
+        final long interval = this.refreshInterval * 1000L;
+        this.timeout = timer.newTimeout(this, 1000 + (long) (RANDOM
+                .nextDouble() * Math.max(interval - 1000, 0)),
+                TimeUnit.MILLISECONDS);
     }
 
-    public void stop() {
+    public synchronized void stop() {
         log.info("Stopping Stats collection thread for {}",
                 this.sw.getSwitchName());
         this.stopTimer = true;
+        if (this.timeout != null) {
+            this.timeout.cancel();
+            this.timeout = null;
+        }
+        /* replies to the poll in flight, if any, will not come */
+        this.pendingChunks.set(0);
+    }
+
+    /**
+     * Resumes polling after {@link #stop()}, e.g. when a suspended switch
+     * reconnects. The cached statistics, their history and the tenant
+     * counters are kept, and tasks still waiting for statistics are run
+     * when the next reply comes in.
+     */
+    public void restart() {
+        this.stop();
+        this.start();
     }
 
     @Override
@@ -124,8 +479,4 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         return "Statistics Manager (" + sw.getName() + ")";
     }
 
-    public void cleanUpTenant(Integer tenantId, short port) {
-        sendFlowStatistics(tenantId, port);
-    }
-
 }
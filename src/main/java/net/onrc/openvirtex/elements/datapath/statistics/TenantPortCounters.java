@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+import net.onrc.openvirtex.packet.Ethernet;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionDataLayerDestination;
+import org.openflow.protocol.action.OFActionDataLayerSource;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionStripVirtualLan;
+import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+import org.openflow.util.U16;
+
+/**
+ * Attributes the traffic of the ports of a physical switch to tenants, by
+ * rolling up the counters of the tenants' flows: a flow matching on an
+ * input port counts as received on it, and a flow outputting to a port as
+ * transmitted on it. Traffic is further attributed to the virtual link
+ * whose label the packets carry on the port, so that the virtual ports of a
+ * tenant sharing a physical port each get their own traffic; unlabeled
+ * traffic belongs to the edge port. The counters only grow: the increase
+ * of each flow's counters since the previous poll is added up, and a flow
+ * that restarts from zero, e.g. after being replaced, counts from zero.
+ * Traffic of a flow between its last poll and its removal is not counted,
+ * nor is flooded traffic.
+ */
+public class TenantPortCounters {
+
+    /** Counter: bytes received. */
+    public static final int RX_BYTES = 0;
+    /** Counter: bytes transmitted. */
+    public static final int TX_BYTES = 1;
+    /** Counter: packets received. */
+    public static final int RX_PACKETS = 2;
+    /** Counter: packets transmitted. */
+    public static final int TX_PACKETS = 3;
+
+    /* Identifies a flow across polls. */
+    private static final class FlowKey {
+        private final long cookie;
+        private final short priority;
+        private final OFMatch match;
+
+        FlowKey(final OVXFlowStatisticsReply stat) {
+            this.cookie = stat.getCookie();
+            this.priority = stat.getPriority();
+            this.match = stat.getMatch();
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (this.cookie ^ this.cookie >>> 32) * 31
+                    + this.priority * 17 + this.match.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof FlowKey)) {
+                return false;
+            }
+            final FlowKey other = (FlowKey) obj;
+            return this.cookie == other.cookie
+                    && this.priority == other.priority
+                    && this.match.equals(other.match);
+        }
+    }
+
+    /* tenant ID -> physical port number -> virtual link ID -> counters */
+    private final Map<Integer, Map<Short, Map<Integer, long[]>>> counters;
+    /* flow -> bytes and packets at the previous poll */
+    private Map<FlowKey, long[]> last;
+
+    /**
+     * Instantiates empty counters.
+     */
+    public TenantPortCounters() {
+        this.counters = new HashMap<Integer, Map<Short, Map<Integer, long[]>>>();
+        this.last = new HashMap<FlowKey, long[]>();
+    }
+
+    /**
+     * Adds the traffic of the flows since the previous poll to the ports
+     * they match on and output to.
+     *
+     * @param stats the flow statistics of a poll by tenant ID
+     */
+    public synchronized void record(
+            final Map<Integer, List<OVXFlowStatisticsReply>> stats) {
+        final Map<FlowKey, long[]> current = new HashMap<FlowKey, long[]>();
+        for (Map.Entry<Integer, List<OVXFlowStatisticsReply>> entry : stats
+                .entrySet()) {
+            for (OVXFlowStatisticsReply stat : entry.getValue()) {
+                final FlowKey key = new FlowKey(stat);
+                final long[] now = {stat.getByteCount(), stat.getPacketCount()};
+                final long[] before = this.last.get(key);
+                current.put(key, now);
+                long bytes = now[0];
+                long packets = now[1];
+                if (before != null && now[0] >= before[0]
+                        && now[1] >= before[1]) {
+                    bytes -= before[0];
+                    packets -= before[1];
+                }
+                if (bytes != 0 || packets != 0) {
+                    this.attribute(entry.getKey(), stat, bytes, packets);
+                }
+            }
+        }
+        this.last = current;
+    }
+
+    /**
+     * Gets the traffic of a tenant on a port, over all its virtual links.
+     *
+     * @param tenantId the tenant ID
+     * @param portNumber the physical port number
+     * @return a copy of the counters, indexed by {@link #RX_BYTES} etc., or
+     *         null if the tenant has no traffic on the port
+     */
+    public synchronized long[] get(final int tenantId, final short portNumber) {
+        final Map<Integer, long[]> links = this.getLinks(tenantId, portNumber);
+        if (links == null) {
+            return null;
+        }
+        final long[] total = new long[4];
+        for (long[] values : links.values()) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += values[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the traffic of a tenant on a port that crossed a virtual link.
+     *
+     * @param tenantId the tenant ID
+     * @param portNumber the physical port number
+     * @param linkId the virtual link ID, or 0 for edge traffic
+     * @return a copy of the counters, indexed by {@link #RX_BYTES} etc., or
+     *         null if the tenant has no such traffic on the port
+     */
+    public synchronized long[] get(final int tenantId, final short portNumber,
+            final int linkId) {
+        final Map<Integer, long[]> links = this.getLinks(tenantId, portNumber);
+        if (links == null || !links.containsKey(linkId)) {
+            return null;
+        }
+        return links.get(linkId).clone();
+    }
+
+    private Map<Integer, long[]> getLinks(final int tenantId,
+            final short portNumber) {
+        final Map<Short, Map<Integer, long[]>> ports = this.counters
+                .get(tenantId);
+        return ports == null ? null : ports.get(portNumber);
+    }
+
+    /**
+     * Forgets the traffic of a tenant.
+     *
+     * @param tenantId the tenant ID
+     */
+    public synchronized void removeTenant(final int tenantId) {
+        this.counters.remove(tenantId);
+    }
+
+    private void attribute(final int tenantId,
+            final OVXFlowStatisticsReply stat, final long bytes,
+            final long packets) {
+        final OFMatch match = stat.getMatch();
+        final int wildcards = match.getWildcards();
+        final boolean inPort = (wildcards & OFMatch.OFPFW_IN_PORT) == 0;
+        /* the fields carrying the link label, as the packets are rewritten */
+        short vlan = (wildcards & OFMatch.OFPFW_DL_VLAN) == 0 ? match
+                .getDataLayerVirtualLan() : Ethernet.VLAN_UNTAGGED;
+        byte[] src = (wildcards & OFMatch.OFPFW_DL_SRC) == 0 ? match
+                .getDataLayerSource() : null;
+        byte[] dst = (wildcards & OFMatch.OFPFW_DL_DST) == 0 ? match
+                .getDataLayerDestination() : null;
+        if (inPort) {
+            this.add(tenantId, match.getInputPort(),
+                    TenantPortCounters.getLinkId(vlan, src, dst), RX_BYTES,
+                    RX_PACKETS, bytes, packets);
+        }
+        if (stat.getActions() == null) {
+            return;
+        }
+        for (OFAction act : stat.getActions()) {
+            if (act instanceof OFActionVirtualLanIdentifier) {
+                vlan = ((OFActionVirtualLanIdentifier) act)
+                        .getVirtualLanIdentifier();
+                continue;
+            } else if (act instanceof OFActionStripVirtualLan) {
+                vlan = Ethernet.VLAN_UNTAGGED;
+                continue;
+            } else if (act instanceof OFActionDataLayerSource) {
+                src = ((OFActionDataLayerSource) act).getDataLayerAddress();
+                continue;
+            } else if (act instanceof OFActionDataLayerDestination) {
+                dst = ((OFActionDataLayerDestination) act)
+                        .getDataLayerAddress();
+                continue;
+            } else if (!(act instanceof OFActionOutput)) {
+                continue;
+            }
+            short port = ((OFActionOutput) act).getPort();
+            if (port == OFPort.OFPP_IN_PORT.getValue() && inPort) {
+                port = match.getInputPort();
+            } else if (U16.f(port) >= U16.f(OFPort.OFPP_MAX.getValue())) {
+                /* flooded, or sent to the controller or the local port */
+                continue;
+            }
+            this.add(tenantId, port,
+                    TenantPortCounters.getLinkId(vlan, src, dst), TX_BYTES,
+                    TX_PACKETS, bytes, packets);
+        }
+    }
+
+    /*
+     * Gets the virtual link whose label packets with the given fields carry,
+     * or 0 if they carry none. Route labels are not virtual links.
+     */
+    private static int getLinkId(final short vlan, final byte[] src,
+            final byte[] dst) {
+        final OVXLinkUtils lUtils;
+        if (OVXLinkUtils.usesFlowId()) {
+            if (src == null || dst == null) {
+                return 0;
+            }
+            lUtils = new OVXLinkUtils(OVXLinkCodec.toLong(src),
+                    OVXLinkCodec.toLong(dst));
+        } else {
+            lUtils = new OVXLinkUtils(vlan);
+        }
+        return lUtils.isValid() && !lUtils.isRoute() ? lUtils.getLinkId() : 0;
+    }
+
+    private void add(final int tenantId, final short port, final int linkId,
+            final int byteIdx, final int packetIdx, final long bytes,
+            final long packets) {
+        Map<Short, Map<Integer, long[]>> ports = this.counters.get(tenantId);
+        if (ports == null) {
+            ports = new HashMap<Short, Map<Integer, long[]>>();
+            this.counters.put(tenantId, ports);
+        }
+        Map<Integer, long[]> links = ports.get(port);
+        if (links == null) {
+            links = new HashMap<Integer, long[]>();
+            ports.put(port, links);
+        }
+        long[] values = links.get(linkId);
+        if (values == null) {
+            values = new long[4];
+            links.put(linkId, values);
+        }
+        values[byteIdx] += bytes;
+        values[packetIdx] += packets;
+    }
+
+}
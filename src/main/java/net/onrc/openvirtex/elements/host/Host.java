@@ -28,6 +28,8 @@ import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.AddressMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.util.MACAddress;
@@ -105,6 +107,7 @@ public class Host implements Persistable {
      */
     public void register() {
         DBManager.getInstance().save(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, Host.DB_KEY, this);
     }
 
     @Override
@@ -151,6 +154,8 @@ public class Host implements Persistable {
     public void unregister() {
         try {
             DBManager.getInstance().remove(this);
+            EventLog.getInstance().publish(Event.Type.REMOVED, Host.DB_KEY,
+                    this);
             this.tearDown();
             Mappable map = this.port.getParentSwitch().getMap();
             map.removeMAC(this.mac);
@@ -33,8 +33,11 @@ import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
@@ -45,6 +48,7 @@ import net.onrc.openvirtex.messages.actions.OVXActionOutput;
 import net.onrc.openvirtex.packet.Ethernet;
 import net.onrc.openvirtex.routing.RoutingAlgorithms;
 import net.onrc.openvirtex.routing.RoutingAlgorithms.RoutingType;
+import net.onrc.openvirtex.util.OVXHopRuleManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -221,6 +225,7 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
         }
 
         DBManager.getInstance().save(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, Link.DB_KEY, this);
     }
 
     @Override
@@ -228,6 +233,8 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
 
         try {
             DBManager.getInstance().remove(this);
+            EventLog.getInstance().publish(Event.Type.REMOVED, Link.DB_KEY,
+                    this);
             this.tearDown();
             map.removeVirtualLink(this);
             map.getVirtualNetwork(this.tenantId).removeLink(this);
@@ -277,11 +284,16 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                                             fe.getMatch()
                                                     .getDataLayerDestination());
 
+                            OVXFlowTable ft = (OVXFlowTable) this
+                                    .getSrcPort().getParentSwitch()
+                                    .getFlowTable();
+                            long oldCookie = ft.getCookie(fe, false);
                             OVXFlowMod fm = fe.clone();
-                            fm.setCookie(((OVXFlowTable) this.getSrcPort()
-                                    .getParentSwitch().getFlowTable())
-                                    .getCookie(fe, true));
+                            fm.setCookie(ft.getCookie(fe, true));
                             this.generateLinkFMs(fm, flowId);
+                            /* hop entries of the old path */
+                            this.map.getVirtualNetwork(this.tenantId)
+                                    .getHopRuleManager().release(oldCookie);
                         } catch (IndexOutOfBoundException e) {
                             log.error(
                                     "Too many hosts to generate the flow pairs in this virtual network {}. "
@@ -348,6 +360,8 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
      *            the flow identifier
      */
     public void generateLinkFMs(final OVXFlowMod fm, final Integer flowId) {
+        /* the edge flow on whose behalf the hop entries are installed */
+        final long ref = fm.getCookie();
         /*
          * Change the packet match: 1) change the fields where the virtual link
          * info are stored 2) change the fields where the physical IPs are
@@ -355,9 +369,12 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
          */
         final OVXLinkUtils lUtils = new OVXLinkUtils(this.tenantId,
                 this.linkId, flowId);
-        lUtils.rewriteMatch(fm.getMatch());
+        lUtils.rewriteTransitMatch(fm.getMatch());
         long cookie = tenantId;
         fm.setCookie(cookie << 32);
+        if (OVXLinkUtils.isAggregated()) {
+            fm.setPriority(OVXLinkUtils.AGGREGATE_PRIORITY);
+        }
 
         if (fm.getMatch().getDataLayerType() == Ethernet.TYPE_IPV4) {
             IPMapper.rewriteMatch(this.tenantId, fm.getMatch());
@@ -372,14 +389,16 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
         fm.setBufferId(OVXPacketOut.BUFFER_ID_NONE);
         fm.setCommand(OFFlowMod.OFPFC_MODIFY);
         List<PhysicalLink> plinks = new LinkedList<PhysicalLink>();
+        final OVXHopRuleManager hopRules;
         try {
-            final OVXLink link = this.map.getVirtualNetwork(this.tenantId)
-                    .getLink(this.srcPort, this.dstPort);
+            final OVXNetwork vnet = this.map.getVirtualNetwork(this.tenantId);
+            final OVXLink link = vnet.getLink(this.srcPort, this.dstPort);
             for (final PhysicalLink phyLink : OVXMap.getInstance()
                     .getPhysicalLinks(link)) {
                 plinks.add(new PhysicalLink(phyLink.getDstPort(), phyLink
                         .getSrcPort()));
             }
+            hopRules = vnet.getHopRuleManager();
         } catch (LinkMappingException | NetworkMappingException e) {
             log.warn("No physical Links mapped to OVXLink? : {}", e);
             return;
@@ -395,12 +414,13 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                         + OVXActionOutput.MINIMUM_LENGTH);
                 fm.setActions(Arrays.asList((OFAction) new OFActionOutput(
                         outPort.getPortNumber(), (short) 0xffff)));
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
-                this.log.debug(
-                        "Sending virtual link intermediate fm to sw {}: {}",
-                        phyLink.getSrcPort().getParentSwitch().getSwitchName(),
-                        fm);
+                if (hopRules.install(phyLink.getSrcPort().getParentSwitch(),
+                        fm, ref)) {
+                    this.log.debug(
+                            "Sending virtual link intermediate fm to sw {}: {}",
+                            phyLink.getSrcPort().getParentSwitch()
+                                    .getSwitchName(), fm);
+                }
             }
             outPort = phyLink.getDstPort();
         }
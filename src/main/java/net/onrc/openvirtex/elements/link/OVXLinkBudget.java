@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.link;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Partitions the 48-bit label space of virtual links encoded in the MAC
+ * addresses among the virtual networks.
+ * <p>
+ * Each virtual network owns an aligned block of 2^(linkBits + flowBits)
+ * labels, i.e. a tenant prefix whose width depends on the size of the
+ * network. Large networks can ask for more link or flow ids without
+ * shrinking the blocks of the others, and the label space no longer bounds
+ * the number of networks. Blocks are persisted with their network, and
+ * restored at the same place.
+ * <p>
+ * Budgets are only used if links are encoded in the MAC addresses without
+ * aggregation; otherwise the identifiers keep their fixed width.
+ */
+public final class OVXLinkBudget {
+
+    private static Logger log = LogManager.getLogger(OVXLinkBudget.class
+            .getName());
+    private static AtomicReference<OVXLinkBudget> budgetInstance =
+            new AtomicReference<>();
+
+    private static final int LABEL_BITS = 48;
+    // Link and flow ids are allocated by BitSetIndex, and must fit an int
+    private static final int MAX_ID_BITS = 30;
+
+    // Blocks by start of the block
+    private final TreeMap<Long, Block> blocks;
+    private final Map<Integer, Block> tenants;
+
+    /**
+     * Label block of a virtual network.
+     */
+    public static final class Block {
+        private final int tenantId;
+        private final long start;
+        private final int linkBits;
+        private final int flowBits;
+
+        Block(final int tenantId, final long start, final int linkBits,
+                final int flowBits) {
+            this.tenantId = tenantId;
+            this.start = start;
+            this.linkBits = linkBits;
+            this.flowBits = flowBits;
+        }
+
+        public int getTenantId() {
+            return this.tenantId;
+        }
+
+        /**
+         * Gets the first label of the block, i.e. the tenant prefix followed
+         * by zeroes.
+         *
+         * @return the first label
+         */
+        public long getStart() {
+            return this.start;
+        }
+
+        public int getLinkBits() {
+            return this.linkBits;
+        }
+
+        public int getFlowBits() {
+            return this.flowBits;
+        }
+
+        long getEnd() {
+            return this.start + (1L << this.linkBits + this.flowBits);
+        }
+
+        @Override
+        public String toString() {
+            return "tenantId = " + this.tenantId + ", prefix = "
+                    + Long.toHexString(this.start) + "/"
+                    + (LABEL_BITS - this.linkBits - this.flowBits)
+                    + ", linkBits = " + this.linkBits + ", flowBits = "
+                    + this.flowBits;
+        }
+    }
+
+    private OVXLinkBudget() {
+        this.blocks = new TreeMap<>();
+        this.tenants = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the instance of the link budget.
+     *
+     * @return the link budget
+     */
+    public static OVXLinkBudget getInstance() {
+        OVXLinkBudget.budgetInstance.compareAndSet(null, new OVXLinkBudget());
+        return OVXLinkBudget.budgetInstance.get();
+    }
+
+    /**
+     * Checks if virtual networks get label blocks, i.e. if links are encoded
+     * in the MAC addresses without aggregation.
+     *
+     * @return true if budgets are used
+     */
+    public static boolean isEnabled() {
+        return OVXLinkCodec.getLinkField() == OVXLinkField.MAC_ADDRESS
+                && !OVXLinkCodec.isAggregated();
+    }
+
+    /**
+     * Gets the default number of bits of link ids, i.e. the width used before
+     * budgets existed.
+     *
+     * @return the default number of link id bits
+     */
+    public static int getDefaultLinkBits() {
+        return (LABEL_BITS - OpenVirteXController.getInstance()
+                .getNumberVirtualNets()) / 2;
+    }
+
+    /**
+     * Gets the default number of bits of flow ids.
+     *
+     * @return the default number of flow id bits
+     */
+    public static int getDefaultFlowBits() {
+        return OVXLinkBudget.getDefaultLinkBits();
+    }
+
+    /**
+     * Gets the first label of the block a virtual network used before
+     * budgets existed, i.e. its tenant id followed by default-width link and
+     * flow ids.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @return the first label of the legacy block
+     */
+    public static long getLegacyStart(final int tenantId) {
+        return (long) tenantId << LABEL_BITS
+                - OpenVirteXController.getInstance().getNumberVirtualNets();
+    }
+
+    /**
+     * Allocates the label block of a virtual network. Any block previously
+     * held by the tenant is released.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param linkBits
+     *            the number of bits of link ids
+     * @param flowBits
+     *            the number of bits of flow ids
+     * @return the block, or null if budgets are not used
+     * @throws IndexOutOfBoundException
+     *             if the sizes are invalid or there is no room left
+     */
+    public synchronized Block allocate(final int tenantId, final int linkBits,
+            final int flowBits) throws IndexOutOfBoundException {
+        if (!OVXLinkBudget.isEnabled()) {
+            return null;
+        }
+        this.checkBits(linkBits, flowBits);
+        this.release(tenantId);
+        final long size = 1L << linkBits + flowBits;
+        // first fit; blocks are aligned so the space stays a buddy system
+        long start = 0;
+        for (final Block block : this.blocks.values()) {
+            if (start + size <= block.getStart()) {
+                break;
+            }
+            start = Math.max(start, (block.getEnd() + size - 1) & -size);
+        }
+        if (start + size > 1L << LABEL_BITS) {
+            throw new IndexOutOfBoundException(
+                    "No room left for a label block of "
+                            + (linkBits + flowBits) + " bits");
+        }
+        return this.add(new Block(tenantId, start, linkBits, flowBits));
+    }
+
+    /**
+     * Restores the label block of a virtual network, e.g. from storage.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param start
+     *            the first label of the block
+     * @param linkBits
+     *            the number of bits of link ids
+     * @param flowBits
+     *            the number of bits of flow ids
+     * @return the block, or null if budgets are not used
+     * @throws IndexOutOfBoundException
+     *             if the block is invalid or overlaps another block
+     */
+    public synchronized Block restore(final int tenantId, final long start,
+            final int linkBits, final int flowBits)
+            throws IndexOutOfBoundException {
+        if (!OVXLinkBudget.isEnabled()) {
+            return null;
+        }
+        this.checkBits(linkBits, flowBits);
+        this.release(tenantId);
+        final Block block = new Block(tenantId, start, linkBits, flowBits);
+        final long size = 1L << linkBits + flowBits;
+        if (start < 0 || (start & size - 1) != 0
+                || block.getEnd() > 1L << LABEL_BITS) {
+            throw new IndexOutOfBoundException("Invalid label block " + block);
+        }
+        final Map.Entry<Long, Block> prev = this.blocks.floorEntry(start);
+        final Map.Entry<Long, Block> next = this.blocks.ceilingEntry(start);
+        if (prev != null && prev.getValue().getEnd() > start || next != null
+                && next.getKey() < block.getEnd()) {
+            throw new IndexOutOfBoundException("Label block " + block
+                    + " already in use");
+        }
+        return this.add(block);
+    }
+
+    /**
+     * Releases the label block of a virtual network.
+     *
+     * @param tenantId
+     *            the tenant id
+     */
+    public synchronized void release(final int tenantId) {
+        if (this.remove(tenantId)) {
+            this.publish();
+        }
+    }
+
+    /**
+     * Gets the label block of a virtual network.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @return the block, or null if the network has none
+     */
+    public Block getBlock(final int tenantId) {
+        return this.tenants.get(tenantId);
+    }
+
+    /**
+     * Gets the number of link ids available to a virtual network.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @return the bound of link ids
+     */
+    public int getLinkIdLimit(final int tenantId) {
+        final Block block = this.tenants.get(tenantId);
+        if (block == null) {
+            return IndexType.LINK_ID.getValue().intValue();
+        }
+        return 1 << block.getLinkBits();
+    }
+
+    /**
+     * Gets the number of flow ids available to a virtual network.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @return the bound of flow ids
+     */
+    public int getFlowIdLimit(final int tenantId) {
+        final Block block = this.tenants.get(tenantId);
+        if (block == null) {
+            return IndexType.FLOW_COUNTER.getValue().intValue();
+        }
+        return 1 << block.getFlowBits();
+    }
+
+    private void checkBits(final int linkBits, final int flowBits)
+            throws IndexOutOfBoundException {
+        if (linkBits < 1 || linkBits > MAX_ID_BITS || flowBits < 1
+                || flowBits > MAX_ID_BITS || linkBits + flowBits >= LABEL_BITS) {
+            throw new IndexOutOfBoundException("Invalid label block of "
+                    + linkBits + " link bits and " + flowBits + " flow bits");
+        }
+    }
+
+    private Block add(final Block block) {
+        this.blocks.put(block.getStart(), block);
+        this.tenants.put(block.getTenantId(), block);
+        this.publish();
+        OVXLinkBudget.log.info("Allocated label block {}", block);
+        return block;
+    }
+
+    private boolean remove(final int tenantId) {
+        final Block block = this.tenants.remove(tenantId);
+        if (block == null) {
+            return false;
+        }
+        this.blocks.remove(block.getStart());
+        return true;
+    }
+
+    private void publish() {
+        OVXLinkCodec.setBlocks(this.blocks.values());
+    }
+
+}
@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.link;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import net.onrc.openvirtex.elements.link.OVXLinkBudget.Block;
+
+/**
+ * Encodes and decodes the virtual link identifiers (tenantId, link or route
+ * id, flowId) to and from the packet fields on primitive values.
+ * <p>
+ * The shifts and masks only depend on the number of bits of the tenant id,
+ * on the link field and on link aggregation, so they are computed once when
+ * the controller starts (see {@link #configure(int, OVXLinkField, boolean)})
+ * and then shared by all the encode and decode calls.
+ * <p>
+ * Virtual networks holding a label block (see {@link OVXLinkBudget}) encode
+ * their links and flows inside the block instead of behind the fixed-width
+ * tenant id; the blocks are looked up by binary search on a snapshot that is
+ * replaced whenever a block is allocated or released.
+ */
+public final class OVXLinkCodec {
+
+    // Prefix of the MAC addresses carrying virtual link information
+    private static final long LINK_MAC_PREFIX = 0xa42305L;
+    private static final long LABEL_MASK = 0xFFFFFFL;
+    private static final int VLAN_MASK = 0xFFF;
+    // Largest tenant id widths leaving room for link ids
+    private static final int MAX_MAC_TENANT_BITS = 31;
+    private static final int MAX_AGGREGATED_TENANT_BITS = 22;
+    private static final int MAX_VLAN_TENANT_BITS = 10;
+
+    private static volatile OVXLinkCodec codec = new OVXLinkCodec(0,
+            OVXLinkField.MAC_ADDRESS, false);
+    private static volatile Blocks blocks = new Blocks(new Block[0]);
+
+    private final OVXLinkField linkField;
+    private final boolean aggregated;
+    // Plain MAC encoding: tenant | link | flow over 48 bits
+    private final int tenantShift;
+    private final int linkShift;
+    private final long idMask;
+    // Aggregated MAC encoding: tenant | route flag | link in the source MAC
+    private final int routeShift;
+    private final long aggregateMask;
+    // VLAN encoding: tenant | link in the VLAN id
+    private final int vlanShift;
+    private final int vlanMask;
+
+    /*
+     * Snapshot of the label blocks, sorted by first label and by tenant.
+     */
+    private static final class Blocks {
+        private final long[] starts;
+        private final Block[] byStart;
+        private final int[] tenantIds;
+        private final Block[] byTenant;
+
+        Blocks(final Block[] blocks) {
+            this.byStart = blocks.clone();
+            Arrays.sort(this.byStart, new Comparator<Block>() {
+                @Override
+                public int compare(final Block b1, final Block b2) {
+                    return Long.compare(b1.getStart(), b2.getStart());
+                }
+            });
+            this.starts = new long[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                this.starts[i] = this.byStart[i].getStart();
+            }
+            this.byTenant = blocks.clone();
+            Arrays.sort(this.byTenant, new Comparator<Block>() {
+                @Override
+                public int compare(final Block b1, final Block b2) {
+                    return Integer.compare(b1.getTenantId(), b2.getTenantId());
+                }
+            });
+            this.tenantIds = new int[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                this.tenantIds[i] = this.byTenant[i].getTenantId();
+            }
+        }
+
+        Block forTenant(final int tenantId) {
+            final int i = Arrays.binarySearch(this.tenantIds, tenantId);
+            return i < 0 ? null : this.byTenant[i];
+        }
+
+        Block forLabel(final long label) {
+            int i = Arrays.binarySearch(this.starts, label);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            if (i < 0 || label >= this.byStart[i].getEnd()) {
+                return null;
+            }
+            return this.byStart[i];
+        }
+    }
+
+    private OVXLinkCodec(final int tenantBits, final OVXLinkField linkField,
+            final boolean aggregate) {
+        this.linkField = linkField;
+        this.aggregated = aggregate && linkField == OVXLinkField.MAC_ADDRESS;
+        this.tenantShift = 48 - tenantBits;
+        this.linkShift = (48 - tenantBits) / 2;
+        this.idMask = (1L << this.linkShift) - 1;
+        this.routeShift = 23 - tenantBits;
+        this.aggregateMask = (1L << this.routeShift) - 1;
+        this.vlanShift = 12 - tenantBits;
+        this.vlanMask = (1 << this.vlanShift) - 1;
+    }
+
+    /**
+     * Computes the shifts and masks of the codec. Called once when the
+     * controller starts.
+     *
+     * @param tenantBits
+     *            the number of bits of the tenant id
+     * @param linkField
+     *            the packet field encoding virtual links
+     * @param aggregate
+     *            true if virtual link and route labels are aggregated
+     * @throws IllegalArgumentException
+     *             if the tenant id leaves no room for link ids in the field
+     */
+    public static void configure(final int tenantBits,
+            final OVXLinkField linkField, final boolean aggregate) {
+        final int maxBits;
+        if (linkField == OVXLinkField.VLAN) {
+            maxBits = MAX_VLAN_TENANT_BITS;
+        } else if (aggregate) {
+            maxBits = MAX_AGGREGATED_TENANT_BITS;
+        } else {
+            maxBits = MAX_MAC_TENANT_BITS;
+        }
+        if (tenantBits < 1 || tenantBits > maxBits) {
+            throw new IllegalArgumentException("Tenant ids of " + tenantBits
+                    + " bits do not fit the " + linkField
+                    + " link encoding, which takes 1 to " + maxBits + " bits");
+        }
+        OVXLinkCodec.codec = new OVXLinkCodec(tenantBits, linkField,
+                aggregate);
+    }
+
+    /**
+     * Replaces the label blocks of the virtual networks.
+     *
+     * @param current
+     *            the blocks
+     */
+    static void setBlocks(final Collection<Block> current) {
+        OVXLinkCodec.blocks = new Blocks(current.toArray(new Block[current
+                .size()]));
+    }
+
+    /**
+     * Gets the packet field encoding virtual links.
+     *
+     * @return the link field
+     */
+    public static OVXLinkField getLinkField() {
+        return OVXLinkCodec.codec.linkField;
+    }
+
+    /**
+     * Checks if virtual link and route labels are aggregated, i.e. if the
+     * source MAC address only carries the tenant and the link or route.
+     *
+     * @return true if labels are aggregated
+     */
+    public static boolean isAggregated() {
+        return OVXLinkCodec.codec.aggregated;
+    }
+
+    /**
+     * Encodes the source MAC address of a packet crossing a virtual link or
+     * a big switch route.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param linkId
+     *            the link or route id
+     * @param flowId
+     *            the flow id
+     * @param route
+     *            true if linkId is a route id
+     * @return the source MAC address
+     */
+    public static long encodeSrcMac(final int tenantId, final int linkId,
+            final int flowId, final boolean route) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        final long label;
+        if (c.aggregated) {
+            label = (long) tenantId << c.routeShift + 1
+                    | (route ? 1L : 0L) << c.routeShift | linkId;
+        } else {
+            label = c.encode(tenantId, linkId, flowId) >> 24;
+        }
+        return OVXLinkCodec.LINK_MAC_PREFIX << 24 | label & LABEL_MASK;
+    }
+
+    /**
+     * Encodes the destination MAC address of a packet crossing a virtual
+     * link or a big switch route.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param linkId
+     *            the link or route id
+     * @param flowId
+     *            the flow id
+     * @return the destination MAC address
+     */
+    public static long encodeDstMac(final int tenantId, final int linkId,
+            final int flowId) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        final long label = c.aggregated ? flowId : c.encode(tenantId,
+                linkId, flowId);
+        return OVXLinkCodec.LINK_MAC_PREFIX << 24 | label & LABEL_MASK;
+    }
+
+    /**
+     * Encodes the VLAN id of a packet crossing a virtual link. Link ids are
+     * allocated below the link mask, so the reserved VLAN ids 0 and 0xFFF
+     * are never produced.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param linkId
+     *            the link id
+     * @return the VLAN id
+     * @throws IllegalArgumentException
+     *             if the ids would encode a reserved VLAN id
+     */
+    public static short encodeVlan(final int tenantId, final int linkId) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        final int vlan = (tenantId << c.vlanShift | linkId) & VLAN_MASK;
+        if (vlan == 0 || vlan == VLAN_MASK) {
+            throw new IllegalArgumentException("Tenant " + tenantId
+                    + " and link " + linkId + " encode reserved VLAN id "
+                    + vlan);
+        }
+        return (short) vlan;
+    }
+
+    private long encode(final int tenantId, final int linkId, final int flowId) {
+        final Block block = OVXLinkCodec.blocks.forTenant(tenantId);
+        if (block != null) {
+            return block.getStart() | (long) linkId << block.getFlowBits()
+                    | flowId;
+        }
+        return (long) tenantId << this.tenantShift
+                | (long) linkId << this.linkShift | flowId;
+    }
+
+    private static long join(final long srcMac, final long dstMac) {
+        return (srcMac & LABEL_MASK) << 24 | dstMac & LABEL_MASK;
+    }
+
+    /**
+     * Decodes the tenant id from the MAC addresses of a packet.
+     *
+     * @param srcMac
+     *            the source MAC address
+     * @param dstMac
+     *            the destination MAC address
+     * @return the tenant id
+     */
+    public static int decodeTenantId(final long srcMac, final long dstMac) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        if (c.aggregated) {
+            return (int) ((srcMac & LABEL_MASK) >> c.routeShift + 1);
+        }
+        final long label = OVXLinkCodec.join(srcMac, dstMac);
+        final Block block = OVXLinkCodec.blocks.forLabel(label);
+        if (block != null) {
+            return block.getTenantId();
+        }
+        return (int) (label >> c.tenantShift);
+    }
+
+    /**
+     * Decodes the link or route id from the MAC addresses of a packet.
+     *
+     * @param srcMac
+     *            the source MAC address
+     * @param dstMac
+     *            the destination MAC address
+     * @return the link or route id
+     */
+    public static int decodeLinkId(final long srcMac, final long dstMac) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        if (c.aggregated) {
+            return (int) (srcMac & c.aggregateMask);
+        }
+        final long label = OVXLinkCodec.join(srcMac, dstMac);
+        final Block block = OVXLinkCodec.blocks.forLabel(label);
+        if (block != null) {
+            return (int) (label >> block.getFlowBits() & (1L << block
+                    .getLinkBits()) - 1);
+        }
+        return (int) (label >> c.linkShift & c.idMask);
+    }
+
+    /**
+     * Decodes the flow id from the MAC addresses of a packet.
+     *
+     * @param srcMac
+     *            the source MAC address
+     * @param dstMac
+     *            the destination MAC address
+     * @return the flow id
+     */
+    public static int decodeFlowId(final long srcMac, final long dstMac) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        if (c.aggregated) {
+            return (int) (dstMac & LABEL_MASK);
+        }
+        final long label = OVXLinkCodec.join(srcMac, dstMac);
+        final Block block = OVXLinkCodec.blocks.forLabel(label);
+        if (block != null) {
+            return (int) (label & (1L << block.getFlowBits()) - 1);
+        }
+        return (int) (dstMac & c.idMask);
+    }
+
+    /**
+     * Checks if the MAC addresses of a packet carry a big switch route
+     * label. Always false if labels are not aggregated.
+     *
+     * @param srcMac
+     *            the source MAC address
+     * @return true if route
+     */
+    public static boolean decodeRoute(final long srcMac) {
+        final OVXLinkCodec c = OVXLinkCodec.codec;
+        return c.aggregated && (srcMac >> c.routeShift & 1) == 1;
+    }
+
+    /**
+     * Decodes the tenant id from the VLAN id of a packet.
+     *
+     * @param vlan
+     *            the VLAN id
+     * @return the tenant id
+     */
+    public static int decodeVlanTenantId(final short vlan) {
+        return (vlan & VLAN_MASK) >> OVXLinkCodec.codec.vlanShift;
+    }
+
+    /**
+     * Decodes the link id from the VLAN id of a packet.
+     *
+     * @param vlan
+     *            the VLAN id
+     * @return the link id
+     */
+    public static int decodeVlanLinkId(final short vlan) {
+        return vlan & OVXLinkCodec.codec.vlanMask;
+    }
+
+    /**
+     * Gets the value of a MAC address stored in a byte array.
+     *
+     * @param mac
+     *            the MAC address bytes
+     * @return the MAC address
+     */
+    public static long toLong(final byte[] mac) {
+        return (mac[0] & 0xFFL) << 40 | (mac[1] & 0xFFL) << 32
+                | (mac[2] & 0xFFL) << 24 | (mac[3] & 0xFFL) << 16
+                | (mac[4] & 0xFFL) << 8 | mac[5] & 0xFFL;
+    }
+
+    /**
+     * Stores a MAC address in a byte array.
+     *
+     * @param mac
+     *            the MAC address
+     * @param bytes
+     *            the array the address is written into
+     * @return the array
+     */
+    public static byte[] toBytes(final long mac, final byte[] bytes) {
+        for (int i = 5; i >= 0; i--) {
+            bytes[5 - i] = (byte) (mac >> 8 * i);
+        }
+        return bytes;
+    }
+
+}
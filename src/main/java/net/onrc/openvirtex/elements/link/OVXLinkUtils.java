@@ -15,38 +15,59 @@
  ******************************************************************************/
 package net.onrc.openvirtex.elements.link;
 
-import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.packet.Ethernet;
 import net.onrc.openvirtex.util.MACAddress;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionDataLayerDestination;
 import org.openflow.protocol.action.OFActionDataLayerSource;
+import org.openflow.protocol.action.OFActionStripVirtualLan;
 import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
 
 /**
  * This class provides some useful methods to encapsulate/decapsulate the
  * virtual link identifiers (tenantId, linkId, flowId) inside the packet fields
  * (MAC addresses or VLAN).
+ * <p>
+ * If link aggregation is enabled, the source MAC address carries the tenant
+ * and the link or big switch route only, and the destination MAC address
+ * carries the flow. Transit entries then match on the source MAC address
+ * alone, and are shared by all flows crossing the link or route.
+ * <p>
+ * If links are encoded in the VLAN field, the VLAN id carries the tenant and
+ * the link, and the host MAC addresses are left untouched; the tag is pushed
+ * at the ingress edge and stripped at the egress edge, so no flow id is
+ * needed. Tenants then cannot use VLANs of their own: their flows may not
+ * match on a VLAN nor change the tag, and only untagged packets enter
+ * virtual links.
  */
 public class OVXLinkUtils {
 
     private static Logger log = LogManager.getLogger(OVXLinkUtils.class
             .getName());
-    private Integer tenantId;
-    private Integer linkId;
-    private Integer flowId;
-    private MACAddress srcMac;
-    private MACAddress dstMac;
-    private Short vlan;
+    /**
+     * Priority of the transit entries shared by the flows of an aggregated
+     * link or route.
+     */
+    public static final short AGGREGATE_PRIORITY = (short) 0x8000;
+    private int tenantId;
+    private int linkId;
+    private int flowId;
+    private boolean route;
+    // MAC addresses are only meaningful if macs is set
+    private boolean macs;
+    private long srcMac;
+    private long dstMac;
+    private short vlan;
 
     /**
      * Instantiates a new link utils instance. Never called by external classes.
@@ -55,57 +76,62 @@ public class OVXLinkUtils {
         this.tenantId = 0;
         this.linkId = 0;
         this.flowId = 0;
-        this.srcMac = null;
-        this.dstMac = null;
+        this.route = false;
+        this.macs = false;
         this.vlan = 0;
     }
 
     /**
-     * Gets the integer value from a given Bitset.
+     * Instantiates a new link utils instance from the MAC addresses couple.
+     * Automatically decapsulate and set tenantId, linkId and flowId from the
+     * parameters given.
      *
-     * @param bitSet
-     *            the bitset
-     * @return the integer
+     * @param srcMac
+     *            the src mac
+     * @param dstMac
+     *            the dst mac
      */
-    private static int bitSetToInt(final BitSet bitSet) {
-        int bitInteger = 0;
-        for (int i = 0; i < 32; i++) {
-            if (bitSet.get(i)) {
-                bitInteger |= 1 << i;
-            }
-        }
-        return bitInteger;
+    public OVXLinkUtils(final MACAddress srcMac, final MACAddress dstMac) {
+        this(srcMac.toLong(), dstMac.toLong());
     }
 
     /**
-     * Instantiates a new link utils instance from the MAC addresses couple.
-     * Automatically decapsulate and set tenantId, linkId and flowId from the
-     * parameters given.
+     * Instantiates a new link utils instance from the values of the MAC
+     * addresses couple. Automatically decapsulate and set tenantId, linkId and
+     * flowId from the parameters given.
      *
      * @param srcMac
      *            the src mac
      * @param dstMac
      *            the dst mac
      */
-    public OVXLinkUtils(final MACAddress srcMac, final MACAddress dstMac) {
+    public OVXLinkUtils(final long srcMac, final long dstMac) {
         this();
+        this.macs = true;
         this.srcMac = srcMac;
         this.dstMac = dstMac;
-        final int vNets = OpenVirteXController.getInstance()
-                .getNumberVirtualNets();
-        final MACAddress mac = MACAddress
-                .valueOf((srcMac.toLong() & 0xFFFFFF) << 24 | dstMac.toLong()
-                        & 0xFFFFFF);
-        this.tenantId = (int) (mac.toLong() >> 48 - vNets);
-        final BitSet bmask = new BitSet((48 - vNets) / 2);
-        for (int i = bmask.nextClearBit(0); i < (48 - vNets) / 2; i = bmask
-                .nextClearBit(i + 1)) {
-            bmask.set(i);
+        this.tenantId = OVXLinkCodec.decodeTenantId(srcMac, dstMac);
+        this.linkId = OVXLinkCodec.decodeLinkId(srcMac, dstMac);
+        this.flowId = OVXLinkCodec.decodeFlowId(srcMac, dstMac);
+        this.route = OVXLinkCodec.decodeRoute(srcMac);
+    }
+
+    /**
+     * Instantiates a new link utils instance from the VLAN id of a packet.
+     * Automatically decapsulate and set tenantId and linkId; the instance is
+     * not valid if the packet is untagged.
+     *
+     * @param vlan
+     *            the VLAN id
+     */
+    public OVXLinkUtils(final short vlan) {
+        this();
+        if (vlan == Ethernet.VLAN_UNTAGGED) {
+            return;
         }
-        final int mask = OVXLinkUtils.bitSetToInt(bmask);
-        this.linkId = (int) (mac.toLong() >> (48 - vNets) / 2) & mask;
-        this.flowId = (int) mac.toLong() & mask;
-        this.vlan = 0;
+        this.vlan = (short) (vlan & 0xFFF);
+        this.tenantId = OVXLinkCodec.decodeVlanTenantId(vlan);
+        this.linkId = OVXLinkCodec.decodeVlanLinkId(vlan);
     }
 
     /**
@@ -122,40 +148,132 @@ public class OVXLinkUtils {
      */
     public OVXLinkUtils(final Integer tenantId, final Integer linkId,
             final Integer flowId) {
+        this(tenantId, linkId, flowId, false);
+    }
+
+    /**
+     * Instantiates a new link utils from tenantId, link or route id and
+     * flowId. Route ids are only encoded differently from link ids if link
+     * aggregation is enabled.
+     *
+     * @param tenantId
+     *            the tenant id
+     * @param linkId
+     *            the link id, or the route id
+     * @param flowId
+     *            the flow id
+     * @param route
+     *            true if linkId is the id of a big switch route
+     */
+    public OVXLinkUtils(final Integer tenantId, final Integer linkId,
+            final Integer flowId, final boolean route) {
         this();
         this.tenantId = tenantId;
         this.linkId = linkId;
         this.flowId = flowId;
-        final int vNets = OpenVirteXController.getInstance()
-                .getNumberVirtualNets();
-        final MACAddress mac = MACAddress
-                .valueOf(tenantId.longValue() << 48 - vNets
-                        | linkId.longValue() << (48 - vNets) / 2
-                        | flowId.longValue());
-        final Long src = mac.toLong() >> 24 & 0xFFFFFF;
-        final Long dst = mac.toLong() & 0xFFFFFF;
-        this.srcMac = MACAddress.valueOf((long) 0xa42305 << 24 | src);
-        this.dstMac = MACAddress.valueOf((long) 0xa42305 << 24 | dst);
-        // TODO: encapsulate the values in the vlan too
-        this.vlan = 0;
+        this.route = route;
+        if (!OVXLinkUtils.usesFlowId()) {
+            this.vlan = OVXLinkCodec.encodeVlan(tenantId, linkId);
+            return;
+        }
+        this.macs = true;
+        this.srcMac = OVXLinkCodec.encodeSrcMac(tenantId, linkId, flowId,
+                route);
+        this.dstMac = OVXLinkCodec.encodeDstMac(tenantId, linkId, flowId);
     }
 
     /**
      * Checks if the link utils instance is valid. To be valid, the instance has
-     * to have tenantId, linkId and flowId set. Moreover, both MAC addresses or
-     * the VLAN field has to be set too.
+     * to have tenantId and linkId set. Moreover, either the VLAN field, or
+     * the flowId and both MAC addresses have to be set too.
      *
      * @return true if valid, false otherwise
      */
     public boolean isValid() {
-        if (this.tenantId != 0 && this.linkId != 0 && this.flowId != 0) {
-            if (this.vlan != 0 || this.srcMac != null && this.dstMac != null) {
+        if (this.tenantId != 0 && this.linkId != 0) {
+            if (this.vlan != 0) {
                 return true;
             }
+            return this.flowId != 0 && this.macs;
         }
         return false;
     }
 
+    /**
+     * Checks if packets crossing virtual links carry a flow id, i.e. if the
+     * host MAC addresses have to be stored in the flow manager of the
+     * virtual network and restored at the egress edge. This is not needed if
+     * links are encoded in the VLAN field.
+     *
+     * @return true if links are encoded in the MAC addresses
+     */
+    public static boolean usesFlowId() {
+        return OVXLinkCodec.getLinkField() == OVXLinkField.MAC_ADDRESS;
+    }
+
+    /**
+     * Checks if a tenant match would clash with virtual links encoded in the
+     * VLAN field, i.e. if it matches on a VLAN id other than untagged, or on
+     * a VLAN priority.
+     *
+     * @param match
+     *            the match of the tenant
+     * @return true if links are encoded in the VLAN field and the match
+     *         depends on the tag
+     */
+    public static boolean matchesVlan(final OFMatch match) {
+        if (OVXLinkUtils.usesFlowId()) {
+            return false;
+        }
+        return !match.getWildcardObj().isWildcarded(Flag.DL_VLAN_PCP)
+                || !match.getWildcardObj().isWildcarded(Flag.DL_VLAN)
+                && match.getDataLayerVirtualLan() != Ethernet.VLAN_UNTAGGED;
+    }
+
+    /**
+     * Restricts the match of an ingress edge entry to untagged packets if
+     * its actions push a virtual link tag, so the VLAN of a tagged tenant
+     * packet is never overwritten.
+     *
+     * @param match
+     *            the match of the entry
+     * @param actions
+     *            the physical actions of the entry
+     */
+    public static void matchUntagged(final OFMatch match,
+            final List<OFAction> actions) {
+        if (OVXLinkUtils.usesFlowId()) {
+            return;
+        }
+        for (OFAction act : actions) {
+            if (act instanceof OFActionVirtualLanIdentifier) {
+                match.setDataLayerVirtualLan(Ethernet.VLAN_UNTAGGED);
+                match.setWildcards(match.getWildcards()
+                        & ~OFMatch.OFPFW_DL_VLAN);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if link aggregation is enabled.
+     *
+     * @return true if links and routes are aggregated
+     */
+    public static boolean isAggregated() {
+        return OVXLinkCodec.isAggregated();
+    }
+
+    /**
+     * Checks if the instance identifies a big switch route rather than a
+     * link.
+     *
+     * @return true if route
+     */
+    public boolean isRoute() {
+        return this.route;
+    }
+
     /**
      * Gets the tenant id.
      *
@@ -189,7 +307,7 @@ public class OVXLinkUtils {
      * @return the source MAC
      */
     public MACAddress getSrcMac() {
-        return this.srcMac;
+        return this.macs ? MACAddress.valueOf(this.srcMac) : null;
     }
 
     /**
@@ -198,7 +316,7 @@ public class OVXLinkUtils {
      * @return the destination MAC
      */
     public MACAddress getDstMac() {
-        return this.dstMac;
+        return this.macs ? MACAddress.valueOf(this.dstMac) : null;
     }
 
     /**
@@ -232,9 +350,11 @@ public class OVXLinkUtils {
      */
     @Override
     public String toString() {
-        return "tenantId = " + this.tenantId + ", linkId = " + this.linkId
-                + ", flowId = " + this.flowId + ", srcMac = " + this.srcMac
-                + ", dstMac = " + this.dstMac + ", vlan = " + this.vlan;
+        return "tenantId = " + this.tenantId + ", "
+                + (this.route ? "routeId" : "linkId") + " = " + this.linkId
+                + ", flowId = " + this.flowId + ", srcMac = "
+                + this.getSrcMac() + ", dstMac = " + this.getDstMac()
+                + ", vlan = " + this.vlan;
     }
 
     /**
@@ -244,44 +364,64 @@ public class OVXLinkUtils {
      *            the OpenFlow match
      */
     public void rewriteMatch(final OFMatch match) {
-        final OVXLinkField linkField = OpenVirteXController.getInstance()
-                .getOvxLinkField();
+        final OVXLinkField linkField = OVXLinkCodec.getLinkField();
         if (linkField == OVXLinkField.MAC_ADDRESS) {
-            match.setDataLayerSource(this.getSrcMac().toBytes());
-            match.setDataLayerDestination(this.getDstMac().toBytes());
+            match.setDataLayerSource(OVXLinkCodec.toBytes(this.srcMac,
+                    new byte[MACAddress.MAC_ADDRESS_LENGTH]));
+            match.setDataLayerDestination(OVXLinkCodec.toBytes(this.dstMac,
+                    new byte[MACAddress.MAC_ADDRESS_LENGTH]));
         } else if (linkField == OVXLinkField.VLAN) {
-            match.setDataLayerVirtualLan(this.getVlan());
+            match.setDataLayerVirtualLan(this.vlan);
+            match.setWildcards(match.getWildcards() & ~OFMatch.OFPFW_DL_VLAN);
         }
     }
 
     /**
-     * Gets a list of actions based on the current instance.
+     * Rewrites the given match of a transit entry. If link aggregation is
+     * enabled, the match is reduced to the input port and the source MAC
+     * address, so the entry is shared by all flows crossing the link or
+     * route; otherwise the match is rewritten as in rewriteMatch.
+     *
+     * @param match
+     *            the OpenFlow match
+     */
+    public void rewriteTransitMatch(final OFMatch match) {
+        this.rewriteMatch(match);
+        if (OVXLinkUtils.isAggregated()) {
+            match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+                    & ~OFMatch.OFPFW_DL_SRC);
+        }
+    }
+
+    /**
+     * Gets a list of actions based on the current instance. Setting the VLAN
+     * id pushes a tag on untagged packets.
      *
      * @return list of actions
      */
     public List<OFAction> setLinkFields() {
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance()
-                .getOvxLinkField();
+        final OVXLinkField linkField = OVXLinkCodec.getLinkField();
         if (linkField == OVXLinkField.MAC_ADDRESS) {
-            actions.add(new OFActionDataLayerSource(this.getSrcMac().toBytes()));
-            actions.add(new OFActionDataLayerDestination(this.getDstMac()
-                    .toBytes()));
+            actions.add(new OFActionDataLayerSource(OVXLinkCodec.toBytes(
+                    this.srcMac, new byte[MACAddress.MAC_ADDRESS_LENGTH])));
+            actions.add(new OFActionDataLayerDestination(OVXLinkCodec.toBytes(
+                    this.dstMac, new byte[MACAddress.MAC_ADDRESS_LENGTH])));
         } else if (linkField == OVXLinkField.VLAN) {
-            actions.add(new OFActionVirtualLanIdentifier(this.getVlan()));
+            actions.add(new OFActionVirtualLanIdentifier(this.vlan));
         }
         return actions;
     }
 
     /**
-     * Gets a list of actions based on the original MAC addresses.
+     * Gets a list of actions based on the original MAC addresses, or
+     * stripping the VLAN tag if links are encoded in the VLAN field.
      *
      * @return list of actions
      */
     public List<OFAction> unsetLinkFields() {
         final List<OFAction> actions = new LinkedList<OFAction>();
-        final OVXLinkField linkField = OpenVirteXController.getInstance()
-                .getOvxLinkField();
+        final OVXLinkField linkField = OVXLinkCodec.getLinkField();
         if (linkField == OVXLinkField.MAC_ADDRESS) {
             LinkedList<MACAddress> macList;
             try {
@@ -293,13 +433,8 @@ public class OVXLinkUtils {
             } catch (NetworkMappingException e) {
                 OVXLinkUtils.log.error("Unable to restore actions: " + e);
             }
-        } else {
-            if (linkField == OVXLinkField.VLAN) {
-                OVXLinkUtils.log
-                        .warn("Unable to restore actions, VLANs not supported");
-                // actions.add(new
-                // OFActionVirtualLanIdentifier(getOriginalVlan()));
-            }
+        } else if (linkField == OVXLinkField.VLAN) {
+            actions.add(new OFActionStripVirtualLan());
         }
         return actions;
     }
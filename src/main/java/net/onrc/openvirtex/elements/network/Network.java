@@ -36,7 +36,11 @@ import com.google.gson.annotations.SerializedName;
 /**
  *
  * Abstract parent class for networks, maintains data structures for the
- * topology graph.
+ * topology graph. The structures are only changed while holding the
+ * network's monitor, and every change publishes them as a new immutable
+ * {@link Topology} version. The query methods read the current version
+ * without locking; readers that need a consistent view across several
+ * queries use {@link #getTopology()}.
  *
  * @param <T1> generic Switch type
  * @param <T2> generic Port type
@@ -46,16 +50,22 @@ import com.google.gson.annotations.SerializedName;
 public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Link>
         implements LLDPEventHandler, OVXSendMsg {
 
-    @SerializedName("switches")
-    @Expose
+    // Working copies of the topology, guarded by the network's monitor
     protected final Set<T1> switchSet;
-    @SerializedName("links")
-    @Expose
     protected final Set<T3> linkSet;
     protected final Map<Long, T1> dpidMap;
     protected final Map<T2, T2> neighborPortMap;
     protected final Map<T1, HashSet<T1>> neighborMap;
 
+    private volatile Topology<T1, T2, T3> topology = new Topology<T1, T2, T3>();
+    // The sets of the current version, for serialization
+    @SerializedName("switches")
+    @Expose
+    private volatile Set<T1> switches = this.topology.getSwitches();
+    @SerializedName("links")
+    @Expose
+    private volatile Set<T3> links = this.topology.getLinks();
+
     /**
      * Instantiates the network.
      */
@@ -75,7 +85,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @param link the link
      */
     @SuppressWarnings("unchecked")
-    protected void addLink(final T3 link) {
+    protected synchronized void addLink(final T3 link) {
         // Actual link creation is in child classes, because creation of generic
         // types sucks
         this.linkSet.add(link);
@@ -89,6 +99,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         neighbours.add(dstSwitch);
         this.neighborPortMap
                 .put((T2) link.getSrcPort(), (T2) link.getDstPort());
+        this.commitLinks();
     }
 
     /**
@@ -98,7 +109,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return true if successful, false otherwise
      */
     @SuppressWarnings("unchecked")
-    protected boolean removeLink(final T3 link) {
+    protected synchronized boolean removeLink(final T3 link) {
         this.linkSet.remove(link);
         final T1 srcSwitch = (T1) link.getSrcSwitch();
         final T1 dstSwitch = (T1) link.getDstSwitch();
@@ -109,6 +120,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
         neighbours.remove(dstSwitch);
         this.neighborPortMap.remove(link.getSrcPort());
+        this.commitLinks();
         return true;
     }
 
@@ -117,10 +129,11 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      *
      * @param sw the switch
      */
-    protected void addSwitch(final T1 sw) {
+    protected synchronized void addSwitch(final T1 sw) {
         if (this.switchSet.add(sw)) {
             this.dpidMap.put(sw.getSwitchId(), sw);
             this.neighborMap.put(sw, new HashSet<T1>());
+            this.commitSwitches();
         }
     }
 
@@ -130,15 +143,36 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @param sw the switch
      * @return true if successful, false otherwise
      */
-    protected boolean removeSwitch(final T1 sw) {
+    protected synchronized boolean removeSwitch(final T1 sw) {
         if (this.switchSet.remove(sw)) {
             this.neighborMap.remove(sw);
             this.dpidMap.remove(((Switch) sw).getSwitchId());
+            this.commitSwitches();
             return true;
         }
         return false;
     }
 
+    /**
+     * Publishes the switches of the working copies as the next version of
+     * the topology. The caller holds the network's monitor.
+     */
+    protected void commitSwitches() {
+        this.topology = this.topology.withSwitches(this.switchSet,
+                this.dpidMap, this.neighborMap);
+        this.switches = this.topology.getSwitches();
+    }
+
+    /**
+     * Publishes the links of the working copies as the next version of the
+     * topology. The caller holds the network's monitor.
+     */
+    protected void commitLinks() {
+        this.topology = this.topology.withLinks(this.linkSet,
+                this.neighborPortMap, this.neighborMap);
+        this.links = this.topology.getLinks();
+    }
+
     // Public methods to query topology information
 
     /**
@@ -148,7 +182,8 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return Unmodifiable set of switch instances.
      */
     public Set<T1> getNeighbors(final T1 sw) {
-        return Collections.unmodifiableSet(this.neighborMap.get(sw));
+        final Set<T1> neighbors = this.topology.getNeighbors(sw);
+        return neighbors == null ? Collections.<T1>emptySet() : neighbors;
     }
 
     /**
@@ -158,7 +193,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return the neighbour port
      */
     public T2 getNeighborPort(final T2 port) {
-        return this.neighborPortMap.get(port);
+        return this.topology.getNeighborPort(port);
     }
 
     /**
@@ -169,7 +204,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      */
     public T1 getSwitch(final Long dpid) throws InvalidDPIDException {
         try {
-            return this.dpidMap.get(dpid);
+            return this.topology.getSwitch(dpid);
         } catch (ClassCastException | NullPointerException ex) {
             throw new InvalidDPIDException("DPID "
                     + HexString.toHexString(dpid) + " is unknown ");
@@ -182,7 +217,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return set of switches
      */
     public Set<T1> getSwitches() {
-        return Collections.unmodifiableSet(this.switchSet);
+        return this.topology.getSwitches();
     }
 
     /**
@@ -191,7 +226,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return set of links
      */
     public Set<T3> getLinks() {
-        return Collections.unmodifiableSet(this.linkSet);
+        return this.topology.getLinks();
     }
 
     /**
@@ -202,14 +237,17 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
      * @return the link instance, null if it doesn't exist
      */
     public T3 getLink(final T2 srcPort, final T2 dstPort) {
-        // TODO: optimize this because we iterate over all links
-        for (final T3 link : this.linkSet) {
-            if (link.getSrcPort().equals(srcPort)
-                    && link.getDstPort().equals(dstPort)) {
-                return link;
-            }
-        }
-        return null;
+        return this.topology.getLink(srcPort, dstPort);
+    }
+
+    /**
+     * Gets the current version of the topology, which does not change while
+     * it is used.
+     *
+     * @return the topology
+     */
+    public Topology<T1, T2, T3> getTopology() {
+        return this.topology;
     }
 
     /**
@@ -24,10 +24,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.core.io.TenantScheduler;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.Persistable;
@@ -39,9 +41,12 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.Switch;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.DuplicateIndexException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.PortMappingException;
@@ -54,6 +59,7 @@ import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 import net.onrc.openvirtex.util.MACAddress;
 import net.onrc.openvirtex.util.OVXFlowManager;
+import net.onrc.openvirtex.util.OVXHopRuleManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -88,6 +94,9 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     private final BitSetIndex hostCounter;
     private final Map<OVXPort, Host> hostMap;
     private final OVXFlowManager flowManager;
+    private final OVXHopRuleManager hopRuleManager;
+    // Physical cookies are unique across the switches of the network
+    private final AtomicInteger cookieCounter;
 
     /**
      * Instantiates a virtual network. Only use if you have reserved the tenantId
@@ -102,7 +111,38 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     public OVXNetwork(final int tenantId,
             final ArrayList<String> controllerUrls, final IPAddress network,
             final short mask) throws IndexOutOfBoundException {
+        this(tenantId, controllerUrls, network, mask, OVXLinkBudget
+                .getDefaultLinkBits(), OVXLinkBudget.getDefaultFlowBits(),
+                null);
+    }
+
+    /**
+     * Instantiates a virtual network with its own label budget. Only use if
+     * you have reserved the tenantId beforehand! The tenantId is left
+     * reserved if no label block can be allocated; releasing it is up to the
+     * caller.
+     *
+     * @param tenantId the unique tenant ID
+     * @param controllerUrls the list of controller URLs
+     * @param network the virtual network address space
+     * @param mask the virtual network address space mask
+     * @param linkBits the number of bits of link IDs
+     * @param flowBits the number of bits of flow IDs
+     * @param labelBase the first label of a previously allocated block, or
+     *        null to allocate a new one
+     * @throws IndexOutOfBoundException
+     */
+    public OVXNetwork(final int tenantId,
+            final ArrayList<String> controllerUrls, final IPAddress network,
+            final short mask, final int linkBits, final int flowBits,
+            final Long labelBase) throws IndexOutOfBoundException {
         super();
+        if (labelBase == null) {
+            OVXLinkBudget.getInstance().allocate(tenantId, linkBits, flowBits);
+        } else {
+            OVXLinkBudget.getInstance().restore(tenantId, labelBase, linkBits,
+                    flowBits);
+        }
         this.tenantId = tenantId;
         this.controllerUrls = new HashSet<String>();
         this.controllerUrls.addAll(controllerUrls);
@@ -110,12 +150,15 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         this.mask = mask;
         this.isBooted = false;
         this.dpidCounter = new BitSetIndex(IndexType.SWITCH_ID);
-        this.linkCounter = new BitSetIndex(IndexType.LINK_ID);
+        this.linkCounter = new BitSetIndex(IndexType.LINK_ID, OVXLinkBudget
+                .getInstance().getLinkIdLimit(tenantId));
         this.ipCounter = new BitSetIndex(IndexType.IP_ID);
         this.hostCounter = new BitSetIndex(IndexType.HOST_ID);
         this.hostMap = new HashMap<OVXPort, Host>();
         this.flowManager = new OVXFlowManager(this.tenantId,
                 this.hostMap.values());
+        this.hopRuleManager = new OVXHopRuleManager(this.tenantId);
+        this.cookieCounter = new AtomicInteger(1);
     }
 
     /**
@@ -172,6 +215,45 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         OpenVirteXController.getTenantCounter().getNewIndex(tenantId);
     }
 
+    /**
+     * Reserves the IDs of virtual switches, links and hosts restored from
+     * storage in bulk, so they are not handed out again. Only switch DPIDs
+     * generated by OVX are reserved.
+     *
+     * @param switchIds the virtual switch DPIDs
+     * @param linkIds the link IDs
+     * @param hostIds the host IDs
+     * @throws IndexOutOfBoundException if any ID is out of range
+     */
+    public void reserveIds(final Collection<Long> switchIds,
+            final Collection<Integer> linkIds, final Collection<Integer> hostIds)
+            throws IndexOutOfBoundException {
+        final List<Long> dpids = new ArrayList<Long>();
+        for (final long switchId : switchIds) {
+            if (switchId >>> 32 == 0xa42305) {
+                dpids.add(switchId & 0xFFFFFFFFL);
+            }
+        }
+        this.dpidCounter.reserveIndices(dpids);
+        this.linkCounter.reserveIndices(linkIds);
+        this.hostCounter.reserveIndices(hostIds);
+    }
+
+    /**
+     * Gets the occupancy of the ID spaces of the virtual network.
+     *
+     * @return map of ID space to its usage
+     */
+    public Map<String, Object> getIdUsage() {
+        final Map<String, Object> usage = new HashMap<String, Object>();
+        usage.put("switchId", this.dpidCounter.getUsage());
+        usage.put("linkId", this.linkCounter.getUsage());
+        usage.put("hostId", this.hostCounter.getUsage());
+        usage.put("ipId", this.ipCounter.getUsage());
+        usage.put("flowId", this.flowManager.getFlowCounter().getUsage());
+        return usage;
+    }
+
     /**
      * Gets the current value of the link ID.
      *
@@ -198,9 +280,41 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         return flowManager;
     }
 
+    public OVXHopRuleManager getHopRuleManager() {
+        return hopRuleManager;
+    }
+
+    /**
+     * Generates a new physical cookie for a FlowMod of one of the virtual
+     * switches of this network. Cookies are unique across the switches, so
+     * that they identify the edge flow of a switch network-wide, e.g. for
+     * the hop entries installed on its behalf.
+     *
+     * @return a physical cookie
+     */
+    public long generateCookie() {
+        return (long) this.tenantId << 32
+                | this.cookieCounter.getAndIncrement() & 0xFFFFFFFFL;
+    }
+
     public void register() {
         OVXMap.getInstance().addNetwork(this);
         DBManager.getInstance().createDoc(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, EventLog.NETWORKS,
+                this);
+    }
+
+    /**
+     * Sets the weight with which the control messages of this network are
+     * scheduled, and persists it.
+     *
+     * @param weight the weight, must be positive
+     */
+    public void setWeight(final int weight) {
+        TenantScheduler.getInstance().setWeight(this.tenantId, weight);
+        DBManager.getInstance().update(this,
+                Collections.<String, Object>singletonMap(TenantHandler.WEIGHT,
+                        weight));
     }
 
     public boolean isBooted() {
@@ -224,18 +338,20 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         return null;
     }
 
+    /**
+     * Removes this virtual network, see {@link TenantTeardown}.
+     */
     public void unregister() {
-        DBManager.getInstance().removeDoc(this);
-        final LinkedList<Long> dpids = new LinkedList<>();
-        for (final OVXSwitch virtualSwitch : this.getSwitches()) {
-            dpids.add(virtualSwitch.getSwitchId());
-        }
-        for (final Long dpid : dpids) {
-            this.getSwitch(dpid).unregister();
-        }
-        // remove the network from the Map
-        OVXMap.getInstance().removeVirtualIPs(this.tenantId);
-        OVXMap.getInstance().removeNetwork(this);
+        new TenantTeardown(this).run();
+    }
+
+    /**
+     * Releases the tenant ID and the resources held for this network, once
+     * it is torn down.
+     */
+    void release() {
+        TenantScheduler.getInstance().removeTenant(this.tenantId);
+        OVXLinkBudget.getInstance().release(this.tenantId);
         OpenVirteXController.getTenantCounter().releaseIndex(this.tenantId);
     }
 
@@ -296,7 +412,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     public OVXSwitch createSwitch(final List<Long> dpids)
             throws IndexOutOfBoundException {
         final long switchId = (long) 0xa42305 << 32
-                | this.dpidCounter.getNewIndex();
+                | this.dpidCounter.getNewLongIndex();
         return this.createSwitch(dpids, switchId);
     }
 
@@ -544,7 +660,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     }
 
     public synchronized void removeSwitch(final long ovxDpid) {
-        this.dpidCounter.releaseIndex((int) (0x000000 << 32 | ovxDpid));
+        this.dpidCounter.releaseIndex(ovxDpid & 0xFFFFFFFFL);
         OVXSwitch sw = this.getSwitch(ovxDpid);
         sw.unregister();
     }
@@ -723,21 +839,34 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         dbObject.put(TenantHandler.NETADD, this.network.getIp());
         dbObject.put(TenantHandler.NETMASK, this.mask);
         dbObject.put(TenantHandler.IS_BOOTED, this.isBooted);
+        dbObject.put(TenantHandler.WEIGHT, TenantScheduler.getInstance()
+                .getWeight(this.tenantId));
+        final OVXLinkBudget.Block block = OVXLinkBudget.getInstance()
+                .getBlock(this.tenantId);
+        if (block != null) {
+            dbObject.put(TenantHandler.LINK_BITS, block.getLinkBits());
+            dbObject.put(TenantHandler.FLOW_BITS, block.getFlowBits());
+            dbObject.put(TenantHandler.LABEL_BASE, block.getStart());
+        }
         return dbObject;
     }
 
     public Set<OVXLink> getLinkSet() {
-        return Collections.unmodifiableSet(this.linkSet);
+        return this.getLinks();
     }
 
     @Override
-    public boolean removeLink(final OVXLink virtualLink) {
-        return this.linkSet.remove(virtualLink);
+    public synchronized boolean removeLink(final OVXLink virtualLink) {
+        final boolean removed = this.linkSet.remove(virtualLink);
+        this.commitLinks();
+        return removed;
     }
 
     @Override
-    public boolean removeSwitch(final OVXSwitch ovxSwitch) {
-        return this.switchSet.remove(ovxSwitch);
+    public synchronized boolean removeSwitch(final OVXSwitch ovxSwitch) {
+        final boolean removed = this.switchSet.remove(ovxSwitch);
+        this.commitSwitches();
+        return removed;
     }
 
     public void removeHost(final Host host) {
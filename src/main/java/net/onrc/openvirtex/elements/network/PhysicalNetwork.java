@@ -16,8 +16,11 @@
 package net.onrc.openvirtex.elements.network;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.db.DBManager;
@@ -26,8 +29,12 @@ import net.onrc.openvirtex.elements.datapath.DPIDandPort;
 import net.onrc.openvirtex.elements.datapath.DPIDandPortPair;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.link.Link;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.elements.port.Port;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.linkdiscovery.SwitchDiscoveryManager;
 
 import org.apache.logging.log4j.LogManager;
@@ -100,6 +107,8 @@ public final class PhysicalNetwork extends
         this.discoveryManager.put(sw.getSwitchId(), new SwitchDiscoveryManager(
                 sw, OpenVirteXController.getInstance().getUseBDDP()));
         DBManager.getInstance().addSwitch(sw.getSwitchId());
+        EventLog.getInstance().publish(Event.Type.ADDED, Switch.DB_KEY, null,
+                PhysicalNetwork.toMap(sw));
     }
 
     /**
@@ -109,6 +118,8 @@ public final class PhysicalNetwork extends
      */
     public boolean removeSwitch(final PhysicalSwitch sw) {
         DBManager.getInstance().delSwitch(sw.getSwitchId());
+        EventLog.getInstance().publish(Event.Type.REMOVED, Switch.DB_KEY,
+                null, PhysicalNetwork.toMap(sw));
         SwitchDiscoveryManager sdm = this.discoveryManager
                 .get(sw.getSwitchId());
         for (PhysicalPort port : sw.getPorts().values()) {
@@ -135,6 +146,7 @@ public final class PhysicalNetwork extends
             }
         }
         DBManager.getInstance().addPort(port.toDPIDandPort());
+        EventLog.getInstance().publish(Event.Type.ADDED, Port.DB_KEY, port);
     }
 
     /**
@@ -146,6 +158,7 @@ public final class PhysicalNetwork extends
     public synchronized void removePort(SwitchDiscoveryManager sdm,
             final PhysicalPort port) {
         DBManager.getInstance().delPort(port.toDPIDandPort());
+        EventLog.getInstance().publish(Event.Type.REMOVED, Port.DB_KEY, port);
         port.unregister();
         /* remove from topology discovery */
         if (sdm != null) {
@@ -153,7 +166,7 @@ public final class PhysicalNetwork extends
             sdm.removePort(port);
         }
         /* remove from this network's mappings */
-        PhysicalPort dst = this.neighborPortMap.get(port);
+        PhysicalPort dst = this.getNeighborPort(port);
         if (dst != null) {
             this.removeLink(port, dst);
         }
@@ -181,6 +194,7 @@ public final class PhysicalNetwork extends
                     new DPIDandPort(dstPort.getParentSwitch().getSwitchId(),
                             dstPort.getPortNumber()));
             DBManager.getInstance().addLink(dpp);
+            EventLog.getInstance().publish(Event.Type.ADDED, Link.DB_KEY, link);
         } else {
             log.debug("Tried to create invalid link");
         }
@@ -202,6 +216,8 @@ public final class PhysicalNetwork extends
                     new DPIDandPort(dstPort.getParentSwitch().getSwitchId(),
                             dstPort.getPortNumber()));
             DBManager.getInstance().delLink(dpp);
+            EventLog.getInstance().publish(Event.Type.REMOVED, Link.DB_KEY,
+                    link);
             super.removeLink(link);
             log.info("Removing physical link between {}/{} and {}/{}", link
                     .getSrcSwitch().getSwitchName(), link.getSrcPort()
@@ -270,4 +286,10 @@ public final class PhysicalNetwork extends
         return this.discoveryManager.get(dpid);
     }
 
+    private static Map<String, Object> toMap(final PhysicalSwitch sw) {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put(TenantHandler.DPID, sw.getSwitchId());
+        return map;
+    }
+
 }
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.network;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.db.DBManager;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Removes a virtual network in bulk. The network is not dismantled element
+ * by element. Instead, the teardown goes through these stages:
+ * <ol>
+ * <li>SWITCHES: stops the virtual switches and detaches their ports from
+ * the physical ports;</li>
+ * <li>FLOWS: deletes the flows of the tenant, i.e. the entries carrying its
+ * cookies, from every physical switch that holds some, with the switches
+ * handled in parallel;</li>
+ * <li>MAP: drops the partition of the tenant from the {@link OVXMap};</li>
+ * <li>STORAGE: deletes the stored network with a single request;</li>
+ * <li>DONE: the tenant ID and its resources are released.</li>
+ * </ol>
+ * The progress of a teardown, running or finished, can be queried by
+ * tenant ID.
+ */
+public final class TenantTeardown {
+
+    private static Logger log = LogManager.getLogger(TenantTeardown.class
+            .getName());
+
+    /**
+     * Stages of a teardown, in the order they run.
+     */
+    public enum Stage {
+        PENDING, SWITCHES, FLOWS, MAP, STORAGE, DONE
+    }
+
+    // Last teardown of each tenant
+    private static final Map<Integer, TenantTeardown> TEARDOWNS =
+            new ConcurrentHashMap<Integer, TenantTeardown>();
+    private static ExecutorService executor = null;
+
+    private final OVXNetwork network;
+    private final int tenantId;
+    private volatile Stage stage;
+    private volatile int switchesTotal;
+    private final AtomicInteger switchesDone;
+    private final AtomicLong flowsDeleted;
+    private volatile long started;
+    private volatile long finished;
+
+    /**
+     * Creates the teardown of the given virtual network.
+     *
+     * @param network the virtual network
+     */
+    public TenantTeardown(final OVXNetwork network) {
+        this.network = network;
+        this.tenantId = network.getTenantId();
+        this.stage = Stage.PENDING;
+        this.switchesDone = new AtomicInteger();
+        this.flowsDeleted = new AtomicLong();
+    }
+
+    /**
+     * Gets the last teardown of the given tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the teardown, or null if the tenant was never removed
+     */
+    public static TenantTeardown getTeardown(final int tenantId) {
+        return TenantTeardown.TEARDOWNS.get(tenantId);
+    }
+
+    /**
+     * Gets the executor physical switches are cleaned up on.
+     *
+     * @return the executor
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (TenantTeardown.executor == null) {
+            final int nThreads = Math.max(2, Runtime.getRuntime()
+                    .availableProcessors());
+            TenantTeardown.executor = Executors.newFixedThreadPool(nThreads,
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "TenantTeardown-"
+                                    + this.count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return TenantTeardown.executor;
+    }
+
+    /**
+     * Runs the teardown on the calling thread, and returns once the
+     * virtual network is gone.
+     */
+    public void run() {
+        TenantTeardown.TEARDOWNS.put(this.tenantId, this);
+        this.started = System.currentTimeMillis();
+
+        this.enter(Stage.SWITCHES);
+        this.network.getHopRuleManager().forget();
+        for (final OVXSwitch sw : this.network.getSwitches()) {
+            sw.discard();
+        }
+
+        this.enter(Stage.FLOWS);
+        this.deleteFlows();
+
+        this.enter(Stage.MAP);
+        OVXMap.getInstance().removeNetwork(this.network);
+
+        this.enter(Stage.STORAGE);
+        DBManager.getInstance().removeTenant(this.tenantId);
+        EventLog.getInstance().publish(Event.Type.REMOVED, EventLog.NETWORKS,
+                this.network);
+
+        this.network.release();
+        this.finished = System.currentTimeMillis();
+        this.enter(Stage.DONE);
+        log.info("Removed virtual network {} in {} ms: {} flows on {} switches",
+                this.tenantId, this.finished - this.started,
+                this.flowsDeleted.get(), this.switchesTotal);
+    }
+
+    /**
+     * Deletes the flows of the tenant from the physical switches that hold
+     * some, one task per switch.
+     */
+    private void deleteFlows() {
+        final List<Future<Integer>> tasks = new LinkedList<Future<Integer>>();
+        for (final PhysicalSwitch psw : PhysicalNetwork.getInstance()
+                .getSwitches()) {
+            psw.getStatisticsManager().getTenantPortCounters()
+                    .removeTenant(this.tenantId);
+            if (!psw.getFlowTable().getTenants().contains(this.tenantId)) {
+                continue;
+            }
+            tasks.add(TenantTeardown.getExecutor().submit(
+                    new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            final int n = psw.cleanUpTenant(
+                                    TenantTeardown.this.tenantId, (short) 0);
+                            TenantTeardown.this.flowsDeleted.addAndGet(n);
+                            TenantTeardown.this.switchesDone.incrementAndGet();
+                            return n;
+                        }
+                    }));
+        }
+        this.switchesTotal = tasks.size();
+        for (final Future<Integer> task : tasks) {
+            try {
+                task.get();
+            } catch (final ExecutionException e) {
+                log.error("Failed to delete flows of virtual network {}: {}",
+                        this.tenantId, e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while deleting flows of virtual network {}",
+                        this.tenantId);
+                return;
+            }
+        }
+    }
+
+    private void enter(final Stage next) {
+        this.stage = next;
+        log.debug("Removing virtual network {}: {}", this.tenantId, next);
+    }
+
+    public Stage getStage() {
+        return this.stage;
+    }
+
+    /**
+     * Gets the progress of this teardown, to be reported to operators.
+     *
+     * @return map of the stage, switches cleaned up, flows deleted and the
+     *         time spent so far
+     */
+    public Map<String, Object> getProgress() {
+        final Map<String, Object> progress = new HashMap<String, Object>();
+        progress.put("tenantId", this.tenantId);
+        progress.put("stage", this.stage.name());
+        progress.put("switchesDone", this.switchesDone.get());
+        progress.put("switchesTotal", this.switchesTotal);
+        progress.put("flowsDeleted", this.flowsDeleted.get());
+        final long end = this.finished == 0 ? System.currentTimeMillis()
+                : this.finished;
+        progress.put("elapsed", this.started == 0 ? 0 : end - this.started);
+        return progress;
+    }
+
+}
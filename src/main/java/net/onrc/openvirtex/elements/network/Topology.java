@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.network;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.link.Link;
+import net.onrc.openvirtex.elements.port.Port;
+
+/**
+ * An immutable version of the topology graph of a network. Every change to
+ * the network publishes a new version with the next version number, and
+ * readers use the version they got without locking. Collections that a
+ * change leaves alone are shared with the previous version.
+ *
+ * @param <T1> generic Switch type
+ * @param <T2> generic Port type
+ * @param <T3> Generic Link type
+ */
+@SuppressWarnings("rawtypes")
+public final class Topology<T1 extends Switch, T2 extends Port, T3 extends Link> {
+
+    private final long version;
+    private final Set<T1> switches;
+    private final Set<T3> links;
+    private final Map<Long, T1> dpidMap;
+    private final Map<T2, T2> neighborPortMap;
+    private final Map<T1, Set<T1>> neighborMap;
+    // Links by source port, for lookups without scanning all links
+    private final Map<T2, T3> linkMap;
+
+    /**
+     * Creates the first, empty version.
+     */
+    Topology() {
+        this(0, Collections.<T1>emptySet(), Collections.<T3>emptySet(),
+                Collections.<Long, T1>emptyMap(), Collections
+                        .<T2, T2>emptyMap(), Collections
+                        .<T1, Set<T1>>emptyMap(), Collections
+                        .<T2, T3>emptyMap());
+    }
+
+    private Topology(final long version, final Set<T1> switches,
+            final Set<T3> links, final Map<Long, T1> dpidMap,
+            final Map<T2, T2> neighborPortMap,
+            final Map<T1, Set<T1>> neighborMap, final Map<T2, T3> linkMap) {
+        this.version = version;
+        this.switches = switches;
+        this.links = links;
+        this.dpidMap = dpidMap;
+        this.neighborPortMap = neighborPortMap;
+        this.neighborMap = neighborMap;
+        this.linkMap = linkMap;
+    }
+
+    /**
+     * Creates the next version from the switches of a network.
+     *
+     * @param switchSet the switches
+     * @param dpidMap the switches by datapath ID
+     * @param neighborMap the neighbors of the switches
+     * @return the next version
+     */
+    Topology<T1, T2, T3> withSwitches(final Set<T1> switchSet,
+            final Map<Long, T1> dpidMap,
+            final Map<T1, ? extends Set<T1>> neighborMap) {
+        return new Topology<T1, T2, T3>(this.version + 1,
+                Topology.copy(switchSet), this.links,
+                Collections.unmodifiableMap(new HashMap<Long, T1>(dpidMap)),
+                this.neighborPortMap, Topology.copy(neighborMap),
+                this.linkMap);
+    }
+
+    /**
+     * Creates the next version from the links of a network.
+     *
+     * @param linkSet the links
+     * @param neighborPortMap the neighbor of each port
+     * @param neighborMap the neighbors of the switches
+     * @return the next version
+     */
+    @SuppressWarnings("unchecked")
+    Topology<T1, T2, T3> withLinks(final Set<T3> linkSet,
+            final Map<T2, T2> neighborPortMap,
+            final Map<T1, ? extends Set<T1>> neighborMap) {
+        final Map<T2, T3> byPort = new HashMap<T2, T3>();
+        for (final T3 link : linkSet) {
+            byPort.put((T2) link.getSrcPort(), link);
+        }
+        return new Topology<T1, T2, T3>(this.version + 1, this.switches,
+                Topology.copy(linkSet), this.dpidMap,
+                Collections.unmodifiableMap(new HashMap<T2, T2>(
+                        neighborPortMap)), Topology.copy(neighborMap),
+                Collections.unmodifiableMap(byPort));
+    }
+
+    private static <T> Set<T> copy(final Set<T> set) {
+        return Collections.unmodifiableSet(new HashSet<T>(set));
+    }
+
+    private static <T> Map<T, Set<T>> copy(
+            final Map<T, ? extends Set<T>> map) {
+        final Map<T, Set<T>> res = new HashMap<T, Set<T>>();
+        for (final Map.Entry<T, ? extends Set<T>> entry : map.entrySet()) {
+            res.put(entry.getKey(), Topology.copy(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * Gets the version number, which increases with every change.
+     *
+     * @return the version number
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the unmodifiable set of switches.
+     *
+     * @return set of switches
+     */
+    public Set<T1> getSwitches() {
+        return this.switches;
+    }
+
+    /**
+     * Returns the unmodifiable set of links.
+     *
+     * @return set of links
+     */
+    public Set<T3> getLinks() {
+        return this.links;
+    }
+
+    /**
+     * Returns switch instance based on its dpid.
+     *
+     * @param dpid the datapath ID
+     * @return the switch instance, null if it doesn't exist
+     */
+    public T1 getSwitch(final Long dpid) {
+        return this.dpidMap.get(dpid);
+    }
+
+    /**
+     * Returns neighbor switches of given switch.
+     *
+     * @param sw the switch
+     * @return unmodifiable set of switch instances, null if the switch
+     *         doesn't exist
+     */
+    public Set<T1> getNeighbors(final T1 sw) {
+        return this.neighborMap.get(sw);
+    }
+
+    /**
+     * Returns neighbor port of given port.
+     *
+     * @param port the port
+     * @return the neighbour port
+     */
+    public T2 getNeighborPort(final T2 port) {
+        return this.neighborPortMap.get(port);
+    }
+
+    /**
+     * Gets the link instance between the given ports.
+     *
+     * @param srcPort the source port
+     * @param dstPort the destination port
+     * @return the link instance, null if it doesn't exist
+     */
+    public T3 getLink(final T2 srcPort, final T2 dstPort) {
+        // A port is the source of at most one link
+        final T3 link = this.linkMap.get(srcPort);
+        if (link != null && link.getDstPort().equals(dstPort)) {
+            return link;
+        }
+        return null;
+    }
+
+}
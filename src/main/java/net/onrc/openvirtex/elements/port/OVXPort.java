@@ -42,6 +42,8 @@ import net.onrc.openvirtex.routing.SwitchRoute;
 import net.onrc.openvirtex.util.MACAddress;
 import net.onrc.openvirtex.messages.OVXPortStatus;
 import net.onrc.openvirtex.elements.Persistable;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 
 public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
 
@@ -130,6 +132,7 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
             this.parentSwitch.generateFeaturesReply();
         }
         DBManager.getInstance().save(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, Port.DB_KEY, this);
     }
 
     /**
@@ -197,6 +200,7 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
 
     public void unregister() {
         DBManager.getInstance().remove(this);
+        EventLog.getInstance().publish(Event.Type.REMOVED, Port.DB_KEY, this);
         OVXNetwork virtualNetwork = null;
         try {
             virtualNetwork = this.parentSwitch.getMap().getVirtualNetwork(
@@ -223,6 +227,17 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
         cleanUpFlowMods();
     }
 
+    /**
+     * Detaches this port from its physical port, as part of the removal of
+     * its whole virtual network. No port status is sent and no flows are
+     * cleaned up here, see {@link OVXSwitch#discard()}.
+     */
+    public void discard() {
+        this.isActive = false;
+        this.state = OFPortState.OFPPS_LINK_DOWN.getValue();
+        this.physicalPort.removeOVXPort(this);
+    }
+
     @Override
     public Map<String, Object> getDBIndex() {
         Map<String, Object> index = new HashMap<String, Object>();
@@ -91,6 +91,19 @@ public class PhysicalPort extends Port<PhysicalSwitch, PhysicalLink> {
         return p;
     }
 
+    /**
+     * Gets the virtual network this port is mapped to, if there is only one.
+     *
+     * @return the tenant ID, or null if the port is mapped to no or to
+     *         several virtual networks
+     */
+    public Integer getTenantId() {
+        if (this.ovxPortMap.size() != 1) {
+            return null;
+        }
+        return this.ovxPortMap.keySet().iterator().next();
+    }
+
     /**
      * Maps the given virtual port to this physical port.
      *
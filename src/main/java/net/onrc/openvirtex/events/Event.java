@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.events;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A change to the physical network, a virtual network or a virtual flow
+ * table, as published to subscribers by the {@link EventLog}.
+ */
+public final class Event {
+
+    /**
+     * What happened to the element.
+     */
+    public enum Type {
+        ADDED, REMOVED
+    }
+
+    private final long seq;
+    private final long time;
+    private final Type type;
+    private final String element;
+    private final Integer tenantId;
+    private final Map<String, Object> data;
+
+    Event(final long seq, final Type type, final String element,
+            final Integer tenantId, final Map<String, Object> data) {
+        this.seq = seq;
+        this.time = System.currentTimeMillis();
+        this.type = type;
+        this.element = element;
+        this.tenantId = tenantId;
+        this.data = data;
+    }
+
+    /**
+     * Gets the sequence number, which increases by one with every event.
+     *
+     * @return the sequence number
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the kind of element, e.g. switches or links.
+     *
+     * @return the element kind
+     */
+    public String getElement() {
+        return this.element;
+    }
+
+    /**
+     * Gets the virtual network of the element.
+     *
+     * @return the tenant ID, or null for physical elements
+     */
+    public Integer getTenantId() {
+        return this.tenantId;
+    }
+
+    /**
+     * Gets the description of the element, as returned by the API.
+     *
+     * @return the element description
+     */
+    public Map<String, Object> getData() {
+        return this.data;
+    }
+
+    /**
+     * Converts the event to a map for the API.
+     *
+     * @return the event as a map
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("seq", this.seq);
+        map.put("time", this.time);
+        map.put("type", this.type.name().toLowerCase());
+        map.put("element", this.element);
+        if (this.tenantId != null) {
+            map.put("tenantId", this.tenantId);
+        }
+        map.put("data", this.data);
+        return map;
+    }
+
+}
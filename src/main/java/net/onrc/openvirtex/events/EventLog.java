@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.elements.Persistable;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+/**
+ * Keeps the latest changes to the physical and virtual networks, so clients
+ * can follow them instead of polling the full topology. Every event gets the
+ * next sequence number, and clients ask for the events after the last one
+ * they have seen, waiting for new ones if there are none yet.
+ * <p>
+ * Only the latest events are kept. A client that asks for events that are
+ * gone, or that is new, has to resync: it fetches the topologies and flow
+ * tables it follows, and continues from the sequence number it was given
+ * before. Events may then repeat changes already in those snapshots, so
+ * clients apply them idempotently. While nobody follows the events, they are
+ * not kept at all and their data is not built.
+ */
+public final class EventLog {
+
+    /**
+     * Default number of events that are kept.
+     */
+    public static final int CAPACITY = 8192;
+    /**
+     * Time after the last request for events that they are no longer kept.
+     */
+    public static final long IDLE_TIMEOUT = 60000;
+    /**
+     * Kind of element of virtual networks.
+     */
+    public static final String NETWORKS = "networks";
+    /**
+     * Kind of element of virtual flows.
+     */
+    public static final String FLOWS = "flows";
+
+    private static EventLog instance;
+
+    private final Event[] events;
+    // Sequence number of the latest event, 0 before the first
+    private long seq = 0;
+    // Number of latest events that are kept
+    private int count = 0;
+    private int waiters = 0;
+    private volatile long lastPoll = 0;
+
+    EventLog(final int capacity) {
+        this.events = new Event[capacity];
+    }
+
+    public static synchronized EventLog getInstance() {
+        if (EventLog.instance == null) {
+            EventLog.instance = new EventLog(EventLog.CAPACITY);
+        }
+        return EventLog.instance;
+    }
+
+    public static synchronized void reset() {
+        EventLog.instance = null;
+    }
+
+    /**
+     * Checks whether a client follows the events, i.e. asked for them
+     * recently.
+     *
+     * @return true if events are kept
+     */
+    public boolean isWatched() {
+        return System.currentTimeMillis() - this.lastPoll < EventLog.IDLE_TIMEOUT;
+    }
+
+    /**
+     * Publishes a change to a persistable element. Its virtual network is
+     * taken from the element's index, physical elements have none.
+     *
+     * @param type what happened to the element
+     * @param element the kind of element
+     * @param obj the element
+     */
+    public void publish(final Event.Type type, final String element,
+            final Persistable obj) {
+        if (!this.isWatched()) {
+            this.skip();
+            return;
+        }
+        final Map<String, Object> index = obj.getDBIndex();
+        final Number tenantId = index == null ? null : (Number) index
+                .get(TenantHandler.TENANT);
+        this.publish(type, element,
+                tenantId == null ? null : tenantId.intValue(),
+                obj.getDBObject());
+    }
+
+    /**
+     * Publishes a change to the flow table of a virtual switch.
+     *
+     * @param type whether the flow was added or removed
+     * @param vsw the virtual switch
+     * @param cookie the cookie of the flow
+     * @param fm the flow
+     */
+    public void publish(final Event.Type type, final OVXSwitch vsw,
+            final long cookie, final OVXFlowMod fm) {
+        if (vsw == null) {
+            return;
+        }
+        if (!this.isWatched()) {
+            this.skip();
+            return;
+        }
+        final Map<String, Object> data = new LinkedHashMap<String, Object>();
+        data.put(TenantHandler.VDPID, vsw.getSwitchId());
+        data.put("cookie", cookie);
+        if (fm != null) {
+            data.putAll(fm.toMap());
+        }
+        this.publish(type, EventLog.FLOWS, vsw.getTenantId(), data);
+    }
+
+    /**
+     * Publishes a change to an element.
+     *
+     * @param type what happened to the element
+     * @param element the kind of element
+     * @param tenantId the virtual network, or null for physical elements
+     * @param data the description of the element
+     */
+    public synchronized void publish(final Event.Type type,
+            final String element, final Integer tenantId,
+            final Map<String, Object> data) {
+        if (!this.isWatched()) {
+            this.skip();
+            return;
+        }
+        this.seq++;
+        this.events[(int) (this.seq % this.events.length)] = new Event(
+                this.seq, type, element, tenantId, data);
+        this.count = Math.min(this.count + 1, this.events.length);
+        if (this.waiters > 0) {
+            this.notifyAll();
+        }
+    }
+
+    /* counts an event nobody follows, so followers resync afterwards */
+    private synchronized void skip() {
+        this.seq++;
+        this.count = 0;
+    }
+
+    /**
+     * Gets the sequence number of the latest event.
+     *
+     * @return the sequence number
+     */
+    public synchronized long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * Starts keeping events for a client that is about to take its
+     * snapshots.
+     *
+     * @return the sequence number to ask for the events after
+     */
+    public synchronized long subscribe() {
+        this.lastPoll = System.currentTimeMillis();
+        return this.seq;
+    }
+
+    /**
+     * Gets the events after the given sequence number, waiting for the next
+     * event if there are none yet.
+     *
+     * @param since the sequence number of the last event the client has seen
+     * @param limit the maximum number of events
+     * @param timeout the maximum time to wait in milliseconds
+     * @return the events, possibly empty, or null if the client has to
+     *         resync because events after since are gone
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized List<Event> poll(final long since, final int limit,
+            final long timeout) throws InterruptedException {
+        this.lastPoll = System.currentTimeMillis();
+        if (since > this.seq || since < this.seq - this.count) {
+            return null;
+        }
+        final long deadline = this.lastPoll + timeout;
+        long remaining = timeout;
+        this.waiters++;
+        try {
+            while (since == this.seq && remaining > 0) {
+                this.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } finally {
+            this.waiters--;
+            this.lastPoll = System.currentTimeMillis();
+        }
+        if (since < this.seq - this.count) {
+            return null;
+        }
+        if (since == this.seq) {
+            return Collections.emptyList();
+        }
+        final long last = Math.min(this.seq, since + limit);
+        final List<Event> res = new ArrayList<Event>((int) (last - since));
+        for (long s = since + 1; s <= last; s++) {
+            res.add(this.events[(int) (s % this.events.length)]);
+        }
+        return res;
+    }
+
+}
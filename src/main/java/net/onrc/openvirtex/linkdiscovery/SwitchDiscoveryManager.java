@@ -336,8 +336,15 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg,
         this.log.debug("sending probes");
         synchronized (this) {
             final Iterator<Short> fastIterator = this.fastPorts.iterator();
-            while (fastIterator.hasNext()) {
+            while (fastIterator.hasNext() && !this.sw.isSuspended()) {
                 final Short portNumber = fastIterator.next();
+                /* links to a suspended switch are kept until it is removed */
+                final PhysicalPort neighbor = PhysicalNetwork.getInstance()
+                        .getNeighborPort(this.sw.getPort(portNumber));
+                if (neighbor != null
+                        && neighbor.getParentSwitch().isSuspended()) {
+                    continue;
+                }
                 final int probeCount = this.portProbeCount.get(portNumber)
                         .getAndIncrement();
                 if (probeCount < SwitchDiscoveryManager.MAX_PROBE_COUNT) {
@@ -370,7 +377,7 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg,
             }
 
             // send a probe for the next slow port
-            if (this.slowPorts.size() > 0) {
+            if (this.slowPorts.size() > 0 && !this.sw.isSuspended()) {
                 if (!this.slowIterator.hasNext()) {
                     this.slowIterator = this.slowPorts.iterator();
                 }
@@ -64,6 +64,14 @@ public class OVXFlowMod extends OFFlowMod implements Devirtualizable {
         }
 
         this.sw = sw;
+        if (OVXLinkUtils.matchesVlan(this.match)) {
+            this.log.warn("Virtual network {} cannot match on VLANs, they carry "
+                    + "the virtual links; dropping flowmod {}",
+                    sw.getTenantId(), this);
+            sw.sendMsg(OVXMessageUtil.makeErrorMsg(
+                    OFFlowModFailedCode.OFPFMFC_EPERM, this), sw);
+            return;
+        }
         FlowTable ft = this.sw.getFlowTable();
 
         int bufferId = OVXPacketOut.BUFFER_ID_NONE;
@@ -136,15 +144,17 @@ public class OVXFlowMod extends OFFlowMod implements Devirtualizable {
         try {
             if (inPort.isEdge()) {
                 this.prependRewriteActions();
+                OVXLinkUtils.matchUntagged(this.match, this.approvedActions);
             } else {
                 IPMapper.rewriteMatch(sw.getTenantId(), this.match);
                 // TODO: Verify why we have two send points... and if this is
                 // the right place for the match rewriting
                 if (inPort != null
                         && inPort.isLink()
-                        && (!this.match.getWildcardObj().isWildcarded(
-                                Flag.DL_DST) || !this.match.getWildcardObj()
-                                .isWildcarded(Flag.DL_SRC))) {
+                        && (!OVXLinkUtils.usesFlowId()
+                                || !this.match.getWildcardObj().isWildcarded(
+                                        Flag.DL_DST) || !this.match
+                                .getWildcardObj().isWildcarded(Flag.DL_SRC))) {
                     // rewrite the OFMatch with the values of the link
                     OVXPort dstPort = sw.getMap()
                             .getVirtualNetwork(sw.getTenantId())
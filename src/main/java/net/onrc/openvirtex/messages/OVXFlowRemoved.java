@@ -32,6 +32,7 @@ public class OVXFlowRemoved extends OFFlowRemoved implements Virtualizable {
     public void virtualize(final PhysicalSwitch sw) {
 
         int tid = (int) (this.cookie >> 32);
+        sw.getFlowTable().handleFlowRemoved(this);
 
         /* a PhysSwitch can be a OVXLink */
         if (!(sw.getMap().hasVirtualSwitch(sw, tid))) {
@@ -24,6 +24,7 @@ import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.OVXLinkCodec;
 import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
@@ -120,9 +121,28 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
             eth.deserialize(this.getPacketData(), 0,
                     this.getPacketData().length);
 
-            OVXLinkUtils lUtils = new OVXLinkUtils(eth.getSourceMAC(),
-                    eth.getDestinationMAC());
+            final OVXLinkField linkField = OpenVirteXController
+                    .getInstance().getOvxLinkField();
+            final OVXLinkUtils lUtils;
+            if (linkField == OVXLinkField.VLAN) {
+                lUtils = new OVXLinkUtils(match.getDataLayerVirtualLan());
+            } else {
+                lUtils = new OVXLinkUtils(OVXLinkCodec.toLong(match
+                        .getDataLayerSource()), OVXLinkCodec.toLong(match
+                        .getDataLayerDestination()));
+            }
             // rewrite the OFMatch with the values of the link
+            if (lUtils.isValid() && lUtils.isRoute()) {
+                /*
+                 * Packets inside a big switch route are not seen by the
+                 * tenant; the route entries have to be reinstalled by a
+                 * FlowMod from the ingress edge.
+                 */
+                this.log.debug(
+                        "Dropping packet inside route {} of virtual network {}",
+                        lUtils.getLinkId(), lUtils.getTenantId());
+                return;
+            }
             if (lUtils.isValid()) {
                 OVXPort srcPort = port.getOVXPort(lUtils.getTenantId(),
                         lUtils.getLinkId());
@@ -145,8 +165,6 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
                 }
                 this.ovxPort = this.port.getOVXPort(lUtils.getTenantId(),
                         link.getLinkId());
-                OVXLinkField linkField = OpenVirteXController.getInstance()
-                        .getOvxLinkField();
                 // TODO: Need to check that the values in linkId and flowId
                 // don't exceed their space
                 if (linkField == OVXLinkField.MAC_ADDRESS) {
@@ -165,9 +183,9 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
                         log.warn(e);
                     }
                 } else if (linkField == OVXLinkField.VLAN) {
-                    // TODO
-                    log.warn("VLAN virtual links not yet implemented.");
-                    return;
+                    // the host MAC addresses are untouched, only pop the tag
+                    eth.setVlanID(Ethernet.VLAN_UNTAGGED);
+                    match.setDataLayerVirtualLan(Ethernet.VLAN_UNTAGGED);
                 }
 
             }
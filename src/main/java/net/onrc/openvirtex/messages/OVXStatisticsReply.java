@@ -16,6 +16,9 @@
 package net.onrc.openvirtex.messages;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+import net.onrc.openvirtex.messages.statistics.OVXPortStatisticsReply;
+import net.onrc.openvirtex.messages.statistics.OVXQueueStatisticsReply;
 import net.onrc.openvirtex.messages.statistics.VirtualizableStatistic;
 
 import org.apache.logging.log4j.LogManager;
@@ -45,7 +48,11 @@ public class OVXStatisticsReply extends OFStatisticsReply implements
                         .getStatistics().get(0);
                 stat.virtualizeStatistic(sw, this);
             } else if (this.getStatisticType() == OFStatisticsType.FLOW) {
-                sw.setFlowStatistics(null);
+                new OVXFlowStatisticsReply().virtualizeStatistic(sw, this);
+            } else if (this.getStatisticType() == OFStatisticsType.PORT) {
+                new OVXPortStatisticsReply().virtualizeStatistic(sw, this);
+            } else if (this.getStatisticType() == OFStatisticsType.QUEUE) {
+                new OVXQueueStatisticsReply().virtualizeStatistic(sw, this);
             }
 
         } catch (final ClassCastException e) {
@@ -118,9 +118,11 @@ public class OVXActionOutput extends OFActionOutput implements
                         final OVXPort dstPort = vnet.getNeighborPort(inPort);
                         final OVXLink link = inPort.getLink().getOutLink();
                         if (link != null
-                                && (!match.getWildcardObj().isWildcarded(
-                                        Flag.DL_DST) || !match.getWildcardObj()
-                                        .isWildcarded(Flag.DL_SRC))) {
+                                && (!OVXLinkUtils.usesFlowId()
+                                        || !match.getWildcardObj().isWildcarded(
+                                                Flag.DL_DST) || !match
+                                        .getWildcardObj().isWildcarded(
+                                                Flag.DL_SRC))) {
                             flowId = vnet.getFlowManager().getFlowId(
                                     match.getDataLayerSource(),
                                     match.getDataLayerDestination());
@@ -137,7 +139,7 @@ public class OVXActionOutput extends OFActionOutput implements
 
 
                     route.generateRouteFMs(fm.clone());
-
+                    approvedActions.addAll(route.setRouteFields(match));
 
                     // add the output action with the physical outPort (srcPort
                     // of the route)
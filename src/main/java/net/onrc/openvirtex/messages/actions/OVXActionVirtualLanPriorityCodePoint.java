@@ -18,9 +18,11 @@ package net.onrc.openvirtex.messages.actions;
 import java.util.List;
 
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 import net.onrc.openvirtex.protocol.OVXMatch;
 
+import org.openflow.protocol.OFError.OFBadActionCode;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionVirtualLanPriorityCodePoint;
 
@@ -31,6 +33,12 @@ public class OVXActionVirtualLanPriorityCodePoint extends
     public void virtualize(final OVXSwitch sw,
             final List<OFAction> approvedActions, final OVXMatch match)
             throws ActionVirtualizationDenied {
+        if (!OVXLinkUtils.usesFlowId()) {
+            throw new ActionVirtualizationDenied("Virtual network "
+                    + sw.getTenantId() + " cannot set the VLAN priority, the tag"
+                    + " carries the virtual links",
+                    OFBadActionCode.OFPBAC_EPERM);
+        }
         approvedActions.add(this);
     }
 
@@ -17,62 +17,73 @@ package net.onrc.openvirtex.messages.statistics;
 
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.elements.datapath.FlowTable;
-import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
-import net.onrc.openvirtex.elements.port.OVXPort;
-import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
+import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.openflow.protocol.OFPort;
 import org.openflow.protocol.statistics.OFAggregateStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatisticsType;
 
 public class OVXAggregateStatisticsRequest extends OFAggregateStatisticsRequest
         implements DevirtualizableStatistic {
 
-    private Logger log = LogManager.getLogger(
-            OVXAggregateStatisticsRequest.class.getName());
-
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw,
             final OVXStatisticsRequest msg) {
+        StatisticsManager.whenAllFresh(
+                OVXFlowStatisticsRequest.getPhysicalSwitches(sw),
+                OFStatisticsType.FLOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        sendReply(sw, msg);
+                    }
+                });
+    }
 
+    private void sendReply(final OVXSwitch sw, final OVXStatisticsRequest msg) {
         OVXAggregateStatisticsReply stat = new OVXAggregateStatisticsReply();
         int tid = sw.getTenantId();
         HashSet<Long> uniqueCookies = new HashSet<Long>();
+        OVXFlowEntry fe = new OVXFlowEntry();
 
-        // the -1 is for beacon...
-        if ((this.match.getWildcardObj().isFull() || this.match.getWildcards() == -1)
-                && this.outPort == OFPort.OFPP_NONE.getValue()) {
-            FlowTable ft = sw.getFlowTable();
-            stat.setFlowCount(ft.getFlowTable().size());
-            stat.setByteCount(0);
-            stat.setPacketCount(0);
-            for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
-                List<OVXFlowStatisticsReply> reps = psw.getFlowStats(tid);
-                if (reps != null) {
-                    for (OVXFlowStatisticsReply s : reps) {
-
-                        if (!uniqueCookies.contains(s.getCookie())) {
-
-                            stat.setByteCount(stat.getByteCount()
-                                    + s.getByteCount());
-                            stat.setByteCount(stat.getPacketCount()
-                                    + s.getPacketCount());
-                            uniqueCookies.add(s.getCookie());
-
-                        }
+        int flows = 0;
+        for (OVXFlowMod fm : sw.getFlowTable().getFlowTable()) {
+            if (OVXFlowStatisticsRequest.covers(this.match, this.outPort, fe,
+                    fm)) {
+                flows++;
+            }
+        }
+        stat.setFlowCount(flows);
+        stat.setByteCount(0);
+        stat.setPacketCount(0);
+        for (PhysicalSwitch psw : OVXFlowStatisticsRequest
+                .getPhysicalSwitches(sw)) {
+            List<OVXFlowStatisticsReply> reps = psw.getFlowStats(tid);
+            if (reps == null) {
+                continue;
+            }
+            for (OVXFlowStatisticsReply s : reps) {
+                if (!uniqueCookies.add(s.getCookie())) {
+                    continue;
+                }
+                try {
+                    if (!OVXFlowStatisticsRequest.covers(this.match,
+                            this.outPort, fe, sw.getFlowMod(s.getCookie()))) {
+                        continue;
                     }
-
+                } catch (MappingException e) {
+                    continue;
                 }
+                stat.setByteCount(stat.getByteCount() + s.getByteCount());
+                stat.setPacketCount(stat.getPacketCount()
+                        + s.getPacketCount());
             }
         }
 
@@ -87,23 +98,4 @@ public class OVXAggregateStatisticsRequest extends OFAggregateStatisticsRequest
 
     }
 
-    private List<PhysicalSwitch> getPhysicalSwitches(OVXSwitch sw) {
-        if (sw instanceof OVXSingleSwitch) {
-            try {
-                return sw.getMap().getPhysicalSwitches(sw);
-            } catch (SwitchMappingException e) {
-                log.debug("OVXSwitch {} does not map to any physical switches",
-                        sw.getSwitchName());
-                return new LinkedList<>();
-            }
-        }
-        LinkedList<PhysicalSwitch> sws = new LinkedList<PhysicalSwitch>();
-        for (OVXPort p : sw.getPorts().values()) {
-            if (!sws.contains(p.getPhysicalPort().getParentSwitch())) {
-                sws.add(p.getPhysicalPort().getParentSwitch());
-            }
-        }
-        return sws;
-    }
-
 }
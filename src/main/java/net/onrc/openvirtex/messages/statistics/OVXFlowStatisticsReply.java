@@ -15,15 +15,17 @@
  ******************************************************************************/
 package net.onrc.openvirtex.messages.statistics;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
-import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.util.U16;
 
 public class OVXFlowStatisticsReply extends OFFlowStatisticsReply implements
         VirtualizableStatistic {
@@ -31,33 +33,47 @@ public class OVXFlowStatisticsReply extends OFFlowStatisticsReply implements
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw,
             final OVXStatisticsReply msg) {
-        if (msg.getXid() != 0) {
-            sw.removeFlowMods(msg);
-            return;
+        @SuppressWarnings("unchecked")
+        List<OVXFlowStatisticsReply> stats = (List<OVXFlowStatisticsReply>) msg
+                .getStatistics();
+        /* a chunked poll is answered like a multipart reply */
+        final boolean more = sw.addFlowStatistics(stats, (msg.getFlags() & OFStatisticsReply.OFStatisticsReplyFlags.REPLY_MORE
+                .getTypeValue()) != 0);
+        /* leftovers of audited cleanups are deleted, and not synced */
+        final List<OVXFlowStatisticsReply> leftovers = sw.auditFlows(stats,
+                more);
+        if (!leftovers.isEmpty()) {
+            stats = new ArrayList<OVXFlowStatisticsReply>(stats);
+            stats.removeAll(leftovers);
         }
-
-        HashMap<Integer, List<OVXFlowStatisticsReply>> stats = new HashMap<Integer, List<OVXFlowStatisticsReply>>();
-
-        for (OFStatistics stat : msg.getStatistics()) {
-            OVXFlowStatisticsReply reply = (OVXFlowStatisticsReply) stat;
-            int tid = getTidFromCookie(reply.getCookie());
-            addToStats(tid, reply, stats);
-        }
-        sw.setFlowStatistics(stats);
+        sw.syncFlows(stats, more);
     }
 
-    private void addToStats(int tid, OVXFlowStatisticsReply reply,
-            HashMap<Integer, List<OVXFlowStatisticsReply>> stats) {
-        List<OVXFlowStatisticsReply> statsList = stats.get(tid);
-        if (statsList == null) {
-            statsList = new LinkedList<OVXFlowStatisticsReply>();
+    /**
+     * Copies the counters of this (cached) statistic into a statistic of the
+     * given virtual flow, leaving the cache untouched.
+     *
+     * @param fm the virtual FlowMod the statistic is for
+     * @return the statistic to send to the tenant
+     */
+    OVXFlowStatisticsReply virtualCopy(final OVXFlowMod fm) {
+        final OVXFlowStatisticsReply stat = new OVXFlowStatisticsReply();
+        stat.setTableId(this.tableId);
+        stat.setDurationSeconds(this.durationSeconds);
+        stat.setDurationNanoseconds(this.durationNanoseconds);
+        stat.setPriority(this.priority);
+        stat.setIdleTimeout(this.idleTimeout);
+        stat.setHardTimeout(this.hardTimeout);
+        stat.setPacketCount(this.packetCount);
+        stat.setByteCount(this.byteCount);
+        stat.setCookie(fm.getCookie());
+        stat.setMatch(fm.getMatch());
+        stat.setActions(fm.getActions());
+        stat.setLength(U16.t(OVXFlowStatisticsReply.MINIMUM_LENGTH));
+        for (OFAction act : stat.getActions()) {
+            stat.setLength(U16.t(stat.getLength() + act.getLength()));
         }
-        statsList.add(reply);
-        stats.put(tid, statsList);
-    }
-
-    private int getTidFromCookie(long cookie) {
-        return (int) (cookie >> 32);
+        return stat;
     }
 
 }
@@ -19,9 +19,11 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
 import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
@@ -31,77 +33,119 @@ import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPort;
 import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatisticsType;
-import org.openflow.util.U16;
 
+/**
+ * Implementation of virtual flow statistics request. The request is
+ * answered from the flow statistics cached by the physical switches, once
+ * they are fresh.
+ */
 public class OVXFlowStatisticsRequest extends OFFlowStatisticsRequest implements
         DevirtualizableStatistic {
 
-    Logger log = LogManager.getLogger(OVXFlowStatisticsRequest.class.getName());
-
+    private static Logger log = LogManager
+            .getLogger(OVXFlowStatisticsRequest.class.getName());
 
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw,
             final OVXStatisticsRequest msg) {
+        StatisticsManager.whenAllFresh(getPhysicalSwitches(sw),
+                OFStatisticsType.FLOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        sendReply(sw, msg);
+                    }
+                });
+    }
+
+    private void sendReply(final OVXSwitch sw, final OVXStatisticsRequest msg) {
         List<OVXFlowStatisticsReply> replies = new LinkedList<OVXFlowStatisticsReply>();
         HashSet<Long> uniqueCookies = new HashSet<Long>();
+        OVXFlowEntry fe = new OVXFlowEntry();
         int tid = sw.getTenantId();
         int length = 0;
 
-        if ((this.match.getWildcardObj().isFull() || this.match.getWildcards() == -1) // the
-                                                                                      // -1
-                                                                                      // is
-                                                                                      // for
-                                                                                      // beacon...
-                && this.outPort == OFPort.OFPP_NONE.getValue()) {
-            for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
-                List<OVXFlowStatisticsReply> reps = psw.getFlowStats(tid);
-                if (reps != null) {
-                    for (OVXFlowStatisticsReply stat : reps) {
-
-                        if (!uniqueCookies.contains(stat.getCookie())) {
-                            OVXFlowMod origFM;
-                            try {
-                                origFM = sw.getFlowMod(stat.getCookie());
-                                uniqueCookies.add(stat.getCookie());
-                            } catch (MappingException e) {
-                                log.warn(
-                                        "FlowMod not found in FlowTable for cookie={}",
-                                        stat.getCookie());
-                                continue;
-                            }
-                            stat.setCookie(origFM.getCookie());
-                            stat.setMatch(origFM.getMatch());
-                            stat.setActions(origFM.getActions());
-                            replies.add(stat);
-                            stat.setLength(U16
-                                    .t(OVXFlowStatisticsReply.MINIMUM_LENGTH));
-                            for (OFAction act : stat.getActions()) {
-                                stat.setLength(U16.t(stat.getLength()
-                                        + act.getLength()));
-                            }
-                            length += stat.getLength();
-                        }
-                    }
+        for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
+            List<OVXFlowStatisticsReply> reps = psw.getFlowStats(tid);
+            if (reps == null) {
+                continue;
+            }
+            for (OVXFlowStatisticsReply stat : reps) {
+                if (!uniqueCookies.add(stat.getCookie())) {
+                    continue;
+                }
+                OVXFlowMod origFM;
+                try {
+                    origFM = sw.getFlowMod(stat.getCookie());
+                } catch (MappingException e) {
+                    log.warn("FlowMod not found in FlowTable for cookie={}",
+                            stat.getCookie());
+                    continue;
+                }
+                if (covers(this.match, this.outPort, fe, origFM)) {
+                    OVXFlowStatisticsReply rep = stat.virtualCopy(origFM);
+                    replies.add(rep);
+                    length += rep.getLength();
                 }
             }
+        }
 
-            OVXStatisticsReply reply = new OVXStatisticsReply();
-            reply.setXid(msg.getXid());
-            reply.setStatisticType(OFStatisticsType.FLOW);
-            reply.setStatistics(replies);
+        OVXStatisticsReply reply = new OVXStatisticsReply();
+        reply.setXid(msg.getXid());
+        reply.setStatisticType(OFStatisticsType.FLOW);
+        reply.setStatistics(replies);
 
-            reply.setLengthU(OVXStatisticsReply.MINIMUM_LENGTH + length);
+        reply.setLengthU(OVXStatisticsReply.MINIMUM_LENGTH + length);
+
+        sw.sendMsg(reply, sw);
+    }
 
-            sw.sendMsg(reply, sw);
+    /**
+     * Checks if a virtual flow is selected by the match and output port of
+     * a flow or aggregate statistics request, following the non-strict
+     * matching of OpenFlow.
+     *
+     * @param match the match of the request
+     * @param outPort the output port of the request
+     * @param fe a flow entry to compare with
+     * @param fm the virtual FlowMod
+     * @return true if the flow is selected
+     */
+    static boolean covers(final OFMatch match, final short outPort,
+            final OVXFlowEntry fe, final OVXFlowMod fm) {
+        if (outPort != OFPort.OFPP_NONE.getValue() && !outputsTo(fm, outPort)) {
+            return false;
+        }
+        // the -1 is for beacon...
+        if (match.getWildcardObj().isFull() || match.getWildcards() == -1) {
+            return true;
+        }
+        fe.setFlowMod(fm);
+        return fe.compare(match, false) == OVXFlowEntry.EQUAL;
+    }
 
+    private static boolean outputsTo(final OVXFlowMod fm, final short port) {
+        for (OFAction act : fm.getActions()) {
+            if (act instanceof OFActionOutput
+                    && ((OFActionOutput) act).getPort() == port) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private List<PhysicalSwitch> getPhysicalSwitches(OVXSwitch sw) {
+    /**
+     * Gets the physical switches a virtual switch maps to.
+     *
+     * @param sw the virtual switch
+     * @return the physical switches
+     */
+    static List<PhysicalSwitch> getPhysicalSwitches(OVXSwitch sw) {
         if (sw instanceof OVXSingleSwitch) {
             try {
                 return sw.getMap().getPhysicalSwitches(sw);
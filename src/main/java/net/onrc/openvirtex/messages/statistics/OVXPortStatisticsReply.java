@@ -15,31 +15,49 @@
  ******************************************************************************/
 package net.onrc.openvirtex.messages.statistics;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 
+import org.openflow.protocol.OFStatisticsReply;
 import org.openflow.protocol.statistics.OFPortStatisticsReply;
-import org.openflow.protocol.statistics.OFStatistics;
 
 public class OVXPortStatisticsReply extends OFPortStatisticsReply implements
         VirtualizableStatistic {
 
-    private Map<Short, OVXPortStatisticsReply> stats = null;
-
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw,
             final OVXStatisticsReply msg) {
-        stats = new HashMap<Short, OVXPortStatisticsReply>();
-        List<? extends OFStatistics> statList = msg.getStatistics();
-        for (OFStatistics stat : statList) {
-            OVXPortStatisticsReply pStat = (OVXPortStatisticsReply) stat;
-            stats.put(pStat.getPortNumber(), pStat);
-        }
-        sw.setPortStatistics(stats);
+        @SuppressWarnings("unchecked")
+        final List<OVXPortStatisticsReply> stats = (List<OVXPortStatisticsReply>) msg
+                .getStatistics();
+        sw.addPortStatistics(stats, (msg.getFlags() & OFStatisticsReply.OFStatisticsReplyFlags.REPLY_MORE
+                .getTypeValue()) != 0);
+    }
 
+    /**
+     * Copies this (cached) statistic into a statistic of the given virtual
+     * port, leaving the cache untouched.
+     *
+     * @param portNumber the virtual port number
+     * @return the statistic to send to the tenant
+     */
+    OVXPortStatisticsReply virtualCopy(final short portNumber) {
+        final OVXPortStatisticsReply stat = new OVXPortStatisticsReply();
+        stat.setPortNumber(portNumber);
+        stat.setreceivePackets(this.receivePackets);
+        stat.setTransmitPackets(this.transmitPackets);
+        stat.setReceiveBytes(this.receiveBytes);
+        stat.setTransmitBytes(this.transmitBytes);
+        stat.setReceiveDropped(this.receiveDropped);
+        stat.setTransmitDropped(this.transmitDropped);
+        stat.setreceiveErrors(this.receiveErrors);
+        stat.setTransmitErrors(this.transmitErrors);
+        stat.setReceiveFrameErrors(this.receiveFrameErrors);
+        stat.setReceiveOverrunErrors(this.receiveOverrunErrors);
+        stat.setReceiveCRCErrors(this.receiveCRCErrors);
+        stat.setCollisions(this.collisions);
+        return stat;
     }
 }
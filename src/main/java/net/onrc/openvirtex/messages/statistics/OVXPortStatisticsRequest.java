@@ -15,10 +15,15 @@
  ******************************************************************************/
 package net.onrc.openvirtex.messages.statistics;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
+import net.onrc.openvirtex.elements.datapath.statistics.TenantPortCounters;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
@@ -27,7 +32,12 @@ import org.openflow.protocol.statistics.OFPortStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatisticsType;
 
 /**
- * Implementation of virtual port statistics request.
+ * Implementation of virtual port statistics request. The traffic counters
+ * of a virtual port are those of the tenant's flows on the physical port
+ * that cross the virtual link of the port, or no virtual link for an edge
+ * port, see {@link TenantPortCounters}. Tenants, and virtual ports of a
+ * tenant, sharing a physical port thus each see their own traffic. The request is answered once the cached flow
+ * statistics of the physical switches are fresh.
  */
 public class OVXPortStatisticsRequest extends OFPortStatisticsRequest implements
         DevirtualizableStatistic {
@@ -35,31 +45,84 @@ public class OVXPortStatisticsRequest extends OFPortStatisticsRequest implements
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw,
             final OVXStatisticsRequest msg) {
+        final Collection<OVXPort> ports = getPorts(sw, this.portNumber);
+        final List<PhysicalSwitch> switches = new LinkedList<PhysicalSwitch>();
+        for (OVXPort p : ports) {
+            if (!switches.contains(p.getPhysicalPort().getParentSwitch())) {
+                switches.add(p.getPhysicalPort().getParentSwitch());
+            }
+        }
+        /* the traffic of the tenant is rolled up from its flows */
+        StatisticsManager.whenAllFresh(switches, OFStatisticsType.FLOW,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        sendReply(sw, msg, ports);
+                    }
+                });
+    }
+
+    private void sendReply(final OVXSwitch sw, final OVXStatisticsRequest msg,
+            final Collection<OVXPort> ports) {
         List<OVXPortStatisticsReply> replies = new LinkedList<OVXPortStatisticsReply>();
         int length = 0;
-        if (this.portNumber == OFPort.OFPP_NONE.getValue()) {
-            for (OVXPort p : sw.getPorts().values()) {
-                OVXPortStatisticsReply reply = p.getPhysicalPort()
-                        .getParentSwitch()
-                        .getPortStat(p.getPhysicalPort().getPortNumber());
-                if (reply != null) {
-                    /*
-                     * Setting it here will also update the reference but this
-                     * should not matter since we index our port stats struct by
-                     * physical port number (so this info is not lost) and we
-                     * always rewrite the port num to the virtual port number.
-                     */
-                    reply.setPortNumber(p.getPortNumber());
-                    replies.add(reply);
-                    length += reply.getLength();
-                }
+        for (OVXPort p : ports) {
+            final PhysicalSwitch psw = p.getPhysicalPort().getParentSwitch();
+            final short number = p.getPhysicalPort().getPortNumber();
+            final OVXPortStatisticsReply stat = psw.getPortStat(number);
+            /*
+             * The physical port statistics are shared by the tenants of the
+             * port; only its error counters are passed on. The cached
+             * statistics are copied rather than rewritten.
+             */
+            OVXPortStatisticsReply reply;
+            if (stat == null) {
+                reply = new OVXPortStatisticsReply();
+                reply.setPortNumber(p.getPortNumber());
+            } else {
+                reply = stat.virtualCopy(p.getPortNumber());
+            }
+            final int linkId = p.getLink() != null ? p.getLink().getOutLink()
+                    .getLinkId() : 0;
+            long[] counters = psw.getStatisticsManager()
+                    .getTenantPortCounters()
+                    .get(sw.getTenantId(), number, linkId);
+            if (counters == null) {
+                counters = new long[4];
             }
-            OVXStatisticsReply rep = new OVXStatisticsReply();
-            rep.setStatisticType(OFStatisticsType.PORT);
-            rep.setStatistics(replies);
-            rep.setXid(msg.getXid());
-            rep.setLengthU(OVXStatisticsReply.MINIMUM_LENGTH + length);
-            sw.sendMsg(rep, sw);
+            reply.setReceiveBytes(counters[TenantPortCounters.RX_BYTES]);
+            reply.setTransmitBytes(counters[TenantPortCounters.TX_BYTES]);
+            reply.setreceivePackets(counters[TenantPortCounters.RX_PACKETS]);
+            reply.setTransmitPackets(counters[TenantPortCounters.TX_PACKETS]);
+            replies.add(reply);
+            length += reply.getLength();
+        }
+        OVXStatisticsReply rep = new OVXStatisticsReply();
+        rep.setStatisticType(OFStatisticsType.PORT);
+        rep.setStatistics(replies);
+        rep.setXid(msg.getXid());
+        rep.setLengthU(OVXStatisticsReply.MINIMUM_LENGTH + length);
+        sw.sendMsg(rep, sw);
+    }
+
+    /**
+     * Gets the virtual ports a port or queue statistics request is for.
+     *
+     * @param sw the virtual switch
+     * @param portNumber the requested port number, or OFPP_NONE or OFPP_ALL
+     *            for all ports
+     * @return the virtual ports
+     */
+    static Collection<OVXPort> getPorts(final OVXSwitch sw,
+            final short portNumber) {
+        if (portNumber == OFPort.OFPP_NONE.getValue()
+                || portNumber == OFPort.OFPP_ALL.getValue()) {
+            return sw.getPorts().values();
+        }
+        final OVXPort port = sw.getPort(portNumber);
+        if (port == null) {
+            return Collections.emptyList();
         }
+        return Collections.singletonList(port);
     }
 }
@@ -15,16 +15,18 @@
  ******************************************************************************/
 package net.onrc.openvirtex.messages.statistics;
 
-import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import java.util.List;
+
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
-import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 
+import org.openflow.protocol.OFStatisticsReply;
 import org.openflow.protocol.statistics.OFQueueStatisticsReply;
 
 /**
  * Implementation of virtualization for queue statistics reply message.
- * TODO
+ * The queue statistics of a physical switch are cached by port, and tenant
+ * requests are answered from the cache.
  */
 public class OVXQueueStatisticsReply extends OFQueueStatisticsReply implements
         VirtualizableStatistic {
@@ -32,10 +34,28 @@ public class OVXQueueStatisticsReply extends OFQueueStatisticsReply implements
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw,
             final OVXStatisticsReply msg) {
-        final OVXSwitch vsw = OVXMessageUtil.untranslateXid(msg, sw);
-        if (vsw == null) {
-            return;
-        }
+        @SuppressWarnings("unchecked")
+        final List<OVXQueueStatisticsReply> stats = (List<OVXQueueStatisticsReply>) msg
+                .getStatistics();
+        sw.addQueueStatistics(stats, (msg.getFlags() & OFStatisticsReply.OFStatisticsReplyFlags.REPLY_MORE
+                .getTypeValue()) != 0);
+    }
+
+    /**
+     * Copies this (cached) statistic into a statistic of the given virtual
+     * port, leaving the cache untouched.
+     *
+     * @param portNumber the virtual port number
+     * @return the statistic to send to the tenant
+     */
+    OVXQueueStatisticsReply virtualCopy(final short portNumber) {
+        final OVXQueueStatisticsReply stat = new OVXQueueStatisticsReply();
+        stat.setPortNumber(portNumber);
+        stat.setQueueId(this.queueId);
+        stat.setTransmitBytes(this.transmitBytes);
+        stat.setTransmitPackets(this.transmitPackets);
+        stat.setTransmitErrors(this.transmitErrors);
+        return stat;
     }
 
 }
@@ -15,25 +15,78 @@
  ******************************************************************************/
 package net.onrc.openvirtex.messages.statistics;
 
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import org.openflow.protocol.statistics.OFQueueStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatisticsType;
 
+/**
+ * Implementation of virtual queue statistics request. The request is
+ * answered from the queue statistics cached by the physical switches, which
+ * are only polled when tenants ask for them.
+ */
 public class OVXQueueStatisticsRequest extends OFQueueStatisticsRequest
         implements DevirtualizableStatistic {
 
-    Logger log = LogManager
-            .getLogger(OVXQueueStatisticsRequest.class.getName());
+    /** Queue ID wildcard. */
+    public static final int OFPQ_ALL = 0xffffffff;
 
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw,
             final OVXStatisticsRequest msg) {
-        // TODO
-        log.info("Queue statistics handling not yet implemented");
+        final Collection<OVXPort> ports = OVXPortStatisticsRequest.getPorts(
+                sw, this.portNumber);
+        final List<PhysicalSwitch> switches = new LinkedList<PhysicalSwitch>();
+        for (OVXPort p : ports) {
+            if (!switches.contains(p.getPhysicalPort().getParentSwitch())) {
+                switches.add(p.getPhysicalPort().getParentSwitch());
+            }
+        }
+        StatisticsManager.whenAllFresh(switches, OFStatisticsType.QUEUE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        sendReply(sw, msg, ports);
+                    }
+                });
+    }
+
+    private void sendReply(final OVXSwitch sw, final OVXStatisticsRequest msg,
+            final Collection<OVXPort> ports) {
+        List<OVXQueueStatisticsReply> replies = new LinkedList<OVXQueueStatisticsReply>();
+        int length = 0;
+        for (OVXPort p : ports) {
+            List<OVXQueueStatisticsReply> stats = p.getPhysicalPort()
+                    .getParentSwitch()
+                    .getQueueStats(p.getPhysicalPort().getPortNumber());
+            if (stats == null) {
+                continue;
+            }
+            for (OVXQueueStatisticsReply stat : stats) {
+                if (this.queueId == OFPQ_ALL
+                        || this.queueId == stat.getQueueId()) {
+                    OVXQueueStatisticsReply reply = stat.virtualCopy(p
+                            .getPortNumber());
+                    replies.add(reply);
+                    length += reply.getLength();
+                }
+            }
+        }
+        OVXStatisticsReply rep = new OVXStatisticsReply();
+        rep.setStatisticType(OFStatisticsType.QUEUE);
+        rep.setStatistics(replies);
+        rep.setXid(msg.getXid());
+        rep.setLengthU(OVXStatisticsReply.MINIMUM_LENGTH + length);
+        sw.sendMsg(rep, sw);
     }
 
 }
@@ -16,9 +16,13 @@
 package net.onrc.openvirtex.messages.statistics;
 
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
@@ -30,23 +34,51 @@ public class OVXTableStatistics extends OFTableStatistics implements
         VirtualizableStatistic, DevirtualizableStatistic {
 
     /*
-     * TODO Ideally, this would get information about the real flowtables and
-     * aggregate them in some smart way. This probably needs to be discussed
-     * with the overall OVX team
+     * The virtual switch has a single table holding the flows of the tenant.
+     * Its lookup and matched counts are those of the tenant's flows on the
+     * physical switches, taken from the cached flow statistics.
      */
 
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw,
             final OVXStatisticsRequest msg) {
+        StatisticsManager.whenAllFresh(
+                OVXFlowStatisticsRequest.getPhysicalSwitches(sw),
+                OFStatisticsType.FLOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        sendReply(sw, msg);
+                    }
+                });
+    }
+
+    private void sendReply(final OVXSwitch sw, final OVXStatisticsRequest msg) {
         this.activeCount = sw.getFlowTable().getFlowTable().size();
         this.tableId = 1;
+        long packets = 0;
+        final Set<Long> uniqueCookies = new HashSet<Long>();
+        for (PhysicalSwitch psw : OVXFlowStatisticsRequest
+                .getPhysicalSwitches(sw)) {
+            final List<OVXFlowStatisticsReply> reps = psw.getFlowStats(sw
+                    .getTenantId());
+            if (reps == null) {
+                continue;
+            }
+            for (OVXFlowStatisticsReply stat : reps) {
+                if (uniqueCookies.add(stat.getCookie())) {
+                    packets += stat.getPacketCount();
+                }
+            }
+        }
+        this.lookupCount = packets;
+        this.matchedCount = packets;
         /*
          * FIXME Currently preventing controllers from wildcarding the IP field.
          * That is if they actually look at this field.
          */
         this.wildcards = OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_DST_ALL
                 & ~OFMatch.OFPFW_NW_DST_ALL;
-        this.name = "OVX vFlowTable (incomplete)";
+        this.name = "OVX vFlowTable";
         this.maximumEntries = 100000;
         OVXStatisticsReply reply = new OVXStatisticsReply();
         reply.setXid(msg.getXid());
@@ -30,6 +30,7 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.Topology;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
@@ -96,6 +97,11 @@ public class ShortestPath implements Routable {
         }
     }
 
+    // Physical links sorted for route computation, and the topology they
+    // were taken from
+    private static List<PhysicalLink> sortedLinks;
+    private static Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> sortedTopology;
+
     private List<PhysicalLink> edges;
     private LinkedHashSet<PhysicalSwitch> settledNodes;
     private LinkedHashSet<PhysicalSwitch> unSettledNodes;
@@ -103,12 +109,30 @@ public class ShortestPath implements Routable {
     private Map<PhysicalSwitch, Integer> distance;
 
     /**
-     * Instantiates a new shortest path. Gets an immutable copy of the physical
-     * links from the physical network and stores it in a local list
+     * Instantiates a new shortest path. The physical links are taken from
+     * the topology of the physical network each time a path is computed.
      */
     public ShortestPath() {
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
+        this.edges = new ArrayList<PhysicalLink>();
+    }
+
+    /**
+     * Gets the physical links of the given topology in their natural order.
+     * The sorted links are kept until the topology changes.
+     *
+     * @param topology the physical topology
+     * @return the unmodifiable list of sorted links
+     */
+    private static synchronized List<PhysicalLink> getSortedLinks(
+            final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> topology) {
+        if (ShortestPath.sortedTopology != topology) {
+            final List<PhysicalLink> links = new ArrayList<PhysicalLink>(
+                    topology.getLinks());
+            Collections.sort(links);
+            ShortestPath.sortedLinks = Collections.unmodifiableList(links);
+            ShortestPath.sortedTopology = topology;
+        }
+        return ShortestPath.sortedLinks;
     }
 
     /**
@@ -305,7 +329,8 @@ public class ShortestPath implements Routable {
      *            the path
      * @return true if path is valid, false otherwise
      */
-    private boolean checkPath(LinkedList<PhysicalLink> path) {
+    private boolean checkPath(LinkedList<PhysicalLink> path,
+            final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> topology) {
         if (path == null) {
             return false;
         }
@@ -313,8 +338,7 @@ public class ShortestPath implements Routable {
             if (link == null) {
                 return false;
             }
-            if (PhysicalNetwork.getInstance().getLink(link.getDstPort(),
-                    link.getSrcPort()) == null) {
+            if (topology.getLink(link.getDstPort(), link.getSrcPort()) == null) {
                 return false;
             }
         }
@@ -349,10 +373,11 @@ public class ShortestPath implements Routable {
             }
         }
 
-        // Run Djikstra to compute all the paths (primary and backups)
-        List<PhysicalLink> phyLinkList = new ArrayList<PhysicalLink>(
-                PhysicalNetwork.getInstance().getLinks());
-        Collections.sort(phyLinkList);
+        // Run Djikstra to compute all the paths (primary and backups), all
+        // on the same version of the topology
+        final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> topology = PhysicalNetwork
+                .getInstance().getTopology();
+        List<PhysicalLink> phyLinkList = ShortestPath.getSortedLinks(topology);
         LinkedList<PhysicalLink> path = new LinkedList<>();
         LinkedList<PhysicalLink> revpath = new LinkedList<>();
 
@@ -387,7 +412,7 @@ public class ShortestPath implements Routable {
             path.clear();
             revpath.clear();
             path = computePath(srcPort, dstPort);
-            if (!checkPath(path)) {
+            if (!checkPath(path, topology)) {
                 if (i == 0) {
                     log.warn(
                             "Unable to compute the PRIMARY path for for big-switch {} "
@@ -410,8 +435,8 @@ public class ShortestPath implements Routable {
                 }
             } else {
                 for (final PhysicalLink link : path) {
-                    final PhysicalLink revhop = PhysicalNetwork.getInstance()
-                            .getLink(link.getDstPort(), link.getSrcPort());
+                    final PhysicalLink revhop = topology.getLink(
+                            link.getDstPort(), link.getSrcPort());
                     revpath.add(revhop);
                 }
                 Collections.reverse(revpath);
@@ -442,48 +467,48 @@ public class ShortestPath implements Routable {
 
     @Override
     public void setLinkPath(OVXLink ovxLink) throws PortMappingException {
-        // Run Dijkstra to compute all the paths (primary and backups)
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
-        Collections.sort(this.edges);
+        // Run Dijkstra to compute all the paths (primary and backups), all
+        // on the same version of the topology
+        final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> topology = PhysicalNetwork
+                .getInstance().getTopology();
+        this.edges = new ArrayList<PhysicalLink>(
+                ShortestPath.getSortedLinks(topology));
         LinkedList<PhysicalLink> path = new LinkedList<>();
-        PhysicalPort srcPathPort = PhysicalNetwork.getInstance()
-                .getNeighborPort(ovxLink.getSrcPort().getPhysicalPort());
-        PhysicalPort dstPathPort = PhysicalNetwork.getInstance()
-                .getNeighborPort(ovxLink.getDstPort().getPhysicalPort());
+        PhysicalPort srcPathPort = topology.getNeighborPort(ovxLink
+                .getSrcPort().getPhysicalPort());
+        PhysicalPort dstPathPort = topology.getNeighborPort(ovxLink
+                .getDstPort().getPhysicalPort());
         if ((srcPathPort == null) || (dstPathPort == null)) {
             throw new PortMappingException(
                     "Virtual link is mapped to missing endpoint(s)");
         }
 
-        if (PhysicalNetwork.getInstance().getLink(
-                ovxLink.getSrcPort().getPhysicalPort(),
-                ovxLink.getDstPort().getPhysicalPort()) != null) {
-            path.add(PhysicalNetwork.getInstance().getLink(
-                    ovxLink.getSrcPort().getPhysicalPort(),
-                    ovxLink.getDstPort().getPhysicalPort()));
+        final PhysicalLink direct = topology.getLink(ovxLink.getSrcPort()
+                .getPhysicalPort(), ovxLink.getDstPort().getPhysicalPort());
+        if (direct != null) {
+            path.add(direct);
             ovxLink.register(path, (byte) U8.f(MAXPRIORITY));
             log.debug(
                     "Virtual link {} embeds to a single-hop physical link {}. No automatic backups are possible.",
                     ovxLink.getLinkId(), path);
         } else if (srcPathPort.getParentSwitch() == dstPathPort
                 .getParentSwitch()) {
-            path.add(PhysicalNetwork.getInstance().getLink(
+            path.add(topology.getLink(
                     ovxLink.getSrcPort().getPhysicalPort(), srcPathPort));
-            path.add(PhysicalNetwork.getInstance().getLink(dstPathPort,
+            path.add(topology.getLink(dstPathPort,
                     ovxLink.getDstPort().getPhysicalPort()));
             ovxLink.register(path, (byte) U8.f(MAXPRIORITY));
             log.debug(
                     "Virtual link {} embeds to a dual-hop physical link {}. No automatic backups are possible.",
                     ovxLink.getLinkId(), path);
         } else {
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            this.edges.remove(topology.getLink(
                     ovxLink.getSrcPort().getPhysicalPort(), srcPathPort));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            this.edges.remove(topology.getLink(
                     srcPathPort, ovxLink.getSrcPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            this.edges.remove(topology.getLink(
                     dstPathPort, ovxLink.getDstPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            this.edges.remove(topology.getLink(
                     ovxLink.getDstPort().getPhysicalPort(), dstPathPort));
 
             for (Short i = 0; i <= U8.f(ovxLink.getAlg().getBackups()); i++) {
@@ -520,10 +545,9 @@ public class ShortestPath implements Routable {
                     }
                     break;
                 } else {
-                    path.addFirst(PhysicalNetwork.getInstance()
-                            .getLink(ovxLink.getSrcPort().getPhysicalPort(),
-                                    srcPathPort));
-                    path.add(PhysicalNetwork.getInstance().getLink(dstPathPort,
+                    path.addFirst(topology.getLink(ovxLink.getSrcPort()
+                            .getPhysicalPort(), srcPathPort));
+                    path.add(topology.getLink(dstPathPort,
                             ovxLink.getDstPort().getPhysicalPort()));
                     ovxLink.register(path, (byte) (U8.f(MAXPRIORITY) - i));
                 }
@@ -43,16 +43,20 @@ import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.events.Event;
+import net.onrc.openvirtex.events.EventLog;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.util.OVXHopRuleManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPort;
 import org.openflow.protocol.action.OFAction;
@@ -292,12 +296,23 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
                                     .getPortNumber(), fe);
                     counter++;
 
+                    OVXFlowTable ft = (OVXFlowTable) this.getSrcPort()
+                            .getParentSwitch().getFlowTable();
+                    long oldCookie = ft.getCookie(fe, false);
                     OVXFlowMod fm = fe.clone();
-                    fm.setCookie(((OVXFlowTable) this.getSrcPort()
-                            .getParentSwitch().getFlowTable()).getCookie(fe,
-                            true));
+                    fm.setCookie(ft.getCookie(fe, true));
                     this.generateRouteFMs(fm);
                     this.generateFirstFM(fm);
+                    /* hop entries of the old path */
+                    try {
+                        OVXMap.getInstance()
+                                .getVirtualNetwork(this.getTenantId())
+                                .getHopRuleManager().release(oldCookie);
+                    } catch (NetworkMappingException e) {
+                        SwitchRoute.log.warn(
+                                "Could not release hop entries of the old path: {}",
+                                e);
+                    }
                 }
             }
         }
@@ -316,6 +331,16 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
      * @param fm the virtual flow mod
      */
     public void generateRouteFMs(final OVXFlowMod fm) {
+        /* the edge flow on whose behalf the hop entries are installed */
+        final long ref = fm.getCookie();
+        /* the route label, if links and routes are aggregated */
+        OVXLinkUtils rUtils = null;
+        if (OVXLinkUtils.isAggregated()) {
+            rUtils = this.getRouteUtils(fm.getMatch());
+            if (rUtils == null) {
+                return;
+            }
+        }
         // This list includes all the actions that have to be applied at the end
         // of the route
         final LinkedList<OFAction> outActions = new LinkedList<OFAction>();
@@ -327,6 +352,10 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
          */
         if (this.getDstPort().isEdge()) {
             outActions.addAll(IPMapper.prependUnRewriteActions(fm.getMatch()));
+            if (rUtils != null) {
+                /* restore the host addresses at the egress edge */
+                outActions.addAll(rUtils.unsetLinkFields());
+            }
         } else {
             final OVXLink link = this.getDstPort().getLink().getOutLink();
             Integer linkId = link.getLinkId();
@@ -373,17 +402,23 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
                 .getParentSwitch()).getRoute(this.getSrcPort(),
                 this.getDstPort());
         LinkedList<PhysicalLink> reverseLinks = new LinkedList<>();
+        final OVXHopRuleManager hopRules;
         try {
             for (final PhysicalLink phyLink : OVXMap.getInstance().getRoute(
                     route)) {
                 reverseLinks.add(new PhysicalLink(phyLink.getDstPort(), phyLink
                         .getSrcPort()));
             }
-        } catch (LinkMappingException e) {
+            hopRules = OVXMap.getInstance()
+                    .getVirtualNetwork(this.getTenantId()).getHopRuleManager();
+        } catch (LinkMappingException | NetworkMappingException e) {
             SwitchRoute.log.warn("Could not fetch route : {}", e);
             return;
         }
         Collections.reverse(reverseLinks);
+        if (rUtils != null) {
+            rUtils.rewriteMatch(fm.getMatch());
+        }
 
         for (final PhysicalLink phyLink : reverseLinks) {
             if (outPort != null) {
@@ -393,11 +428,13 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
                         + OFActionOutput.MINIMUM_LENGTH);
                 fm.setActions(Arrays.asList((OFAction) new OFActionOutput(
                         outPort.getPortNumber(), (short) 0xffff)));
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
-                SwitchRoute.log.debug(
-                        "Sending big-switch route intermediate fm to sw {}: {}",
-                        phyLink.getSrcPort().getParentSwitch().getName(), fm);
+                if (hopRules.install(phyLink.getSrcPort().getParentSwitch(),
+                        fm, ref)) {
+                    SwitchRoute.log.debug(
+                            "Sending big-switch route intermediate fm to sw {}: {}",
+                            phyLink.getSrcPort().getParentSwitch().getName(),
+                            fm);
+                }
 
             } else {
                 /*
@@ -414,10 +451,18 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
                     actLenght += act.getLengthU();
                 }
                 fm.setLengthU(OFFlowMod.MINIMUM_LENGTH + actLenght);
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
-                SwitchRoute.log.debug("Sending big-switch route last fm to sw {}: {}",
-                        phyLink.getSrcPort().getParentSwitch().getName(), fm);
+                if (hopRules.install(phyLink.getSrcPort().getParentSwitch(),
+                        fm, ref)) {
+                    SwitchRoute.log.debug(
+                            "Sending big-switch route last fm to sw {}: {}",
+                            phyLink.getSrcPort().getParentSwitch().getName(),
+                            fm);
+                }
+                if (rUtils != null) {
+                    /* the remaining hops are shared by the whole route */
+                    rUtils.rewriteTransitMatch(fm.getMatch());
+                    fm.setPriority(OVXLinkUtils.AGGREGATE_PRIORITY);
+                }
             }
             outPort = phyLink.getDstPort();
         }
@@ -440,6 +485,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
     private void generateFirstFM(OVXFlowMod fm) {
         fm.setBufferId(OFPacketOut.BUFFER_ID_NONE);
         final List<OFAction> approvedActions = new LinkedList<OFAction>();
+        final List<OFAction> routeActions = this.setRouteFields(fm.getMatch());
         if (this.getSrcPort().isLink()) {
             OVXPort dstPort = null;
             try {
@@ -488,6 +534,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
         }
 
         fm.getMatch().setInputPort(this.getSrcPort().getPhysicalPortNumber());
+        approvedActions.addAll(routeActions);
 
         // add the output action with the physical outPort (srcPort of the
         // route)
@@ -512,15 +559,60 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements
                 .getSrcSwitch().getName(), fm);
     }
 
+    /**
+     * Gets the actions that label packets entering this route with the route
+     * and flow, if links and routes are aggregated.
+     *
+     * @param match the virtual match of the flow entering the route
+     * @return the list of actions, empty if not aggregated
+     */
+    public List<OFAction> setRouteFields(final OFMatch match) {
+        if (OVXLinkUtils.isAggregated()) {
+            final OVXLinkUtils rUtils = this.getRouteUtils(match);
+            if (rUtils != null) {
+                return rUtils.setLinkFields();
+            }
+        }
+        return new LinkedList<OFAction>();
+    }
+
+    /**
+     * Gets the label of this route for the flow with the given virtual match.
+     *
+     * @param match the virtual match
+     * @return the route label, or null if no flow id can be assigned
+     */
+    private OVXLinkUtils getRouteUtils(final OFMatch match) {
+        try {
+            final Integer flowId = OVXMap
+                    .getInstance()
+                    .getVirtualNetwork(this.getTenantId())
+                    .getFlowManager()
+                    .storeFlowValues(match.getDataLayerSource(),
+                            match.getDataLayerDestination());
+            return new OVXLinkUtils(this.getTenantId(), this.getRouteId(),
+                    flowId, true);
+        } catch (IndexOutOfBoundException | NetworkMappingException e) {
+            SwitchRoute.log.error(
+                    "Virtual network {}: unable to label route {} for match {}: {}",
+                    this.getTenantId(), this.getRouteId(), match, e);
+            return null;
+        }
+    }
+
     /**
      * Registers switch route in persistent storage.
      */
     public void register() {
         DBManager.getInstance().save(this);
+        EventLog.getInstance().publish(Event.Type.ADDED, SwitchRoute.DB_KEY,
+                this);
     }
 
     @Override
     public void unregister() {
+        EventLog.getInstance().publish(Event.Type.REMOVED, SwitchRoute.DB_KEY,
+                this);
         this.srcPort.getParentSwitch().getMap().removeRoute(this);
     }
 
@@ -15,7 +15,14 @@
  ******************************************************************************/
 package net.onrc.openvirtex.util;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,13 +31,35 @@ import org.openflow.util.U16;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.exceptions.DuplicateIndexException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 
+/**
+ * Allocates unique indexes without locking. The indexes are kept in a
+ * bitmap of atomic longs, split in chunks that are only created when an
+ * index is taken from them. A summary bit per bitmap word tells if the word
+ * is full, and a top-level summary bit per chunk tells if the chunk is full,
+ * so allocation skips full chunks 64 at a time without touching them.
+ */
 public class BitSetIndex {
     private static Logger log = LogManager.getLogger(BitSetIndex.class.getName());
-    private BitSet set;
-    private IndexType type;
+    // 64 indexes per word, 1024 words per chunk
+    private static final int WORD_BITS = 6;
+    private static final int CHUNK_WORD_BITS = 10;
+    private static final int CHUNK_BITS = WORD_BITS + CHUNK_WORD_BITS;
+    private static final int CHUNK_WORDS = 1 << CHUNK_WORD_BITS;
+    // Occupancy above which a warning is logged, and below which it is reset
+    private static final double NEARLY_FULL = 0.9;
+    private static final double NOT_FULL = 0.8;
+
+    private final IndexType type;
+    private final long max;
+    private final ConcurrentHashMap<Long, Chunk> chunks;
+    // One bit per full chunk; chunks that were never created are free
+    private final AtomicLongArray full;
+    private final AtomicLong used;
+    private final AtomicBoolean nearlyFull;
 
     public enum IndexType {
         /*
@@ -38,36 +67,62 @@ public class BitSetIndex {
          * When the user request a new id, the class check if an id in the range
          * from 1 to the biggest index is available.
          */
-        TENANT_ID((int) Math.pow(2, OpenVirteXController.getInstance()
-                .getNumberVirtualNets())), SWITCH_ID((int) Math.pow(2, 32)), LINK_ID(
-                getLinkMaxValue()), ROUTE_ID((int) Math.pow(2, 24)), PORT_ID(
-                U16.f(OFPort.OFPP_MAX.getValue())), FLOW_ID((int) Math.pow(2,
-                24)), HOST_ID((int) Math.pow(2, 32)), FLOW_COUNTER(
-                getLinkMaxValue()), IP_ID((int) Math
-                .pow(2, (32 - OpenVirteXController.getInstance()
-                        .getNumberVirtualNets()))), DEFAULT(1000);
+        TENANT_ID(1L << OpenVirteXController.getInstance()
+                .getNumberVirtualNets()), SWITCH_ID(1L << 32), LINK_ID(
+                getLinkMaxValue()), ROUTE_ID(getRouteMaxValue()), PORT_ID(
+                U16.f(OFPort.OFPP_MAX.getValue())), FLOW_ID(1L << 24), HOST_ID(
+                1L << 32), FLOW_COUNTER(getFlowMaxValue()), IP_ID(1L << 32
+                - OpenVirteXController.getInstance().getNumberVirtualNets()), DEFAULT(
+                1000);
 
-        protected Integer value;
+        protected Long value;
 
         private static Integer getLinkMaxValue() {
-            if (OpenVirteXController.getInstance().getOvxLinkField().getValue() == OVXLinkField.MAC_ADDRESS
+            if (OVXLinkUtils.isAggregated()) {
+                /* the link and route ids share the label with the tenant id */
+                return (int) Math.pow(2, 23 - OpenVirteXController
+                        .getInstance().getNumberVirtualNets());
+            } else if (OpenVirteXController.getInstance().getOvxLinkField().getValue() == OVXLinkField.MAC_ADDRESS
                     .getValue()) {
                 return (int) Math.pow(2, ((48 - OpenVirteXController
                         .getInstance().getNumberVirtualNets()) / 2));
             } else if (OpenVirteXController.getInstance().getOvxLinkField()
                     .getValue() == OVXLinkField.VLAN.getValue()) {
-                return (int) Math.pow(2, ((12 - OpenVirteXController
-                        .getInstance().getNumberVirtualNets()) / 2));
+                /*
+                 * the link id shares the VLAN id with the tenant id; the all
+                 * ones link id is left out, it would encode the reserved
+                 * VLAN id 0xFFF
+                 */
+                return (int) Math.pow(2, 12 - OpenVirteXController
+                        .getInstance().getNumberVirtualNets()) - 1;
             } else {
                 return 1000;
             }
         }
 
-        private IndexType(final Integer value) {
+        private static Integer getRouteMaxValue() {
+            if (OVXLinkUtils.isAggregated()) {
+                return getLinkMaxValue();
+            }
+            return (int) Math.pow(2, 24);
+        }
+
+        private static Integer getFlowMaxValue() {
+            if (OVXLinkUtils.isAggregated() || !OVXLinkUtils.usesFlowId()) {
+                /*
+                 * the flow id has the destination MAC address to itself, or
+                 * is not carried by the packets at all
+                 */
+                return (int) Math.pow(2, 24);
+            }
+            return getLinkMaxValue();
+        }
+
+        private IndexType(final long value) {
             this.value = value;
         }
 
-        private Integer getValue() {
+        public Long getValue() {
             return this.value;
         }
 
@@ -86,51 +141,375 @@ public class BitSetIndex {
     }
 
     public BitSetIndex(IndexType type) {
-        this.set = new BitSet();
+        this(type, type.getValue());
+    }
+
+    /*
+     * Index whose bound is not the default one of its type, e.g. link and
+     * flow ids of a virtual network with its own label budget.
+     */
+    public BitSetIndex(IndexType type, long max) {
         this.type = type;
-        // Set the first bit to true, in order to start each index from 1
-        this.set.flip(0);
+        this.max = max;
+        this.chunks = new ConcurrentHashMap<Long, Chunk>();
+        this.full = new AtomicLongArray((int) ((max - 1 >>> CHUNK_BITS)
+                + (1 << WORD_BITS) >>> WORD_BITS));
+        this.used = new AtomicLong();
+        this.nearlyFull = new AtomicBoolean();
+        // Reserve index 0, in order to start each index from 1
+        this.chunk(0).set(0);
     }
 
-    public synchronized Integer getNewIndex() throws IndexOutOfBoundException {
-        Integer index = this.set.nextClearBit(0);
-        try {
-            this.getNewIndex(index);
-        } catch (DuplicateIndexException e) {
-            log.error("Could not reserve new index {}: {}", index, e);
-            // Will never happen as we obtained the next index through
-            // nextClearBit()
+    public Integer getNewIndex() throws IndexOutOfBoundException {
+        final long index = this.getNewLongIndex();
+        if (index > Integer.MAX_VALUE) {
+            this.releaseIndex(index);
+            throw new IndexOutOfBoundException("No int id available in range [0,"
+                    + this.max + "]");
         }
+        return (int) index;
+    }
+
+    /**
+     * Allocates the lowest free index, without locking.
+     *
+     * @return the index
+     * @throws IndexOutOfBoundException
+     *             if all indexes are in use
+     */
+    public long getNewLongIndex() throws IndexOutOfBoundException {
+        final long lastChunk = this.max - 1 >>> CHUNK_BITS;
+        for (int s = 0; s < this.full.length(); s++) {
+            long full = this.full.get(s);
+            while (full != -1L) {
+                final long c = (long) s << WORD_BITS
+                        | Long.numberOfTrailingZeros(~full);
+                if (c > lastChunk) {
+                    break;
+                }
+                final Chunk chunk = this.chunk(c);
+                final long index = chunk.allocate(c << CHUNK_BITS, this.max);
+                if (index >= 0) {
+                    this.allocated(1);
+                    return index;
+                }
+                this.markFull(c, chunk);
+                full = this.full.get(s) | 1L << c;
+            }
+        }
+        throw new IndexOutOfBoundException("No id available in range [0,"
+                + this.max + "]");
+    }
+
+    public Integer getNewIndex(Integer index)
+            throws IndexOutOfBoundException, DuplicateIndexException {
+        this.reserveIndex(index);
         return index;
     }
 
-    public synchronized Integer getNewIndex(Integer index)
+    /**
+     * Reserves the given index.
+     *
+     * @param index
+     *            the index
+     * @throws IndexOutOfBoundException
+     *             if the index is out of range
+     * @throws DuplicateIndexException
+     *             if the index is already used
+     */
+    public void reserveIndex(final long index)
             throws IndexOutOfBoundException, DuplicateIndexException {
-        if (index < type.getValue()) {
-            if (!this.set.get(index)) {
-                this.set.flip(index);
-                return index;
-            } else {
-                throw new DuplicateIndexException("Index " + index
-                        + " already used");
+        this.checkRange(index);
+        if (!this.chunk(index >>> CHUNK_BITS).set(index)) {
+            throw new DuplicateIndexException("Index " + index
+                    + " already used");
+        }
+        this.allocated(1);
+    }
+
+    /**
+     * Reserves the given indexes at once, e.g. when restoring from storage.
+     * Indexes sharing a bitmap word are set with a single update; indexes
+     * that are already used are skipped.
+     *
+     * @param indexes
+     *            the indexes
+     * @return the number of indexes that were reserved
+     * @throws IndexOutOfBoundException
+     *             if any index is out of range; no index is reserved then
+     */
+    public int reserveIndices(final Collection<? extends Number> indexes)
+            throws IndexOutOfBoundException {
+        final long[] sorted = new long[indexes.size()];
+        int n = 0;
+        for (final Number index : indexes) {
+            sorted[n] = index.longValue();
+            this.checkRange(sorted[n++]);
+        }
+        Arrays.sort(sorted);
+        int reserved = 0;
+        for (int i = 0; i < n;) {
+            final long word = sorted[i] >>> WORD_BITS;
+            long mask = 0;
+            for (; i < n && sorted[i] >>> WORD_BITS == word; i++) {
+                mask |= 1L << sorted[i];
             }
-        } else {
-            throw new IndexOutOfBoundException("No id available in range [0,"
-                    + type.getValue().toString() + "]");
+            reserved += this.chunk(word >>> CHUNK_WORD_BITS).setAll(
+                    (int) (word & CHUNK_WORDS - 1), mask);
+        }
+        if (reserved < n) {
+            BitSetIndex.log.warn("{} of {} {} indexes were already used",
+                    n - reserved, n, this.type);
         }
+        this.allocated(reserved);
+        return reserved;
     }
 
-    public synchronized boolean releaseIndex(Integer index) {
-        if (this.set.get(index)) {
-            this.set.flip(index);
-            return true;
-        } else {
+    public boolean releaseIndex(final long index) {
+        if (index <= 0 || index >= this.max) {
+            return false;
+        }
+        final long c = index >>> CHUNK_BITS;
+        final Chunk chunk = this.chunks.get(c);
+        if (chunk == null || !chunk.clear(index)) {
             return false;
         }
+        this.released();
+        this.clearFull(c);
+        return true;
+    }
+
+    /**
+     * Gets the number of indexes in use.
+     *
+     * @return the number of used indexes
+     */
+    public long getUsed() {
+        return this.used.get();
+    }
+
+    /**
+     * Gets the number of indexes that can be used, i.e. the range without
+     * index 0.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return this.max - 1;
+    }
+
+    /**
+     * Gets the fraction of the index range in use.
+     *
+     * @return the occupancy, between 0 and 1
+     */
+    public double getOccupancy() {
+        return this.getCapacity() <= 0 ? 1.0 : (double) this.getUsed()
+                / this.getCapacity();
+    }
+
+    /**
+     * Gets the occupancy of the index range, to be reported to operators.
+     *
+     * @return map of used indexes, capacity and occupancy
+     */
+    public Map<String, Object> getUsage() {
+        final Map<String, Object> usage = new HashMap<String, Object>();
+        usage.put("used", this.getUsed());
+        usage.put("capacity", this.getCapacity());
+        usage.put("occupancy", this.getOccupancy());
+        return usage;
     }
 
     public void reset() {
-        this.set.clear();
-        this.set.flip(0);
+        this.chunks.clear();
+        for (int s = 0; s < this.full.length(); s++) {
+            this.full.set(s, 0);
+        }
+        this.used.set(0);
+        this.nearlyFull.set(false);
+        this.chunk(0).set(0);
+    }
+
+    private void checkRange(final long index) throws IndexOutOfBoundException {
+        if (index < 0 || index >= this.max) {
+            throw new IndexOutOfBoundException("Index " + index
+                    + " not in range [0," + this.max + "]");
+        }
+    }
+
+    private Chunk chunk(final long c) {
+        Chunk chunk = this.chunks.get(c);
+        if (chunk == null) {
+            final Chunk created = new Chunk();
+            chunk = this.chunks.putIfAbsent(c, created);
+            if (chunk == null) {
+                chunk = created;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Gets the number of chunks created so far.
+     *
+     * @return the number of chunks
+     */
+    int getChunkCount() {
+        return this.chunks.size();
+    }
+
+    /*
+     * Marks a chunk full in the top-level summary once allocation from it
+     * failed, unless an index of the chunk was released in the meantime.
+     */
+    private void markFull(final long c, final Chunk chunk) {
+        final int s = (int) (c >>> WORD_BITS);
+        final long bit = 1L << c;
+        long full;
+        do {
+            full = this.full.get(s);
+        } while ((full & bit) == 0
+                && !this.full.compareAndSet(s, full, full | bit));
+        if (!chunk.isFull(c << CHUNK_BITS, this.max)) {
+            this.clearFull(c);
+        }
+    }
+
+    private void clearFull(final long c) {
+        final int s = (int) (c >>> WORD_BITS);
+        final long bit = 1L << c;
+        long full;
+        do {
+            full = this.full.get(s);
+        } while ((full & bit) != 0
+                && !this.full.compareAndSet(s, full, full & ~bit));
+    }
+
+    private void allocated(final int count) {
+        final long inUse = this.used.addAndGet(count);
+        if (inUse >= this.getCapacity() * NEARLY_FULL
+                && this.nearlyFull.compareAndSet(false, true)) {
+            BitSetIndex.log.warn(
+                    "{} index space is nearly full: {} of {} ids in use",
+                    this.type, inUse, this.getCapacity());
+        }
+    }
+
+    private void released() {
+        final long inUse = this.used.decrementAndGet();
+        if (inUse < this.getCapacity() * NOT_FULL) {
+            this.nearlyFull.set(false);
+        }
+    }
+
+    /*
+     * Bitmap of 2^CHUNK_BITS indexes: one bit per index in the words, and one
+     * bit per full word in the summary. The summary is only a hint: a word is
+     * always checked before an index is taken from it.
+     */
+    private static final class Chunk {
+        private final AtomicLongArray words = new AtomicLongArray(CHUNK_WORDS);
+        private final AtomicLongArray summary = new AtomicLongArray(
+                CHUNK_WORDS >> WORD_BITS);
+
+        long allocate(final long base, final long max) {
+            for (int s = 0; s < this.summary.length(); s++) {
+                long full = this.summary.get(s);
+                while (full != -1L) {
+                    final int w = s << WORD_BITS
+                            | Long.numberOfTrailingZeros(~full);
+                    final long bits = this.words.get(w);
+                    if (bits == -1L) {
+                        this.markFull(w);
+                        full = this.summary.get(s) | 1L << w;
+                        continue;
+                    }
+                    final int b = Long.numberOfTrailingZeros(~bits);
+                    final long index = base + ((long) w << WORD_BITS) + b;
+                    if (index >= max) {
+                        return -1;
+                    }
+                    if (this.words.compareAndSet(w, bits, bits | 1L << b)) {
+                        if ((bits | 1L << b) == -1L) {
+                            this.markFull(w);
+                        }
+                        return index;
+                    }
+                    full = this.summary.get(s);
+                }
+            }
+            return -1;
+        }
+
+        /*
+         * Checks if the chunk has no free index below max. Only called once
+         * allocation failed, so the words are checked rather than the summary
+         * that may lag behind them.
+         */
+        boolean isFull(final long base, final long max) {
+            for (int w = 0; w < CHUNK_WORDS; w++) {
+                final long bits = this.words.get(w);
+                if (bits != -1L) {
+                    return base + ((long) w << WORD_BITS)
+                            + Long.numberOfTrailingZeros(~bits) >= max;
+                }
+            }
+            return true;
+        }
+
+        boolean set(final long index) {
+            final int w = (int) (index >>> WORD_BITS & CHUNK_WORDS - 1);
+            return this.setAll(w, 1L << index) == 1;
+        }
+
+        int setAll(final int w, final long mask) {
+            long bits;
+            do {
+                bits = this.words.get(w);
+            } while (!this.words.compareAndSet(w, bits, bits | mask));
+            if ((bits | mask) == -1L) {
+                this.markFull(w);
+            }
+            return Long.bitCount(mask & ~bits);
+        }
+
+        boolean clear(final long index) {
+            final int w = (int) (index >>> WORD_BITS & CHUNK_WORDS - 1);
+            final long bit = 1L << index;
+            long bits;
+            do {
+                bits = this.words.get(w);
+                if ((bits & bit) == 0) {
+                    return false;
+                }
+            } while (!this.words.compareAndSet(w, bits, bits & ~bit));
+            this.clearFull(w);
+            return true;
+        }
+
+        private void markFull(final int w) {
+            final int s = w >> WORD_BITS;
+            final long bit = 1L << w;
+            long full;
+            do {
+                full = this.summary.get(s);
+            } while ((full & bit) == 0
+                    && !this.summary.compareAndSet(s, full, full | bit));
+            // an index may have been released in the meantime
+            if (this.words.get(w) != -1L) {
+                this.clearFull(w);
+            }
+        }
+
+        private void clearFull(final int w) {
+            final int s = w >> WORD_BITS;
+            final long bit = 1L << w;
+            long full;
+            do {
+                full = this.summary.get(s);
+            } while ((full & bit) != 0
+                    && !this.summary.compareAndSet(s, full, full & ~bit));
+        }
     }
 }
@@ -21,6 +21,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 import net.onrc.openvirtex.elements.host.Host;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
@@ -41,13 +43,22 @@ public class OVXFlowManager {
 
     public OVXFlowManager(Integer tenantId, Collection<Host> hostList) {
         this.flowValues = HashBiMap.create();
-        this.flowCounter = new BitSetIndex(IndexType.FLOW_COUNTER);
+        this.flowCounter = new BitSetIndex(IndexType.FLOW_COUNTER,
+                OVXLinkBudget.getInstance().getFlowIdLimit(tenantId));
         this.tenantId = tenantId;
         this.hostList = hostList;
     }
 
+    public BitSetIndex getFlowCounter() {
+        return this.flowCounter;
+    }
+
     public Integer storeFlowValues(final byte[] srcMac, final byte[] dstMac)
             throws IndexOutOfBoundException {
+        if (!OVXLinkUtils.usesFlowId()) {
+            // packets keep their MAC addresses, nothing to restore
+            return 0;
+        }
         // TODO: Optimize flow numbers
         final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
                 dstMac));
@@ -78,6 +89,9 @@ public class OVXFlowManager {
 
     public Integer getFlowId(final byte[] srcMac, final byte[] dstMac)
             throws DroppedMessageException {
+        if (!OVXLinkUtils.usesFlowId()) {
+            return 0;
+        }
         final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
                 dstMac));
         final Integer flowId = this.flowValues.inverse().get(dualMac);
@@ -109,6 +123,9 @@ public class OVXFlowManager {
     }
 
     public void boot() throws IndexOutOfBoundException {
+        if (!OVXLinkUtils.usesFlowId()) {
+            return;
+        }
         final List<MACAddress> macList = this.getMACList();
         for (final MACAddress srcMac : macList) {
             this.storeFlowValues(srcMac.toBytes(),
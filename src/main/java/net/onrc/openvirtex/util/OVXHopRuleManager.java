@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+
+/**
+ * Keeps track of the flow entries a virtual network installs on the
+ * intermediate hops of its virtual links and big switch routes.
+ * <p>
+ * Hop entries are shared by all edge flows that cross the same hop with the
+ * same encoded match. Each edge flow, identified by its physical cookie
+ * (unique across the switches of the network, see
+ * {@link net.onrc.openvirtex.elements.network.OVXNetwork#generateCookie()}),
+ * holds a reference to the hop entries it needs. A hop entry is only written
+ * to the switch when it is not installed yet, its actions change or the
+ * switch lost it, and is deleted when the last edge flow referencing it goes
+ * away.
+ */
+public class OVXHopRuleManager {
+    static Logger log = LogManager.getLogger(OVXHopRuleManager.class.getName());
+
+    private final Integer tenantId;
+    // Hop entries installed by this virtual network
+    private final Map<HopKey, HopRule> rules;
+    // Hop entries referenced by each edge flow, by physical cookie
+    private final Map<Long, Set<HopKey>> refs;
+
+    /**
+     * Identifies a hop entry by switch, priority and match. The match is
+     * compared on its string form, which ignores wildcarded fields.
+     */
+    private static final class HopKey {
+        private final long dpid;
+        private final short priority;
+        private final String match;
+
+        HopKey(final long dpid, final OFFlowMod fm) {
+            this.dpid = dpid;
+            this.priority = fm.getPriority();
+            this.match = fm.getMatch().toString();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (this.dpid ^ (this.dpid >>> 32));
+            result = prime * result + this.priority;
+            result = prime * result + this.match.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof HopKey)) {
+                return false;
+            }
+            final HopKey other = (HopKey) obj;
+            return this.dpid == other.dpid && this.priority == other.priority
+                    && this.match.equals(other.match);
+        }
+    }
+
+    /**
+     * A hop entry installed on a physical switch, and the number of edge
+     * flows referencing it. An entry is stale when its switch disconnected,
+     * and is written out again by the next edge flow that needs it.
+     */
+    private static final class HopRule {
+        private PhysicalSwitch sw;
+        private final OVXFlowMod fm;
+        private int count;
+        private boolean stale;
+
+        HopRule(final PhysicalSwitch sw, final OVXFlowMod fm) {
+            this.sw = sw;
+            this.fm = fm;
+            this.count = 0;
+            this.stale = false;
+        }
+    }
+
+    public OVXHopRuleManager(final Integer tenantId) {
+        this.tenantId = tenantId;
+        this.rules = new HashMap<HopKey, HopRule>();
+        this.refs = new HashMap<Long, Set<HopKey>>();
+    }
+
+    /**
+     * Installs a hop entry on behalf of an edge flow. The FlowMod is only
+     * sent if the entry is not on the switch yet, has different actions, or
+     * was lost because the switch disconnected or reconnected since.
+     *
+     * @param sw the intermediate physical switch
+     * @param fm the hop FlowMod
+     * @param ref the physical cookie of the edge flow
+     * @return true if the FlowMod was sent to the switch
+     */
+    public synchronized boolean install(final PhysicalSwitch sw,
+            final OVXFlowMod fm, final long ref) {
+        final HopKey key = new HopKey(sw.getSwitchId(), fm);
+        HopRule rule = this.rules.get(key);
+        boolean send = false;
+        if (rule == null || !rule.fm.getActions().equals(fm.getActions())) {
+            final HopRule old = rule;
+            rule = new HopRule(sw, fm.clone());
+            if (old != null) {
+                rule.count = old.count;
+            }
+            this.rules.put(key, rule);
+            send = true;
+        } else if (rule.stale || rule.sw != sw) {
+            /* the switch dropped its flows, or is a new connection */
+            rule.sw = sw;
+            rule.stale = false;
+            send = true;
+        }
+        Set<HopKey> keys = this.refs.get(ref);
+        if (keys == null) {
+            keys = new HashSet<HopKey>();
+            this.refs.put(ref, keys);
+        }
+        if (keys.add(key)) {
+            rule.count++;
+        }
+        if (send) {
+            sw.sendMsg(fm, sw);
+        } else {
+            log.debug(
+                    "Virtual network {}: hop entry on sw {} already installed, skipping {}",
+                    this.tenantId, sw.getSwitchName(), fm);
+        }
+        return send;
+    }
+
+    /**
+     * Releases the hop entries referenced by an edge flow. Entries that are
+     * no longer referenced are deleted from their switch.
+     *
+     * @param ref the physical cookie of the edge flow
+     */
+    public synchronized void release(final long ref) {
+        final Set<HopKey> keys = this.refs.remove(ref);
+        if (keys == null) {
+            return;
+        }
+        for (HopKey key : keys) {
+            final HopRule rule = this.rules.get(key);
+            if (rule != null && --rule.count <= 0) {
+                this.rules.remove(key);
+                this.sendDelete(rule);
+            }
+        }
+    }
+
+    /**
+     * Writes out again the hop entries that are still referenced but carry
+     * one of the given cookies, after the flows with these cookies were
+     * deleted from the switches by cookie. Such an entry was installed on
+     * behalf of a released edge flow and is shared with others; it takes the
+     * cookie of one of the edge flows still referencing it.
+     *
+     * @param cookies the physical cookies of the deleted flows
+     * @return the number of hop entries sent
+     */
+    public synchronized int reinstall(final Set<Long> cookies) {
+        int count = 0;
+        for (Map.Entry<HopKey, HopRule> entry : this.rules.entrySet()) {
+            final HopRule rule = entry.getValue();
+            if (!cookies.contains(rule.fm.getCookie())) {
+                continue;
+            }
+            final Long owner = this.getRef(entry.getKey());
+            if (owner == null) {
+                continue;
+            }
+            rule.fm.setCookie(owner);
+            rule.stale = false;
+            log.debug("Virtual network {}: reinstalling hop entry on sw {}: {}",
+                    this.tenantId, rule.sw.getSwitchName(), rule.fm);
+            rule.sw.sendMsg(rule.fm.clone(), rule.sw);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes all the hop entries of the virtual network, e.g. when it is
+     * torn down.
+     */
+    public synchronized void clear() {
+        final Iterator<HopRule> itr = this.rules.values().iterator();
+        while (itr.hasNext()) {
+            this.sendDelete(itr.next());
+            itr.remove();
+        }
+        this.refs.clear();
+    }
+
+    /**
+     * Marks the hop entries on a switch as lost, e.g. when the switch
+     * disconnects and its flows are wiped. The entries keep their references,
+     * and are sent again the next time an edge flow installs them.
+     *
+     * @param dpid the physical switch DPID
+     * @return the number of hop entries marked
+     */
+    public synchronized int invalidate(final long dpid) {
+        int count = 0;
+        for (Map.Entry<HopKey, HopRule> entry : this.rules.entrySet()) {
+            if (entry.getKey().dpid == dpid) {
+                entry.getValue().stale = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops all the hop entries of the virtual network without deleting them
+     * from the switches, for when all flows of the network are removed from
+     * the switches by cookie anyway.
+     */
+    public synchronized void forget() {
+        this.rules.clear();
+        this.refs.clear();
+    }
+
+    /**
+     * @return the number of hop entries installed
+     */
+    public synchronized int size() {
+        return this.rules.size();
+    }
+
+    private Long getRef(final HopKey key) {
+        for (Map.Entry<Long, Set<HopKey>> ref : this.refs.entrySet()) {
+            if (ref.getValue().contains(key)) {
+                return ref.getKey();
+            }
+        }
+        return null;
+    }
+
+    private void sendDelete(final HopRule rule) {
+        final OVXFlowMod dFm = new OVXFlowMod();
+        dFm.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+        dFm.setMatch(rule.fm.getMatch());
+        dFm.setPriority(rule.fm.getPriority());
+        dFm.setCookie(rule.fm.getCookie());
+        dFm.setOutPort(OFPort.OFPP_NONE.getValue());
+        dFm.setActions(new LinkedList<OFAction>());
+        dFm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
+        log.debug("Virtual network {}: deleting unreferenced hop entry on sw {}: {}",
+                this.tenantId, rule.sw.getSwitchName(), dFm);
+        rule.sw.sendMsg(dFm, rule.sw);
+    }
+}
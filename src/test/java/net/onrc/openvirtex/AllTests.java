@@ -19,9 +19,13 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import net.onrc.openvirtex.api.service.handlers.tenant.APITests;
 import net.onrc.openvirtex.core.BaseCtrlTests;
+import net.onrc.openvirtex.db.BaseDBTests;
 import net.onrc.openvirtex.elements.BaseMapTests;
 import net.onrc.openvirtex.elements.address.BaseIPTests;
 import net.onrc.openvirtex.elements.datapath.BaseTranslatorTests;
+import net.onrc.openvirtex.elements.link.BaseLinkTests;
+import net.onrc.openvirtex.events.BaseEventTests;
+import net.onrc.openvirtex.util.BaseUtilTests;
 
 /**
  * Parent class for tests.
@@ -42,7 +46,11 @@ public final class AllTests {
         suite.addTest(BaseMapTests.suite());
         suite.addTest(BaseIPTests.suite());
         suite.addTest(BaseTranslatorTests.suite());
+        suite.addTest(BaseLinkTests.suite());
         suite.addTest(APITests.suite());
+        suite.addTest(BaseUtilTests.suite());
+        suite.addTest(BaseDBTests.suite());
+        suite.addTest(BaseEventTests.suite());
         // $JUnit-END$
         return suite;
     }
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
@@ -357,4 +358,11 @@ public class AbstractAPICalls extends TestCase {
         /* http://junit.sourceforge.net/doc/faq/faq.htm#running_11 */
     }
 
+    public JSONRPC2Response createNetworkTopology(
+            final Map<String, Object> topology) {
+        final CreateOVXNetworkTopology ct = new CreateOVXNetworkTopology();
+
+        return ct.process(topology);
+    }
+
 }
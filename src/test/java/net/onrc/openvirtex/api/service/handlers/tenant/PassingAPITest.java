@@ -15,22 +15,34 @@
  ******************************************************************************/
 package net.onrc.openvirtex.api.service.handlers.tenant;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
 import junit.framework.TestSuite;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.api.service.handlers.StreamingResult;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalFlowtable;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TenantTeardown;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
 
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
 import org.openflow.protocol.OFPhysicalPort;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
@@ -365,6 +377,11 @@ public class PassingAPITest extends AbstractAPICalls {
         final JSONRPC2Response resp = super.removeNetwork(1);
 
         Assert.assertNull(resp.getResult());
+        Assert.assertEquals(TenantTeardown.Stage.DONE, TenantTeardown
+                .getTeardown(1).getStage());
+        Assert.assertFalse(OVXMap.getInstance().listVirtualNetworks()
+                .containsKey(1));
+        Assert.assertNull(p2.getOVXPorts(1).get(0));
     }
 
     /**
@@ -700,6 +717,141 @@ public class PassingAPITest extends AbstractAPICalls {
         Assert.assertEquals(false, result.get(TenantHandler.IS_BOOTED));
     }
 
+    /**
+     * Test whether a whole virtual topology is created from one document,
+     * and a document that fails validation leaves the network untouched.
+     */
+    @SuppressWarnings("unchecked")
+    public void testCreateNetworkTopologyPass() throws NetworkMappingException {
+        final TestSwitch sw1 = new TestSwitch(1);
+        final TestSwitch sw2 = new TestSwitch(2);
+        PhysicalNetwork.getInstance().addSwitch(sw1);
+        PhysicalNetwork.getInstance().addSwitch(sw2);
+        final PhysicalPort p1 = new PhysicalPort(new OFPhysicalPort(), sw1,
+                false);
+        p1.setHardwareAddress(new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06});
+        p1.setPortNumber((short) 1);
+        sw1.addPort(p1);
+        final PhysicalPort p2 = new PhysicalPort(new OFPhysicalPort(), sw1,
+                true);
+        p2.setHardwareAddress(new byte[] {0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c});
+        p2.setPortNumber((short) 2);
+        sw1.addPort(p2);
+        final PhysicalPort p3 = new PhysicalPort(new OFPhysicalPort(), sw2,
+                false);
+        p3.setHardwareAddress(new byte[] {0x11, 0x12, 0x13, 0x14, 0x15, 0x16});
+        p3.setPortNumber((short) 1);
+        sw2.addPort(p3);
+        final PhysicalPort p4 = new PhysicalPort(new OFPhysicalPort(), sw2,
+                true);
+        p4.setHardwareAddress(new byte[] {0x17, 0x18, 0x19, 0x1a, 0x1b, 0x1c});
+        p4.setPortNumber((short) 2);
+        sw2.addPort(p4);
+        PhysicalNetwork.getInstance().createLink(p1, p3);
+        PhysicalNetwork.getInstance().createLink(p3, p1);
+        super.createNetwork();
+
+        final long vdpid1 = 46200400562356225L;
+        final long vdpid2 = 46200400562356226L;
+        final Map<String, Object> topology = new HashMap<String, Object>();
+        topology.put(TenantHandler.TENANT, 1);
+        topology.put(TenantHandler.SWITCHES, Arrays.asList(
+                this.element(TenantHandler.DPIDS, Collections.singletonList(1),
+                        TenantHandler.VDPID, vdpid1),
+                this.element(TenantHandler.DPIDS, Collections.singletonList(2),
+                        TenantHandler.VDPID, vdpid2)));
+        topology.put(TenantHandler.PORTS, Arrays.asList(
+                this.element(TenantHandler.DPID, 1L, TenantHandler.PORT, 1,
+                        TenantHandler.VPORT, 1),
+                this.element(TenantHandler.DPID, 1L, TenantHandler.PORT, 2,
+                        TenantHandler.VPORT, 2),
+                this.element(TenantHandler.DPID, 2L, TenantHandler.PORT, 1,
+                        TenantHandler.VPORT, 1),
+                this.element(TenantHandler.DPID, 2L, TenantHandler.PORT, 2,
+                        TenantHandler.VPORT, 2)));
+        topology.put(TenantHandler.LINKS, Collections.singletonList(
+                this.element(TenantHandler.SRC_DPID, vdpid1,
+                        TenantHandler.SRC_PORT, 1, TenantHandler.DST_DPID,
+                        vdpid2, TenantHandler.DST_PORT, 1,
+                        TenantHandler.ALGORITHM, "manual",
+                        TenantHandler.BACKUPS, 0, TenantHandler.PATH,
+                        "1/1-2/1", TenantHandler.PRIORITY, 100)));
+        final List<Map<String, Object>> hosts = new ArrayList<Map<String, Object>>();
+        hosts.add(this.element(TenantHandler.VDPID, vdpid1,
+                TenantHandler.VPORT, 2, TenantHandler.MAC,
+                "00:00:00:00:00:01"));
+        topology.put(TenantHandler.HOSTS, hosts);
+
+        // A host connected twice fails the whole document
+        hosts.add(this.element(TenantHandler.VDPID, vdpid1,
+                TenantHandler.VPORT, 2, TenantHandler.MAC,
+                "00:00:00:00:00:02"));
+        JSONRPC2Response resp = super.createNetworkTopology(topology);
+        Assert.assertNotNull("CreateOVXNetworkTopology should fail",
+                resp.getError());
+        final OVXNetwork net = OVXMap.getInstance().getVirtualNetwork(1);
+        Assert.assertTrue(net.getSwitches().isEmpty());
+
+        hosts.get(1).put(TenantHandler.VPORT, 2);
+        hosts.get(1).put(TenantHandler.VDPID, vdpid2);
+        resp = super.createNetworkTopology(topology);
+        Assert.assertNull(
+                resp.getError() == null ? "CreateOVXNetworkTopology should not return null"
+                        : resp.getError().getMessage(), resp.getError());
+        Assert.assertTrue(
+                "CreateOVXNetworkTopology has incorrect return type",
+                resp.getResult() instanceof Map<?, ?>);
+
+        final Map<String, Object> result = (Map<String, Object>) resp
+                .getResult();
+        Assert.assertEquals(1, result.get(TenantHandler.TENANT));
+        Assert.assertEquals(2,
+                ((List<?>) result.get(TenantHandler.SWITCHES)).size());
+        Assert.assertEquals(4,
+                ((List<?>) result.get(TenantHandler.PORTS)).size());
+        Assert.assertEquals(1,
+                ((List<?>) result.get(TenantHandler.LINKS)).size());
+        Assert.assertEquals(2,
+                ((List<?>) result.get(TenantHandler.HOSTS)).size());
+        Assert.assertEquals(2, net.getSwitches().size());
+        Assert.assertEquals(2, net.getHosts().size());
+    }
+
+    /**
+     * Test whether the physical flow tables are streamed a page of switches
+     * at a time.
+     */
+    public void testGetPhysicalFlowtablePage() throws IOException {
+        PhysicalNetwork.getInstance().addSwitch(new TestSwitch(2));
+        PhysicalNetwork.getInstance().addSwitch(new TestSwitch(1));
+        final GetPhysicalFlowtable gf = new GetPhysicalFlowtable();
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put(MonitoringHandler.OFFSET, 1);
+        params.put(MonitoringHandler.LIMIT, 1);
+        final JSONRPC2Response resp = gf.process(params);
+
+        Assert.assertNull(resp.getError());
+        Assert.assertTrue(resp.getResult() instanceof StreamingResult);
+        final StringWriter out = new StringWriter();
+        final JsonGenerator gen = new MappingJsonFactory()
+                .createJsonGenerator(out);
+        ((StreamingResult) resp.getResult()).writeTo(gen);
+        gen.close();
+        Assert.assertEquals("{\"" + new TestSwitch(2).getSwitchName()
+                + "\":[]}", out.toString());
+
+        params.put(MonitoringHandler.OFFSET, -1);
+        Assert.assertNotNull(gf.process(params).getError());
+    }
+
+    private Map<String, Object> element(final Object... pairs) {
+        final Map<String, Object> element = new HashMap<String, Object>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            element.put((String) pairs[i], pairs[i + 1]);
+        }
+        return element;
+    }
+
     @Override
     protected void tearDown() throws Exception {
         OVXMap.reset();
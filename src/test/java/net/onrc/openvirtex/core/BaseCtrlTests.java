@@ -17,6 +17,7 @@ package net.onrc.openvirtex.core;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.io.TenantSchedulerTest;
 
 /**
  * Parent class for controller tests.
@@ -34,6 +35,7 @@ public final class BaseCtrlTests {
         final TestSuite suite = new TestSuite(BaseCtrlTests.class.getName());
         // $JUnit-BEGIN$
         suite.addTest(OpenVirteXControllerTest.suite());
+        suite.addTest(TenantSchedulerTest.suite());
         // $JUnit-END$
         return suite;
     }
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.core.io;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.jboss.netty.channel.Channel;
+
+public class TenantSchedulerTest extends TestCase {
+
+    private TenantScheduler scheduler = null;
+
+    public TenantSchedulerTest(final String name) {
+        super(name);
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TenantSchedulerTest.class);
+    }
+
+    /**
+     * Tests that work is run inline when the scheduler is not started.
+     */
+    public void testInlineDispatch() {
+        final List<Integer> done = new ArrayList<Integer>();
+        this.scheduler.dispatch(1, 1, 1, new Runnable() {
+            @Override
+            public void run() {
+                done.add(1);
+            }
+        });
+        Assert.assertEquals(1, done.size());
+        final Map<String, Object> stats = this.scheduler.getStatistics(1);
+        Assert.assertEquals(1L, stats.get("count"));
+        Assert.assertEquals(TenantScheduler.DEFAULT_WEIGHT, stats.get("weight"));
+    }
+
+    /**
+     * Tests that a tenant with three times the weight of another gets three
+     * times the share of the dispatch thread while both are backlogged, and
+     * that work of the same tenant and ordering key keeps its order.
+     */
+    public void testWeightedShare() throws InterruptedException {
+        this.scheduler.setWeight(2, 3);
+        this.scheduler.start(1);
+
+        // Occupy the only worker until both tenants are backlogged
+        final CountDownLatch gate = this.occupy();
+
+        final int n = 40;
+        final List<Integer> order = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(2 * n);
+        for (int i = 0; i < n; i++) {
+            for (final int tid : new int[] {1, 2}) {
+                final int seq = i;
+                this.scheduler.dispatch(tid, 1, 100, new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add(tid * 1000 + seq);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        gate.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Among the first 20 dispatched messages, 15 belong to tenant 2
+        int heavy = 0;
+        for (final int v : order.subList(0, 20)) {
+            if (v / 1000 == 2) {
+                heavy++;
+            }
+        }
+        Assert.assertEquals(15, heavy);
+
+        // Messages of a tenant are dispatched in submission order
+        int last1 = -1;
+        int last2 = -1;
+        for (final int v : order) {
+            if (v / 1000 == 1) {
+                Assert.assertTrue(v % 1000 > last1);
+                last1 = v % 1000;
+            } else {
+                Assert.assertTrue(v % 1000 > last2);
+                last2 = v % 1000;
+            }
+        }
+    }
+
+    /**
+     * Tests that physical work runs after the tenant work of the same switch
+     * submitted before it, and before the tenant work submitted after it,
+     * while work of other tenants and switches is not held up.
+     */
+    public void testPhysicalOrdering() throws InterruptedException {
+        this.scheduler.start(4);
+        final List<String> order = Collections
+                .synchronizedList(new ArrayList<String>());
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        this.scheduler.dispatch(1, 1, 1, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add("tenant1");
+                done.countDown();
+            }
+        });
+        this.scheduler.dispatch(TenantScheduler.PHYSICAL, 1, 1,
+                this.record(order, "physical", done));
+        this.scheduler.dispatch(2, 1, 1, this.record(order, "tenant2", done));
+        this.scheduler.dispatch(2, 2, 1, this.record(order, "other", done));
+
+        for (int i = 0; i < 100 && !order.contains("other"); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Collections.singletonList("other"), order);
+        gate.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(
+                Arrays.asList("other", "tenant1", "physical", "tenant2"), order);
+    }
+
+    /**
+     * Tests that a full queue suspends reads from the submitting channel
+     * instead of blocking the caller, and that reads resume once the queue
+     * has drained.
+     */
+    public void testBackpressure() throws InterruptedException {
+        this.scheduler.start(1);
+        final CountDownLatch gate = this.occupy();
+        final List<Boolean> readable = Collections
+                .synchronizedList(new ArrayList<Boolean>());
+        final Channel channel = this.channel(readable);
+
+        final int n = TenantScheduler.QUEUE_CAPACITY;
+        final CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            this.scheduler.dispatch(1, 1, 1, new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }, channel);
+        }
+        Assert.assertEquals(Collections.singletonList(false), readable);
+
+        gate.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(false, true), readable);
+    }
+
+    /**
+     * Tests that a removed tenant keeps its queued work, and is forgotten
+     * once the work is dispatched.
+     */
+    public void testRemoveTenant() throws InterruptedException {
+        this.scheduler.start(1);
+        final CountDownLatch gate = this.occupy();
+        this.scheduler.setWeight(1, 5);
+        final CountDownLatch done = new CountDownLatch(1);
+        this.scheduler.dispatch(1, 1, 1, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        this.scheduler.removeTenant(1);
+        Assert.assertEquals(1, this.scheduler.getStatistics(1).get("queued"));
+
+        gate.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && this.scheduler.getStatistics(1) != null; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertNull(this.scheduler.getStatistics(1));
+        Assert.assertEquals(TenantScheduler.DEFAULT_WEIGHT,
+                this.scheduler.getWeight(1));
+    }
+
+    /**
+     * Tests that non-positive weights are rejected.
+     */
+    public void testInvalidWeight() {
+        try {
+            this.scheduler.setWeight(1, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(TenantScheduler.DEFAULT_WEIGHT,
+                    this.scheduler.getWeight(1));
+        }
+    }
+
+    /**
+     * Occupies the only worker until the returned latch is released.
+     */
+    private CountDownLatch occupy() {
+        final CountDownLatch gate = new CountDownLatch(1);
+        this.scheduler.dispatch(TenantScheduler.PHYSICAL, 0, 1,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            gate.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        return gate;
+    }
+
+    /**
+     * Creates work that records its name once run.
+     */
+    private Runnable record(final List<String> order, final String name,
+            final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    /**
+     * Creates a channel that records the calls to setReadable.
+     */
+    private Channel channel(final List<Boolean> readable) {
+        return (Channel) Proxy.newProxyInstance(
+                Channel.class.getClassLoader(), new Class<?>[] {Channel.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        if (method.getName().equals("setReadable")) {
+                            readable.add((Boolean) args[0]);
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("toString")) {
+                            return "channel";
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.scheduler = new TenantScheduler();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.scheduler.stop();
+        super.tearDown();
+    }
+
+}
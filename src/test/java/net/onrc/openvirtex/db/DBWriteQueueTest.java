@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class DBWriteQueueTest extends TestCase {
+
+    private static final String COLL = "VNET";
+
+    private List<List<DBWriteQueue.Write>> batches;
+    private CountDownLatch gate;
+
+    public DBWriteQueueTest(final String name) {
+        super(name);
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(DBWriteQueueTest.class);
+    }
+
+    /**
+     * Tests that a later write to a queued element replaces the queued write
+     * and takes its place at the tail of the queue.
+     */
+    public void testCoalescing() throws InterruptedException {
+        final DBWriteQueue queue = this.newQueue(16, 16);
+        queue.start();
+        // The flusher picks this up and waits at the gate
+        queue.enqueue(DBWriteQueue.Write.insert(COLL, this.map("tenantId", 1)));
+        this.awaitBatches(1);
+
+        final Map<String, Object> doc = this.map("tenantId", 1);
+        queue.enqueue(DBWriteQueue.Write.add(COLL, doc, "switches",
+                this.map("dpid", 1)));
+        queue.enqueue(DBWriteQueue.Write.add(COLL, doc, "switches",
+                this.map("dpid", 2)));
+        queue.enqueue(DBWriteQueue.Write.pull(COLL, doc, "switches",
+                this.map("dpid", 1)));
+        Assert.assertEquals(2, queue.size());
+
+        this.gate.countDown();
+        Assert.assertTrue(queue.flush(1000));
+        Assert.assertEquals(2, this.batches.size());
+        final List<DBWriteQueue.Write> batch = this.batches.get(1);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(DBWriteQueue.Kind.ADD, batch.get(0).getKind());
+        Assert.assertEquals(2, batch.get(0).getElement().get("dpid"));
+        Assert.assertEquals(DBWriteQueue.Kind.PULL, batch.get(1).getKind());
+        Assert.assertEquals(1, batch.get(1).getElement().get("dpid"));
+        Assert.assertTrue(queue.stop(1000));
+    }
+
+    /**
+     * Tests that callers block while the queue is full, except when their
+     * write replaces a queued one, and resume once the flusher catches up.
+     */
+    public void testBackpressure() throws InterruptedException {
+        final DBWriteQueue queue = this.newQueue(2, 1);
+        queue.start();
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 0)));
+        this.awaitBatches(1);
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 1)));
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 2)));
+
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queue.enqueue(DBWriteQueue.Write.remove(COLL,
+                        DBWriteQueueTest.this.map("tenantId", 3)));
+            }
+        };
+        producer.start();
+        producer.join(100);
+        Assert.assertTrue(producer.isAlive());
+        // Replacing a queued write does not need room
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 1)));
+        Assert.assertFalse(queue.flush(50));
+
+        this.gate.countDown();
+        producer.join(1000);
+        Assert.assertFalse(producer.isAlive());
+        Assert.assertTrue(queue.flush(1000));
+        Assert.assertEquals(4, this.batches.size());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertTrue(queue.stop(1000));
+    }
+
+    /**
+     * Tests that writes queued while the queue is held are written in a
+     * single batch once it is released, regardless of the batch size.
+     */
+    public void testHold() throws InterruptedException {
+        final DBWriteQueue queue = this.newQueue(16, 2);
+        this.gate.countDown();
+        queue.start();
+        queue.hold();
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue(DBWriteQueue.Write.remove(COLL,
+                    this.map("tenantId", i)));
+        }
+        Thread.sleep(50);
+        Assert.assertTrue(this.batches.isEmpty());
+        Assert.assertEquals(3, queue.size());
+
+        queue.release();
+        Assert.assertTrue(queue.flush(1000));
+        Assert.assertEquals(1, this.batches.size());
+        Assert.assertEquals(3, this.batches.get(0).size());
+        Assert.assertTrue(queue.stop(1000));
+    }
+
+    /**
+     * Tests that stopping drains the queue and that later writes are dropped.
+     */
+    public void testStop() throws InterruptedException {
+        final DBWriteQueue queue = this.newQueue(16, 16);
+        Assert.assertTrue(queue.flush(0));
+        queue.start();
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 1)));
+        this.awaitBatches(1);
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 2)));
+        this.gate.countDown();
+        Assert.assertTrue(queue.stop(1000));
+        Assert.assertEquals(2, this.batches.size());
+
+        queue.enqueue(DBWriteQueue.Write.remove(COLL, this.map("tenantId", 3)));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertTrue(queue.flush(0));
+    }
+
+    /**
+     * Tests that a flush reports writes the journal failed to apply, and
+     * that later flushes are not affected.
+     */
+    public void testFailedJournalWrite() throws IOException {
+        final File dir = Files.createTempDirectory("ovx-journal").toFile();
+        final JournalConnection[] conn = new JournalConnection[1];
+        final DBWriteQueue queue = new DBWriteQueue(16, 16) {
+            @Override
+            protected boolean write(final List<DBWriteQueue.Write> batch) {
+                return conn[0].write(batch) == 0;
+            }
+        };
+        try {
+            conn[0] = new JournalConnection(dir, JournalConnection.SEGMENT_SIZE);
+            conn[0].connect(null, null);
+            queue.start();
+            queue.enqueue(DBWriteQueue.Write.insert(COLL,
+                    this.map("tenantId", 1)));
+            Assert.assertTrue(queue.flush(1000));
+
+            /* the journal is closed, e.g. after a disk failure */
+            conn[0].disconnect();
+            queue.enqueue(DBWriteQueue.Write.insert(COLL,
+                    this.map("tenantId", 2)));
+            Assert.assertFalse(queue.flush(1000));
+
+            conn[0] = new JournalConnection(dir, JournalConnection.SEGMENT_SIZE);
+            conn[0].connect(null, null);
+            queue.enqueue(DBWriteQueue.Write.insert(COLL,
+                    this.map("tenantId", 3)));
+            Assert.assertTrue(queue.flush(1000));
+            Assert.assertEquals(2, conn[0].find(COLL).size());
+            Assert.assertTrue(queue.stop(1000));
+            conn[0].disconnect();
+        } finally {
+            for (final File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Tests that MongoDB reports the writes it cannot apply when it is not
+     * connected.
+     */
+    public void testFailedMongoWrite() {
+        final MongoConnection conn = new MongoConnection();
+        Assert.assertEquals(2, conn.write(Arrays.asList(
+                DBWriteQueue.Write.insert(COLL, this.map("tenantId", 1)),
+                DBWriteQueue.Write.add(COLL, this.map("tenantId", 1),
+                        "switches", this.map("dpid", 1)))));
+    }
+
+    private DBWriteQueue newQueue(final int capacity, final int batchSize) {
+        return new DBWriteQueue(capacity, batchSize) {
+            @Override
+            protected boolean write(final List<DBWriteQueue.Write> batch) {
+                synchronized (DBWriteQueueTest.this.batches) {
+                    DBWriteQueueTest.this.batches.add(batch);
+                    DBWriteQueueTest.this.batches.notifyAll();
+                }
+                try {
+                    DBWriteQueueTest.this.gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+    }
+
+    private void awaitBatches(final int count) throws InterruptedException {
+        synchronized (this.batches) {
+            while (this.batches.size() < count) {
+                this.batches.wait(1000);
+            }
+        }
+    }
+
+    private Map<String, Object> map(final String key, final Object value) {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put(key, value);
+        return map;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.batches = Collections
+                .synchronizedList(new ArrayList<List<DBWriteQueue.Write>>());
+        this.gate = new CountDownLatch(1);
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class JournalConnectionTest extends TestCase {
+
+    private static final String COLL = "VNET";
+
+    private File dir;
+
+    public JournalConnectionTest(final String name) {
+        super(name);
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(JournalConnectionTest.class);
+    }
+
+    /**
+     * Tests that documents survive a restart, with values normalized the
+     * way MongoDB returns them, and that unique fields are enforced.
+     */
+    public void testReplay() {
+        JournalConnection conn = this.open(JournalConnection.SEGMENT_SIZE);
+        final Map<String, Object> doc = this.doc(1);
+        doc.put("mask", (short) 16);
+        conn.write(Arrays.asList(
+                DBWriteQueue.Write.insert(COLL, doc),
+                DBWriteQueue.Write.insert(COLL, this.doc(1)),
+                DBWriteQueue.Write.add(COLL, this.doc(1), "switches",
+                        this.element(1L, (short) 1)),
+                DBWriteQueue.Write.add(COLL, this.doc(1), "switches",
+                        this.element(2L, (short) 2)),
+                DBWriteQueue.Write.add(COLL, this.doc(2), "switches",
+                        this.element(3L, (short) 3)),
+                DBWriteQueue.Write.pull(COLL, this.doc(1), "switches",
+                        this.condition(1L)),
+                DBWriteQueue.Write.set(COLL, this.doc(1),
+                        Collections.<String, Object>singletonMap("weight", 3))));
+        final List<Map<String, Object>> before = conn.find(COLL);
+        Assert.assertEquals(2, before.size());
+        conn.disconnect();
+
+        conn = this.open(JournalConnection.SEGMENT_SIZE);
+        final List<Map<String, Object>> after = conn.find(COLL);
+        Assert.assertEquals(before, after);
+        final Map<String, Object> vnet = after.get(0);
+        Assert.assertEquals(16, vnet.get("mask"));
+        Assert.assertEquals(3, vnet.get("weight"));
+        final List<?> switches = (List<?>) vnet.get("switches");
+        Assert.assertEquals(1, switches.size());
+        Assert.assertEquals(this.element(2L, 2), switches.get(0));
+
+        conn.write(Arrays.asList(DBWriteQueue.Write.remove(COLL, this.doc(2))));
+        conn.clear("USER");
+        conn.disconnect();
+        conn = this.open(JournalConnection.SEGMENT_SIZE);
+        Assert.assertEquals(1, conn.find(COLL).size());
+        conn.disconnect();
+    }
+
+    /**
+     * Tests that full segments are compacted into a snapshot, and that old
+     * segments and snapshots are removed.
+     */
+    public void testCompaction() {
+        final JournalConnection conn = this.open(256);
+        final List<DBWriteQueue.Write> batch = new ArrayList<DBWriteQueue.Write>();
+        for (long i = 0; i < 100; i++) {
+            batch.add(DBWriteQueue.Write.add(COLL, this.doc(1), "switches",
+                    this.element(i, (short) 1)));
+        }
+        conn.write(batch);
+        Assert.assertEquals(2, this.dir.list().length);
+        conn.disconnect();
+
+        final JournalConnection reopened = this.open(256);
+        final List<?> switches = (List<?>) reopened.find(COLL).get(0)
+                .get("switches");
+        Assert.assertEquals(100, switches.size());
+        Assert.assertEquals(2, this.dir.list().length);
+        reopened.disconnect();
+    }
+
+    /**
+     * Tests that replay stops at a torn record at the end of the journal.
+     */
+    public void testTornTail() throws IOException {
+        final JournalConnection conn = this.open(JournalConnection.SEGMENT_SIZE);
+        conn.write(Arrays.asList(DBWriteQueue.Write.insert(COLL, this.doc(1))));
+        conn.write(Arrays.asList(DBWriteQueue.Write.insert(COLL, this.doc(2))));
+        conn.disconnect();
+
+        // Flip the last byte of the second record
+        File segment = null;
+        for (final File file : this.dir.listFiles()) {
+            if (file.getName().startsWith("journal-")) {
+                segment = file;
+            }
+        }
+        final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            long end = 0;
+            int size;
+            while ((size = raf.readInt()) != 0) {
+                end = raf.getFilePointer() + 4 + size;
+                raf.seek(end);
+            }
+            raf.seek(end - 1);
+            final int last = raf.read();
+            raf.seek(end - 1);
+            raf.write(last ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        final JournalConnection reopened = this.open(JournalConnection.SEGMENT_SIZE);
+        final List<Map<String, Object>> docs = reopened.find(COLL);
+        Assert.assertEquals(1, docs.size());
+        Assert.assertEquals(1, docs.get(0).get("tenantId"));
+        reopened.disconnect();
+    }
+
+    private JournalConnection open(final int segmentSize) {
+        final JournalConnection conn = new JournalConnection(this.dir,
+                segmentSize);
+        conn.connect(null, null);
+        conn.setIndex(COLL, "tenantId");
+        return conn;
+    }
+
+    private Map<String, Object> doc(final int tenantId) {
+        final Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put("tenantId", tenantId);
+        return doc;
+    }
+
+    private Map<String, Object> element(final long dpid, final Object port) {
+        final Map<String, Object> element = this.condition(dpid);
+        element.put("port", port);
+        return element;
+    }
+
+    private Map<String, Object> condition(final long dpid) {
+        final Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("dpid", dpid);
+        return condition;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.dir = Files.createTempDirectory("ovx-journal").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : this.dir.listFiles()) {
+            file.delete();
+        }
+        this.dir.delete();
+        super.tearDown();
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.api.service.handlers.tenant.TestSwitch;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.DPIDandPort;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.elements.port.Port;
+
+import org.openflow.protocol.OFPhysicalPort;
+
+public class OVXNetworkManagerTest extends TestCase {
+
+    private static final long VDPID1 = (long) 0xa42305 << 32 | 1;
+    private static final long VDPID2 = (long) 0xa42305 << 32 | 2;
+
+    public OVXNetworkManagerTest(final String name) {
+        super(name);
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(OVXNetworkManagerTest.class);
+    }
+
+    /**
+     * Tests that elements are restored as soon as their physical elements
+     * and the elements they build upon are in place, and that the network
+     * is only booted once everything is restored.
+     */
+    public void testStepwiseRestore() throws Exception {
+        OVXNetwork.reserveTenantId(1);
+        final OVXNetworkManager mngr = new OVXNetworkManager(this.vnet());
+        Assert.assertEquals(2, (int) mngr.getSwitchCount());
+        Assert.assertEquals(1, (int) mngr.getPortCount());
+        Assert.assertEquals(0, (int) mngr.getLinkCount());
+
+        // The network itself waits for nothing
+        mngr.start();
+        final OVXNetwork net = OVXMap.getInstance().getVirtualNetwork(1);
+        Map<String, Object> progress = mngr.getProgress();
+        Assert.assertEquals(1, progress.get("stepsDone"));
+        Assert.assertEquals(5, progress.get("stepsTotal"));
+        Assert.assertEquals(2, progress.get("offlineSwitches"));
+        Assert.assertEquals(1, progress.get("offlinePorts"));
+
+        // The port waits for its switch
+        final TestSwitch sw = new TestSwitch(1);
+        PhysicalNetwork.getInstance().addSwitch(sw);
+        final PhysicalPort port = new PhysicalPort(new OFPhysicalPort(), sw,
+                true);
+        port.setHardwareAddress(new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06});
+        port.setPortNumber((short) 1);
+        sw.addPort(port);
+        mngr.setPort(new DPIDandPort(1, (short) 1));
+        Assert.assertEquals(1, mngr.getProgress().get("stepsDone"));
+        Assert.assertEquals(0, mngr.getProgress().get("offlinePorts"));
+
+        mngr.setSwitch(1L);
+        progress = mngr.getProgress();
+        Assert.assertEquals(3, progress.get("stepsDone"));
+        Assert.assertEquals(1, progress.get("offlineSwitches"));
+        final OVXSwitch vsw = net.getSwitch(VDPID1);
+        Assert.assertNotNull(vsw.getPort((short) 1));
+
+        // Going offline and back has no effect on restored elements, and the
+        // boot still waits for the second switch
+        mngr.unsetSwitch(1L);
+        mngr.setSwitch(1L);
+        Assert.assertEquals(3, mngr.getProgress().get("stepsDone"));
+        Assert.assertEquals(OVXNetworkManager.State.WAITING.name(), mngr
+                .getProgress().get("state"));
+        Assert.assertFalse(net.isBooted());
+
+        mngr.cancel();
+        Assert.assertEquals(OVXNetworkManager.State.FAILED.name(), mngr
+                .getProgress().get("state"));
+    }
+
+    private Map<String, Object> vnet() {
+        final Map<String, Object> vnet = new HashMap<String, Object>();
+        vnet.put(TenantHandler.TENANT, 1);
+        vnet.put(TenantHandler.CTRLURLS, new ArrayList<String>(Arrays
+                .asList("tcp:127.0.0.1:6633")));
+        vnet.put(TenantHandler.NETADD, 167772160);
+        vnet.put(TenantHandler.NETMASK, 16);
+        final List<Map<String, Object>> switches = new ArrayList<Map<String, Object>>();
+        switches.add(this.sw(VDPID1, 1L));
+        switches.add(this.sw(VDPID2, 2L));
+        vnet.put(Switch.DB_KEY, switches);
+        final Map<String, Object> port = new HashMap<String, Object>();
+        port.put(TenantHandler.DPID, 1L);
+        port.put(TenantHandler.PORT, 1);
+        port.put(TenantHandler.VPORT, 1);
+        vnet.put(Port.DB_KEY, Arrays.asList(port));
+        return vnet;
+    }
+
+    private Map<String, Object> sw(final long vdpid, final long dpid) {
+        final Map<String, Object> sw = new HashMap<String, Object>();
+        sw.put(TenantHandler.VDPID, vdpid);
+        sw.put(TenantHandler.DPIDS, Arrays.asList(dpid));
+        return sw;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        new OpenVirteXController(new CmdLineSettings());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OVXMap.reset();
+        PhysicalNetwork.reset();
+        OVXNetwork.reset();
+        super.tearDown();
+    }
+}
@@ -34,6 +34,7 @@ public final class BaseMapTests {
         final TestSuite suite = new TestSuite(BaseMapTests.class.getName());
         // $JUnit-BEGIN$
         suite.addTest(MapAddTest.suite());
+        suite.addTest(TopologyTest.suite());
         // $JUnit-END$
         return suite;
     }
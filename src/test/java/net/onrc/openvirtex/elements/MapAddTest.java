@@ -127,6 +127,36 @@ public class MapAddTest extends TestCase {
         }
     }
 
+    /**
+     * Tests that removing the mappings of one tenant leaves those of the
+     * other tenants in place.
+     */
+    public void testRemoveTenantMappings() {
+        final OVXMap ovxMap = OVXMap.getInstance();
+        final PhysicalSwitch sw = new PhysicalSwitch(MapAddTest.MAXPSW + 1);
+        final List<OVXSwitch> vSw = new ArrayList<OVXSwitch>();
+        for (int j = 0; j < MapAddTest.MAXTIDS; j++) {
+            final OVXSwitch vsw = new OVXSingleSwitch(MapAddTest.MAXPSW + 1, j);
+            vSw.add(vsw);
+            ovxMap.addSwitches(Collections.singletonList(sw), vsw);
+            ovxMap.addIP(new PhysicalIPAddress(MapAddTest.MAXIPS + j),
+                    new OVXIPAddress(j, MapAddTest.MAXIPS));
+        }
+        ovxMap.removeVirtualSwitch(vSw.get(3));
+        ovxMap.removeVirtualIPs(3);
+        for (int j = 0; j < MapAddTest.MAXTIDS; j++) {
+            Assert.assertEquals(j != 3, ovxMap.hasVirtualSwitch(sw, j));
+            Assert.assertEquals(j != 3, ovxMap.hasPhysicalIP(
+                    new OVXIPAddress(j, MapAddTest.MAXIPS), j));
+            Assert.assertEquals(j != 3, ovxMap.hasVirtualIP(
+                    new PhysicalIPAddress(MapAddTest.MAXIPS + j)));
+        }
+        ovxMap.removePhysicalSwitch(sw);
+        for (int j = 0; j < MapAddTest.MAXTIDS; j++) {
+            Assert.assertFalse(ovxMap.hasVirtualSwitch(sw, j));
+        }
+    }
+
     /**
      * Tests adding MAC addresses to map.
      */
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements;
+
+import org.openflow.protocol.OFPhysicalPort;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.Topology;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+/**
+ * Tests for the versioned topology snapshots of the physical network.
+ */
+public class TopologyTest extends TestCase {
+
+    @SuppressWarnings("unused")
+    private static final OpenVirteXController CTRL =
+            new OpenVirteXController(new CmdLineSettings());
+
+    public TopologyTest(final String name) {
+        super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TopologyTest.class);
+    }
+
+    /**
+     * Tests that every change publishes a new version and leaves the
+     * versions taken earlier untouched.
+     */
+    public void testVersions() {
+        final PhysicalNetwork net = PhysicalNetwork.getInstance();
+        final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> empty = net
+                .getTopology();
+        final PhysicalSwitch sw1 = new PhysicalSwitch(1);
+        final PhysicalSwitch sw2 = new PhysicalSwitch(2);
+        net.addSwitch(sw1);
+        net.addSwitch(sw2);
+        final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> switches = net
+                .getTopology();
+        Assert.assertTrue(switches.getVersion() > empty.getVersion());
+        Assert.assertTrue(empty.getSwitches().isEmpty());
+        Assert.assertEquals(2, switches.getSwitches().size());
+        Assert.assertSame(sw1, switches.getSwitch(1L));
+
+        final PhysicalPort p1 = new PhysicalPort(new OFPhysicalPort(), sw1,
+                false);
+        final PhysicalPort p2 = new PhysicalPort(new OFPhysicalPort(), sw2,
+                false);
+        net.createLink(p1, p2);
+        final Topology<PhysicalSwitch, PhysicalPort, PhysicalLink> links = net
+                .getTopology();
+        Assert.assertTrue(links.getVersion() > switches.getVersion());
+        Assert.assertTrue(switches.getLinks().isEmpty());
+        Assert.assertEquals(1, links.getLinks().size());
+        Assert.assertNotNull(links.getLink(p1, p2));
+        Assert.assertNull(links.getLink(p2, p1));
+        Assert.assertSame(p2, links.getNeighborPort(p1));
+        Assert.assertTrue(links.getNeighbors(sw1).contains(sw2));
+        // The switches did not change, so they are shared
+        Assert.assertSame(switches.getSwitches(), links.getSwitches());
+
+        net.removeLink(p1, p2);
+        Assert.assertTrue(net.getTopology().getLinks().isEmpty());
+        Assert.assertNull(net.getTopology().getLink(p1, p2));
+        Assert.assertEquals(1, links.getLinks().size());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PhysicalNetwork.reset();
+    }
+}
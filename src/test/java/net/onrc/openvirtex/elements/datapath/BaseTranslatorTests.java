@@ -17,6 +17,9 @@ package net.onrc.openvirtex.elements.datapath;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import net.onrc.openvirtex.elements.datapath.statistics.CounterHistoryTest;
+import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManagerTest;
+import net.onrc.openvirtex.elements.datapath.statistics.TenantPortCountersTest;
 
 /**
  * Parent class for transaction ID translator tests.
@@ -36,6 +39,10 @@ public final class BaseTranslatorTests {
         // $JUnit-BEGIN$
         suite.addTest(TranslatorTest.suite());
         suite.addTest(FlowTableTest.suite());
+        suite.addTest(PhysicalFlowTableTest.suite());
+        suite.addTest(StatisticsManagerTest.suite());
+        suite.addTest(CounterHistoryTest.suite());
+        suite.addTest(TenantPortCountersTest.suite());
         // $JUnit-END$
         return suite;
     }
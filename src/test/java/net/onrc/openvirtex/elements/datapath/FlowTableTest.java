@@ -23,11 +23,18 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.util.OVXHopRuleManager;
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.action.OFAction;
 
 public class FlowTableTest extends TestCase {
@@ -124,6 +131,42 @@ public class FlowTableTest extends TestCase {
         Assert.assertEquals(c, c1);
     }
 
+    /**
+     * Tests that the switches of a virtual network do not hand out the same
+     * cookies, so that the hop entries of their edge flows are kept apart.
+     */
+    public void testNetworkCookies() throws IndexOutOfBoundException {
+        final OVXNetwork vnet = new OVXNetwork(9, new ArrayList<String>(),
+                new OVXIPAddress("10.0.0.0", 9), (short) 24);
+        OVXMap.getInstance().addNetwork(vnet);
+        try {
+            final OVXSwitch vsw1 = new OVXSingleSwitch(1, 9);
+            final OVXSwitch vsw2 = new OVXSingleSwitch(2, 9);
+            final long c1 = new OVXFlowTable(vsw1).getCookie();
+            final long c2 = new OVXFlowTable(vsw2).getCookie();
+            Assert.assertEquals(9, c1 >> 32);
+            Assert.assertFalse(c1 == c2);
+
+            /* releasing the edge flow of one switch keeps the other's hop */
+            final PhysicalSwitch psw = new PhysicalSwitch(3) {
+                @Override
+                public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
+                }
+            };
+            final OVXFlowMod hop = this.getFlowMod();
+            final OVXHopRuleManager hops = vnet.getHopRuleManager();
+            hops.install(psw, hop, c1);
+            hops.install(psw, hop, c2);
+            hops.release(c1);
+            Assert.assertEquals(1, hops.size());
+            hops.release(c2);
+            Assert.assertEquals(0, hops.size());
+        } finally {
+            OVXMap.getInstance().removeNetwork(vnet);
+            OVXLinkBudget.getInstance().release(9);
+        }
+    }
+
     /** test various Flow Entry match types. */
     public void testFlowEntryCompare() {
         final OFMatch baseM = new OFMatch();
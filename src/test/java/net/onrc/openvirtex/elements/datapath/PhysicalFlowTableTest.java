@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXFlowRemoved;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+
+public class PhysicalFlowTableTest extends TestCase {
+
+    public PhysicalFlowTableTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PhysicalFlowTableTest.class);
+    }
+
+    private OVXFlowStatisticsReply getStat(final OVXFlowMod fm) {
+        final OVXFlowStatisticsReply stat = new OVXFlowStatisticsReply();
+        stat.setCookie(fm.getCookie());
+        stat.setPriority(fm.getPriority());
+        stat.setMatch(fm.getMatch());
+        stat.setActions(fm.getActions());
+        return stat;
+    }
+
+    private OVXFlowMod getFlowMod(int tenantId, short inPort, short outPort) {
+        OVXFlowMod fm = new OVXFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_ADD);
+        fm.setCookie((long) tenantId << 32 | inPort);
+        fm.setPriority((short) 100);
+        fm.setMatch(new OFMatch().setInputPort(inPort).setWildcards(
+                OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT));
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(outPort));
+        fm.setActions(actions);
+        return fm;
+    }
+
+    public void testAddAndRemoved() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        final OVXFlowMod fm = this.getFlowMod(1, (short) 1, (short) 2);
+
+        ft.handleFlowMod(fm);
+        /* the same entry again replaces the first one */
+        ft.handleFlowMod(fm);
+        ft.handleFlowMod(this.getFlowMod(2, (short) 2, (short) 1));
+        Assert.assertEquals(2, ft.size());
+        Assert.assertEquals(1, ft.getFlowMods(fm.getCookie()).size());
+
+        /* later changes to the sent FlowMod don't leak into the table */
+        fm.getMatch().setInputPort((short) 5);
+        Assert.assertEquals(1, ft.getFlowMods(1).get(0).getMatch()
+                .getInputPort());
+
+        final OVXFlowRemoved fr = new OVXFlowRemoved();
+        fr.setCookie((long) 1 << 32 | 1);
+        fr.setPriority((short) 100);
+        fr.setMatch(this.getFlowMod(1, (short) 1, (short) 2).getMatch());
+        ft.handleFlowRemoved(fr);
+        Assert.assertEquals(1, ft.size());
+        Assert.assertTrue(ft.getFlowMods(1).isEmpty());
+        Assert.assertEquals(Collections.singleton(2), ft.getTenants());
+    }
+
+    public void testModifyAndDelete() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        ft.handleFlowMod(this.getFlowMod(1, (short) 1, (short) 2));
+
+        /* a modify rewrites the actions of the matching entry */
+        final OVXFlowMod mod = this.getFlowMod(1, (short) 1, (short) 3);
+        mod.setCommand(OFFlowMod.OFPFC_MODIFY);
+        ft.handleFlowMod(mod);
+        Assert.assertEquals(1, ft.size());
+        Assert.assertEquals(3, ((OFActionOutput) ft.getFlowMods(1).get(0)
+                .getActions().get(0)).getPort());
+
+        /* a non-strict wildcard delete removes everything */
+        ft.handleFlowMod(this.getFlowMod(2, (short) 4, (short) 1));
+        final OVXFlowMod del = new OVXFlowMod();
+        del.setCommand(OFFlowMod.OFPFC_DELETE);
+        del.setMatch(new OFMatch());
+        ft.handleFlowMod(del);
+        Assert.assertEquals(0, ft.size());
+    }
+
+    public void testRemoveTenant() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        ft.handleFlowMod(this.getFlowMod(1, (short) 1, (short) 2));
+        ft.handleFlowMod(this.getFlowMod(1, (short) 2, (short) 3));
+        ft.handleFlowMod(this.getFlowMod(1, (short) 3, (short) 4));
+        ft.handleFlowMod(this.getFlowMod(2, (short) 5, (short) 3));
+
+        /* matching on port 2, or sending out of it */
+        Assert.assertEquals(2, ft.removeTenant(1, (short) 2).size());
+        Assert.assertEquals(2, ft.size());
+        Assert.assertEquals(1, ft.removeTenant(1, (short) 0).size());
+        Assert.assertEquals(Collections.singleton(2), ft.getTenants());
+    }
+
+    public void testIndexes() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        ft.handleFlowMod(this.getFlowMod(1, (short) 1, (short) 2));
+        ft.handleFlowMod(this.getFlowMod(1, (short) 3, (short) 2));
+
+        /* a modify moves the entry to the port it now outputs to */
+        final OVXFlowMod mod = this.getFlowMod(1, (short) 1, (short) 4);
+        mod.setCommand(OFFlowMod.OFPFC_MODIFY_STRICT);
+        ft.handleFlowMod(mod);
+        Assert.assertEquals(1, ft.removeTenant(1, (short) 2).size());
+        Assert.assertEquals(1, ft.size());
+
+        /* deletes restricted to an output port */
+        final OVXFlowMod del = new OVXFlowMod();
+        del.setCommand(OFFlowMod.OFPFC_DELETE);
+        del.setMatch(new OFMatch());
+        del.setOutPort((short) 2);
+        ft.handleFlowMod(del);
+        Assert.assertEquals(1, ft.size());
+        del.setOutPort((short) 4);
+        ft.handleFlowMod(del);
+        Assert.assertEquals(0, ft.size());
+        Assert.assertTrue(ft.getTenants().isEmpty());
+        Assert.assertTrue(ft.getFlowMods((long) 1 << 32 | 1).isEmpty());
+    }
+
+    public void testSync() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        ft.handleFlowMod(this.getFlowMod(1, (short) 1, (short) 2));
+        ft.handleFlowMod(this.getFlowMod(1, (short) 2, (short) 1));
+        ft.markSync();
+        /* installed after the poll, must survive the reply */
+        ft.handleFlowMod(this.getFlowMod(1, (short) 3, (short) 1));
+
+        final List<OVXFlowStatisticsReply> stats = new LinkedList<OVXFlowStatisticsReply>();
+        final OVXFlowMod known = this.getFlowMod(1, (short) 1, (short) 2);
+        final OVXFlowMod unknown = this.getFlowMod(2, (short) 7, (short) 1);
+        stats.add(this.getStat(known));
+        stats.add(this.getStat(unknown));
+
+        /* parts of a multipart reply are reconciled together */
+        ft.sync(stats.subList(0, 1), true);
+        Assert.assertEquals(3, ft.size());
+        ft.sync(stats.subList(1, 2), false);
+        Assert.assertEquals(3, ft.size());
+        Assert.assertTrue(ft.getFlowMods((long) 1 << 32 | 2).isEmpty());
+        Assert.assertEquals(1, ft.getFlowMods(2).size());
+
+        /* entries missing from the reply to a later poll are stale */
+        ft.markSync();
+        ft.sync(stats, false);
+        Assert.assertEquals(1, ft.getFlowMods(1).size());
+        Assert.assertEquals(1, ft.getFlowMods(2).size());
+        Assert.assertTrue(ft.getFlowMods((long) 1 << 32 | 2).isEmpty());
+    }
+
+    public void testRemoveCookies() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        ft.handleFlowMod(this.getFlowMod(1, (short) 1, (short) 2));
+        ft.handleFlowMod(this.getFlowMod(1, (short) 2, (short) 3));
+        ft.handleFlowMod(this.getFlowMod(2, (short) 4, (short) 3));
+
+        final Set<Long> cookies = new HashSet<Long>();
+        cookies.add((long) 1 << 32 | 1);
+        /* the cookie of another tenant is left alone */
+        cookies.add((long) 2 << 32 | 4);
+        Assert.assertEquals(1, ft.removeCookies(1, cookies).size());
+        Assert.assertEquals(2, ft.size());
+        Assert.assertTrue(ft.getFlowMods((long) 1 << 32 | 1).isEmpty());
+        Assert.assertEquals(1, ft.getFlowMods(2).size());
+    }
+
+    public void testAudit() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        final OVXFlowMod leftover = this.getFlowMod(1, (short) 1, (short) 2);
+        final OVXFlowMod kept = this.getFlowMod(1, (short) 2, (short) 1);
+        final List<OVXFlowStatisticsReply> stats = new LinkedList<OVXFlowStatisticsReply>();
+        stats.add(this.getStat(leftover));
+        stats.add(this.getStat(kept));
+        stats.add(this.getStat(this.getFlowMod(2, (short) 1, (short) 2)));
+
+        ft.audit(1, Collections.singleton(leftover.getCookie()));
+        /* not armed before the next poll */
+        Assert.assertTrue(ft.checkAudits(stats, false).isEmpty());
+
+        ft.markSync();
+        Assert.assertEquals(Collections.singletonList(stats.get(0)),
+                ft.checkAudits(stats, true));
+        /* settled by the last part of the reply */
+        Assert.assertEquals(1, ft.checkAudits(stats, false).size());
+        Assert.assertTrue(ft.checkAudits(stats, false).isEmpty());
+
+        /* a tenant-wide audit covers all flows of the tenant */
+        ft.audit(1, null);
+        ft.markSync();
+        Assert.assertEquals(2, ft.checkAudits(stats, false).size());
+    }
+
+    public void testReconcile() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        final OVXFlowMod claimed = this.getFlowMod(1, (short) 1, (short) 2);
+        final OVXFlowMod changed = this.getFlowMod(1, (short) 2, (short) 3);
+        final OVXFlowMod unclaimed = this.getFlowMod(1, (short) 3, (short) 1);
+        final OVXFlowMod gone = this.getFlowMod(2, (short) 4, (short) 1);
+        final List<OVXFlowStatisticsReply> stats = new LinkedList<OVXFlowStatisticsReply>();
+        stats.add(this.getStat(claimed));
+        stats.add(this.getStat(changed));
+        stats.add(this.getStat(unclaimed));
+        stats.add(this.getStat(gone));
+
+        /* the flows found on the switch are adopted */
+        ft.reconcile();
+        ft.markSync();
+        Assert.assertFalse(ft.sync(stats.subList(0, 2), true));
+        Assert.assertTrue(ft.sync(stats.subList(2, 4), false));
+        Assert.assertEquals(4, ft.getAdopted());
+
+        /* an identical add only claims the flow, a different one is sent */
+        Assert.assertFalse(ft.handleFlowMod(this.getFlowMod(1, (short) 1,
+                (short) 2)));
+        Assert.assertTrue(ft.handleFlowMod(this.getFlowMod(1, (short) 2,
+                (short) 4)));
+        Assert.assertEquals(2, ft.getAdopted());
+
+        /* the flows of removed tenants go first, then the unclaimed ones */
+        Assert.assertEquals(1, ft.dropAdopted(Collections.singleton(2)).size());
+        Assert.assertEquals(Collections.singletonList(unclaimed.getCookie()),
+                this.getCookies(ft.dropAdopted(null)));
+        Assert.assertEquals(2, ft.size());
+        Assert.assertEquals(0, ft.getAdopted());
+
+        /* later polls do not adopt */
+        ft.markSync();
+        Assert.assertFalse(ft.sync(stats, false));
+        Assert.assertEquals(0, ft.getAdopted());
+    }
+
+    public void testLost() {
+        final PhysicalFlowTable ft = new PhysicalFlowTable();
+        final OVXFlowMod kept = this.getFlowMod(1, (short) 1, (short) 2);
+        final OVXFlowMod lost = this.getFlowMod(1, (short) 2, (short) 1);
+        ft.handleFlowMod(kept);
+        ft.handleFlowMod(lost);
+
+        /* entries a plain poll drops are not lost */
+        ft.markSync();
+        ft.sync(Collections.singletonList(this.getStat(kept)), false);
+        Assert.assertTrue(ft.takeLost().isEmpty());
+
+        /* entries a reconciliation drops are handed back once */
+        ft.handleFlowMod(lost);
+        ft.reconcile();
+        ft.markSync();
+        Assert.assertTrue(ft.sync(
+                Collections.singletonList(this.getStat(kept)), false));
+        Assert.assertEquals(Collections.singletonList(lost.getCookie()),
+                this.getCookies(ft.takeLost()));
+        Assert.assertTrue(ft.takeLost().isEmpty());
+        Assert.assertEquals(1, ft.size());
+        Assert.assertEquals(0, ft.getAdopted());
+    }
+
+    private List<Long> getCookies(final List<OVXFlowMod> fms) {
+        final List<Long> cookies = new LinkedList<Long>();
+        for (OVXFlowMod fm : fms) {
+            cookies.add(fm.getCookie());
+        }
+        return cookies;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.TenantScheduler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.util.MACAddress;
+
+import org.openflow.protocol.OFPhysicalPort;
+
+public class PhysicalSwitchTest extends TestCase {
+
+    OpenVirteXController ctl = null;
+
+    public PhysicalSwitchTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PhysicalSwitchTest.class);
+    }
+
+    /**
+     * Tests that packet-ins are scheduled in the share of the tenant of the
+     * host that sent them, or of the virtual link they crossed, and in the
+     * physical share otherwise.
+     */
+    public void testPacketInTenant() {
+        final PhysicalSwitch sw = new PhysicalSwitch(41);
+        sw.addPort(this.port(sw, (short) 1, true));
+        sw.addPort(this.port(sw, (short) 2, false));
+        final MACAddress host = MACAddress.valueOf("00:00:00:00:00:29");
+        OVXMap.getInstance().addMAC(host, 41);
+        try {
+            sw.handleIO(this.packetIn((short) 1, host,
+                    MACAddress.valueOf("00:00:00:00:00:01")), null);
+            Assert.assertEquals(1L, this.count(41));
+
+            final OVXLinkUtils lUtils = new OVXLinkUtils(42, 1, 1);
+            sw.handleIO(this.packetIn((short) 2, lUtils.getSrcMac(),
+                    lUtils.getDstMac()), null);
+            Assert.assertEquals(1L, this.count(42));
+
+            final long physical = this.count(TenantScheduler.PHYSICAL);
+            sw.handleIO(this.packetIn((short) 2,
+                    MACAddress.valueOf("00:00:00:00:00:2b"),
+                    MACAddress.valueOf("00:00:00:00:00:01")), null);
+            Assert.assertEquals(physical + 1,
+                    this.count(TenantScheduler.PHYSICAL));
+        } finally {
+            OVXMap.getInstance().removeMAC(host);
+            TenantScheduler.getInstance().removeTenant(41);
+            TenantScheduler.getInstance().removeTenant(42);
+        }
+    }
+
+    private PhysicalPort port(final PhysicalSwitch sw, final short number,
+            final boolean edge) {
+        final OFPhysicalPort ofp = new OFPhysicalPort();
+        ofp.setPortNumber(number);
+        ofp.setHardwareAddress(new byte[] {0, 0, 0, 0, 0, (byte) number});
+        return new PhysicalPort(ofp, sw, edge);
+    }
+
+    private OVXPacketIn packetIn(final short port, final MACAddress src,
+            final MACAddress dst) {
+        final Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(src.toBytes())
+                .setDestinationMACAddress(dst.toBytes())
+                .setEtherType((short) 0x88b5);
+        final OVXPacketIn pi = new OVXPacketIn();
+        pi.setInPort(port);
+        pi.setPacketData(eth.serialize());
+        return pi;
+    }
+
+    private long count(final int tenantId) {
+        return TenantScheduler.getInstance().getStatistics(tenantId) == null ? 0
+                : (Long) TenantScheduler.getInstance()
+                        .getStatistics(tenantId).get("count");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.ctl = new OpenVirteXController(new CmdLineSettings());
+    }
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+public class CounterHistoryTest extends TestCase {
+
+    public CounterHistoryTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CounterHistoryTest.class);
+    }
+
+    public void testRates() {
+        final CounterHistory history = new CounterHistory(3, 2);
+        Assert.assertEquals(0.0, history.getRate(0));
+        history.record(0, 0, 0);
+        history.record(1000, 100, 1);
+        history.record(2000, 300, 2);
+        Assert.assertEquals(200.0, history.getRate(0));
+        Assert.assertEquals(300, history.getLatest(0));
+
+        /* the oldest sample is overwritten */
+        history.record(4000, 900, 3);
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals(2, history.getRates(0).length);
+        Assert.assertEquals(200.0, history.getRates(0)[0]);
+        Assert.assertEquals(300.0, history.getRate(0));
+
+        /* a counter reset is skipped */
+        history.record(5000, 50, 0);
+        Assert.assertEquals(1, history.getRates(0).length);
+        Assert.assertEquals(300.0, history.getRate(0));
+    }
+
+    public void testSummary() {
+        final CounterHistory history = new CounterHistory(101, 1);
+        for (int i = 0; i <= 100; i++) {
+            /* the rate of the i-th interval is i per second */
+            history.record(i * 1000L, (long) i * (i + 1) / 2);
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> bytes = (Map<String, Object>) history.toMap(
+                "bytes").get("bytes");
+        Assert.assertEquals(100.0, bytes.get("last"));
+        Assert.assertEquals(50.0, bytes.get("p50"));
+        Assert.assertEquals(99.0, bytes.get("p99"));
+        Assert.assertEquals(100.0, bytes.get("max"));
+    }
+
+    public void testSpan() {
+        /* one minute, at most one sample every ten seconds */
+        final CounterHistory history = new CounterHistory(1, 60000, 10000);
+        history.record(0, 0);
+        history.record(10000, 100);
+        /* polled again right away, replaces the latest sample */
+        history.record(12000, 200);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(200, history.getLatest(0));
+        Assert.assertEquals(1000.0 / 60, history.getRate(0), 0.001);
+
+        /* polled slower, samples older than a minute are left out */
+        for (int i = 1; i <= 4; i++) {
+            history.record(12000 + i * 40000L, 200 + i * 400);
+        }
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(1, history.getRates(0).length);
+        Assert.assertEquals(10.0, history.getRate(0));
+    }
+
+    public void testFlowHistory() {
+        final StatisticsHistory history = new StatisticsHistory(30);
+        final Map<Integer, List<OVXFlowStatisticsReply>> stats = new HashMap<Integer, List<OVXFlowStatisticsReply>>();
+        final OVXFlowStatisticsReply stat = new OVXFlowStatisticsReply();
+        stat.setCookie((long) 1 << 32 | 1);
+        stat.setByteCount(1000);
+        stats.put(1, Collections.singletonList(stat));
+        history.recordFlows(stats, 0);
+        stat.setByteCount(4000);
+        history.recordFlows(stats, 30000);
+        Assert.assertEquals(100.0, history.getTenant(1).getRate(
+                StatisticsHistory.BYTES));
+        Assert.assertEquals(100.0, history.getFlow(stat.getCookie())
+                .getRate(StatisticsHistory.BYTES));
+
+        /* flows and tenants no longer reported are forgotten */
+        history.recordFlows(
+                new HashMap<Integer, List<OVXFlowStatisticsReply>>(), 60000);
+        Assert.assertNull(history.getTenant(1));
+        Assert.assertNull(history.getFlow(stat.getCookie()));
+    }
+
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+public class StatisticsManagerTest extends TestCase {
+
+    public StatisticsManagerTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StatisticsManagerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        new OpenVirteXController(new CmdLineSettings());
+    }
+
+    public void testInterval() {
+        final long base = 30000;
+        /* small table, statistics in demand */
+        Assert.assertEquals(base, StatisticsManager.getInterval(base, 0, 0));
+        /* grows with the flow table */
+        Assert.assertEquals(base * 3 / 2, StatisticsManager.getInterval(base,
+                StatisticsManager.FLOWS_PER_INTERVAL / 2, base - 1));
+        /* backs off while nobody asks */
+        Assert.assertEquals(base * 2,
+                StatisticsManager.getInterval(base, 0, base));
+        /* bounded */
+        Assert.assertEquals(base * StatisticsManager.MAX_SCALE,
+                StatisticsManager.getInterval(base, 0, base * 10));
+        Assert.assertEquals(base * StatisticsManager.MAX_SCALE,
+                StatisticsManager.getInterval(base,
+                        StatisticsManager.FLOWS_PER_INTERVAL * 10, 0));
+    }
+
+    public void testJitter() {
+        final long interval = 30000;
+        final long spread = (long) (interval * StatisticsManager.JITTER);
+        boolean moved = false;
+        for (int i = 0; i < 100; i++) {
+            final long jittered = StatisticsManager.jitter(interval);
+            Assert.assertTrue(Math.abs(jittered - interval) <= spread);
+            moved |= jittered != interval;
+        }
+        Assert.assertTrue(moved);
+        Assert.assertEquals(1, StatisticsManager.jitter(0));
+    }
+
+    public void testCoalescing() {
+        final AtomicInteger requests = new AtomicInteger();
+        final PhysicalSwitch sw = new PhysicalSwitch(1) {
+            @Override
+            public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
+                if (msg.getType() == OFType.STATS_REQUEST) {
+                    requests.incrementAndGet();
+                }
+            }
+        };
+        final AtomicInteger answered = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                answered.incrementAndGet();
+            }
+        };
+
+        /* misses for the same switch share one request */
+        sw.getStatisticsManager().whenFresh(OFStatisticsType.FLOW, task);
+        sw.getStatisticsManager().whenFresh(OFStatisticsType.FLOW, task);
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(0, answered.get());
+
+        sw.addFlowStatistics(
+                Collections.<OVXFlowStatisticsReply>emptyList(), false);
+        Assert.assertEquals(2, answered.get());
+
+        /* fresh statistics are answered right away */
+        sw.getStatisticsManager().whenFresh(OFStatisticsType.FLOW, task);
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(3, answered.get());
+    }
+
+    public void testPollInFlight() {
+        final AtomicInteger requests = new AtomicInteger();
+        final PhysicalSwitch sw = new PhysicalSwitch(1) {
+            @Override
+            public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
+                if (msg.getType() == OFType.STATS_REQUEST) {
+                    requests.incrementAndGet();
+                }
+            }
+        };
+        final AtomicInteger answered = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                answered.incrementAndGet();
+            }
+        };
+        final StatisticsManager statsMan = sw.getStatisticsManager();
+        Assert.assertEquals((long) (OpenVirteXController.getInstance()
+                .getStatsRefresh() * 1000L * (1 + 2 * StatisticsManager.JITTER)),
+                statsMan.getMaxAge());
+
+        /* tenants wait for the poll in flight instead of sending another */
+        statsMan.requestFlowStatistics();
+        statsMan.requestFlowStatistics();
+        statsMan.whenFresh(OFStatisticsType.FLOW, task);
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(0, answered.get());
+
+        sw.addFlowStatistics(
+                Collections.<OVXFlowStatisticsReply>emptyList(), false);
+        Assert.assertEquals(1, answered.get());
+
+        /* once answered, the next poll goes out */
+        statsMan.requestFlowStatistics();
+        Assert.assertEquals(2, requests.get());
+    }
+
+    public void testRestart() {
+        final PhysicalSwitch sw = new PhysicalSwitch(1) {
+            @Override
+            public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
+            }
+        };
+        final StatisticsManager statsMan = sw.getStatisticsManager();
+        final AtomicInteger answered = new AtomicInteger();
+        final StatisticsHistory history = statsMan.getHistory();
+        statsMan.start();
+        statsMan.whenFresh(OFStatisticsType.FLOW, new Runnable() {
+            @Override
+            public void run() {
+                answered.incrementAndGet();
+            }
+        });
+
+        /* a flapping switch keeps its manager, and the tasks waiting on it */
+        statsMan.stop();
+        statsMan.restart();
+        Assert.assertSame(statsMan, sw.getStatisticsManager());
+        final OVXFlowStatisticsReply stat = new OVXFlowStatisticsReply();
+        stat.setCookie((long) 1 << 32 | 1);
+        stat.setMatch(new OFMatch());
+        sw.addFlowStatistics(Collections.singletonList(stat), false);
+        Assert.assertEquals(1, answered.get());
+        Assert.assertSame(history, statsMan.getHistory());
+        Assert.assertNotNull(history.getTenant(1));
+        statsMan.stop();
+    }
+
+    public void testMultipartSnapshot() {
+        final PhysicalSwitch sw = new PhysicalSwitch(1);
+        final OVXFlowStatisticsReply first = new OVXFlowStatisticsReply();
+        first.setCookie((long) 1 << 32 | 1);
+        first.setMatch(new OFMatch());
+        final OVXFlowStatisticsReply second = new OVXFlowStatisticsReply();
+        second.setCookie((long) 1 << 32 | 2);
+        second.setMatch(new OFMatch());
+
+        Assert.assertTrue(sw.addFlowStatistics(
+                Collections.singletonList(first), true));
+        /* nothing is published before the last part */
+        Assert.assertNull(sw.getFlowStats(1));
+        Assert.assertFalse(sw.addFlowStatistics(
+                Collections.singletonList(second), false));
+        Assert.assertEquals(2, sw.getFlowStats(1).size());
+    }
+
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.link.OVXLinkUtils;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionDataLayerDestination;
+import org.openflow.protocol.action.OFActionDataLayerSource;
+import org.openflow.protocol.action.OFActionOutput;
+
+public class TenantPortCountersTest extends TestCase {
+
+    public TenantPortCountersTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TenantPortCountersTest.class);
+    }
+
+    private OVXFlowStatisticsReply getStat(final int tenantId,
+            final short inPort, final short outPort, final long bytes) {
+        final OVXFlowStatisticsReply stat = new OVXFlowStatisticsReply();
+        stat.setCookie((long) tenantId << 32 | inPort);
+        stat.setMatch(new OFMatch().setInputPort(inPort).setWildcards(
+                OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT));
+        stat.setActions(Collections.<OFAction>singletonList(new OFActionOutput(
+                outPort)));
+        stat.setByteCount(bytes);
+        stat.setPacketCount(bytes / 100);
+        return stat;
+    }
+
+    private Map<Integer, List<OVXFlowStatisticsReply>> getStats(
+            final OVXFlowStatisticsReply... stats) {
+        final Map<Integer, List<OVXFlowStatisticsReply>> map = new HashMap<Integer, List<OVXFlowStatisticsReply>>();
+        for (OVXFlowStatisticsReply stat : stats) {
+            final int tid = (int) (stat.getCookie() >> 32);
+            if (!map.containsKey(tid)) {
+                map.put(tid, new LinkedList<OVXFlowStatisticsReply>());
+            }
+            map.get(tid).add(stat);
+        }
+        return map;
+    }
+
+    public void testSharedPort() {
+        final TenantPortCounters counters = new TenantPortCounters();
+        /* two tenants receive on port 1 */
+        counters.record(this.getStats(this.getStat(1, (short) 1, (short) 2,
+                1000), this.getStat(2, (short) 1, (short) 3, 500)));
+        Assert.assertEquals(1000,
+                counters.get(1, (short) 1)[TenantPortCounters.RX_BYTES]);
+        Assert.assertEquals(500,
+                counters.get(2, (short) 1)[TenantPortCounters.RX_BYTES]);
+        Assert.assertEquals(1000,
+                counters.get(1, (short) 2)[TenantPortCounters.TX_BYTES]);
+        Assert.assertNull(counters.get(2, (short) 2));
+
+        /* only the increase is added */
+        counters.record(this.getStats(this.getStat(1, (short) 1, (short) 2,
+                1500)));
+        Assert.assertEquals(1500,
+                counters.get(1, (short) 1)[TenantPortCounters.RX_BYTES]);
+        Assert.assertEquals(15,
+                counters.get(1, (short) 1)[TenantPortCounters.RX_PACKETS]);
+
+        /* a flow starting over keeps the counters growing */
+        counters.record(this.getStats(this.getStat(1, (short) 1, (short) 2,
+                200)));
+        Assert.assertEquals(1700,
+                counters.get(1, (short) 1)[TenantPortCounters.RX_BYTES]);
+
+        counters.removeTenant(1);
+        Assert.assertNull(counters.get(1, (short) 1));
+    }
+
+    public void testSpecialPorts() {
+        final TenantPortCounters counters = new TenantPortCounters();
+        counters.record(this.getStats(
+                this.getStat(1, (short) 1, OFPort.OFPP_IN_PORT.getValue(), 100),
+                this.getStat(1, (short) 2, OFPort.OFPP_FLOOD.getValue(), 100)));
+        /* sent back out of the input port */
+        Assert.assertEquals(100,
+                counters.get(1, (short) 1)[TenantPortCounters.TX_BYTES]);
+        /* flooded traffic is only counted as received */
+        Assert.assertEquals(0,
+                counters.get(1, (short) 2)[TenantPortCounters.TX_BYTES]);
+        Assert.assertNull(counters.get(1, OFPort.OFPP_FLOOD.getValue()));
+    }
+
+    /**
+     * Tests that the traffic of a tenant on a physical port is split by the
+     * virtual link it crosses, so that each virtual port on the physical port
+     * only sees its own.
+     */
+    public void testVirtualLinks() {
+        new OpenVirteXController(new CmdLineSettings());
+        final TenantPortCounters counters = new TenantPortCounters();
+        counters.record(this.getStats(this.getLinkStat(1, 5, 1000),
+                this.getLinkStat(1, 6, 500)));
+        Assert.assertEquals(1000,
+                counters.get(1, (short) 1, 5)[TenantPortCounters.RX_BYTES]);
+        Assert.assertEquals(500,
+                counters.get(1, (short) 1, 6)[TenantPortCounters.RX_BYTES]);
+        Assert.assertNull(counters.get(1, (short) 1, 0));
+        Assert.assertEquals(1500,
+                counters.get(1, (short) 1)[TenantPortCounters.RX_BYTES]);
+        /* the host addresses are restored before the edge port */
+        Assert.assertEquals(1500,
+                counters.get(1, (short) 2, 0)[TenantPortCounters.TX_BYTES]);
+    }
+
+    /*
+     * Statistics of a flow receiving a virtual link on port 1 and delivering
+     * its packets to a host on port 2.
+     */
+    private OVXFlowStatisticsReply getLinkStat(final int tenantId,
+            final int linkId, final long bytes) {
+        final OVXLinkUtils lUtils = new OVXLinkUtils(tenantId, linkId, 1);
+        final OVXFlowStatisticsReply stat = this.getStat(tenantId, (short) 1,
+                (short) 2, bytes);
+        stat.setCookie((long) tenantId << 32 | linkId);
+        stat.getMatch()
+                .setDataLayerSource(lUtils.getSrcMac().toBytes())
+                .setDataLayerDestination(lUtils.getDstMac().toBytes())
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+                        & ~OFMatch.OFPFW_DL_SRC & ~OFMatch.OFPFW_DL_DST);
+        final OFActionDataLayerSource setSrc = new OFActionDataLayerSource();
+        setSrc.setDataLayerAddress(new byte[] {0, 0, 0, 0, 0, 1});
+        final OFActionDataLayerDestination setDst = new OFActionDataLayerDestination();
+        setDst.setDataLayerAddress(new byte[] {0, 0, 0, 0, 0, 2});
+        stat.setActions(Arrays.<OFAction>asList(setSrc, setDst,
+                new OFActionOutput((short) 2)));
+        return stat;
+    }
+
+}
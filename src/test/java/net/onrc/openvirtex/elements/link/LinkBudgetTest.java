@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.link;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.link.OVXLinkBudget.Block;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+
+public class LinkBudgetTest extends TestCase {
+
+    private OVXLinkBudget budget;
+
+    public LinkBudgetTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(LinkBudgetTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        new OpenVirteXController(new CmdLineSettings());
+        this.budget = OVXLinkBudget.getInstance();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (int tenantId = 1; tenantId < 8; tenantId++) {
+            this.budget.release(tenantId);
+        }
+    }
+
+    public void testVariableBlocks() throws IndexOutOfBoundException {
+        final Block small = this.budget.allocate(1, 8, 8);
+        final Block large = this.budget.allocate(2, 16, 30);
+        final Block other = this.budget.allocate(3, 8, 8);
+
+        /* blocks are aligned and disjoint */
+        Assert.assertEquals(0, large.getStart() & (1L << 46) - 1);
+        Assert.assertTrue(other.getStart() >= small.getStart() + (1L << 16)
+                || other.getStart() + (1L << 16) <= small.getStart());
+        Assert.assertTrue(large.getStart() >= other.getStart() + (1L << 16)
+                || small.getStart() >= large.getStart() + (1L << 46));
+        Assert.assertEquals(1 << 30, this.budget.getFlowIdLimit(2));
+        Assert.assertEquals(1 << 8, this.budget.getLinkIdLimit(1));
+
+        /* identifiers use the whole budget of their network */
+        for (final int[] ids : new int[][] { { 1, 255, 255 },
+                { 2, 65535, (1 << 30) - 1 }, { 3, 1, 1 } }) {
+            final OVXLinkUtils lUtils = new OVXLinkUtils(ids[0], ids[1],
+                    ids[2]);
+            final OVXLinkUtils decoded = new OVXLinkUtils(lUtils.getSrcMac(),
+                    lUtils.getDstMac());
+            Assert.assertEquals(ids[0], decoded.getTenantId().intValue());
+            Assert.assertEquals(ids[1], decoded.getLinkId().intValue());
+            Assert.assertEquals(ids[2], decoded.getFlowId().intValue());
+        }
+    }
+
+    public void testRestore() throws IndexOutOfBoundException {
+        final Block block = this.budget.allocate(1, 10, 10);
+        final long start = block.getStart();
+        this.budget.release(1);
+        Assert.assertNull(this.budget.getBlock(1));
+
+        Assert.assertEquals(start, this.budget.restore(4, start, 10, 10)
+                .getStart());
+        try {
+            this.budget.restore(5, start, 12, 12);
+            Assert.fail("Overlapping block restored");
+        } catch (final IndexOutOfBoundException e) {
+            // expected
+        }
+        try {
+            this.budget.restore(5, start + 1, 10, 10);
+            Assert.fail("Unaligned block restored");
+        } catch (final IndexOutOfBoundException e) {
+            // expected
+        }
+    }
+
+    public void testLegacyBlock() throws IndexOutOfBoundException {
+        final int tenantBits = OpenVirteXController.getInstance()
+                .getNumberVirtualNets();
+        final int bits = OVXLinkBudget.getDefaultLinkBits();
+        final Block block = this.budget.restore(3,
+                OVXLinkBudget.getLegacyStart(3), bits,
+                OVXLinkBudget.getDefaultFlowBits());
+
+        /* networks stored before budgets keep their fixed-width prefix */
+        Assert.assertEquals(3L << 48 - tenantBits, block.getStart());
+        final OVXLinkUtils lUtils = new OVXLinkUtils(3, 7, 9);
+        final OVXLinkUtils decoded = new OVXLinkUtils(lUtils.getSrcMac(),
+                lUtils.getDstMac());
+        Assert.assertEquals(3, decoded.getTenantId().intValue());
+        Assert.assertEquals(7, decoded.getLinkId().intValue());
+        Assert.assertEquals(9, decoded.getFlowId().intValue());
+    }
+
+    public void testExhaustion() throws IndexOutOfBoundException {
+        this.budget.allocate(1, 23, 24);
+        this.budget.allocate(2, 23, 24);
+        try {
+            this.budget.allocate(3, 1, 1);
+            Assert.fail("Label space should be exhausted");
+        } catch (final IndexOutOfBoundException e) {
+            // expected
+        }
+        /* space is reusable once released */
+        this.budget.release(2);
+        Assert.assertNotNull(this.budget.allocate(3, 1, 1));
+    }
+
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.link;
+
+import java.util.BitSet;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.util.MACAddress;
+
+/**
+ * Compares the link codec with the previous OVXLinkUtils implementation,
+ * which rebuilt the masks on each call. Not part of the test suite; run with
+ * java -cp ... net.onrc.openvirtex.elements.link.LinkCodecBenchmark [rounds]
+ */
+public final class LinkCodecBenchmark {
+
+    private static final int LINKS = 1000;
+    private static final int FLOWS = 1000;
+
+    private LinkCodecBenchmark() {
+    }
+
+    /*
+     * Previous implementation, kept for reference.
+     */
+    private static final class Legacy {
+        private int tenantId;
+        private int linkId;
+        private int flowId;
+        private MACAddress srcMac;
+        private MACAddress dstMac;
+
+        private static int bitSetToInt(final BitSet bitSet) {
+            int bitInteger = 0;
+            for (int i = 0; i < 32; i++) {
+                if (bitSet.get(i)) {
+                    bitInteger |= 1 << i;
+                }
+            }
+            return bitInteger;
+        }
+
+        Legacy(final MACAddress srcMac, final MACAddress dstMac) {
+            final int vNets = OpenVirteXController.getInstance()
+                    .getNumberVirtualNets();
+            final MACAddress mac = MACAddress.valueOf((srcMac.toLong()
+                    & 0xFFFFFF) << 24 | dstMac.toLong() & 0xFFFFFF);
+            this.tenantId = (int) (mac.toLong() >> 48 - vNets);
+            final BitSet bmask = new BitSet((48 - vNets) / 2);
+            for (int i = bmask.nextClearBit(0); i < (48 - vNets) / 2; i = bmask
+                    .nextClearBit(i + 1)) {
+                bmask.set(i);
+            }
+            final int mask = Legacy.bitSetToInt(bmask);
+            this.linkId = (int) (mac.toLong() >> (48 - vNets) / 2) & mask;
+            this.flowId = (int) mac.toLong() & mask;
+        }
+
+        Legacy(final int tenantId, final int linkId, final int flowId) {
+            final int vNets = OpenVirteXController.getInstance()
+                    .getNumberVirtualNets();
+            final MACAddress mac = MACAddress.valueOf((long) tenantId << 48
+                    - vNets | (long) linkId << (48 - vNets) / 2 | flowId);
+            final long src = mac.toLong() >> 24 & 0xFFFFFF;
+            final long dst = mac.toLong() & 0xFFFFFF;
+            this.srcMac = MACAddress.valueOf(0xa42305L << 24 | src);
+            this.dstMac = MACAddress.valueOf(0xa42305L << 24 | dst);
+        }
+    }
+
+    public static void main(final String[] args) {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        new OpenVirteXController(new CmdLineSettings());
+        final int tenantId = 5;
+
+        // both implementations have to agree
+        for (int link = 1; link < LINKS; link += 37) {
+            for (int flow = 1; flow < FLOWS; flow += 41) {
+                final Legacy legacy = new Legacy(tenantId, link, flow);
+                final OVXLinkUtils lUtils = new OVXLinkUtils(tenantId, link,
+                        flow);
+                final Legacy decoded = new Legacy(legacy.srcMac,
+                        legacy.dstMac);
+                if (!legacy.srcMac.equals(lUtils.getSrcMac())
+                        || !legacy.dstMac.equals(lUtils.getDstMac())
+                        || decoded.tenantId != tenantId
+                        || decoded.linkId != link || decoded.flowId != flow) {
+                    throw new AssertionError("Mismatch for link " + link
+                            + ", flow " + flow);
+                }
+            }
+        }
+
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (int link = 1; link < LINKS; link++) {
+                for (int flow = 1; flow < FLOWS; flow++) {
+                    final Legacy enc = new Legacy(tenantId, link, flow);
+                    final Legacy dec = new Legacy(enc.srcMac, enc.dstMac);
+                    sink += dec.flowId;
+                }
+            }
+            final long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int link = 1; link < LINKS; link++) {
+                for (int flow = 1; flow < FLOWS; flow++) {
+                    final long src = OVXLinkCodec.encodeSrcMac(tenantId, link,
+                            flow, false);
+                    final long dst = OVXLinkCodec.encodeDstMac(tenantId, link,
+                            flow);
+                    sink += OVXLinkCodec.decodeFlowId(src, dst);
+                }
+            }
+            final long codec = System.nanoTime() - start;
+
+            final double ops = (double) (LINKS - 1) * (FLOWS - 1);
+            System.out.printf(
+                    "round %d: legacy %.1f ns/op, codec %.1f ns/op%n", r,
+                    legacy / ops, codec / ops);
+        }
+        System.out.println("checksum " + sink);
+    }
+
+}
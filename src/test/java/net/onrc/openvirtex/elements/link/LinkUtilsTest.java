@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.elements.link;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+
+import org.kohsuke.args4j.CmdLineParser;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionStripVirtualLan;
+import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+
+public class LinkUtilsTest extends TestCase {
+
+    public LinkUtilsTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(LinkUtilsTest.class);
+    }
+
+    private void startController(final String... args) throws Exception {
+        final CmdLineSettings settings = new CmdLineSettings();
+        new CmdLineParser(settings).parseArgument(args);
+        new OpenVirteXController(settings);
+    }
+
+    public void testLinkFields() throws Exception {
+        this.startController();
+        final OVXLinkUtils lUtils = new OVXLinkUtils(3, 7, 1000);
+        final OVXLinkUtils decoded = new OVXLinkUtils(lUtils.getSrcMac(),
+                lUtils.getDstMac());
+        Assert.assertEquals(3, decoded.getTenantId().intValue());
+        Assert.assertEquals(7, decoded.getLinkId().intValue());
+        Assert.assertEquals(1000, decoded.getFlowId().intValue());
+        Assert.assertFalse(OVXLinkUtils.isAggregated());
+    }
+
+    public void testAggregatedFields() throws Exception {
+        this.startController("--aggregate-links");
+        Assert.assertTrue(OVXLinkUtils.isAggregated());
+
+        final OVXLinkUtils flow1 = new OVXLinkUtils(3, 7, 1000);
+        final OVXLinkUtils flow2 = new OVXLinkUtils(3, 7, 1001);
+        final OVXLinkUtils route = new OVXLinkUtils(3, 7, 1000, true);
+        /* flows of a link share the link label */
+        Assert.assertEquals(flow1.getSrcMac(), flow2.getSrcMac());
+        Assert.assertFalse(flow1.getDstMac().equals(flow2.getDstMac()));
+        /* but links and routes with the same id don't */
+        Assert.assertFalse(flow1.getSrcMac().equals(route.getSrcMac()));
+
+        OVXLinkUtils decoded = new OVXLinkUtils(flow2.getSrcMac(),
+                flow2.getDstMac());
+        Assert.assertEquals(3, decoded.getTenantId().intValue());
+        Assert.assertEquals(7, decoded.getLinkId().intValue());
+        Assert.assertEquals(1001, decoded.getFlowId().intValue());
+        Assert.assertFalse(decoded.isRoute());
+        decoded = new OVXLinkUtils(route.getSrcMac(), route.getDstMac());
+        Assert.assertEquals(7, decoded.getLinkId().intValue());
+        Assert.assertTrue(decoded.isRoute());
+
+        /* transit entries only match on input port and link label */
+        final OFMatch match = new OFMatch();
+        match.setInputPort((short) 1).setNetworkDestination(5692)
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+                        & ~OFMatch.OFPFW_NW_DST_ALL);
+        flow1.rewriteTransitMatch(match);
+        final OFMatch other = match.clone();
+        flow2.rewriteTransitMatch(other);
+        Assert.assertEquals(match.toString(), other.toString());
+        Assert.assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+                & ~OFMatch.OFPFW_DL_SRC, match.getWildcards());
+    }
+
+    public void testVlanFields() throws Exception {
+        this.startController("--num-virtual", "15", "--link-field", "VLAN");
+        Assert.assertFalse(OVXLinkUtils.usesFlowId());
+
+        final OVXLinkUtils lUtils = new OVXLinkUtils(3, 7, 0);
+        Assert.assertTrue(lUtils.isValid());
+        Assert.assertNull(lUtils.getSrcMac());
+        Assert.assertEquals(3 << 8 | 7, lUtils.getVlan().intValue());
+
+        final OVXLinkUtils decoded = new OVXLinkUtils(lUtils.getVlan());
+        Assert.assertTrue(decoded.isValid());
+        Assert.assertEquals(3, decoded.getTenantId().intValue());
+        Assert.assertEquals(7, decoded.getLinkId().intValue());
+        Assert.assertFalse(new OVXLinkUtils((short) 0xffff).isValid());
+
+        /* the tag is pushed at the ingress and stripped at the egress */
+        final OFAction push = lUtils.setLinkFields().get(0);
+        Assert.assertEquals(lUtils.getVlan().shortValue(),
+                ((OFActionVirtualLanIdentifier) push).getVirtualLanIdentifier());
+        Assert.assertTrue(lUtils.unsetLinkFields().get(0)
+                instanceof OFActionStripVirtualLan);
+
+        final OFMatch match = new OFMatch();
+        lUtils.rewriteMatch(match);
+        Assert.assertEquals(lUtils.getVlan().shortValue(),
+                match.getDataLayerVirtualLan());
+        Assert.assertEquals(0, match.getWildcards() & OFMatch.OFPFW_DL_VLAN);
+    }
+
+    public void testVlanTenants() throws Exception {
+        this.startController("--num-virtual", "15", "--link-field", "VLAN");
+
+        /* all ones would be the reserved VLAN id 0xFFF */
+        try {
+            new OVXLinkUtils(15, 255, 0);
+            Assert.fail("Reserved VLAN id encoded");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("reserved"));
+        }
+        Assert.assertEquals(0xFFE, new OVXLinkUtils(15, 254, 0).getVlan()
+                .intValue() & 0xFFF);
+
+        /* tenants cannot use VLANs of their own */
+        final OFMatch match = new OFMatch();
+        Assert.assertFalse(OVXLinkUtils.matchesVlan(match));
+        match.setDataLayerVirtualLan((short) 10).setWildcards(
+                OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_VLAN);
+        Assert.assertTrue(OVXLinkUtils.matchesVlan(match));
+        match.setDataLayerVirtualLan((short) 0xffff);
+        Assert.assertFalse(OVXLinkUtils.matchesVlan(match));
+
+        /* tagged packets never enter a virtual link */
+        final OFMatch ingress = new OFMatch();
+        OVXLinkUtils.matchUntagged(ingress, new OVXLinkUtils(3, 7, 0)
+                .setLinkFields());
+        Assert.assertEquals((short) 0xffff, ingress.getDataLayerVirtualLan());
+        Assert.assertEquals(0, ingress.getWildcards() & OFMatch.OFPFW_DL_VLAN);
+    }
+
+    public void testTenantBits() {
+        /* no room left for link ids */
+        try {
+            OVXLinkCodec.configure(11, OVXLinkField.VLAN, false);
+            Assert.fail("Tenant bits accepted for VLAN");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            OVXLinkCodec.configure(23, OVXLinkField.MAC_ADDRESS, true);
+            Assert.fail("Tenant bits accepted for aggregated links");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            OVXLinkCodec.configure(0, OVXLinkField.MAC_ADDRESS, false);
+            Assert.fail("Tenant bits accepted for MAC addresses");
+        } catch (IllegalArgumentException e) {
+        }
+        OVXLinkCodec.configure(10, OVXLinkField.VLAN, false);
+        OVXLinkCodec.configure(8, OVXLinkField.MAC_ADDRESS, false);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class EventLogTest extends TestCase {
+
+    public EventLogTest(final String name) {
+        super(name);
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(EventLogTest.class);
+    }
+
+    /**
+     * Tests that events are not kept while nobody follows them, and that a
+     * client asking for them then has to resync.
+     */
+    public void testUnwatched() throws InterruptedException {
+        final EventLog log = new EventLog(4);
+        Assert.assertFalse(log.isWatched());
+        this.publish(log, 1);
+        Assert.assertEquals(1, log.getSeq());
+        Assert.assertNull(log.poll(0, 10, 0));
+
+        Assert.assertEquals(1, log.subscribe());
+        Assert.assertTrue(log.isWatched());
+        this.publish(log, 2);
+        final List<Event> events = log.poll(1, 10, 0);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(2, events.get(0).getSeq());
+        Assert.assertEquals(2, events.get(0).getData().get("id"));
+    }
+
+    /**
+     * Tests that events are returned in order, a limited number at a time.
+     */
+    public void testPoll() throws InterruptedException {
+        final EventLog log = new EventLog(4);
+        final long seq = log.subscribe();
+        for (int i = 0; i < 3; i++) {
+            this.publish(log, i);
+        }
+        List<Event> events = log.poll(seq, 2, 0);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(seq + 1, events.get(0).getSeq());
+        Assert.assertEquals(seq + 2, events.get(1).getSeq());
+        events = log.poll(seq + 2, 2, 0);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(2, events.get(0).getData().get("id"));
+        Assert.assertTrue(log.poll(seq + 3, 2, 0).isEmpty());
+        // A sequence number from the future, e.g. before a restart
+        Assert.assertNull(log.poll(seq + 4, 2, 0));
+    }
+
+    /**
+     * Tests that a client that falls behind by more than the capacity has to
+     * resync.
+     */
+    public void testOverflow() throws InterruptedException {
+        final EventLog log = new EventLog(4);
+        final long seq = log.subscribe();
+        for (int i = 0; i < 6; i++) {
+            this.publish(log, i);
+        }
+        Assert.assertNull(log.poll(seq, 10, 0));
+        Assert.assertNull(log.poll(seq + 1, 10, 0));
+        final List<Event> events = log.poll(seq + 2, 10, 0);
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals(seq + 6, events.get(3).getSeq());
+    }
+
+    /**
+     * Tests that a client waits for the next event, or until its timeout.
+     */
+    public void testWait() throws InterruptedException {
+        final EventLog log = new EventLog(4);
+        final long seq = log.subscribe();
+        Assert.assertTrue(log.poll(seq, 10, 50).isEmpty());
+
+        final List<List<Event>> result = Collections
+                .synchronizedList(new ArrayList<List<Event>>());
+        final Thread client = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.add(log.poll(seq, 10, 5000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        };
+        client.start();
+        client.join(100);
+        Assert.assertTrue(client.isAlive());
+        this.publish(log, 1);
+        client.join(1000);
+        Assert.assertFalse(client.isAlive());
+        Assert.assertEquals(1, result.get(0).size());
+    }
+
+    private void publish(final EventLog log, final int id) {
+        final Map<String, Object> data = Collections
+                .<String, Object>singletonMap("id", id);
+        log.publish(Event.Type.ADDED, "switches", null, data);
+    }
+
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.exceptions.DuplicateIndexException;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+
+public class BitSetIndexTest extends TestCase {
+
+    OpenVirteXController ctl = null;
+
+    public BitSetIndexTest(final String name) {
+        super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(BitSetIndexTest.class);
+    }
+
+    /**
+     * Tests that indexes are allocated from 1 and that the lowest released
+     * index is handed out again.
+     */
+    public void testAllocateAndRelease() throws IndexOutOfBoundException {
+        final BitSetIndex index = new BitSetIndex(IndexType.FLOW_ID, 200000);
+        for (int i = 1; i <= 150000; i++) {
+            assertEquals(i, index.getNewIndex().intValue());
+        }
+        assertEquals(150000, index.getUsed());
+        assertTrue(index.releaseIndex(70000));
+        assertTrue(index.releaseIndex(3));
+        assertFalse(index.releaseIndex(3));
+        assertFalse(index.releaseIndex(0));
+        assertEquals(3, index.getNewIndex().intValue());
+        assertEquals(70000, index.getNewIndex().intValue());
+        assertEquals(150001, index.getNewIndex().intValue());
+    }
+
+    /**
+     * Tests explicit and bulk reservation, and range checks.
+     */
+    public void testReserve() throws IndexOutOfBoundException {
+        final BitSetIndex index = new BitSetIndex(IndexType.FLOW_ID, 1000);
+        try {
+            index.getNewIndex(5);
+            index.getNewIndex(5);
+            fail("Duplicate index should not be reserved");
+        } catch (final DuplicateIndexException e) {
+            // expected
+        }
+        try {
+            index.reserveIndex(1000);
+            fail("Index out of range should not be reserved");
+        } catch (final IndexOutOfBoundException e) {
+            // expected
+        } catch (final DuplicateIndexException e) {
+            fail("Unexpected exception " + e);
+        }
+        final List<Integer> bulk = Arrays.asList(1, 2, 5, 63, 64, 999, 2);
+        assertEquals(5, index.reserveIndices(bulk));
+        assertEquals(6, index.getUsed());
+        assertEquals(3, index.getNewIndex().intValue());
+        try {
+            index.reserveIndices(Collections.singleton(1000));
+            fail("Index out of range should not be reserved");
+        } catch (final IndexOutOfBoundException e) {
+            assertEquals(7, index.getUsed());
+        }
+    }
+
+    /**
+     * Tests that the full range of a 64-bit index can be used, and that an
+     * exhausted index reports so.
+     */
+    public void testRange() throws Exception {
+        final BitSetIndex big = new BitSetIndex(IndexType.SWITCH_ID);
+        big.reserveIndex(0xFFFFFFFFL);
+        assertTrue(big.releaseIndex(0xFFFFFFFFL));
+        assertEquals(1L, big.getNewLongIndex());
+
+        final BitSetIndex small = new BitSetIndex(IndexType.FLOW_ID, 4);
+        small.getNewIndex();
+        small.getNewIndex();
+        small.getNewIndex();
+        assertEquals(1.0, small.getOccupancy());
+        try {
+            small.getNewIndex();
+            fail("Exhausted index should not allocate");
+        } catch (final IndexOutOfBoundException e) {
+            // expected
+        }
+        small.releaseIndex(2);
+        assertEquals(2, small.getNewIndex().intValue());
+    }
+
+    /**
+     * Tests that allocation skips full chunks without creating the chunks it
+     * passes, and comes back to a chunk once one of its indexes is released.
+     */
+    public void testChunkSummary() throws Exception {
+        final BitSetIndex index = new BitSetIndex(IndexType.SWITCH_ID);
+        index.reserveIndex(0xFFFFFFFFL);
+        assertEquals(2, index.getChunkCount());
+        for (long i = 1; i <= 65536; i++) {
+            assertEquals(i, index.getNewLongIndex());
+        }
+        assertEquals(3, index.getChunkCount());
+        assertTrue(index.releaseIndex(42));
+        assertEquals(42L, index.getNewLongIndex());
+        assertEquals(65537L, index.getNewLongIndex());
+        assertEquals(3, index.getChunkCount());
+    }
+
+    /**
+     * Tests that concurrent allocation never hands out an index twice.
+     */
+    public void testConcurrentAllocation() throws InterruptedException {
+        final BitSetIndex index = new BitSetIndex(IndexType.FLOW_ID);
+        final int threads = 8;
+        final int perThread = 20000;
+        final List<Set<Long>> results = new LinkedList<Set<Long>>();
+        final List<Thread> workers = new LinkedList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Set<Long> ids = new HashSet<Long>();
+            results.add(ids);
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            final long id = index.getNewLongIndex();
+                            ids.add(id);
+                            if (i % 3 == 0) {
+                                index.releaseIndex(id);
+                                ids.remove(id);
+                            }
+                        }
+                    } catch (final IndexOutOfBoundException e) {
+                        ids.add(-1L);
+                    }
+                }
+            });
+        }
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final Set<Long> all = new HashSet<Long>();
+        int total = 0;
+        for (final Set<Long> ids : results) {
+            total += ids.size();
+            all.addAll(ids);
+        }
+        assertFalse(all.contains(-1L));
+        assertEquals(total, all.size());
+        assertEquals(total, index.getUsed());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ctl = new OpenVirteXController(new CmdLineSettings());
+    }
+
+}
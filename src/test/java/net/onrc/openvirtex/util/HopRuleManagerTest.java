@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2014 Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package net.onrc.openvirtex.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+
+public class HopRuleManagerTest extends TestCase {
+
+    OpenVirteXController ctl = null;
+
+    /**
+     * Physical switch that records the FlowMods sent to it.
+     */
+    private static class RecordingSwitch extends PhysicalSwitch {
+
+        private final List<Short> commands = new LinkedList<Short>();
+
+        RecordingSwitch(final long dpid) {
+            super(dpid);
+        }
+
+        @Override
+        public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
+            this.commands.add(((OFFlowMod) msg).getCommand());
+        }
+    }
+
+    public HopRuleManagerTest(final String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(HopRuleManagerTest.class);
+    }
+
+    private OVXFlowMod getHopFlowMod(short inPort, short outPort) {
+        final OVXFlowMod fm = new OVXFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_MODIFY);
+        fm.setCookie((long) 1 << 32);
+        fm.setMatch(new OFMatch().setInputPort(inPort).setWildcards(
+                OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT));
+        fm.setActions(Arrays.asList((OFAction) new OFActionOutput(outPort)));
+        return fm;
+    }
+
+    public void testSharedHop() {
+        final OVXHopRuleManager hops = new OVXHopRuleManager(1);
+        final RecordingSwitch sw = new RecordingSwitch(1);
+
+        /* two edge flows crossing the same hop install it once */
+        Assert.assertTrue(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 2), 11));
+        Assert.assertFalse(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 2), 12));
+        /* resending for the same edge flow does not add a reference */
+        Assert.assertFalse(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 2), 12));
+        Assert.assertEquals(1, sw.commands.size());
+        Assert.assertEquals(1, hops.size());
+
+        /* the entry stays until the last reference is gone */
+        hops.release(11);
+        Assert.assertEquals(1, sw.commands.size());
+        hops.release(12);
+        Assert.assertEquals(0, hops.size());
+        Assert.assertEquals(Arrays.asList(OFFlowMod.OFPFC_MODIFY,
+                OFFlowMod.OFPFC_DELETE_STRICT), sw.commands);
+    }
+
+    public void testChangedHop() {
+        final OVXHopRuleManager hops = new OVXHopRuleManager(1);
+        final RecordingSwitch sw = new RecordingSwitch(1);
+
+        hops.install(sw, this.getHopFlowMod((short) 1, (short) 2), 11);
+        /* new actions for the same hop are written out */
+        Assert.assertTrue(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 3), 12));
+        Assert.assertEquals(1, hops.size());
+
+        hops.install(sw, this.getHopFlowMod((short) 4, (short) 3), 12);
+        hops.clear();
+        Assert.assertEquals(0, hops.size());
+        Assert.assertEquals(5, sw.commands.size());
+    }
+
+    public void testReconnectedHop() {
+        final OVXHopRuleManager hops = new OVXHopRuleManager(1);
+        final RecordingSwitch sw = new RecordingSwitch(1);
+
+        hops.install(sw, this.getHopFlowMod((short) 1, (short) 2), 11);
+        /* the switch disconnects and loses its flows */
+        Assert.assertEquals(1, hops.invalidate(1));
+        Assert.assertEquals(0, hops.invalidate(2));
+        Assert.assertTrue(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 2), 12));
+        Assert.assertFalse(hops.install(sw, this.getHopFlowMod((short) 1,
+                (short) 2), 13));
+        Assert.assertEquals(2, sw.commands.size());
+
+        /* the switch reconnects as a new instance with an empty table */
+        final RecordingSwitch reconnected = new RecordingSwitch(1);
+        Assert.assertTrue(hops.install(reconnected, this.getHopFlowMod(
+                (short) 1, (short) 2), 14));
+        Assert.assertFalse(hops.install(reconnected, this.getHopFlowMod(
+                (short) 1, (short) 2), 15));
+        Assert.assertEquals(1, reconnected.commands.size());
+
+        /* references survive, the entry goes with the last one */
+        for (long ref = 11; ref < 15; ref++) {
+            hops.release(ref);
+        }
+        Assert.assertEquals(1, hops.size());
+        hops.release(15);
+        Assert.assertEquals(0, hops.size());
+        Assert.assertEquals(Arrays.asList(OFFlowMod.OFPFC_MODIFY,
+                OFFlowMod.OFPFC_DELETE_STRICT), reconnected.commands);
+    }
+
+    public void testReinstall() {
+        final OVXHopRuleManager hops = new OVXHopRuleManager(1);
+        final RecordingSwitch sw = new RecordingSwitch(1);
+        final OVXFlowMod fm = this.getHopFlowMod((short) 1, (short) 2);
+        fm.setCookie(11);
+
+        /* the entry carries the cookie of the edge flow that installed it */
+        hops.install(sw, fm, 11);
+        hops.install(sw, this.getHopFlowMod((short) 1, (short) 2), 12);
+        Assert.assertEquals(0, hops.reinstall(Collections.singleton(12L)));
+
+        /* the flows with cookie 11 are deleted, the entry is still in use */
+        hops.release(11);
+        Assert.assertEquals(1, hops.reinstall(Collections.singleton(11L)));
+        Assert.assertEquals(Arrays.asList(OFFlowMod.OFPFC_MODIFY,
+                OFFlowMod.OFPFC_MODIFY), sw.commands);
+        Assert.assertEquals(0, hops.reinstall(Collections.singleton(11L)));
+
+        /* unreferenced entries are not brought back */
+        hops.release(12);
+        Assert.assertEquals(0, hops.reinstall(Collections.singleton(12L)));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ctl = new OpenVirteXController(new CmdLineSettings());
+    }
+
+}
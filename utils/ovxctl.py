@@ -52,9 +52,13 @@ def do_addControllers(gopts, opts, args):
         print resp
 
 def pa_createNetwork(args, cmd):
-    usage = "%s <protocol> <controller_urls> <ip_network> <ip_mask>" % USAGE.format(cmd)
+    usage = "%s [options] <protocol> <controller_urls> <ip_network> <ip_mask>" % USAGE.format(cmd)
     (sdesc, ldesc) = DESCS[cmd]
     parser = OptionParser(usage=usage, description=ldesc)
+    parser.add_option("-l", "--link-bits", dest="linkBits", type="int", default=None,
+            help="Specify the number of bits of virtual link ids")
+    parser.add_option("-f", "--flow-bits", dest="flowBits", type="int", default=None,
+            help="Specify the number of bits of flow ids")
     return parser.parse_args(args)
 
 def buildControllerList(ctrls):
@@ -85,6 +89,10 @@ def do_createNetwork(gopts, opts, args):
         sys.exit()
     req = { "controllerUrls" : buildControllerList(args[0]), \
                  "networkAddress" : args[1], "mask" : int(args[2]) }
+    if opts.linkBits is not None:
+        req["linkBits"] = opts.linkBits
+    if opts.flowBits is not None:
+        req["flowBits"] = opts.flowBits
     network_id = connect(gopts, "tenant", "createNetwork", data=req, passwd=getPasswd(gopts))
     if network_id:
         print "Virtual network has been created (network_id %s)." % str(network_id)
@@ -152,6 +160,24 @@ def do_setInternalRouting(gopts, opts, args):
     if tenantId and switchId:
         print "Routing has be set for big switch (tenant_id %s, switch_id %s)" % (switchId, tenantId)
 
+def pa_setNetworkWeight(args, cmd):
+    usage = "%s <tenant_id> <weight>" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_setNetworkWeight(gopts, opts, args):
+    if len(args) != 2:
+        print "setNetworkWeight : Must specify tenant_id and weight"
+        sys.exit()
+    req = { "tenantId" : int(args[0]), "weight" : int(args[1]) }
+    reply = connect(gopts, "tenant", "setNetworkWeight", data=req, passwd=getPasswd(gopts))
+
+    tenantId = reply.get('tenantId')
+    weight = reply.get('weight')
+    if tenantId and weight:
+        print "Scheduling weight %s has been set for virtual network (tenant_id %s)" % (weight, tenantId)
+
 def pa_connectHost(args, cmd):
     usage = "%s <tenant_id> <vitual_dpid> <virtual_port> <host_mac>" % USAGE.format(cmd)
     (sdesc, ldesc) = DESCS[cmd]
@@ -422,6 +448,114 @@ def do_getPhysicalFlowtable(gopts, opts, args):
     result = connect(gopts, "status", "getPhysicalFlowtable", data=req, passwd=getPasswd(gopts))
     print json.dumps(result)
 
+def pa_getTenantLatency(args, cmd):
+    usage = "%s [<tenant_id>]" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getTenantLatency(gopts, opts, args):
+    if len(args) > 1:
+        print "getTenantLatency : May specify optional tenant_id"
+        sys.exit()
+    req = {}
+    if len(args) == 1:
+        req["tenantId"] = int(args[0])
+    result = connect(gopts, "status", "getTenantLatency", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getIdUsage(args, cmd):
+    usage = "%s [<tenant_id>]" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getIdUsage(gopts, opts, args):
+    if len(args) > 1:
+        print "getIdUsage : May specify optional tenant_id"
+        sys.exit()
+    req = {}
+    if len(args) == 1:
+        req["tenantId"] = int(args[0])
+    result = connect(gopts, "status", "getIdUsage", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getTeardownProgress(args, cmd):
+    usage = "%s <tenant_id>" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getTeardownProgress(gopts, opts, args):
+    if len(args) != 1:
+        print "getTeardownProgress : Must specify a virtual tenant_id"
+        sys.exit()
+    req = { "tenantId" : int(args[0]) }
+    result = connect(gopts, "status", "getTeardownProgress", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getRestoreProgress(args, cmd):
+    usage = "%s [<tenant_id>]" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getRestoreProgress(gopts, opts, args):
+    if len(args) > 1:
+        print "getRestoreProgress : May specify optional tenant_id"
+        sys.exit()
+    req = {}
+    if len(args) == 1:
+        req["tenantId"] = int(args[0])
+    result = connect(gopts, "status", "getRestoreProgress", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getPortRates(args, cmd):
+    usage = "%s <physical_dpid> [<physical_port>]" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getPortRates(gopts, opts, args):
+    if len(args) not in (1, 2):
+        print "getPortRates : Must specify a physical dpid, and may specify a physical port"
+        sys.exit()
+    req = { "dpid" : int(args[0].replace(":", ""), 16) }
+    if len(args) == 2:
+        req["port"] = int(args[1])
+    result = connect(gopts, "status", "getPortRates", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getVirtualPortRates(args, cmd):
+    usage = "%s <tenant_id> <virtual_dpid> [<virtual_port>]" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getVirtualPortRates(gopts, opts, args):
+    if len(args) not in (2, 3):
+        print "getVirtualPortRates : Must specify a tenant_id and a virtual dpid, and may specify a virtual port"
+        sys.exit()
+    req = { "tenantId" : int(args[0]), "vdpid" : int(args[1].replace(":", ""), 16) }
+    if len(args) == 3:
+        req["vport"] = int(args[2])
+    result = connect(gopts, "status", "getVirtualPortRates", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
+def pa_getTenantRates(args, cmd):
+    usage = "%s <tenant_id>" % USAGE.format(cmd)
+    (sdesc, ldesc) = DESCS[cmd]
+    parser = OptionParser(usage=usage, description=ldesc)
+    return parser.parse_args(args)
+
+def do_getTenantRates(gopts, opts, args):
+    if len(args) != 1:
+        print "getTenantRates : Must specify a virtual tenant_id"
+        sys.exit()
+    req = { "tenantId" : int(args[0]) }
+    result = connect(gopts, "status", "getTenantRates", data=req, passwd=getPasswd(gopts))
+    print json.dumps(result)
+
 def pa_getPhysicalHosts(args, cmd):
     usage = "%s" % USAGE.format(cmd)
     (sdesc, ldesc) = DESCS[cmd]
@@ -642,6 +776,7 @@ CMDS = {
     'connectLink': (pa_connectLink, do_connectLink),
     'setLinkPath': (pa_setLinkPath, do_setLinkPath),
     'connectRoute': (pa_connectRoute, do_connectRoute),
+    'setNetworkWeight': (pa_setNetworkWeight, do_setNetworkWeight),
     
     'removeNetwork': (pa_removeNetwork, do_removeNetwork),
     'removeSwitch': (pa_removeSwitch, do_removeSwitch),
@@ -660,6 +795,13 @@ CMDS = {
     'getPhysicalFlowtable': (pa_getPhysicalFlowtable, do_getPhysicalFlowtable),
     'getPhysicalHosts': (pa_getPhysicalHosts, do_getPhysicalHosts),
     'getPhysicalTopology': (pa_getPhysicalTopology, do_getPhysicalTopology),
+    'getTenantLatency': (pa_getTenantLatency, do_getTenantLatency),
+    'getIdUsage': (pa_getIdUsage, do_getIdUsage),
+    'getTeardownProgress': (pa_getTeardownProgress, do_getTeardownProgress),
+    'getRestoreProgress': (pa_getRestoreProgress, do_getRestoreProgress),
+    'getPortRates': (pa_getPortRates, do_getPortRates),
+    'getVirtualPortRates': (pa_getVirtualPortRates, do_getVirtualPortRates),
+    'getTenantRates': (pa_getTenantRates, do_getTenantRates),
     'listVirtualNetworks': (pa_listVirtualNetworks, do_listVirtualNetworks),
 
     'getVirtualAddressMapping': (pa_getVirtualAddressMapping, do_getVirtualAddressMapping),
@@ -705,6 +847,9 @@ DESCS = {
                        "a virtual dst_port_id, a physical path and a priority (0-255)."
                         "\nExample: connectRoute 1 00:a4:23:05:00:00:00:01 1 2 00:00:00:00:00:00:00:01/1-00:00:00:00:00:00:00:02/1,"
                         "00:00:00:00:00:00:00:2/2-00:00:00:00:00:00:00:3/1 128")),           
+    'setNetworkWeight' : ("Set the scheduling weight of a virtual network",
+                      ("Set the weight with which the control messages of a virtual network are scheduled. Must specify a tenant_id and a positive weight."
+                        "\nExample: setNetworkWeight 1 4")),
                   
     'removeNetwork' : ("Remove a virtual network",
                      ("Remove a virtual network. Must specify a tenant_id."
@@ -754,6 +899,27 @@ DESCS = {
     'getPhysicalTopology': ("Get the physical topology",
                             ("Get the physical topology."
                             "\nExample: getPhysicalTopology")),
+    'getTenantLatency': ("Get the message dispatch latency of virtual networks",
+                         ("Get the message dispatch latency percentiles (in microseconds) and scheduling weight of a virtual network or all virtual networks. Specify optional tenant_id."
+                         "\nExample: getTenantLatency 1")),
+    'getIdUsage': ("Get the occupancy of the ID spaces",
+                   ("Get the used IDs and capacity of the switch, link, host, IP and flow ID spaces of a virtual network, or of the tenant ID space if no tenant_id is given."
+                   "\nExample: getIdUsage 1")),
+    'getTeardownProgress': ("Get the progress of the removal of a virtual network",
+                            ("Get the stage, the physical switches cleaned up and the flows deleted so far by the removal of a virtual network. Must specify a tenant_id."
+                            "\nExample: getTeardownProgress 1")),
+    'getRestoreProgress': ("Get the progress of restoring virtual networks after a restart",
+                           ("Get the state, the restore steps done and the physical switches, links and ports still offline of a virtual network restored from the database, or a summary of all of them if no tenant_id is given."
+                           "\nExample: getRestoreProgress 1")),
+    'getPortRates': ("Get the traffic rates of physical ports",
+                     ("Get the byte and packet rates (latest, mean, percentiles and maximum per second) of the ports of a physical switch over the last hour. Must specify a dpid, may specify a port."
+                     "\nExample: getPortRates 00:00:00:00:00:00:00:01 1")),
+    'getVirtualPortRates': ("Get the traffic rates of virtual ports",
+                            ("Get the byte and packet rates of the ports of a virtual switch over the last hour, as seen on the physical ports they map to. Must specify a tenant_id and a virtual dpid, may specify a virtual port."
+                            "\nExample: getVirtualPortRates 1 00:a4:23:05:00:00:00:01 1")),
+    'getTenantRates': ("Get the traffic rates of a virtual network",
+                       ("Get the byte and packet rates matched by the flows of a virtual network over the last hour, per physical switch. Must specify a tenant_id."
+                       "\nExample: getTenantRates 1")),
     'listVirtualNetworks': ("Get a list of all virtual network tenant ID's",
                             ("Get a list of all virtual network tenant ID's."
                             "\nExample: listVirtualNetworks")),